@@ -0,0 +1,242 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.action;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Output of an action, encoded in UTF-8. Remembers how much of the output
+ * has been reported, so only the new part is decoded for the next report.
+ *
+ * <p>The output is kept in chunks taken from the pool when written, up to
+ * the in-memory limit of the pool. The rest goes to a spill file. All of
+ * them are given back by {@link #release()}.
+ */
+class ActionOutputBuffer extends OutputStream {
+  static final Logger LOG = LoggerFactory.getLogger(ActionOutputBuffer.class);
+  // Max bytes decoded for one report, the rest is left for the next ones
+  static final int MAX_REPORT_BYTES = 1024 * 1024;
+
+  private final ActionOutputPool pool;
+  private final long memoryLimit;
+  private final List<byte[]> chunks = new ArrayList<>(0);
+  private long count = 0;
+  private File spillFile;
+  private RandomAccessFile spill;
+  private long reportedBytes = 0;
+  private int reportedChars = 0;
+  // Output is dropped after released or failed to spill
+  private boolean closed = false;
+
+  ActionOutputBuffer(ActionOutputPool pool) {
+    this.pool = pool;
+    this.memoryLimit = (long) pool.getMaxChunksPerOutput() * ActionOutputPool.CHUNK_SIZE;
+  }
+
+  @Override
+  public synchronized void write(int b) throws IOException {
+    write(new byte[] {(byte) b}, 0, 1);
+  }
+
+  @Override
+  public synchronized void write(byte[] b, int off, int len) throws IOException {
+    if (closed) {
+      return;
+    }
+    while (len > 0 && count < memoryLimit) {
+      int index = (int) (count / ActionOutputPool.CHUNK_SIZE);
+      int pos = (int) (count % ActionOutputPool.CHUNK_SIZE);
+      if (index == chunks.size()) {
+        chunks.add(pool.allocate());
+      }
+      int n = Math.min(len, ActionOutputPool.CHUNK_SIZE - pos);
+      System.arraycopy(b, off, chunks.get(index), pos, n);
+      count += n;
+      off += n;
+      len -= n;
+    }
+    if (len > 0) {
+      try {
+        if (spill == null) {
+          spillFile = File.createTempFile("action-output-", ".spill", pool.getSpillDir());
+          spill = new RandomAccessFile(spillFile, "rw");
+        }
+        spill.seek(count - memoryLimit);
+        spill.write(b, off, len);
+        count += len;
+        pool.addSpilledBytes(len);
+      } catch (IOException e) {
+        LOG.warn("Failed to spill action output, the rest is dropped", e);
+        dropSpill();
+        closed = true;
+      }
+    }
+  }
+
+  synchronized long size() {
+    return count;
+  }
+
+  /**
+   * Get the number of chars reported so far, which is the offset of the
+   * next part to report.
+   */
+  synchronized int getReportedChars() {
+    return reportedChars;
+  }
+
+  synchronized boolean isAllReported() {
+    return reportedBytes == count;
+  }
+
+  /**
+   * Take the output not reported yet, at most {@link #MAX_REPORT_BYTES}.
+   * A char being written is left for the next time, unless the output is
+   * complete.
+   *
+   * @param complete no more output will be written
+   */
+  synchronized String takeUnreported(boolean complete) {
+    long end = Math.min(count, reportedBytes + MAX_REPORT_BYTES);
+    byte[] bytes = read(reportedBytes, (int) (end - reportedBytes));
+    if (bytes == null) {
+      return "";
+    }
+    int length = bytes.length;
+    if (!complete || end < count) {
+      // Find the start of the last char and check if it is complete
+      int last = length - 1;
+      while (last >= 0 && last > length - 4 && (bytes[last] & 0xC0) == 0x80) {
+        last--;
+      }
+      if (last >= 0 && last + charLength(bytes[last]) > length) {
+        length = last;
+      }
+    }
+    if (length == 0) {
+      return "";
+    }
+    String output = new String(bytes, 0, length, StandardCharsets.UTF_8);
+    reportedBytes += length;
+    reportedChars += output.length();
+    return output;
+  }
+
+  /**
+   * Get the whole output.
+   */
+  public synchronized String toString(String charsetName)
+      throws UnsupportedEncodingException {
+    byte[] bytes = read(0, (int) Math.min(count, Integer.MAX_VALUE - 8));
+    return bytes == null ? "" : new String(bytes, charsetName);
+  }
+
+  @Override
+  public synchronized String toString() {
+    byte[] bytes = read(0, (int) Math.min(count, Integer.MAX_VALUE - 8));
+    return bytes == null ? "" : new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Give back the chunks and delete the spill file. The output is dropped.
+   */
+  synchronized void release() {
+    closed = true;
+    dropSpill();
+    for (byte[] chunk : chunks) {
+      pool.free(chunk);
+    }
+    chunks.clear();
+    count = 0;
+    reportedBytes = 0;
+  }
+
+  /**
+   * Read the output in [from, from + length), null if failed.
+   */
+  private byte[] read(long from, int length) {
+    byte[] bytes = new byte[length];
+    int copied = 0;
+    while (copied < length && from + copied < memoryLimit) {
+      long pos = from + copied;
+      int index = (int) (pos / ActionOutputPool.CHUNK_SIZE);
+      int offset = (int) (pos % ActionOutputPool.CHUNK_SIZE);
+      int n = Math.min(length - copied, ActionOutputPool.CHUNK_SIZE - offset);
+      System.arraycopy(chunks.get(index), offset, bytes, copied, n);
+      copied += n;
+    }
+    if (copied < length) {
+      try {
+        spill.seek(from + copied - memoryLimit);
+        spill.readFully(bytes, copied, length - copied);
+      } catch (IOException e) {
+        LOG.warn("Failed to read spilled action output, the rest is dropped", e);
+        dropSpill();
+        closed = true;
+        return null;
+      }
+    }
+    return bytes;
+  }
+
+  // Delete the spill file, the output is truncated to the in-memory part
+  private void dropSpill() {
+    if (spillFile == null) {
+      return;
+    }
+    if (spill != null) {
+      try {
+        spill.close();
+      } catch (IOException e) {
+        LOG.warn("Failed to close spill file " + spillFile, e);
+      }
+    }
+    if (!spillFile.delete()) {
+      LOG.warn("Failed to delete spill file " + spillFile);
+    }
+    pool.addSpilledBytes(-Math.max(0, count - memoryLimit));
+    spill = null;
+    spillFile = null;
+    count = Math.min(count, memoryLimit);
+    reportedBytes = Math.min(reportedBytes, count);
+  }
+
+  private static int charLength(byte lead) {
+    if ((lead & 0x80) == 0) {
+      return 1;
+    } else if ((lead & 0xE0) == 0xC0) {
+      return 2;
+    } else if ((lead & 0xF0) == 0xE0) {
+      return 3;
+    } else if ((lead & 0xF8) == 0xF0) {
+      return 4;
+    }
+    // Not a valid lead byte, decoded as a replacement char
+    return 1;
+  }
+}
@@ -0,0 +1,135 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.action;
+
+import org.apache.hadoop.conf.Configuration;
+import org.smartdata.conf.SmartConfKeys;
+
+import java.io.File;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of the fixed size chunks holding the result and log of actions.
+ * Chunks are only taken when an action writes output, and given back when
+ * its final status is reported, so the idle ones are reused by the next
+ * actions instead of being garbage. Also keeps the memory and disk used by
+ * the output of the actions on this agent.
+ */
+public class ActionOutputPool {
+  public static final int CHUNK_SIZE = 4 * 1024;
+
+  private static final ActionOutputPool INSTANCE = new ActionOutputPool(
+      SmartConfKeys.SMART_ACTION_OUTPUT_POOL_MAX_KB_DEFAULT * 1024L,
+      SmartConfKeys.SMART_ACTION_OUTPUT_MEMORY_MAX_KB_DEFAULT * 1024L, null);
+
+  private final ConcurrentLinkedQueue<byte[]> freeChunks = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger freeNum = new AtomicInteger(0);
+  private final AtomicLong usedBytes = new AtomicLong(0);
+  private final AtomicLong spilledBytes = new AtomicLong(0);
+  private volatile int maxFreeNum;
+  private volatile int maxChunksPerOutput;
+  private volatile File spillDir;
+
+  ActionOutputPool(long maxPooledBytes, long maxMemoryPerOutput, File spillDir) {
+    setLimits(maxPooledBytes, maxMemoryPerOutput, spillDir);
+  }
+
+  public static ActionOutputPool get() {
+    return INSTANCE;
+  }
+
+  /**
+   * Update the limits of the pool, the outputs created before keep their
+   * in-memory size limit.
+   */
+  public void configure(Configuration conf) {
+    String dir = conf.getTrimmed(SmartConfKeys.SMART_ACTION_OUTPUT_SPILL_DIR_KEY, "");
+    setLimits(
+        conf.getLong(SmartConfKeys.SMART_ACTION_OUTPUT_POOL_MAX_KB_KEY,
+            SmartConfKeys.SMART_ACTION_OUTPUT_POOL_MAX_KB_DEFAULT) * 1024L,
+        conf.getLong(SmartConfKeys.SMART_ACTION_OUTPUT_MEMORY_MAX_KB_KEY,
+            SmartConfKeys.SMART_ACTION_OUTPUT_MEMORY_MAX_KB_DEFAULT) * 1024L,
+        dir.isEmpty() ? null : new File(dir));
+  }
+
+  private void setLimits(long maxPooledBytes, long maxMemoryPerOutput, File spillDir) {
+    this.maxFreeNum = (int) Math.min(Integer.MAX_VALUE, maxPooledBytes / CHUNK_SIZE);
+    // At least one chunk in memory, so short outputs never touch the disk
+    this.maxChunksPerOutput = (int) Math.max(1,
+        Math.min(Integer.MAX_VALUE / CHUNK_SIZE, maxMemoryPerOutput / CHUNK_SIZE));
+    this.spillDir = spillDir;
+  }
+
+  int getMaxChunksPerOutput() {
+    return maxChunksPerOutput;
+  }
+
+  /**
+   * Get the directory of the spill files, null for the system temp directory.
+   */
+  File getSpillDir() {
+    return spillDir;
+  }
+
+  byte[] allocate() {
+    usedBytes.addAndGet(CHUNK_SIZE);
+    byte[] chunk = freeChunks.poll();
+    if (chunk != null) {
+      freeNum.decrementAndGet();
+      return chunk;
+    }
+    return new byte[CHUNK_SIZE];
+  }
+
+  void free(byte[] chunk) {
+    usedBytes.addAndGet(-CHUNK_SIZE);
+    if (freeNum.incrementAndGet() <= maxFreeNum) {
+      freeChunks.offer(chunk);
+    } else {
+      freeNum.decrementAndGet();
+    }
+  }
+
+  void addSpilledBytes(long bytes) {
+    spilledBytes.addAndGet(bytes);
+  }
+
+  /**
+   * Get the memory in bytes holding the output of the actions not finished
+   * reporting.
+   */
+  public long getUsedBytes() {
+    return usedBytes.get();
+  }
+
+  /**
+   * Get the memory in bytes of the idle chunks kept for reuse.
+   */
+  public long getPooledBytes() {
+    return (long) freeNum.get() * CHUNK_SIZE;
+  }
+
+  /**
+   * Get the size in bytes of the output spilled to disk and not released yet.
+   */
+  public long getSpilledBytes() {
+    return spilledBytes.get();
+  }
+}
@@ -18,15 +18,16 @@
 package org.smartdata.action;
 
 import com.google.common.annotations.VisibleForTesting;
-import org.apache.commons.io.output.ByteArrayOutputStream;
 import org.apache.commons.lang.exception.ExceptionUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.smartdata.SmartContext;
 import org.smartdata.protocol.message.ActionStatus;
 
+import java.io.IOException;
 import java.io.PrintStream;
 import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
 import java.util.Map;
 
 /**
@@ -40,9 +41,9 @@ public abstract class SmartAction {
   private long actionId;
   private Map<String, String> actionArgs;
   private SmartContext context;
-  private ByteArrayOutputStream resultOs;
+  private ActionOutputBuffer resultOs;
   private PrintStream psResultOs;
-  private ByteArrayOutputStream logOs;
+  private ActionOutputBuffer logOs;
   private PrintStream psLogOs;
   private volatile boolean successful;
   protected String name;
@@ -53,11 +54,9 @@ public abstract class SmartAction {
 
   public SmartAction() {
     this.successful = false;
-    //Todo: extract the print stream out of this class
-    this.resultOs = new ByteArrayOutputStream(64 * 1024);
-    this.psResultOs = new PrintStream(resultOs, false);
-    this.logOs = new ByteArrayOutputStream(64 * 1024);
-    this.psLogOs = new PrintStream(logOs, false);
+    // Memory is only taken from the pool when output is written
+    this.resultOs = new ActionOutputBuffer(ActionOutputPool.get());
+    this.logOs = new ActionOutputBuffer(ActionOutputPool.get());
   }
 
   public String getName() {
@@ -137,21 +136,44 @@ private void setFinishTime() {
   }
 
   protected void appendResult(String result) {
-    psResultOs.println(result);
+    appendLine(resultOs, result);
   }
 
   protected void appendLog(String log) {
-    psLogOs.println(log);
+    appendLine(logOs, log);
   }
 
-  public PrintStream getResultOs() {
+  private void appendLine(ActionOutputBuffer os, String line) {
+    try {
+      os.write((line + System.lineSeparator()).getBytes(StandardCharsets.UTF_8));
+    } catch (IOException e) {
+      LOG.warn("Failed to append output of action " + actionId, e);
+    }
+  }
+
+  public synchronized PrintStream getResultOs() {
+    if (psResultOs == null) {
+      psResultOs = newPrintStream(resultOs);
+    }
     return psResultOs;
   }
 
-  public PrintStream getLogOs() {
+  public synchronized PrintStream getLogOs() {
+    if (psLogOs == null) {
+      psLogOs = newPrintStream(logOs);
+    }
     return psLogOs;
   }
 
+  private static PrintStream newPrintStream(ActionOutputBuffer os) {
+    try {
+      // Encoded the same as decoded for reporting
+      return new PrintStream(os, false, "UTF-8");
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
   public float getProgress() {
     if (successful) {
       return 1.0F;
@@ -171,9 +193,41 @@ public ActionStatus getActionStatus() throws UnsupportedEncodingException {
         finished);
   }
 
-  private void stop() {
-    psLogOs.close();
-    psResultOs.close();
+  /**
+   * Get the status with only the result and log appended since the last
+   * call, for reporting the status periodically.
+   */
+  public synchronized ActionStatus getActionStatusDelta() {
+    boolean complete = finished;
+    int resultOffset = resultOs.getReportedChars();
+    String result = resultOs.takeUnreported(complete);
+    int logOffset = logOs.getReportedChars();
+    String log = logOs.takeUnreported(complete);
+    // Not reported finished until all the output is taken
+    boolean isFinished = complete && resultOs.isAllReported() && logOs.isAllReported();
+    ActionStatus status = new ActionStatus(actionId, getProgress(), result, log,
+        startTime, finishTime, throwable, isFinished);
+    status.setResultOffset(resultOffset);
+    status.setLogOffset(logOffset);
+    return status;
+  }
+
+  /**
+   * Give back the memory and disk holding the output, called after the
+   * action is reported finished. The output is no longer available.
+   */
+  public synchronized void releaseOutput() {
+    resultOs.release();
+    logOs.release();
+  }
+
+  private synchronized void stop() {
+    if (psLogOs != null) {
+      psLogOs.close();
+    }
+    if (psResultOs != null) {
+      psResultOs.close();
+    }
   }
 
   public boolean isSuccessful() {
@@ -0,0 +1,88 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.action;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+public class TestActionOutputBuffer {
+
+  @Test
+  public void testLazyChunks() throws Exception {
+    ActionOutputPool pool = new ActionOutputPool(ActionOutputPool.CHUNK_SIZE, 1 << 20, null);
+    ActionOutputBuffer buffer = new ActionOutputBuffer(pool);
+    Assert.assertEquals(0, pool.getUsedBytes());
+    Assert.assertEquals("", buffer.takeUnreported(false));
+
+    buffer.write("hello\n".getBytes(StandardCharsets.UTF_8));
+    Assert.assertEquals(ActionOutputPool.CHUNK_SIZE, pool.getUsedBytes());
+    Assert.assertEquals("hello\n", buffer.takeUnreported(false));
+    Assert.assertEquals(6, buffer.getReportedChars());
+
+    // A char across two chunks is left until complete
+    byte[] padding = new byte[ActionOutputPool.CHUNK_SIZE - 7];
+    for (int i = 0; i < padding.length; i++) {
+      padding[i] = 'a';
+    }
+    buffer.write(padding);
+    byte[] han = "\u4e2d".getBytes(StandardCharsets.UTF_8);
+    buffer.write(han, 0, 2);
+    Assert.assertEquals(padding.length, buffer.takeUnreported(false).length());
+    buffer.write(han, 2, 1);
+    Assert.assertEquals(2 * ActionOutputPool.CHUNK_SIZE, pool.getUsedBytes());
+    Assert.assertEquals("\u4e2d", buffer.takeUnreported(false));
+    Assert.assertTrue(buffer.isAllReported());
+
+    // Chunks are reused after released, at most the pool size kept
+    buffer.release();
+    Assert.assertEquals(0, pool.getUsedBytes());
+    Assert.assertEquals(ActionOutputPool.CHUNK_SIZE, pool.getPooledBytes());
+    buffer.write(padding);
+    Assert.assertEquals(0, buffer.size());
+  }
+
+  @Test
+  public void testSpill() throws Exception {
+    ActionOutputPool pool = new ActionOutputPool(0, ActionOutputPool.CHUNK_SIZE, null);
+    ActionOutputBuffer buffer = new ActionOutputBuffer(pool);
+    StringBuilder expected = new StringBuilder();
+    for (int i = 0; i < 1000; i++) {
+      String line = "line " + i + " \u00e9\n";
+      buffer.write(line.getBytes(StandardCharsets.UTF_8));
+      expected.append(line);
+    }
+    Assert.assertEquals(ActionOutputPool.CHUNK_SIZE, pool.getUsedBytes());
+    Assert.assertEquals(buffer.size() - ActionOutputPool.CHUNK_SIZE, pool.getSpilledBytes());
+    Assert.assertEquals(expected.toString(), buffer.toString("UTF-8"));
+
+    // Unfinished char at the end is decoded once complete
+    buffer.write(new byte[] {(byte) 0xC3});
+    String reported = buffer.takeUnreported(false);
+    Assert.assertEquals(expected.toString(), reported);
+    Assert.assertFalse(buffer.isAllReported());
+    Assert.assertEquals("\ufffd", buffer.takeUnreported(true));
+    Assert.assertTrue(buffer.isAllReported());
+
+    buffer.release();
+    Assert.assertEquals(0, pool.getSpilledBytes());
+    Assert.assertEquals(0, pool.getUsedBytes());
+    Assert.assertEquals(0, pool.getPooledBytes());
+  }
+}
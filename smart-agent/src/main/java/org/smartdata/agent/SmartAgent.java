@@ -64,6 +64,7 @@
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
+import scala.concurrent.Await;
 import scala.concurrent.duration.Duration;
 import scala.concurrent.duration.FiniteDuration;
 
@@ -165,7 +166,13 @@ public void close() {
 
   @Override
   public void report(StatusMessage status) {
-    Patterns.ask(agentActor, status, Timeout.apply(5, TimeUnit.SECONDS));
+    Timeout timeout = Timeout.apply(5, TimeUnit.SECONDS);
+    try {
+      // Acknowledged once the master has applied it
+      Await.result(Patterns.ask(agentActor, status, timeout), timeout.duration());
+    } catch (Exception e) {
+      throw new IllegalStateException("Status not acknowledged by master", e);
+    }
   }
 
   private String getAgentName() {
@@ -297,8 +304,8 @@ public void apply(Object message) throws Exception {
             LOG.error(e.getMessage());
           }
         } else if (message instanceof StatusMessage) {
-          master.tell(message, getSelf());
-          getSender().tell("status reported", getSelf());
+          Patterns.pipe(Patterns.ask(master, message, new Timeout(TIMEOUT)),
+              getContext().dispatcher()).to(getSender());
         } else if (message instanceof ReadyToLaunchTikv) {
           String masterHost = master.path().address().host().get();
           boolean launched = launchTikv(masterHost);
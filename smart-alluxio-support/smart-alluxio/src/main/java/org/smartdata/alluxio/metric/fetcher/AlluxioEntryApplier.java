@@ -61,6 +61,10 @@ public void apply(JournalEntry entry) throws IOException, MetaStoreException {
       }
     }
     this.metaStore.execute(statements);
+    if (entry.hasRename() || entry.hasDeleteFile()) {
+      // Entries only carry the file id, drop cached paths changed by them
+      this.metaStore.getFileIdCache().clear();
+    }
   }
 
   private List<String> processEntryToSql(JournalEntry entry) throws IOException, MetaStoreException {
@@ -0,0 +1,236 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.client;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.smartdata.metrics.FileAccessEvent;
+import org.smartdata.protocol.SmartClientProtocol;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Buffers file access events on client side and reports them to SmartServer
+ * in batches from a background thread. Accesses of the same file by the same
+ * user are coalesced into one event with a count. The buffer never blocks
+ * the caller: when it is full, e.g. SmartServer responds slowly, events of
+ * files not buffered yet are dropped and counted.
+ */
+public class FileAccessEventBuffer implements java.io.Closeable {
+  public static final Logger LOG =
+      LoggerFactory.getLogger(FileAccessEventBuffer.class);
+
+  // Set by the reporter thread on a counter taken out of the buffer
+  private static final int SEALED = Integer.MIN_VALUE;
+
+  private final SmartClientProtocol server;
+  private final int batchSize;
+  private final int capacity;
+  private final long intervalMs;
+  private final ConcurrentHashMap<EventKey, AtomicInteger> events;
+  private final AtomicInteger size = new AtomicInteger(0);
+  private final AtomicLong reportedEvents = new AtomicLong(0);
+  private final AtomicLong droppedEvents = new AtomicLong(0);
+  private final Thread reporter;
+  private volatile boolean running = true;
+  private long lastLoggedDropped = 0;
+
+  public FileAccessEventBuffer(SmartClientProtocol server, int batchSize,
+      int capacity, long intervalMs) {
+    this.server = server;
+    this.batchSize = Math.max(1, batchSize);
+    this.capacity = Math.max(this.batchSize, capacity);
+    this.intervalMs = intervalMs;
+    this.events = new ConcurrentHashMap<>(this.batchSize * 2);
+    this.reporter = new Thread(new Reporter(), "SmartClient-AccessEventReporter");
+    this.reporter.setDaemon(true);
+    this.reporter.start();
+  }
+
+  /**
+   * Buffer the event.
+   * @param event the access event
+   * @return false if the event is dropped
+   */
+  public boolean add(FileAccessEvent event) {
+    if (!running) {
+      droppedEvents.addAndGet(event.getCount());
+      return false;
+    }
+    EventKey key = new EventKey(event.getPath(), event.getAccessedBy());
+    while (true) {
+      AtomicInteger counter = events.get(key);
+      if (counter == null) {
+        if (size.get() >= capacity) {
+          droppedEvents.addAndGet(event.getCount());
+          return false;
+        }
+        counter = new AtomicInteger(event.getCount());
+        AtomicInteger old = events.putIfAbsent(key, counter);
+        if (old == null) {
+          if (size.incrementAndGet() >= batchSize) {
+            LockSupport.unpark(reporter);
+          }
+          return true;
+        }
+        counter = old;
+      }
+      if (increase(counter, event.getCount())) {
+        return true;
+      }
+      // The counter is being reported, help removing it and retry
+      if (events.remove(key, counter)) {
+        size.decrementAndGet();
+      }
+    }
+  }
+
+  private static boolean increase(AtomicInteger counter, int delta) {
+    while (true) {
+      int current = counter.get();
+      if (current == SEALED) {
+        return false;
+      }
+      if (counter.compareAndSet(current, current + delta)) {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Report all the buffered events. Only called by the reporter thread.
+   */
+  private void flush() {
+    List<FileAccessEvent> batch = new ArrayList<>();
+    for (Map.Entry<EventKey, AtomicInteger> entry : events.entrySet()) {
+      int count = entry.getValue().getAndSet(SEALED);
+      if (events.remove(entry.getKey(), entry.getValue())) {
+        size.decrementAndGet();
+      }
+      if (count != SEALED && count > 0) {
+        EventKey key = entry.getKey();
+        batch.add(new FileAccessEvent(key.path, key.user, count));
+        if (batch.size() >= batchSize) {
+          report(batch);
+          batch = new ArrayList<>();
+        }
+      }
+    }
+    if (!batch.isEmpty()) {
+      report(batch);
+    }
+    long dropped = droppedEvents.get();
+    if (dropped != lastLoggedDropped) {
+      LOG.warn("{} file access events dropped in total as the buffer is full.", dropped);
+      lastLoggedDropped = dropped;
+    }
+  }
+
+  private void report(List<FileAccessEvent> batch) {
+    long total = 0;
+    for (FileAccessEvent event : batch) {
+      total += event.getCount();
+    }
+    try {
+      server.reportFileAccessEvents(batch);
+      reportedEvents.addAndGet(total);
+    } catch (IOException e) {
+      droppedEvents.addAndGet(total);
+      LOG.debug("Report {} file access events error", batch.size(), e);
+    }
+  }
+
+  public long getReportedEvents() {
+    return reportedEvents.get();
+  }
+
+  public long getDroppedEvents() {
+    return droppedEvents.get();
+  }
+
+  public int size() {
+    return size.get();
+  }
+
+  /**
+   * Stop the reporter thread after reporting the buffered events.
+   */
+  @Override
+  public void close() {
+    if (running) {
+      running = false;
+      LockSupport.unpark(reporter);
+      try {
+        reporter.join(intervalMs * 2);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  private class Reporter implements Runnable {
+    @Override
+    public void run() {
+      long intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMs);
+      while (running) {
+        LockSupport.parkNanos(this, intervalNanos);
+        try {
+          flush();
+        } catch (Throwable t) {
+          LOG.error("Report file access events error", t);
+        }
+      }
+      flush();
+    }
+  }
+
+  private static class EventKey {
+    private final String path;
+    private final String user;
+
+    EventKey(String path, String user) {
+      this.path = path;
+      this.user = user == null ? "" : user;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof EventKey)) {
+        return false;
+      }
+      EventKey other = (EventKey) o;
+      return path.equals(other.path) && user.equals(other.user);
+    }
+
+    @Override
+    public int hashCode() {
+      return path.hashCode() * 31 + user.hashCode();
+    }
+  }
+}
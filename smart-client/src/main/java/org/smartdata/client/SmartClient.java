@@ -44,6 +44,7 @@ public class SmartClient implements java.io.Closeable, SmartClientProtocol {
   private volatile boolean running = true;
   private List<String> ignoreAccessEventDirs;
   private Map<String, Integer> singleIgnoreList;
+  private FileAccessEventBuffer eventBuffer;
 
   public SmartClient(Configuration conf) throws IOException {
     this.conf = conf;
@@ -85,6 +86,16 @@ private void initialize(InetSocketAddress address) throws IOException {
     for (String s : dirs) {
       ignoreAccessEventDirs.add(s + (s.endsWith("/") ? "" : "/"));
     }
+    if (conf.getBoolean(SmartConfKeys.SMART_CLIENT_ACCESS_EVENT_BATCH_ENABLED_KEY,
+        SmartConfKeys.SMART_CLIENT_ACCESS_EVENT_BATCH_ENABLED_DEFAULT)) {
+      eventBuffer = new FileAccessEventBuffer(server,
+          conf.getInt(SmartConfKeys.SMART_CLIENT_ACCESS_EVENT_BATCH_SIZE_KEY,
+              SmartConfKeys.SMART_CLIENT_ACCESS_EVENT_BATCH_SIZE_DEFAULT),
+          conf.getInt(SmartConfKeys.SMART_CLIENT_ACCESS_EVENT_BUFFER_CAPACITY_KEY,
+              SmartConfKeys.SMART_CLIENT_ACCESS_EVENT_BUFFER_CAPACITY_DEFAULT),
+          conf.getLong(SmartConfKeys.SMART_CLIENT_ACCESS_EVENT_BATCH_INTERVAL_MS_KEY,
+              SmartConfKeys.SMART_CLIENT_ACCESS_EVENT_BATCH_INTERVAL_MS_DEFAULT));
+    }
   }
 
   private void checkOpen() throws IOException {
@@ -98,10 +109,37 @@ public void reportFileAccessEvent(FileAccessEvent event)
       throws IOException {
     if (!shouldIgnore(event.getPath())) {
       checkOpen();
-      server.reportFileAccessEvent(event);
+      if (eventBuffer != null) {
+        eventBuffer.add(event);
+      } else {
+        server.reportFileAccessEvent(event);
+      }
     }
   }
 
+  @Override
+  public void reportFileAccessEvents(List<FileAccessEvent> events)
+      throws IOException {
+    List<FileAccessEvent> toReport = new ArrayList<>(events.size());
+    for (FileAccessEvent event : events) {
+      if (!shouldIgnore(event.getPath())) {
+        toReport.add(event);
+      }
+    }
+    if (!toReport.isEmpty()) {
+      checkOpen();
+      server.reportFileAccessEvents(toReport);
+    }
+  }
+
+  /**
+   * Get the buffer of access events if reported in batches.
+   * @return null if batch reporting is disabled
+   */
+  public FileAccessEventBuffer getAccessEventBuffer() {
+    return eventBuffer;
+  }
+
   @Override
   public FileState getFileState(String filePath) throws IOException {
     checkOpen();
@@ -134,6 +172,9 @@ private boolean shouldIgnore(String path) {
   public void close() {
     if (running) {
       running = false;
+      if (eventBuffer != null) {
+        eventBuffer.close();
+      }
       RPC.stopProxy(server);
       server = null;
     }
@@ -28,11 +28,16 @@ public class SmartConstants {
     "org.smartdata.hdfs.scheduler.MoverScheduler, "
         + "org.smartdata.hdfs.scheduler.CopyScheduler, "
         + "org.smartdata.hdfs.scheduler.Copy2S3Scheduler,"
-        + "org.smartdata.hdfs.scheduler.SmallFileScheduler";
+        + "org.smartdata.hdfs.scheduler.SmallFileScheduler,"
+        + "org.smartdata.hdfs.scheduler.CompressionScheduler,"
+        + "org.smartdata.hdfs.scheduler.CacheScheduler";
 
   public static final String SMART_HADOOP_LAST_INOTIFY_TXID =
     "smart_hadoop_last_inotify_txid";
 
+  public static final String SMART_HADOOP_NAMESPACE_FETCH_TXID =
+    "smart_hadoop_namespace_fetch_txid";
+
   public static final String SMART_ALLUXIO_LAST_ENTRY_SN =
       "smart_alluxio_last_entry_sn";
 
@@ -51,4 +56,6 @@ public class SmartConstants {
   public static final String SMART_SERVER_ID_FILE = "/system/ssm.id";
 
   public static final String SMART_FILE_STATE_XATTR_NAME = "user.ssmFileState";
+
+  public static final String SMART_COMPRESSED_FILE_DIR = "/system/ssm/compressed";
 }
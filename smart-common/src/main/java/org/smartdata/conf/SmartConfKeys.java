@@ -48,6 +48,23 @@ public class SmartConfKeys {
   public static final String SMART_NAMESPACE_FETCHER_CONSUMERS_NUM_KEY =
       "smart.namespace.fetcher.consumers.num";
   public static final int SMART_NAMESPACE_FETCHER_CONSUMERS_NUM_DEFAULT = 3;
+  public static final String SMART_NAMESPACE_FETCHER_QUEUE_SIZE_KEY =
+      "smart.namespace.fetcher.queue.size";
+  public static final int SMART_NAMESPACE_FETCHER_QUEUE_SIZE_DEFAULT = 80;
+  // Times to list a directory again after a failure, the fetch fails if exceeded
+  public static final String SMART_NAMESPACE_FETCHER_LIST_RETRIES_KEY =
+      "smart.namespace.fetcher.list.retries";
+  public static final int SMART_NAMESPACE_FETCHER_LIST_RETRIES_DEFAULT = 3;
+  public static final String SMART_NAMESPACE_FETCHER_LIST_RETRY_INTERVAL_MS_KEY =
+      "smart.namespace.fetcher.list.retry.interval.ms";
+  public static final long SMART_NAMESPACE_FETCHER_LIST_RETRY_INTERVAL_MS_DEFAULT = 1000L;
+  // Local copy of NameNode fsimage to load namespace from, fetch by listing if not set
+  public static final String SMART_NAMESPACE_FETCHER_FSIMAGE_KEY =
+      "smart.namespace.fetcher.fsimage";
+  public static final String SMART_INOTIFY_APPLY_THREADS_KEY = "smart.inotify.apply.threads";
+  public static final int SMART_INOTIFY_APPLY_THREADS_DEFAULT = 4;
+  public static final String SMART_INOTIFY_APPLY_BATCH_KEY = "smart.inotify.apply.batch";
+  public static final int SMART_INOTIFY_APPLY_BATCH_DEFAULT = 1000;
 
   // Configure keys for Alluxio
   public static final String SMART_ALLUXIO_MASTER_HOSTNAME_KEY = "smart.alluxio.master.hostname";
@@ -77,6 +94,36 @@ public class SmartConfKeys {
   public static final String SMART_METASTORE_DB_URL_KEY = "smart.metastore.db.url";
 
   // StatesManager
+  public static final String SMART_FILE_ID_CACHE_CAPACITY_KEY =
+      "smart.file.id.cache.capacity";
+  public static final int SMART_FILE_ID_CACHE_CAPACITY_DEFAULT = 200000;
+  public static final String SMART_ACCESS_COUNT_STORE_KEY = "smart.access.count.store";
+  public static final String SMART_ACCESS_COUNT_STORE_DEFAULT = "table";
+  public static final String SMART_ACCESS_COUNT_STORE_FLUSH_INTERVAL_MS_KEY =
+      "smart.access.count.store.flush.interval.ms";
+  public static final long SMART_ACCESS_COUNT_STORE_FLUSH_INTERVAL_MS_DEFAULT = 60 * 1000L;
+  public static final String SMART_CACHE_RECONCILE_INTERVAL_MS_KEY =
+      "smart.cache.reconcile.interval.ms";
+  public static final long SMART_CACHE_RECONCILE_INTERVAL_MS_DEFAULT = 30 * 60 * 1000L;
+
+  // CacheManager
+  public static final String SMART_CACHE_MANAGER_ENABLED_KEY = "smart.cache.manager.enabled";
+  public static final boolean SMART_CACHE_MANAGER_ENABLED_DEFAULT = false;
+  public static final String SMART_CACHE_MANAGER_CAPACITY_KEY = "smart.cache.manager.capacity";
+  public static final long SMART_CACHE_MANAGER_CAPACITY_DEFAULT = 0L;
+  public static final String SMART_CACHE_MANAGER_REPLICA_KEY = "smart.cache.manager.replica";
+  public static final int SMART_CACHE_MANAGER_REPLICA_DEFAULT = 1;
+  public static final String SMART_CACHE_MANAGER_WINDOW_RATIO_KEY =
+      "smart.cache.manager.window.ratio";
+  public static final float SMART_CACHE_MANAGER_WINDOW_RATIO_DEFAULT = 0.01f;
+  public static final String SMART_CACHE_MANAGER_SKETCH_ENTRIES_KEY =
+      "smart.cache.manager.sketch.entries";
+  public static final int SMART_CACHE_MANAGER_SKETCH_ENTRIES_DEFAULT = 100000;
+  public static final String SMART_CACHE_MANAGER_INTERVAL_MS_KEY =
+      "smart.cache.manager.interval.ms";
+  public static final long SMART_CACHE_MANAGER_INTERVAL_MS_DEFAULT = 5000L;
+  public static final String SMART_CACHE_MANAGER_TRACE_FILE_KEY =
+      "smart.cache.manager.trace.file";
 
   // RuleManager
   public static final String SMART_RULE_EXECUTORS_KEY = "smart.rule.executors";
@@ -108,9 +155,21 @@ public class SmartConfKeys {
       "smart.cmdlet.cache.batch";
   public static final int SMART_CMDLET_CACHE_BATCH_DEFAULT =
       600;
+  public static final String SMART_CMDLET_SYNC_INTERVAL_MS_KEY =
+      "smart.cmdlet.sync.interval.ms";
+  public static final long SMART_CMDLET_SYNC_INTERVAL_MS_DEFAULT = 50L;
+  public static final String SMART_CMDLET_JOURNAL_DIR_KEY = "smart.cmdlet.journal.dir";
+  public static final String SMART_CMDLET_JOURNAL_DIR_DEFAULT = "";
   public static final String SMART_CMDLET_MOVER_MAX_CONCURRENT_BLOCKS_PER_SRV_INST_KEY =
       "smart.cmdlet.mover.max.concurrent.blocks.per.srv.inst";
   public static final int SMART_CMDLET_MOVER_MAX_CONCURRENT_BLOCKS_PER_SRV_INST_DEFAULT = 0;
+  public static final String SMART_MOVER_MAX_CONCURRENT_MOVES_PER_DATANODE_KEY =
+      "smart.mover.max.concurrent.moves.per.datanode";
+  public static final int SMART_MOVER_MAX_CONCURRENT_MOVES_PER_DATANODE_DEFAULT = 5;
+  public static final String SMART_MOVER_PLAN_THREADS_KEY = "smart.mover.plan.threads";
+  public static final int SMART_MOVER_PLAN_THREADS_DEFAULT = 4;
+  public static final String SMART_MOVER_PLAN_BATCH_SIZE_KEY = "smart.mover.plan.batch.size";
+  public static final int SMART_MOVER_PLAN_BATCH_SIZE_DEFAULT = 500;
 
   // Schedulers
   public static final String SMART_COPY_SCHEDULER_BASE_SYNC_BATCH =
@@ -132,6 +191,13 @@ public class SmartConfKeys {
   public static final boolean SMART_CMDLET_DISPATCHER_LOG_DISP_RESULT_DEFAULT = true;
   public static final String SMART_CMDLET_DISPATCHERS_KEY = "smart.cmdlet.dispatchers";
   public static final int SMART_CMDLET_DISPATCHERS_DEFAULT = 3;
+  public static final String SMART_CMDLET_SCHEDULER_SHARDS_KEY =
+      "smart.cmdlet.scheduler.shards";
+  public static final int SMART_CMDLET_SCHEDULER_SHARDS_DEFAULT = 4;
+  public static final String SMART_CMDLET_SCHEDULE_POLICY_KEY =
+      "smart.cmdlet.schedule.policy";
+  public static final String SMART_CMDLET_SCHEDULE_POLICY_DEFAULT =
+      "org.smartdata.server.engine.cmdlet.FairShareSchedulePolicy";
 
   // Action
   public static final String SMART_ACTION_MOVE_THROTTLE_MB_KEY = "smart.action.move.throttle.mb";
@@ -141,6 +207,14 @@ public class SmartConfKeys {
   public static final String SMART_ACTION_LOCAL_EXECUTION_DISABLED_KEY =
     "smart.action.local.execution.disabled";
   public static final boolean SMART_ACTION_LOCAL_EXECUTION_DISABLED_DEFAULT = false;
+  public static final String SMART_ACTION_OUTPUT_MEMORY_MAX_KB_KEY =
+      "smart.action.output.memory.max.kb";
+  public static final int SMART_ACTION_OUTPUT_MEMORY_MAX_KB_DEFAULT = 1024;
+  public static final String SMART_ACTION_OUTPUT_POOL_MAX_KB_KEY =
+      "smart.action.output.pool.max.kb";
+  public static final int SMART_ACTION_OUTPUT_POOL_MAX_KB_DEFAULT = 16 * 1024;
+  public static final String SMART_ACTION_OUTPUT_SPILL_DIR_KEY =
+      "smart.action.output.spill.dir";
 
   // SmartAgent
   public static final String SMART_AGENT_MASTER_PORT_KEY = "smart.agent.master.port";
@@ -161,8 +235,48 @@ public class SmartConfKeys {
       "smart.compact.container.file.threshold.mb";
   public static final long SMART_COMPACT_CONTAINER_FILE_THRESHOLD_MB_DEFAULT =
       1024;
+  public static final String SMART_COMPACT_READ_THREADS_KEY =
+      "smart.compact.read.threads";
+  public static final int SMART_COMPACT_READ_THREADS_DEFAULT = 4;
+  public static final String SMART_COMPACT_META_THREADS_KEY =
+      "smart.compact.meta.threads";
+  public static final int SMART_COMPACT_META_THREADS_DEFAULT = 4;
+  public static final String SMART_COMPACT_READ_BUFFER_KB_KEY =
+      "smart.compact.read.buffer.kb";
+  public static final int SMART_COMPACT_READ_BUFFER_KB_DEFAULT = 1024;
+  public static final String SMART_COMPACT_DEFRAG_DEAD_RATIO_KEY =
+      "smart.compact.defrag.dead.ratio";
+  public static final float SMART_COMPACT_DEFRAG_DEAD_RATIO_DEFAULT = 0.5f;
+  public static final String SMART_COMPACT_DEFRAG_CHECK_INTERVAL_MS_KEY =
+      "smart.compact.defrag.check.interval.ms";
+  public static final long SMART_COMPACT_DEFRAG_CHECK_INTERVAL_MS_DEFAULT = 600000L;
+
+  // Compression
+  public static final String SMART_COMPRESSION_CODEC_KEY = "smart.compression.codec";
+  public static final String SMART_COMPRESSION_CODEC_DEFAULT = "Default";
+  public static final String SMART_COMPRESSION_BUFFER_SIZE_KEY =
+      "smart.compression.buffer.size";
+  public static final int SMART_COMPRESSION_BUFFER_SIZE_DEFAULT = 1024 * 1024;
 
   // SmartClient
+  public static final String SMART_CLIENT_ACCESS_EVENT_BATCH_ENABLED_KEY =
+      "smart.client.access.event.batch.enabled";
+  public static final boolean SMART_CLIENT_ACCESS_EVENT_BATCH_ENABLED_DEFAULT = false;
+  public static final String SMART_CLIENT_ACCESS_EVENT_BATCH_SIZE_KEY =
+      "smart.client.access.event.batch.size";
+  public static final int SMART_CLIENT_ACCESS_EVENT_BATCH_SIZE_DEFAULT = 500;
+  public static final String SMART_CLIENT_ACCESS_EVENT_BATCH_INTERVAL_MS_KEY =
+      "smart.client.access.event.batch.interval.ms";
+  public static final long SMART_CLIENT_ACCESS_EVENT_BATCH_INTERVAL_MS_DEFAULT = 1000L;
+  public static final String SMART_CLIENT_ACCESS_EVENT_BUFFER_CAPACITY_KEY =
+      "smart.client.access.event.buffer.capacity";
+  public static final int SMART_CLIENT_ACCESS_EVENT_BUFFER_CAPACITY_DEFAULT = 10000;
+  public static final String SMART_CLIENT_SMALL_FILE_META_CACHE_SIZE_KEY =
+      "smart.client.small.file.meta.cache.size";
+  public static final int SMART_CLIENT_SMALL_FILE_META_CACHE_SIZE_DEFAULT = 10000;
+  public static final String SMART_CLIENT_SMALL_FILE_META_CACHE_TTL_MS_KEY =
+      "smart.client.small.file.meta.cache.ttl.ms";
+  public static final long SMART_CLIENT_SMALL_FILE_META_CACHE_TTL_MS_DEFAULT = 30000L;
 
   // Common
   /**
@@ -26,6 +26,8 @@ public class CachedFileStatus {
   private long fromTime;
   private long lastAccessTime;
   private int numAccessed;
+  // Bytes of the file cached by DataNodes, from the cache directive stats
+  private long bytesCached;
 
   public CachedFileStatus() {
   }
@@ -79,6 +81,14 @@ public void setNumAccessed(int numAccessed) {
     this.numAccessed = numAccessed;
   }
 
+  public long getBytesCached() {
+    return bytesCached;
+  }
+
+  public void setBytesCached(long bytesCached) {
+    this.bytesCached = bytesCached;
+  }
+
   @Override
   public boolean equals(Object o) {
     if (this == o) {
@@ -102,6 +112,9 @@ public boolean equals(Object o) {
     if (numAccessed != that.numAccessed) {
       return false;
     }
+    if (bytesCached != that.bytesCached) {
+      return false;
+    }
     return path != null ? path.equals(that.path) : that.path == null;
   }
 
@@ -112,13 +125,15 @@ public int hashCode() {
     result = 31 * result + (int) (fromTime ^ (fromTime >>> 32));
     result = 31 * result + (int) (lastAccessTime ^ (lastAccessTime >>> 32));
     result = 31 * result + numAccessed;
+    result = 31 * result + (int) (bytesCached ^ (bytesCached >>> 32));
     return result;
   }
 
   @Override
   public String toString() {
     return String.format(
-        "CachedFileStatus{fid=%s, path=\'%s\', fromTime=%s, lastAccessTime=%s, numAccessed=%s}",
-        fid, path, fromTime, lastAccessTime, numAccessed);
+        "CachedFileStatus{fid=%s, path=\'%s\', fromTime=%s, lastAccessTime=%s, "
+            + "numAccessed=%s, bytesCached=%s}",
+        fid, path, fromTime, lastAccessTime, numAccessed, bytesCached);
   }
 }
@@ -42,6 +42,10 @@ public class CmdletDescriptor {
   private List<Map<String, String>> actionArgs = new ArrayList<>();
   private String cmdletString = null;
   private long deferIntervalMs = 0L;  // Not persist into DB now
+  // Scheduling options of the rule, not persisted either
+  private CmdletPriority priority = null;
+  private int weight = 0;
+  private int maxInFlight = 0;
 
   private static final String REG_ACTION_NAME = "^[a-zA-Z]+[a-zA-Z0-9_]*";
 
@@ -325,6 +329,23 @@ private void procMetaCmdlet(List<String> blocks, int offset) throws ParseExcepti
       deferIntervalMs = interval;
       return;
     }
+    if (blocks.get(0).equals(".priority")) {
+      CmdletPriority p = blocks.size() == 2 ? CmdletPriority.fromString(blocks.get(1)) : null;
+      if (p == null) {
+        throw new ParseException("Invalid meta cmdlet parameter: "
+            + StringUtil.join(" ", blocks), offset);
+      }
+      priority = p;
+      return;
+    }
+    if (blocks.get(0).equals(".weight")) {
+      weight = parsePositiveInt(blocks, offset);
+      return;
+    }
+    if (blocks.get(0).equals(".inflight")) {
+      maxInFlight = parsePositiveInt(blocks, offset);
+      return;
+    }
     throw new ParseException("Unknown meta cmdlet: " + StringUtil.join(" ", blocks), offset);
   }
 
@@ -336,6 +357,67 @@ public void setDeferIntervalMs(long deferIntervalMs) {
     this.deferIntervalMs = deferIntervalMs;
   }
 
+  /**
+   * Get the priority class declared by '.priority', null if not declared.
+   */
+  public CmdletPriority getPriority() {
+    return priority;
+  }
+
+  public void setPriority(CmdletPriority priority) {
+    this.priority = priority;
+  }
+
+  /**
+   * Get the share weight declared by '.weight', 0 if not declared.
+   */
+  public int getWeight() {
+    return weight;
+  }
+
+  public void setWeight(int weight) {
+    this.weight = weight;
+  }
+
+  /**
+   * Get the limit of cmdlets in flight declared by '.inflight',
+   * 0 if not declared.
+   */
+  public int getMaxInFlight() {
+    return maxInFlight;
+  }
+
+  public void setMaxInFlight(int maxInFlight) {
+    this.maxInFlight = maxInFlight;
+  }
+
+  /**
+   * Copy the options given by meta cmdlets, which are not kept in
+   * the cmdlet string.
+   */
+  public void copyMetaOptions(CmdletDescriptor des) {
+    deferIntervalMs = des.deferIntervalMs;
+    priority = des.priority;
+    weight = des.weight;
+    maxInFlight = des.maxInFlight;
+  }
+
+  private int parsePositiveInt(List<String> blocks, int offset) throws ParseException {
+    int value = -1;
+    if (blocks.size() == 2) {
+      try {
+        value = Integer.parseInt(blocks.get(1));
+      } catch (NumberFormatException e) {
+        value = -1;
+      }
+    }
+    if (value <= 0) {
+      throw new ParseException("Invalid meta cmdlet parameter: "
+          + StringUtil.join(" ", blocks), offset);
+    }
+    return value;
+  }
+
   public static List<String> toArgList(Map<String, String> args) {
     List<String> ret = new ArrayList<>();
     for (String key : args.keySet()) {
@@ -0,0 +1,97 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.model;
+
+import java.io.Serializable;
+
+/**
+ * State of a file compressed by SSM. The data of the file is compressed in
+ * chunks of the buffer size independently and written to another file, so
+ * a chunk is found by the position in the original data and decompressed
+ * alone.
+ */
+public class CompressionFileState extends FileState implements Serializable {
+  private String compressedFilePath;
+  private String codec;
+  private int bufferSize;
+  private long originalLength;
+  // Offsets of the chunks in the compressed file, ended with its length
+  private long[] chunkOffsets;
+
+  public CompressionFileState(String path, String compressedFilePath, String codec,
+      int bufferSize, long originalLength, long[] chunkOffsets) {
+    super(path, FileType.COMPRESSION, FileStage.DONE);
+    this.compressedFilePath = compressedFilePath;
+    this.codec = codec;
+    this.bufferSize = bufferSize;
+    this.originalLength = originalLength;
+    this.chunkOffsets = chunkOffsets;
+  }
+
+  public String getCompressedFilePath() {
+    return compressedFilePath;
+  }
+
+  public String getCodec() {
+    return codec;
+  }
+
+  public int getBufferSize() {
+    return bufferSize;
+  }
+
+  public long getOriginalLength() {
+    return originalLength;
+  }
+
+  public long getCompressedLength() {
+    return chunkOffsets[chunkOffsets.length - 1];
+  }
+
+  public int getChunkCount() {
+    return chunkOffsets.length - 1;
+  }
+
+  /**
+   * Get the index of the chunk holding the position of the original data.
+   */
+  public int getChunkIndex(long pos) {
+    return (int) (pos / bufferSize);
+  }
+
+  /**
+   * Get the offset of the chunk in the compressed file.
+   */
+  public long getChunkOffset(int index) {
+    return chunkOffsets[index];
+  }
+
+  /**
+   * Get the length of the chunk in the compressed file.
+   */
+  public int getCompressedChunkLength(int index) {
+    return (int) (chunkOffsets[index + 1] - chunkOffsets[index]);
+  }
+
+  /**
+   * Get the length of the chunk decompressed.
+   */
+  public int getOriginalChunkLength(int index) {
+    return (int) Math.min(bufferSize, originalLength - (long) index * bufferSize);
+  }
+}
@@ -18,6 +18,7 @@
 package org.smartdata.model;
 
 import java.io.Serializable;
+import java.util.Objects;
 
 public class FileContainerInfo implements Serializable {
   private String containerFilePath;
@@ -53,4 +54,23 @@ public long getLength() {
   public void setLength(long length) {
     this.length = length;
   }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass()) {
+      return false;
+    }
+    FileContainerInfo info = (FileContainerInfo) o;
+    return offset == info.getOffset()
+        && length == info.getLength()
+        && containerFilePath.equals(info.getContainerFilePath());
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(containerFilePath, offset, length);
+  }
 }
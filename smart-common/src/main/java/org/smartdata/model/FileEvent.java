@@ -0,0 +1,61 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.model;
+
+/**
+ * A namespace change applied to the metastore.
+ */
+public class FileEvent {
+  private final FileEventType type;
+  private final String path;
+  private final String dstPath;
+
+  public FileEvent(FileEventType type, String path) {
+    this(type, path, null);
+  }
+
+  public FileEvent(FileEventType type, String path, String dstPath) {
+    this.type = type;
+    this.path = path;
+    this.dstPath = dstPath;
+  }
+
+  public FileEventType getType() {
+    return type;
+  }
+
+  public String getPath() {
+    return path;
+  }
+
+  public String getDstPath() {
+    return dstPath;
+  }
+
+  /**
+   * Get the path of the file after the change, the destination for rename.
+   */
+  public String getAffectedPath() {
+    return dstPath != null ? dstPath : path;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("FileEvent{type=%s, path=%s, dstPath=%s}", type, path, dstPath);
+  }
+}
@@ -0,0 +1,54 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.model;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Delivers namespace change events from the states updater to the
+ * components interested in them, e.g. rules triggered by file events.
+ */
+public class FileEventManager {
+  private static final CopyOnWriteArrayList<FileEventListener> listeners =
+      new CopyOnWriteArrayList<>();
+
+  private FileEventManager() {
+  }
+
+  public static void addListener(FileEventListener listener) {
+    listeners.addIfAbsent(listener);
+  }
+
+  public static void deleteListener(FileEventListener listener) {
+    listeners.remove(listener);
+  }
+
+  public static boolean hasListeners() {
+    return !listeners.isEmpty();
+  }
+
+  public static void onFileEvents(List<FileEvent> events) {
+    if (events.isEmpty()) {
+      return;
+    }
+    for (FileEventListener listener : listeners) {
+      listener.onFileEvents(events);
+    }
+  }
+}
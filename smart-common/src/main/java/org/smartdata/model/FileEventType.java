@@ -0,0 +1,53 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.model;
+
+/**
+ * Type of namespace change events a rule can be triggered by.
+ */
+public enum FileEventType {
+  CREATE("FileCreate"),
+  CLOSE("FileClose"),
+  APPEND("FileAppend"),
+  RENAME("FileRename"),
+  METADATA("FileMetadate"),
+  UNLINK("FileUnlink"),
+  TRUNCATE("FileTruncate");
+
+  private final String ruleName;
+
+  FileEventType(String ruleName) {
+    this.ruleName = ruleName;
+  }
+
+  /**
+   * Get the type by the name used in rules, e.g. 'FileCreate'.
+   */
+  public static FileEventType fromRuleName(String ruleName) {
+    for (FileEventType type : values()) {
+      if (type.ruleName.equals(ruleName)) {
+        return type;
+      }
+    }
+    return null;
+  }
+
+  public String getRuleName() {
+    return ruleName;
+  }
+}
@@ -65,4 +65,13 @@ public interface ActionScheduler {
    * @param actionInfo
    */
   void onActionFinished(ActionInfo actionInfo);
+
+  /**
+   * Whether onSchedule and postSchedule can be called by many threads at
+   * the same time. Calls into a scheduler that is not thread-safe are
+   * serialized by the caller.
+   *
+   * @return true if thread-safe
+   */
+  boolean isThreadSafe();
 }
@@ -18,6 +18,7 @@
 package org.smartdata.model.rule;
 
 import org.smartdata.model.CmdletDescriptor;
+import org.smartdata.model.FileEventType;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -36,6 +37,7 @@ public class TranslateResult {
   private CmdletDescriptor cmdDescriptor;
   private int[] condPosition;
   private List<String> globPathCheck = new ArrayList<>();
+  private FileEventType triggerEvent;
 
 
   public TranslateResult(List<String> sqlStatements,
@@ -88,6 +90,22 @@ public boolean isTimeBased() {
     return tbScheduleInfo != null;
   }
 
+  /**
+   * Get the file event triggering the rule.
+   * @return null if the rule is not triggered by file events
+   */
+  public FileEventType getTriggerEvent() {
+    return triggerEvent;
+  }
+
+  public void setTriggerEvent(FileEventType triggerEvent) {
+    this.triggerEvent = triggerEvent;
+  }
+
+  public boolean isEventBased() {
+    return triggerEvent != null;
+  }
+
   public int[] getCondPosition() {
     return condPosition;
   }
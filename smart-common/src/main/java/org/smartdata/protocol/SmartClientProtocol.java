@@ -23,6 +23,7 @@
 import org.smartdata.model.FileState;
 
 import java.io.IOException;
+import java.util.List;
 
 /**
  * Interface between SmartClient and SmartServer.
@@ -31,5 +32,6 @@
   serverPrincipal = SmartConfKeys.SMART_SERVER_KERBEROS_PRINCIPAL_KEY)
 public interface  SmartClientProtocol {
   void reportFileAccessEvent(FileAccessEvent event) throws IOException;
+  void reportFileAccessEvents(List<FileAccessEvent> events) throws IOException;
   FileState getFileState(String filePath) throws IOException;
 }
@@ -28,6 +28,10 @@ public class ActionStatus implements Serializable {
   private long finishTime;
   private Throwable throwable;
   private boolean finished;
+  // Offsets in the whole result and log the ones here start at,
+  // -1 if they are the whole ones
+  private int resultOffset = -1;
+  private int logOffset = -1;
 
   public ActionStatus(long actionId, float percentage, String result, String log,
                       long startTime, long finishTime, Throwable t, boolean finished) {
@@ -100,6 +104,71 @@ public void setLog(String log) {
     this.log = log;
   }
 
+  public int getResultOffset() {
+    return resultOffset;
+  }
+
+  public void setResultOffset(int resultOffset) {
+    this.resultOffset = resultOffset;
+  }
+
+  public int getLogOffset() {
+    return logOffset;
+  }
+
+  public void setLogOffset(int logOffset) {
+    this.logOffset = logOffset;
+  }
+
+  /**
+   * Merge two statuses of the same action reported one after another, the
+   * result and log appended in both are kept.
+   */
+  public static ActionStatus merge(ActionStatus earlier, ActionStatus later) {
+    ActionStatus merged = new ActionStatus(later.actionId, later.percentage,
+        later.result, later.log, later.startTime, later.finishTime,
+        later.throwable, later.finished);
+    if (later.resultOffset >= 0) {
+      merged.result = concat(earlier.getResult(), later.getResult());
+      merged.resultOffset = earlier.resultOffset;
+    }
+    if (later.logOffset >= 0) {
+      merged.log = concat(earlier.getLog(), later.getLog());
+      merged.logOffset = earlier.logOffset;
+    }
+    return merged;
+  }
+
+  private static String concat(String a, String b) {
+    return b.isEmpty() ? a : a + b;
+  }
+
+  /**
+   * Apply the result or log of a status to the one known.
+   * @param current the whole one known
+   * @param part the one in status
+   * @param offset the offset of the one in status
+   * @return the whole one after applied, null if the part does not follow
+   *     the one known
+   */
+  public static String apply(String current, String part, int offset) {
+    if (offset < 0) {
+      return part;
+    }
+    if (current == null) {
+      current = "";
+    }
+    if (offset > current.length()) {
+      // Some part in between was lost, appending it leaves a gap
+      return null;
+    }
+    if (offset == current.length()) {
+      return part.isEmpty() ? current : current + part;
+    }
+    // Reported again, replace the part known
+    return current.substring(0, offset) + part;
+  }
+
   public long getStartTime() {
     return startTime;
   }
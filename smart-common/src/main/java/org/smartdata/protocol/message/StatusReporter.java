@@ -18,5 +18,11 @@
 package org.smartdata.protocol.message;
 
 public interface StatusReporter {
+  /**
+   * Report the status to the server.
+   *
+   * @throws RuntimeException if the status is known not delivered, it
+   *     will be reported again with the following ones
+   */
   void report(StatusMessage status);
 }
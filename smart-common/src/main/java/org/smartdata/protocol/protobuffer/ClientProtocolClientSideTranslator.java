@@ -24,9 +24,11 @@
 import org.smartdata.protocol.ClientServerProto.GetFileStateRequestProto;
 import org.smartdata.protocol.ClientServerProto.GetFileStateResponseProto;
 import org.smartdata.protocol.ClientServerProto.ReportFileAccessEventRequestProto;
+import org.smartdata.protocol.ClientServerProto.ReportFileAccessEventsRequestProto;
 import org.smartdata.protocol.SmartClientProtocol;
 
 import java.io.IOException;
+import java.util.List;
 
 public class ClientProtocolClientSideTranslator implements
     java.io.Closeable, SmartClientProtocol {
@@ -58,6 +60,20 @@ public void reportFileAccessEvent(FileAccessEvent event) throws IOException {
     }
   }
 
+  @Override
+  public void reportFileAccessEvents(List<FileAccessEvent> events) throws IOException {
+    ReportFileAccessEventsRequestProto.Builder builder =
+        ReportFileAccessEventsRequestProto.newBuilder();
+    for (FileAccessEvent event : events) {
+      builder.addEvents(ProtoBufferHelper.convert(event));
+    }
+    try {
+      rpcProxy.reportFileAccessEvents(null, builder.build());
+    } catch (ServiceException e) {
+      throw ProtoBufferHelper.getRemoteException(e);
+    }
+  }
+
   @Override
   public FileState getFileState(String filePath) throws IOException {
     GetFileStateRequestProto req = GetFileStateRequestProto.newBuilder()
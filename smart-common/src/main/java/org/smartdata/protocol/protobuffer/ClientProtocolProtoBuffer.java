@@ -27,6 +27,8 @@
 import org.smartdata.protocol.ClientServerProto.GetFileStateResponseProto;
 import org.smartdata.protocol.ClientServerProto.ReportFileAccessEventRequestProto;
 import org.smartdata.protocol.ClientServerProto.ReportFileAccessEventResponseProto;
+import org.smartdata.protocol.ClientServerProto.ReportFileAccessEventsRequestProto;
+import org.smartdata.protocol.ClientServerProto.ReportFileAccessEventsResponseProto;
 
 @KerberosInfo(
   serverPrincipal = SmartConfKeys.SMART_SERVER_KERBEROS_PRINCIPAL_KEY)
@@ -37,6 +39,10 @@ public interface ClientProtocolProtoBuffer {
   reportFileAccessEvent(RpcController controller,
                         ReportFileAccessEventRequestProto req) throws ServiceException;
 
+  ReportFileAccessEventsResponseProto
+  reportFileAccessEvents(RpcController controller,
+                         ReportFileAccessEventsRequestProto req) throws ServiceException;
+
   GetFileStateResponseProto
   getFileState(RpcController controller,
                GetFileStateRequestProto req) throws ServiceException;
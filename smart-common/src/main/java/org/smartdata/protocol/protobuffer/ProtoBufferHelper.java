@@ -36,7 +36,6 @@
 import org.smartdata.protocol.AdminServerProto.CmdletInfoProto;
 import org.smartdata.protocol.AdminServerProto.RuleInfoProto;
 import org.smartdata.protocol.ClientServerProto.CompactFileStateProto;
-import org.smartdata.protocol.ClientServerProto.CompressionFileStateProto;
 import org.smartdata.protocol.ClientServerProto.FileStateProto;
 import org.smartdata.protocol.ClientServerProto.ReportFileAccessEventRequestProto;
 import org.smartdata.protocol.ClientServerProto.S3FileStateProto;
@@ -117,6 +116,7 @@ public static ReportFileAccessEventRequestProto convert(FileAccessEvent event) {
         .setFilePath(event.getPath())
         .setAccessedBy(event.getAccessedBy())
         .setFileId(event.getFileId())
+        .setCount(event.getCount())
         .build();
   }
 
@@ -159,7 +159,7 @@ public static ActionInfo convert(ActionInfoProto infoProto) {
 
 
   public static FileAccessEvent convert(final ReportFileAccessEventRequestProto event) {
-    return new FileAccessEvent(event.getFilePath(), 0, event.getAccessedBy());
+    return new FileAccessEvent(event.getFilePath(), event.getAccessedBy(), event.getCount());
   }
 
   public static ActionDescriptor convert(ActionDescriptorProto proto) {
@@ -201,9 +201,8 @@ public static FileState convert(FileStateProto proto) {
         fileState = new CompactFileState(path, convert(compactProto));
         break;
       case COMPRESSION:
-        CompressionFileStateProto compressionProto = proto.getCompressionFileState();
-        // convert to CompressionFileState
-        // fileState = convert(path, type, stage, compressionProto);
+        // The chunk index is only kept in the xattr of the file
+        fileState = new FileState(path, type, stage);
         break;
       case S3:
         S3FileStateProto s3Proto = proto.getS3FileState();
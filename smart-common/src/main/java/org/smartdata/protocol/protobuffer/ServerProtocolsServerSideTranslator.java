@@ -20,6 +20,7 @@
 import com.google.protobuf.RpcController;
 import com.google.protobuf.ServiceException;
 import org.smartdata.SmartServiceState;
+import org.smartdata.metrics.FileAccessEvent;
 import org.smartdata.model.ActionDescriptor;
 import org.smartdata.model.ActionInfo;
 import org.smartdata.model.CmdletInfo;
@@ -70,6 +71,8 @@
 import org.smartdata.protocol.ClientServerProto.GetFileStateResponseProto;
 import org.smartdata.protocol.ClientServerProto.ReportFileAccessEventRequestProto;
 import org.smartdata.protocol.ClientServerProto.ReportFileAccessEventResponseProto;
+import org.smartdata.protocol.ClientServerProto.ReportFileAccessEventsRequestProto;
+import org.smartdata.protocol.ClientServerProto.ReportFileAccessEventsResponseProto;
 import org.smartdata.protocol.SmartServerProtocols;
 
 import java.io.IOException;
@@ -331,6 +334,22 @@ public ReportFileAccessEventResponseProto reportFileAccessEvent(
     }
   }
 
+  @Override
+  public ReportFileAccessEventsResponseProto reportFileAccessEvents(
+      RpcController controller, ReportFileAccessEventsRequestProto req)
+      throws ServiceException {
+    try {
+      List<FileAccessEvent> events = new ArrayList<>(req.getEventsCount());
+      for (ReportFileAccessEventRequestProto event : req.getEventsList()) {
+        events.add(ProtoBufferHelper.convert(event));
+      }
+      server.reportFileAccessEvents(events);
+      return ReportFileAccessEventsResponseProto.newBuilder().build();
+    } catch (IOException e) {
+      throw new ServiceException(e);
+    }
+  }
+
   @Override
   public GetFileStateResponseProto getFileState(RpcController controller,
       GetFileStateRequestProto req) throws ServiceException {
@@ -21,10 +21,12 @@
 import org.slf4j.LoggerFactory;
 import org.smartdata.AbstractService;
 import org.smartdata.conf.SmartConf;
+import org.smartdata.conf.SmartConfKeys;
 import org.smartdata.model.StorageCapacity;
 import org.smartdata.model.Utilization;
 import org.smartdata.server.cluster.NodeInfo;
 import org.smartdata.server.engine.ActiveServerInfo;
+import org.smartdata.server.engine.CacheManager;
 import org.smartdata.server.engine.CmdletManager;
 import org.smartdata.server.engine.ConfManager;
 import org.smartdata.server.engine.RuleManager;
@@ -49,6 +51,7 @@ public class SmartEngine extends AbstractService {
   private StatesManager statesMgr;
   private RuleManager ruleMgr;
   private CmdletManager cmdletManager;
+  private CacheManager cacheMgr;
   private AgentExecutorService agentService;
   private HazelcastExecutorService hazelcastService;
   private List<AbstractService> services = new ArrayList<>();
@@ -72,6 +75,11 @@ public void init() throws IOException {
     cmdletManager.registerExecutorService(hazelcastService);
     ruleMgr = new RuleManager(serverContext, statesMgr, cmdletManager);
     services.add(ruleMgr);
+    if (conf.getBoolean(SmartConfKeys.SMART_CACHE_MANAGER_ENABLED_KEY,
+        SmartConfKeys.SMART_CACHE_MANAGER_ENABLED_DEFAULT)) {
+      cacheMgr = new CacheManager(serverContext, statesMgr, cmdletManager);
+      services.add(cacheMgr);
+    }
 
     for (AbstractService s : services) {
       s.init();
@@ -144,6 +152,13 @@ public CmdletManager getCmdletManager() {
     return cmdletManager;
   }
 
+  /**
+   * @return null if files are not cached automatically
+   */
+  public CacheManager getCacheManager() {
+    return cacheMgr;
+  }
+
   public Utilization getUtilization(String resourceName) throws IOException {
     return getStatesManager().getStorageUtilization(resourceName);
   }
@@ -0,0 +1,343 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.server.engine;
+
+import com.google.common.annotations.VisibleForTesting;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.smartdata.AbstractService;
+import org.smartdata.conf.SmartConfKeys;
+import org.smartdata.metastore.MetaStore;
+import org.smartdata.metastore.MetaStoreException;
+import org.smartdata.metastore.dao.AccessCountListener;
+import org.smartdata.metastore.dao.FidCountMap;
+import org.smartdata.model.CachedFileStatus;
+import org.smartdata.model.FileInfo;
+import org.smartdata.model.StorageCapacity;
+import org.smartdata.server.engine.cache.CacheSimulator;
+import org.smartdata.server.engine.cache.WTinyLfuPolicy;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cache and uncache files in HDFS centralized cache pool automatically by
+ * the access counts aggregated in each window. Files are admitted and
+ * evicted by W-TinyLFU under the pool limit, and cache or uncache cmdlets
+ * are submitted for the net changes in each round. The files found in the
+ * pool but not cached by it, e.g. cached by rules, are managed as well.
+ */
+public class CacheManager extends AbstractService implements AccessCountListener {
+  public static final Logger LOG = LoggerFactory.getLogger(CacheManager.class);
+  private static final int MAX_PENDING_WINDOWS = 1000;
+  private static final int FILE_QUERY_BATCH = 1000;
+  private static final long RECONCILE_INTERVAL = 5 * 60 * 1000L;
+
+  private final ServerContext serverContext;
+  private final StatesManager statesManager;
+  private final CmdletManager cmdletManager;
+  private final MetaStore metaStore;
+  private final BlockingQueue<Window> windows = new ArrayBlockingQueue<>(MAX_PENDING_WINDOWS);
+
+  private WTinyLfuPolicy policy;
+  private long configuredCapacity;
+  private int replica;
+  private long interval;
+  private String traceFile;
+  private Writer trace;
+  private ScheduledExecutorService executor;
+
+  // Paths of the files cached by the policy
+  private final Map<Long, String> paths = new HashMap<>();
+  // Net changes of the round to submit
+  private final Map<Long, String> toCache = new LinkedHashMap<>();
+  private final Map<Long, String> toUncache = new LinkedHashMap<>();
+  // Cached since the last reconcile, the cmdlets may be not done yet
+  private final Set<Long> recentlyCached = new HashSet<>();
+  private long lastReconcile = 0;
+  private boolean capacityWarned = false;
+
+  public CacheManager(ServerContext context, StatesManager statesManager,
+      CmdletManager cmdletManager) {
+    super(context);
+    this.serverContext = context;
+    this.statesManager = statesManager;
+    this.cmdletManager = cmdletManager;
+    this.metaStore = context.getMetaStore();
+  }
+
+  @Override
+  public void init() throws IOException {
+    configuredCapacity = getContext().getConf().getLong(
+        SmartConfKeys.SMART_CACHE_MANAGER_CAPACITY_KEY,
+        SmartConfKeys.SMART_CACHE_MANAGER_CAPACITY_DEFAULT);
+    replica = getContext().getConf().getInt(
+        SmartConfKeys.SMART_CACHE_MANAGER_REPLICA_KEY,
+        SmartConfKeys.SMART_CACHE_MANAGER_REPLICA_DEFAULT);
+    interval = getContext().getConf().getLong(
+        SmartConfKeys.SMART_CACHE_MANAGER_INTERVAL_MS_KEY,
+        SmartConfKeys.SMART_CACHE_MANAGER_INTERVAL_MS_DEFAULT);
+    traceFile = getContext().getConf().getTrimmed(
+        SmartConfKeys.SMART_CACHE_MANAGER_TRACE_FILE_KEY, "");
+    float windowRatio = getContext().getConf().getFloat(
+        SmartConfKeys.SMART_CACHE_MANAGER_WINDOW_RATIO_KEY,
+        SmartConfKeys.SMART_CACHE_MANAGER_WINDOW_RATIO_DEFAULT);
+    int sketchEntries = getContext().getConf().getInt(
+        SmartConfKeys.SMART_CACHE_MANAGER_SKETCH_ENTRIES_KEY,
+        SmartConfKeys.SMART_CACHE_MANAGER_SKETCH_ENTRIES_DEFAULT);
+    policy = new WTinyLfuPolicy(0, windowRatio, sketchEntries);
+    policy.setListener(new WTinyLfuPolicy.Listener() {
+      @Override
+      public void onAdmit(long fid) {
+        recentlyCached.add(fid);
+        if (toUncache.remove(fid) == null) {
+          toCache.put(fid, paths.get(fid));
+        }
+      }
+
+      @Override
+      public void onEvict(long fid) {
+        String path = paths.remove(fid);
+        if (toCache.remove(fid) == null && path != null) {
+          toUncache.put(fid, path);
+        }
+      }
+    });
+  }
+
+  @Override
+  public void start() throws IOException {
+    LOG.info("Starting ...");
+    if (!traceFile.isEmpty()) {
+      trace = new BufferedWriter(new OutputStreamWriter(
+          new FileOutputStream(traceFile, true), StandardCharsets.UTF_8));
+    }
+    statesManager.addAccessCountListener(this);
+    executor = Executors.newSingleThreadScheduledExecutor();
+    executor.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          process();
+        } catch (Throwable t) {
+          LOG.error("Failed to cache files by access counts", t);
+        }
+      }
+    }, interval, interval, TimeUnit.MILLISECONDS);
+    LOG.info("Started.");
+  }
+
+  @Override
+  public void stop() throws IOException {
+    LOG.info("Stopping ...");
+    statesManager.removeAccessCountListener(this);
+    if (executor != null) {
+      executor.shutdownNow();
+    }
+    if (trace != null) {
+      trace.close();
+    }
+    LOG.info("Stopped.");
+  }
+
+  @Override
+  public void onAccessCounts(long startTime, long endTime, FidCountMap counts) {
+    if (!counts.isEmpty() && !windows.offer(new Window(endTime, counts))) {
+      LOG.warn("Access counts of window ending at {} dropped, too many pending", endTime);
+    }
+  }
+
+  /**
+   * Apply the access counts arrived and submit the cmdlets for the changes.
+   */
+  @VisibleForTesting
+  synchronized void process() throws IOException, MetaStoreException {
+    List<Window> arrived = new ArrayList<>(windows.size());
+    windows.drainTo(arrived);
+    if (statesManager.inSafeMode() || !updateCapacity()) {
+      return;
+    }
+    long now = System.currentTimeMillis();
+    if (now - lastReconcile >= RECONCILE_INTERVAL) {
+      reconcile();
+      lastReconcile = now;
+    }
+    for (Window window : arrived) {
+      apply(window);
+    }
+    if (trace != null && !arrived.isEmpty()) {
+      trace.flush();
+    }
+    submit();
+  }
+
+  /**
+   * Take the smaller one of the configured capacity and the pool limit.
+   *
+   * @return false if neither is set
+   */
+  private boolean updateCapacity() throws MetaStoreException {
+    StorageCapacity pool = metaStore.getStorageCapacity("cache");
+    long limit = pool == null || pool.getCapacity() == null ? 0 : pool.getCapacity();
+    long capacity = limit;
+    if (configuredCapacity > 0 && (limit <= 0 || configuredCapacity < limit)) {
+      capacity = configuredCapacity;
+    }
+    if (capacity <= 0 || capacity == Long.MAX_VALUE) {
+      if (!capacityWarned) {
+        LOG.warn("Files are not cached automatically until the limit of the cache pool"
+            + " or '{}' is set", SmartConfKeys.SMART_CACHE_MANAGER_CAPACITY_KEY);
+        capacityWarned = true;
+      }
+      return false;
+    }
+    capacityWarned = false;
+    if (capacity != policy.getCapacity()) {
+      LOG.info("Capacity of cache changed to {}", capacity);
+      policy.setCapacity(capacity);
+    }
+    return true;
+  }
+
+  /**
+   * Take over the files cached by others, and forget the files no longer
+   * cached, e.g. renamed or deleted, or the cmdlets failed.
+   */
+  private void reconcile() throws MetaStoreException {
+    List<CachedFileStatus> cachedFiles = metaStore.getCachedFileStatus();
+    Set<Long> cachedFids = new HashSet<>();
+    List<Long> unknown = new ArrayList<>();
+    for (CachedFileStatus status : cachedFiles) {
+      cachedFids.add(status.getFid());
+      if (!policy.contains(status.getFid())) {
+        unknown.add(status.getFid());
+      }
+    }
+    for (long fid : policy.getCachedFids()) {
+      if (!cachedFids.contains(fid) && !recentlyCached.contains(fid)) {
+        policy.remove(fid);
+        paths.remove(fid);
+      }
+    }
+    recentlyCached.clear();
+    for (FileInfo file : getFiles(unknown).values()) {
+      paths.put(file.getFileId(), file.getPath());
+      policy.addCached(file.getFileId(), bytesOf(file));
+    }
+  }
+
+  private void apply(Window window) throws IOException, MetaStoreException {
+    FidCountMap.Cursor cursor = window.counts.cursor();
+    List<Long> missed = new ArrayList<>();
+    while (cursor.next()) {
+      if (!policy.contains(cursor.fid())) {
+        missed.add(cursor.fid());
+      }
+    }
+    Map<Long, FileInfo> files = getFiles(missed);
+    cursor = window.counts.cursor();
+    while (cursor.next()) {
+      long fid = cursor.fid();
+      long bytes = 0;
+      if (!policy.contains(fid)) {
+        FileInfo file = files.get(fid);
+        if (file == null || file.isdir()) {
+          continue;
+        }
+        bytes = bytesOf(file);
+        paths.put(fid, file.getPath());
+      }
+      policy.record(fid, cursor.count(), bytes);
+      if (!policy.contains(fid)) {
+        paths.remove(fid);
+      }
+      if (trace != null) {
+        trace.write(CacheSimulator.formatRecord(window.endTime, fid, cursor.count(),
+            bytes > 0 ? bytes : policy.sizeOf(fid)));
+        trace.write('\n');
+      }
+    }
+  }
+
+  private void submit() {
+    // Uncache first to make room
+    for (String path : toUncache.values()) {
+      submitCmdlet("uncache -file " + path);
+    }
+    for (String path : toCache.values()) {
+      submitCmdlet("cache -file " + path + " -replica " + replica);
+    }
+    toUncache.clear();
+    toCache.clear();
+  }
+
+  private void submitCmdlet(String cmdlet) {
+    try {
+      cmdletManager.submitCmdlet(cmdlet);
+    } catch (IOException e) {
+      // Corrected by the next reconcile
+      LOG.warn("Failed to submit cmdlet '{}': {}", cmdlet, e.getMessage());
+    }
+  }
+
+  private long bytesOf(FileInfo file) {
+    return file.getLength() * replica;
+  }
+
+  private Map<Long, FileInfo> getFiles(List<Long> fids) throws MetaStoreException {
+    Map<Long, FileInfo> files = new HashMap<>();
+    for (int i = 0; i < fids.size(); i += FILE_QUERY_BATCH) {
+      List<Long> batch = fids.subList(i, Math.min(fids.size(), i + FILE_QUERY_BATCH));
+      for (FileInfo file : metaStore.getFilesByFids(batch)) {
+        files.put(file.getFileId(), file);
+      }
+    }
+    return files;
+  }
+
+  @VisibleForTesting
+  WTinyLfuPolicy getPolicy() {
+    return policy;
+  }
+
+  private static class Window {
+    private final long endTime;
+    private final FidCountMap counts;
+
+    Window(long endTime, FidCountMap counts) {
+      this.endTime = endTime;
+      this.counts = counts;
+    }
+  }
+}
@@ -37,6 +37,7 @@
 import org.smartdata.model.ActionInfo;
 import org.smartdata.model.CmdletDescriptor;
 import org.smartdata.model.CmdletInfo;
+import org.smartdata.model.CmdletPriority;
 import org.smartdata.model.CmdletState;
 import org.smartdata.model.DetailedFileAction;
 import org.smartdata.model.LaunchAction;
@@ -49,21 +50,29 @@
 import org.smartdata.protocol.message.StatusReport;
 import org.smartdata.server.engine.cmdlet.CmdletDispatcher;
 import org.smartdata.server.engine.cmdlet.CmdletExecutorService;
+import org.smartdata.server.engine.cmdlet.CmdletJournal;
+import org.smartdata.server.engine.cmdlet.CmdletSchedulePolicy;
+import org.smartdata.server.engine.cmdlet.CmdletScheduleShard;
+import org.smartdata.server.engine.cmdlet.RuleShare;
+import org.smartdata.server.engine.cmdlet.RuleShares;
 import org.smartdata.server.engine.cmdlet.message.LaunchCmdlet;
 import org.smartdata.utils.StringUtil;
 
+import java.io.File;
 import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
 import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
@@ -72,8 +81,9 @@
 
 /**
  * When a Cmdlet is submitted, it's string descriptor will be stored into set submittedCmdlets
- * to avoid duplicated Cmdlet, then enqueue into pendingCmdlet. When the Cmdlet is scheduled it
- * will be remove out of the queue and marked in the runningCmdlets.
+ * to avoid duplicated Cmdlet, then enqueue into the schedule shard selected by its id. Each
+ * shard is scheduled by its own task. When the Cmdlet is scheduled it will be remove out of
+ * the shard and marked in the runningCmdlets.
  *
  * <p>The map idToCmdlets stores all the recent CmdletInfos, including pending and running Cmdlets.
  * After the Cmdlet is finished or cancelled or failed, it's status will be flush to DB.
@@ -96,14 +106,19 @@ public class CmdletManager extends AbstractService {
   private int cacheCmdTh;
 
   private int maxNumPendingCmdlets;
-  private List<Long> pendingCmdlet;
-  private List<Long> schedulingCmdlet;
+  private CmdletScheduleShard[] scheduleShards;
+  private RuleShares ruleShares = new RuleShares();
   private Queue<Long> scheduledCmdlet;
   private Map<Long, LaunchCmdlet> idToLaunchCmdlet;
-  private List<Long> runningCmdlets;
+  private Set<Long> runningCmdlets;
   private Map<Long, CmdletInfo> idToCmdlets;
   private Map<Long, ActionInfo> idToActions;
-  private Map<Long, CmdletInfo> cacheCmd;
+  // Cmdlets changed but not written to metastore yet
+  private ConcurrentMap<Long, CmdletInfo> cacheCmd;
+  private long syncInterval;
+  private CmdletJournal journal;
+  // Keeps changes journaled and cached in the same order
+  private final Object journalLock = new Object();
   private Map<String, Long> fileLocks;
   private ListMultimap<String, ActionScheduler> schedulers = ArrayListMultimap.create();
   private List<ActionSchedulerService> schedulerServices = new ArrayList<>();
@@ -111,7 +126,7 @@ public class CmdletManager extends AbstractService {
   private AtomicLong numCmdletsGen = new AtomicLong(0);
   private AtomicLong numCmdletsFinished = new AtomicLong(0);
 
-  private long totalScheduled = 0;
+  private AtomicLong totalScheduled = new AtomicLong(0);
 
   private ActionGroup tmpActions = new ActionGroup();
 
@@ -123,12 +138,18 @@ public CmdletManager(ServerContext context) throws IOException {
     super(context);
 
     this.metaStore = context.getMetaStore();
-    this.executorService = Executors.newScheduledThreadPool(3);
-    this.runningCmdlets = new ArrayList<>();
-    this.pendingCmdlet = new LinkedList<>();
-    this.schedulingCmdlet = new LinkedList<>();
+    int numShards = Math.max(1, context.getConf().getInt(
+        SmartConfKeys.SMART_CMDLET_SCHEDULER_SHARDS_KEY,
+        SmartConfKeys.SMART_CMDLET_SCHEDULER_SHARDS_DEFAULT));
+    this.scheduleShards = new CmdletScheduleShard[numShards];
+    for (int i = 0; i < numShards; i++) {
+      scheduleShards[i] = new CmdletScheduleShard(
+          createSchedulePolicy(context.getConf(), ruleShares));
+    }
+    this.executorService = Executors.newScheduledThreadPool(3 + numShards);
+    this.runningCmdlets = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
     this.scheduledCmdlet = new LinkedBlockingQueue<>();
-    this.idToLaunchCmdlet = new HashMap<>();
+    this.idToLaunchCmdlet = new ConcurrentHashMap<>();
     this.idToCmdlets = new ConcurrentHashMap<>();
     this.idToActions = new ConcurrentHashMap<>();
     this.cacheCmd = new ConcurrentHashMap<>();
@@ -141,6 +162,15 @@ public CmdletManager(ServerContext context) throws IOException {
     cacheCmdTh = context.getConf()
       .getInt(SmartConfKeys.SMART_CMDLET_CACHE_BATCH,
         SmartConfKeys.SMART_CMDLET_CACHE_BATCH_DEFAULT);
+    syncInterval = context.getConf().getLong(
+        SmartConfKeys.SMART_CMDLET_SYNC_INTERVAL_MS_KEY,
+        SmartConfKeys.SMART_CMDLET_SYNC_INTERVAL_MS_DEFAULT);
+    String journalDir = context.getConf().getTrimmed(
+        SmartConfKeys.SMART_CMDLET_JOURNAL_DIR_KEY,
+        SmartConfKeys.SMART_CMDLET_JOURNAL_DIR_DEFAULT);
+    if (!journalDir.isEmpty()) {
+      journal = new CmdletJournal(new File(journalDir));
+    }
 
     int reportPeriod = context.getConf().getInt(SmartConfKeys.SMART_STATUS_REPORT_PERIOD_KEY,
         SmartConfKeys.SMART_STATUS_REPORT_PERIOD_DEFAULT);
@@ -151,6 +181,21 @@ public CmdletManager(ServerContext context) throws IOException {
         ? TIMEOUT_MIN_MILLISECOND : TIMEOUT_MULTIPLIER * maxInterval;
   }
 
+  private static CmdletSchedulePolicy createSchedulePolicy(SmartConf conf,
+      RuleShares shares) throws IOException {
+    String name = conf.getTrimmed(SmartConfKeys.SMART_CMDLET_SCHEDULE_POLICY_KEY,
+        SmartConfKeys.SMART_CMDLET_SCHEDULE_POLICY_DEFAULT);
+    try {
+      Class clazz = Class.forName(name);
+      Constructor c = clazz.getConstructor(RuleShares.class);
+      return (CmdletSchedulePolicy) c.newInstance(shares);
+    } catch (ClassNotFoundException | IllegalAccessException
+        | InstantiationException | NoSuchMethodException
+        | InvocationTargetException | ClassCastException e) {
+      throw new IOException("Error while create cmdlet schedule policy '" + name + "'.", e);
+    }
+  }
+
   @VisibleForTesting
   public void setTimeout(long timeout) {
     this.timeout = timeout;
@@ -165,6 +210,7 @@ void setDispatcher(CmdletDispatcher dispatcher) {
   public void init() throws IOException {
     LOG.info("Initializing ...");
     try {
+      recoverJournal();
       maxActionId = new AtomicLong(metaStore.getMaxActionId());
       maxCmdletId = new AtomicLong(metaStore.getMaxCmdletId());
       numCmdletsFinished.addAndGet(metaStore.getNumCmdletsInTerminiatedStates());
@@ -172,7 +218,15 @@ public void init() throws IOException {
       schedulerServices = AbstractServiceFactory.createActionSchedulerServices(
         getContext().getConf(), getContext(), metaStore, false);
 
+      ActionSchedulerService.CmdletSubmitter submitter =
+          new ActionSchedulerService.CmdletSubmitter() {
+            @Override
+            public long submitCmdlet(String cmdlet) throws IOException {
+              return CmdletManager.this.submitCmdlet(cmdlet);
+            }
+          };
       for (ActionSchedulerService s : schedulerServices) {
+        s.setCmdletSubmitter(submitter);
         s.init();
         List<String> actions = s.getSupportedActions();
         for (String a : actions) {
@@ -195,6 +249,32 @@ private void recovery() throws IOException {
     reloadCmdletsInDB();
   }
 
+  /**
+   * Write the changes journaled but not written to metastore before the
+   * last stop, so that they are reloaded from metastore later.
+   */
+  private void recoverJournal() throws IOException, MetaStoreException {
+    if (journal == null) {
+      return;
+    }
+    List<CmdletInfo> cmdletInfos = new ArrayList<>();
+    List<ActionInfo> actionInfos = new ArrayList<>();
+    for (CmdletJournal.Entry entry : journal.recover()) {
+      // Disabled cmdlets are never written to metastore
+      if (entry.getCmdlet().getState() != CmdletState.DISABLED) {
+        cmdletInfos.add(entry.getCmdlet());
+        actionInfos.addAll(entry.getActions());
+      }
+    }
+    if (cmdletInfos.size() > 0) {
+      LOG.info("Recovered {} cmdlets from journal.", cmdletInfos.size());
+      metaStore.upsertCmdletsAndActions(
+          cmdletInfos.toArray(new CmdletInfo[cmdletInfos.size()]),
+          actionInfos.toArray(new ActionInfo[actionInfos.size()]));
+    }
+    journal.purgeBefore(journal.roll());
+  }
+
   private void reloadCmdletsInDB() throws IOException{
     LOG.info("reloading the dispatched and pending cmdlets in DB.");
     List<CmdletInfo> cmdletInfos;
@@ -267,7 +347,20 @@ public void start() throws IOException {
     LOG.info("Starting ...");
     executorService.scheduleAtFixedRate(new CmdletPurgeTask(getContext().getConf()),
       10, 5000, TimeUnit.MILLISECONDS);
-    executorService.scheduleAtFixedRate(new ScheduleTask(), 100, 50, TimeUnit.MILLISECONDS);
+    executorService.scheduleAtFixedRate(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          batchSyncCmdAction();
+        } catch (Throwable t) {
+          LOG.error("Failed to sync cmdlets to metastore.", t);
+        }
+      }
+    }, 100, syncInterval, TimeUnit.MILLISECONDS);
+    for (CmdletScheduleShard shard : scheduleShards) {
+      executorService.scheduleAtFixedRate(new ScheduleTask(shard), 100, 50,
+          TimeUnit.MILLISECONDS);
+    }
     executorService.scheduleAtFixedRate(new DetectFailedActionTask(), 1000, 5000,
       TimeUnit.MILLISECONDS);
 
@@ -287,6 +380,9 @@ public void stop() throws IOException {
     }
     executorService.shutdown();
     batchSyncCmdAction();
+    if (journal != null) {
+      journal.close();
+    }
     dispatcher.shutDownExcutorServices();
     LOG.info("Stopped.");
   }
@@ -310,7 +406,14 @@ public long submitCmdlet(CmdletDescriptor cmdletDescriptor) throws IOException {
     if (LOG.isDebugEnabled()) {
       LOG.debug(String.format("Received Cmdlet -> [ %s ]", cmdletDescriptor.getCmdletString()));
     }
-    if (maxNumPendingCmdlets <= pendingCmdlet.size() + schedulingCmdlet.size()) {
+    RuleShare share = ruleShares.update(cmdletDescriptor.getRuleId(),
+        cmdletDescriptor.getPriority(), cmdletDescriptor.getWeight(),
+        cmdletDescriptor.getMaxInFlight());
+    // Part of the pending queue is kept for high priority cmdlets,
+    // so they are still accepted when a bulk rule fills the queue
+    int maxNumPending = share.getPriority() == CmdletPriority.HIGH
+        ? maxNumPendingCmdlets : maxNumPendingCmdlets - maxNumPendingCmdlets / 10;
+    if (maxNumPending <= getNumPendingCmdlets()) {
       throw new QueueFullException("Pending cmdlets exceeds value specified by key '"
           + SmartConfKeys.SMART_CMDLET_MAX_NUM_PENDING_KEY + "' = " + maxNumPendingCmdlets);
     }
@@ -352,65 +455,101 @@ private void syncCmdAction(CmdletInfo cmdletInfo,
 
     if (cmdletInfo.getState() == CmdletState.PENDING) {
       numCmdletsGen.incrementAndGet();
-      cacheCmd.put(cmdletInfo.getCid(), cmdletInfo);
-      synchronized (pendingCmdlet) {
-        pendingCmdlet.add(cmdletInfo.getCid());
-      }
+      flushCmdletInfo(cmdletInfo);
+      getScheduleShard(cmdletInfo.getCid()).add(cmdletInfo);
     } else if (cmdletInfo.getState() == CmdletState.DISPATCHED) {
       runningCmdlets.add(cmdletInfo.getCid());
       LaunchCmdlet launchCmdlet = createLaunchCmdlet(cmdletInfo);
       idToLaunchCmdlet.put(cmdletInfo.getCid(), launchCmdlet);
+      ruleShares.get(cmdletInfo.getRid()).incInFlight();
     }
   }
 
+  /**
+   * Write all the cmdlets changed since last time to metastore, the changes
+   * of the same cmdlet are merged into one write.
+   */
   private void batchSyncCmdAction() {
     if (cacheCmd.size() == 0) {
       return;
     }
-    List<CmdletInfo> cmdletInfos = new ArrayList<>();
-    List<ActionInfo> actionInfos = new ArrayList<>();
-    List<CmdletInfo> cmdletFinished = new ArrayList<>();
     LOG.debug("Number of cached cmds {}", cacheCmd.size());
     synchronized (cacheCmd) {
-      for (Long cid : cacheCmd.keySet()) {
-        CmdletInfo cmdletInfo = cacheCmd.remove(cid);
-        if (cmdletInfo.getState() != CmdletState.DISABLED) {
-          cmdletInfos.add(cmdletInfo);
-          for (Long aid : cmdletInfo.getAids()) {
-            ActionInfo actionInfo = idToActions.get(aid);
-            if (actionInfo != null) {
-              actionInfos.add(actionInfo);
-            }
+      List<CmdletInfo> changed = new ArrayList<>();
+      long segment = -1;
+      synchronized (journalLock) {
+        // Changes journaled before rolling are all taken below
+        if (journal != null) {
+          try {
+            segment = journal.roll();
+          } catch (IOException e) {
+            LOG.error("Failed to roll cmdlet journal.", e);
           }
         }
-        if (CmdletState.isTerminalState(cmdletInfo.getState())) {
-          cmdletFinished.add(cmdletInfo);
+        for (Long cid : cacheCmd.keySet()) {
+          changed.add(cacheCmd.remove(cid));
         }
-        if (cmdletInfos.size() >= cacheCmdTh) {
-          break;
+      }
+      for (int i = 0; i < changed.size(); i += cacheCmdTh) {
+        List<CmdletInfo> batch =
+            changed.subList(i, Math.min(changed.size(), i + cacheCmdTh));
+        if (!syncToMetaStore(batch)) {
+          // Keep the unwritten changes and their journal segments for the
+          // next pass, a newer change of the same cmdlet wins
+          for (CmdletInfo info : changed.subList(i, changed.size())) {
+            cacheCmd.putIfAbsent(info.getCid(), info);
+          }
+          return;
         }
       }
+      if (segment >= 0) {
+        journal.purgeBefore(segment);
+      }
+    }
+  }
 
-      for (CmdletInfo cmdletInfo : cmdletFinished) {
-        idToCmdlets.remove(cmdletInfo.getCid());
+  /**
+   * Write the given changes in one batch.
+   *
+   * @return false if the batch was not written to metastore
+   */
+  private boolean syncToMetaStore(List<CmdletInfo> changed) {
+    List<CmdletInfo> cmdletInfos = new ArrayList<>();
+    List<ActionInfo> actionInfos = new ArrayList<>();
+    for (CmdletInfo cmdletInfo : changed) {
+      if (cmdletInfo.getState() != CmdletState.DISABLED) {
+        cmdletInfos.add(cmdletInfo);
         for (Long aid : cmdletInfo.getAids()) {
-          idToActions.remove(aid);
+          ActionInfo actionInfo = idToActions.get(aid);
+          if (actionInfo != null) {
+            actionInfos.add(actionInfo);
+          }
         }
       }
+    }
 
-      if (cmdletInfos.size() == 0) {
-        return;
-      }
+    if (cmdletInfos.size() > 0) {
       LOG.debug("Number of cmds {} to submit", cmdletInfos.size());
       try {
-        metaStore.insertActions(
-          actionInfos.toArray(new ActionInfo[actionInfos.size()]));
-        metaStore.insertCmdlets(
-          cmdletInfos.toArray(new CmdletInfo[cmdletInfos.size()]));
+        metaStore.upsertCmdletsAndActions(
+            cmdletInfos.toArray(new CmdletInfo[cmdletInfos.size()]),
+            actionInfos.toArray(new ActionInfo[actionInfos.size()]));
       } catch (MetaStoreException e) {
         LOG.error("{} submit to DB error", cmdletInfos, e);
+        return false;
+      }
+    }
+
+    // Finished cmdlets are only dropped from memory once they are written
+    for (CmdletInfo cmdletInfo : changed) {
+      if (CmdletState.isTerminalState(cmdletInfo.getState())) {
+        idToCmdlets.remove(cmdletInfo.getCid());
+        for (Long aid : cmdletInfo.getAids()) {
+          idToActions.remove(aid);
+        }
       }
     }
+    return true;
   }
 
   private synchronized Set<String> lockMovefileActionFiles(List<ActionInfo> actionInfos)
@@ -453,73 +592,81 @@ private boolean shouldStopSchedule() {
     return false;
   }
 
-  private int scheduleCmdlet() throws IOException {
-    int nScheduled = 0;
+  private CmdletScheduleShard getScheduleShard(long cid) {
+    return scheduleShards[(int) (cid % scheduleShards.length)];
+  }
 
-    synchronized (pendingCmdlet) {
-      if (pendingCmdlet.size() > 0) {
-        schedulingCmdlet.addAll(pendingCmdlet);
-        pendingCmdlet.clear();
-      }
+  /**
+   * Get the number of cmdlets submitted but not scheduled yet.
+   */
+  public int getNumPendingCmdlets() {
+    int num = 0;
+    for (CmdletScheduleShard shard : scheduleShards) {
+      num += shard.size();
     }
+    return num;
+  }
+
+  /**
+   * Get the scheduling options of the cmdlets of the rule, they can also
+   * be changed through the returned share at runtime.
+   */
+  public RuleShare getRuleShare(long rid) {
+    return ruleShares.get(rid);
+  }
+
+  private int scheduleCmdlet(CmdletScheduleShard shard) throws IOException {
+    int nScheduled = 0;
 
     long curr = System.currentTimeMillis();
-    Iterator<Long> it = schedulingCmdlet.iterator();
-    while (it.hasNext() && !shouldStopSchedule()) {
-      long id = it.next();
+    shard.beginPass(curr);
+    CmdletInfo cmdlet;
+    while (!shouldStopSchedule() && (cmdlet = shard.poll()) != null) {
       if (nScheduled % 20 == 0) {
         curr = System.currentTimeMillis();
       }
-      CmdletInfo cmdlet = idToCmdlets.get(id);
-      if (cmdlet == null) {
-        it.remove();
-        continue;
-      }
+      long id = cmdlet.getCid();
 
       synchronized (cmdlet) {
-        switch (cmdlet.getState()) {
-          case CANCELLED:
-          case DISABLED:
-            it.remove();
-            break;
-
-          case PENDING:
-            if (cmdlet.getDeferedToTime() > curr) {
-              break;
-            }
+        if (cmdlet.getState() != CmdletState.PENDING) {
+          shard.drop(cmdlet);
+          continue;
+        }
+        if (cmdlet.getDeferedToTime() > curr) {
+          shard.defer(cmdlet);
+          continue;
+        }
 
-            LaunchCmdlet launchCmdlet = createLaunchCmdlet(cmdlet);
-            ScheduleResult result;
-            try {
-              result = scheduleCmdletActions(cmdlet, launchCmdlet);
-            } catch (Throwable t) {
-              LOG.error("Schedule " + cmdlet + " failed.", t);
-              result = ScheduleResult.FAIL;
-            }
-            if (result != ScheduleResult.RETRY) {
-              it.remove();
-            } else {
-              continue;
-            }
-            try {
-              if (result == ScheduleResult.SUCCESS) {
-                idToLaunchCmdlet.put(cmdlet.getCid(), launchCmdlet);
-                cmdlet.setState(CmdletState.SCHEDULED);
-                cmdlet.setStateChangedTime(System.currentTimeMillis());
-                scheduledCmdlet.add(id);
-                nScheduled++;
-              } else if (result == ScheduleResult.FAIL) {
-                cmdlet.updateState(CmdletState.CANCELLED);
-                CmdletStatus cmdletStatus = new CmdletStatus(
-                    cmdlet.getCid(), cmdlet.getStateChangedTime(), cmdlet.getState());
-                // Mark all actions as finished and successful
-                cmdletFinishedInternal(cmdlet);
-                onCmdletStatusUpdate(cmdletStatus);
-              }
-            } catch (Throwable t) {
-              LOG.error("Post schedule cmdlet " + cmdlet + " error.", t);
-            }
-            break;
+        LaunchCmdlet launchCmdlet = createLaunchCmdlet(cmdlet);
+        ScheduleResult result;
+        try {
+          result = scheduleCmdletActions(cmdlet, launchCmdlet);
+        } catch (Throwable t) {
+          LOG.error("Schedule " + cmdlet + " failed.", t);
+          result = ScheduleResult.FAIL;
+        }
+        if (result == ScheduleResult.RETRY) {
+          shard.retry(cmdlet);
+          continue;
+        }
+        try {
+          if (result == ScheduleResult.SUCCESS) {
+            idToLaunchCmdlet.put(cmdlet.getCid(), launchCmdlet);
+            ruleShares.get(cmdlet.getRid()).incInFlight();
+            cmdlet.setState(CmdletState.SCHEDULED);
+            cmdlet.setStateChangedTime(System.currentTimeMillis());
+            scheduledCmdlet.add(id);
+            nScheduled++;
+          } else if (result == ScheduleResult.FAIL) {
+            cmdlet.updateState(CmdletState.CANCELLED);
+            CmdletStatus cmdletStatus = new CmdletStatus(
+                cmdlet.getCid(), cmdlet.getStateChangedTime(), cmdlet.getState());
+            // Mark all actions as finished and successful
+            cmdletFinishedInternal(cmdlet);
+            onCmdletStatusUpdate(cmdletStatus);
+          }
+        } catch (Throwable t) {
+          LOG.error("Post schedule cmdlet " + cmdlet + " error.", t);
         }
       }
     }
@@ -546,7 +693,7 @@ private ScheduleResult scheduleCmdletActions(CmdletInfo info,
       for (schIdx = 0; schIdx < actSchedulers.size(); schIdx++) {
         ActionScheduler s = actSchedulers.get(schIdx);
         try {
-          scheduleResult = s.onSchedule(actionInfo, launchAction);
+          scheduleResult = onSchedule(s, actionInfo, launchAction);
         } catch (Throwable t) {
           actionInfo.setLog((actionInfo.getLog() == null ? "" : actionInfo.getLog())
               + "\nOnSchedule exception: " + t);
@@ -584,8 +731,9 @@ private void postscheduleCmdletActions(List<Long> actions, ScheduleResult result
       }
 
       for (int sidx = lastScheduler; sidx >= 0; sidx--) {
+        ActionScheduler s = actSchedulers.get(sidx);
         try {
-          actSchedulers.get(sidx).postSchedule(info, result);
+          postSchedule(s, info, result);
         } catch (Throwable t) {
           info.setLog((info.getLog() == null ? "" : info.getLog())
               + "\nPostSchedule exception: " + t);
@@ -596,6 +744,29 @@ private void postscheduleCmdletActions(List<Long> actions, ScheduleResult result
     }
   }
 
+  // Action schedulers are shared by all the shards, only those not
+  // thread-safe are called by one shard at a time
+  private static ScheduleResult onSchedule(ActionScheduler s, ActionInfo actionInfo,
+      LaunchAction launchAction) {
+    if (s.isThreadSafe()) {
+      return s.onSchedule(actionInfo, launchAction);
+    }
+    synchronized (s) {
+      return s.onSchedule(actionInfo, launchAction);
+    }
+  }
+
+  private static void postSchedule(ActionScheduler s, ActionInfo actionInfo,
+      ScheduleResult result) {
+    if (s.isThreadSafe()) {
+      s.postSchedule(actionInfo, result);
+      return;
+    }
+    synchronized (s) {
+      s.postSchedule(actionInfo, result);
+    }
+  }
+
   private LaunchCmdlet createLaunchCmdlet(CmdletInfo cmdletInfo) {
     if (cmdletInfo == null) {
       return null;
@@ -680,19 +851,16 @@ public void activateCmdlet(long cid) throws IOException {
   public void disableCmdlet(long cid) throws IOException {
     if (idToCmdlets.containsKey(cid)) {
       CmdletInfo info = idToCmdlets.get(cid);
-      onCmdletStatusUpdate(
-        new CmdletStatus(info.getCid(), System.currentTimeMillis(), CmdletState.DISABLED));
-
-      synchronized (pendingCmdlet) {
-        if (pendingCmdlet.contains(cid)) {
-          pendingCmdlet.remove(cid);
+      synchronized (info) {
+        boolean pending = info.getState() == CmdletState.PENDING;
+        onCmdletStatusUpdate(
+            new CmdletStatus(info.getCid(), System.currentTimeMillis(), CmdletState.DISABLED));
+        if (pending) {
+          // Dropped by the shard when polled
+          getScheduleShard(cid).cancel();
         }
       }
 
-      if (schedulingCmdlet.contains(cid)) {
-        schedulingCmdlet.remove(cid);
-      }
-
       if (scheduledCmdlet.contains(cid)) {
         scheduledCmdlet.remove(cid);
       }
@@ -733,7 +901,9 @@ private void cmdletFinished(long cmdletId) throws IOException {
 
     dispatcher.onCmdletFinished(cmdletInfo.getCid());
     runningCmdlets.remove(cmdletId);
-    idToLaunchCmdlet.remove(cmdletId);
+    if (idToLaunchCmdlet.remove(cmdletId) != null) {
+      ruleShares.get(cmdletInfo.getRid()).decInFlight();
+    }
 
     for (Long aid: cmdletInfo.getAids()) {
       ActionInfo actionInfo = idToActions.get(aid);
@@ -1057,8 +1227,24 @@ public void onActionStatusUpdate(ActionStatus status)
       ActionInfo actionInfo = idToActions.get(actionId);
       synchronized (actionInfo) {
         if (!actionInfo.isFinished()) {
-          actionInfo.setLog(status.getLog());
-          actionInfo.setResult(status.getResult());
+          String log =
+              ActionStatus.apply(actionInfo.getLog(), status.getLog(), status.getLogOffset());
+          String result = ActionStatus.apply(
+              actionInfo.getResult(), status.getResult(), status.getResultOffset());
+          if (log == null || result == null) {
+            // Never leave a gap, what is known stays a prefix of the output
+            LOG.warn("Action {} reported output at offsets {} and {}, only {} and {} chars "
+                + "known. Some report was lost, the output is not updated.", actionId,
+                status.getLogOffset(), status.getResultOffset(),
+                actionInfo.getLog() == null ? 0 : actionInfo.getLog().length(),
+                actionInfo.getResult() == null ? 0 : actionInfo.getResult().length());
+          }
+          if (log != null) {
+            actionInfo.setLog(log);
+          }
+          if (result != null) {
+            actionInfo.setResult(result);
+          }
           if (!status.isFinished()) {
             actionInfo.setProgress(status.getPercentage());
             if (actionInfo.getCreateTime() == 0) {
@@ -1119,7 +1305,25 @@ private void inferCmdletStatus(ActionInfo actionInfo) throws IOException, Action
   }
 
   private void flushCmdletInfo(CmdletInfo info) throws IOException {
-    cacheCmd.put(info.getCid(), info);
+    if (journal == null) {
+      cacheCmd.put(info.getCid(), info);
+      return;
+    }
+    List<ActionInfo> actionInfos = new ArrayList<>();
+    for (Long aid : info.getAids()) {
+      ActionInfo actionInfo = idToActions.get(aid);
+      if (actionInfo != null) {
+        actionInfos.add(actionInfo);
+      }
+    }
+    synchronized (journalLock) {
+      try {
+        journal.append(info, actionInfos);
+      } catch (IOException e) {
+        LOG.error("Failed to journal " + info, e);
+      }
+      cacheCmd.put(info.getCid(), info);
+    }
   }
 
   //Todo: remove this implementation
@@ -1164,17 +1368,19 @@ protected List<ActionInfo> createActionInfos(CmdletDescriptor cmdletDescriptor,
   }
 
   private class ScheduleTask implements Runnable {
-    public ScheduleTask() {
+    private final CmdletScheduleShard shard;
+
+    public ScheduleTask(CmdletScheduleShard shard) {
+      this.shard = shard;
     }
 
     @Override
     public void run() {
       try {
         int nScheduled;
-        batchSyncCmdAction();
         do {
-          nScheduled = scheduleCmdlet();
-          totalScheduled += nScheduled;
+          nScheduled = scheduleCmdlet(shard);
+          totalScheduled.addAndGet(nScheduled);
         } while (nScheduled != 0);
       } catch (Throwable t) {
         // no meaningful info, ignore
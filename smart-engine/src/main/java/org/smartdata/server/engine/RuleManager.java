@@ -26,6 +26,10 @@
 import org.smartdata.metastore.MetaStoreException;
 import org.smartdata.model.CmdletDescriptor;
 import org.smartdata.model.DetailedRuleInfo;
+import org.smartdata.model.FileEvent;
+import org.smartdata.model.FileEventListener;
+import org.smartdata.model.FileEventManager;
+import org.smartdata.model.FileEventType;
 import org.smartdata.model.RuleInfo;
 import org.smartdata.model.RuleState;
 import org.smartdata.model.rule.RuleExecutorPluginManager;
@@ -44,14 +48,17 @@
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Manage and execute rules. We can have 'cache' here to decrease the needs to execute a SQL query.
  */
-public class RuleManager extends AbstractService {
+public class RuleManager extends AbstractService implements FileEventListener {
   private ServerContext serverContext;
   private StatesManager statesManager;
   private CmdletManager cmdletManager;
@@ -63,6 +70,8 @@ public class RuleManager extends AbstractService {
   private ConcurrentHashMap<Long, RuleInfoRepo> mapRules = new ConcurrentHashMap<>();
 
   public ExecutorScheduler execScheduler;
+  // Executors of the rules triggered by file events
+  private List<RuleExecutor> eventExecutors = new CopyOnWriteArrayList<>();
 
   public RuleManager(
       ServerContext context, StatesManager statesManager, CmdletManager cmdletManager) {
@@ -281,10 +290,43 @@ private boolean submitRuleToScheduler(RuleExecutor executor) throws IOException
     if (executor == null || executor.isExited()) {
       return false;
     }
-    execScheduler.addPeriodicityTask(executor);
+    if (executor.getTranslateResult().isEventBased()) {
+      eventExecutors.add(executor);
+    } else {
+      execScheduler.addPeriodicityTask(executor);
+    }
     return true;
   }
 
+  /**
+   * Trigger the rules on the file events, only the changed paths are checked.
+   */
+  @Override
+  public void onFileEvents(List<FileEvent> events) {
+    if (isClosed || eventExecutors.isEmpty()) {
+      return;
+    }
+    Map<FileEventType, List<String>> pathsByType = new EnumMap<>(FileEventType.class);
+    for (FileEvent event : events) {
+      List<String> paths = pathsByType.get(event.getType());
+      if (paths == null) {
+        paths = new ArrayList<>();
+        pathsByType.put(event.getType(), paths);
+      }
+      paths.add(event.getAffectedPath());
+    }
+    for (RuleExecutor executor : eventExecutors) {
+      if (executor.isExited()) {
+        eventExecutors.remove(executor);
+        continue;
+      }
+      List<String> paths = pathsByType.get(executor.getTranslateResult().getTriggerEvent());
+      if (paths != null && executor.addTriggeredPaths(paths)) {
+        execScheduler.addEventTask(executor);
+      }
+    }
+  }
+
   /** Start services. */
   @Override
   public void start() throws IOException {
@@ -298,21 +340,24 @@ public void start() throws IOException {
       if (rule.getState() == RuleState.ACTIVE || rule.getState() == RuleState.DRYRUN) {
         RuleExecutor ruleExecutor = infoRepo.launchExecutor(this);
         TranslateResult tr = ruleExecutor.getTranslateResult();
-        TimeBasedScheduleInfo si = tr.getTbScheduleInfo();
-        long lastCheckTime = rule.getLastCheckTime();
-        long every = si.getEvery();
-        long now = System.currentTimeMillis();
-        if ((now - lastCheckTime) > every) {
-          int delay = new Random().nextInt(5000);
-          si.setStartTime(now + delay);
-        } else {
-          long delay = every - (now - lastCheckTime);
-          si.setStartTime(now + delay);
+        if (!tr.isEventBased()) {
+          TimeBasedScheduleInfo si = tr.getTbScheduleInfo();
+          long lastCheckTime = rule.getLastCheckTime();
+          long every = si.getEvery();
+          long now = System.currentTimeMillis();
+          if ((now - lastCheckTime) > every) {
+            int delay = new Random().nextInt(5000);
+            si.setStartTime(now + delay);
+          } else {
+            long delay = every - (now - lastCheckTime);
+            si.setStartTime(now + delay);
+          }
         }
         boolean sub = submitRuleToScheduler(ruleExecutor);
         numLaunched += sub ? 1 : 0;
       }
     }
+    FileEventManager.addListener(this);
     LOG.info("Started. " + numLaunched + " rules launched for execution.");
   }
 
@@ -321,6 +366,7 @@ public void start() throws IOException {
   public void stop() throws IOException {
     LOG.info("Stopping ...");
     isClosed = true;
+    FileEventManager.deleteListener(this);
     if (execScheduler != null) {
       execScheduler.shutdown();
     }
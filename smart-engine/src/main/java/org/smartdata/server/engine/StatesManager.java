@@ -25,8 +25,10 @@
 import org.smartdata.conf.ReconfigureException;
 import org.smartdata.conf.SmartConfKeys;
 import org.smartdata.metastore.MetaStoreException;
+import org.smartdata.metastore.dao.AccessCountListener;
 import org.smartdata.metastore.dao.AccessCountTable;
 import org.smartdata.metastore.dao.AccessCountTableManager;
+import org.smartdata.metastore.dao.FidCountMap;
 import org.smartdata.metrics.FileAccessEvent;
 import org.smartdata.metrics.FileAccessEventSource;
 import org.smartdata.metrics.impl.MetricsFactory;
@@ -75,8 +77,11 @@ public StatesManager(ServerContext context) {
   public void init() throws IOException {
     LOG.info("Initializing ...");
     this.executorService = Executors.newScheduledThreadPool(4);
+    serverContext.getMetaStore().getFileIdCache().setCapacity(
+        serverContext.getConf().getInt(SmartConfKeys.SMART_FILE_ID_CACHE_CAPACITY_KEY,
+            SmartConfKeys.SMART_FILE_ID_CACHE_CAPACITY_DEFAULT));
     this.accessCountTableManager = new AccessCountTableManager(
-        serverContext.getMetaStore(), executorService);
+        serverContext.getMetaStore(), executorService, serverContext.getConf());
     this.fileAccessEventSource = MetricsFactory.createAccessEventSource(serverContext.getConf());
     this.accessEventFetcher =
         new AccessEventFetcher(
@@ -127,6 +132,9 @@ public void stop() throws IOException {
     if (accessEventFetcher != null) {
       this.accessEventFetcher.stop();
     }
+    if (accessCountTableManager != null) {
+      this.accessCountTableManager.flush();
+    }
     if (this.fileAccessEventSource != null) {
       this.fileAccessEventSource.close();
     }
@@ -144,6 +152,22 @@ public List<AccessCountTable> getTablesInLast(long timeInMills) throws MetaStore
     return this.accessCountTableManager.getTables(timeInMills);
   }
 
+  public boolean isAccessCountInMemory() {
+    return this.accessCountTableManager.isInMemory();
+  }
+
+  public FidCountMap getAccessCountsInLast(long timeInMills) {
+    return this.accessCountTableManager.getAccessCounts(timeInMills);
+  }
+
+  public void addAccessCountListener(AccessCountListener listener) {
+    this.accessCountTableManager.addListener(listener);
+  }
+
+  public void removeAccessCountListener(AccessCountListener listener) {
+    this.accessCountTableManager.removeListener(listener);
+  }
+
   public void reportFileAccessEvent(FileAccessEvent event) throws IOException {
     String path = event.getPath();
     path = path + (path.endsWith("/") ? "" : "/");
@@ -156,6 +180,12 @@ public void reportFileAccessEvent(FileAccessEvent event) throws IOException {
     this.fileAccessEventSource.insertEventFromSmartClient(event);
   }
 
+  public void reportFileAccessEvents(List<FileAccessEvent> events) throws IOException {
+    for (FileAccessEvent event : events) {
+      reportFileAccessEvent(event);
+    }
+  }
+
   public List<FileAccessInfo> getHotFiles(List<AccessCountTable> tables,
       int topNum) throws IOException {
     try {
@@ -170,6 +200,26 @@ public List<FileAccessInfo> getHotFiles(List<AccessCountTable> tables,
     }
   }
 
+  public List<FileAccessInfo> getHotFilesInLast(long timeInMills,
+      int topNum) throws IOException {
+    if (!isAccessCountInMemory()) {
+      try {
+        return getHotFiles(getTablesInLast(timeInMills), topNum);
+      } catch (MetaStoreException e) {
+        throw new IOException(e);
+      }
+    }
+    if (topNum == 0) {
+      topNum = serverContext.getConf().getInt(SmartConfKeys.SMART_TOP_HOT_FILES_NUM_KEY,
+          SmartConfKeys.SMART_TOP_HOT_FILES_NUM_DEFAULT);
+    }
+    try {
+      return serverContext.getMetaStore().getHotFiles(getAccessCountsInLast(timeInMills), topNum);
+    } catch (MetaStoreException e) {
+      throw new IOException(e);
+    }
+  }
+
   public List<CachedFileStatus> getCachedFileStatus() throws IOException {
     try {
       return serverContext.getMetaStore().getCachedFileStatus();
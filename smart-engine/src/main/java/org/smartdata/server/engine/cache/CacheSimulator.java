@@ -0,0 +1,228 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.server.engine.cache;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Replay recorded access counts offline to compare the hit ratios of cache
+ * policies under the same capacity: W-TinyLFU, TinyLFU and LRU.
+ *
+ * <p>Each line of the trace is the accesses of a file in a window recorded
+ * by CacheManager, "time fid count bytes" separated by tabs or spaces.
+ * Lines starting with '#' are ignored. Usage:
+ * <pre>
+ *   CacheSimulator &lt;trace file&gt; &lt;capacity in bytes&gt;
+ *       [window ratio] [sketch entries]
+ * </pre>
+ */
+public class CacheSimulator {
+  private final List<Policy> policies = new ArrayList<>();
+
+  public CacheSimulator(long capacity, double windowRatio, int sketchEntries) {
+    policies.add(new TinyLfu("W-TinyLFU",
+        new WTinyLfuPolicy(capacity, windowRatio, sketchEntries)));
+    if (windowRatio > 0) {
+      policies.add(new TinyLfu("TinyLFU", new WTinyLfuPolicy(capacity, 0, sketchEntries)));
+    }
+    policies.add(new Lru(capacity));
+  }
+
+  public static String formatRecord(long time, long fid, long count, long bytes) {
+    return time + "\t" + fid + "\t" + count + "\t" + bytes;
+  }
+
+  /**
+   * Replay the trace till the end.
+   *
+   * @return number of records replayed
+   */
+  public long replay(BufferedReader reader) throws IOException {
+    long records = 0;
+    String line;
+    while ((line = reader.readLine()) != null) {
+      line = line.trim();
+      if (line.isEmpty() || line.startsWith("#")) {
+        continue;
+      }
+      String[] fields = line.split("\\s+");
+      if (fields.length < 4) {
+        throw new IOException("Invalid access record: " + line);
+      }
+      try {
+        access(Long.parseLong(fields[1]), Long.parseLong(fields[2]),
+            Long.parseLong(fields[3]));
+      } catch (NumberFormatException e) {
+        throw new IOException("Invalid access record: " + line, e);
+      }
+      records++;
+    }
+    return records;
+  }
+
+  public void access(long fid, long count, long bytes) {
+    for (Policy policy : policies) {
+      boolean hit = policy.record(fid, count, bytes);
+      policy.result.add(count, bytes, hit);
+    }
+  }
+
+  public List<Result> getResults() {
+    List<Result> results = new ArrayList<>(policies.size());
+    for (Policy policy : policies) {
+      results.add(policy.result);
+    }
+    return results;
+  }
+
+  /**
+   * Hits of a policy.
+   */
+  public static class Result {
+    private final String policy;
+    private long requests;
+    private long hits;
+    private long requestedBytes;
+    private long hitBytes;
+
+    Result(String policy) {
+      this.policy = policy;
+    }
+
+    void add(long count, long bytes, boolean hit) {
+      requests += count;
+      requestedBytes += count * bytes;
+      if (hit) {
+        hits += count;
+        hitBytes += count * bytes;
+      }
+    }
+
+    public String getPolicy() {
+      return policy;
+    }
+
+    public long getRequests() {
+      return requests;
+    }
+
+    public long getHits() {
+      return hits;
+    }
+
+    public double getHitRatio() {
+      return requests == 0 ? 0 : (double) hits / requests;
+    }
+
+    public double getByteHitRatio() {
+      return requestedBytes == 0 ? 0 : (double) hitBytes / requestedBytes;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%-10s requests=%d hits=%d hitRatio=%.4f byteHitRatio=%.4f",
+          policy, requests, hits, getHitRatio(), getByteHitRatio());
+    }
+  }
+
+  private abstract static class Policy {
+    final Result result;
+
+    Policy(String name) {
+      this.result = new Result(name);
+    }
+
+    abstract boolean record(long fid, long count, long bytes);
+  }
+
+  private static class TinyLfu extends Policy {
+    private final WTinyLfuPolicy policy;
+
+    TinyLfu(String name, WTinyLfuPolicy policy) {
+      super(name);
+      this.policy = policy;
+    }
+
+    @Override
+    boolean record(long fid, long count, long bytes) {
+      return policy.record(fid, count, bytes);
+    }
+  }
+
+  /**
+   * Baseline caching every missed file and evicting the least recently
+   * accessed ones.
+   */
+  private static class Lru extends Policy {
+    private final long capacity;
+    private final LinkedHashMap<Long, Long> files = new LinkedHashMap<>(16, 0.75f, true);
+    private long used;
+
+    Lru(long capacity) {
+      super("LRU");
+      this.capacity = capacity;
+    }
+
+    @Override
+    boolean record(long fid, long count, long bytes) {
+      if (files.get(fid) != null) {
+        return true;
+      }
+      if (bytes > 0 && bytes <= capacity) {
+        files.put(fid, bytes);
+        used += bytes;
+        Iterator<Map.Entry<Long, Long>> it = files.entrySet().iterator();
+        while (used > capacity) {
+          used -= it.next().getValue();
+          it.remove();
+        }
+      }
+      return false;
+    }
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 2) {
+      System.err.println("Usage: CacheSimulator <trace file> <capacity in bytes>"
+          + " [window ratio] [sketch entries]");
+      System.exit(1);
+    }
+    long capacity = Long.parseLong(args[1]);
+    double windowRatio = args.length > 2 ? Double.parseDouble(args[2]) : 0.01;
+    int sketchEntries = args.length > 3 ? Integer.parseInt(args[3]) : 100000;
+    CacheSimulator simulator = new CacheSimulator(capacity, windowRatio, sketchEntries);
+    long records;
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+        new FileInputStream(args[0]), StandardCharsets.UTF_8))) {
+      records = simulator.replay(reader);
+    }
+    System.out.println("Replayed " + records + " records with capacity " + capacity);
+    for (Result result : simulator.getResults()) {
+      System.out.println(result);
+    }
+  }
+}
@@ -0,0 +1,127 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.server.engine.cache;
+
+/**
+ * Count-Min sketch with 4-bit counters estimating the access frequencies
+ * of files (TinyLFU). All the counters are halved once the accesses
+ * recorded reach 10 times of the width, so the estimation reflects recent
+ * accesses and files no longer accessed are aged out.
+ */
+public class FrequencySketch {
+  private static final int DEPTH = 4;
+  private static final long MAX_COUNT = 15;
+  private static final int MAX_WIDTH = 1 << 24;
+  private static final long RESET_MASK = 0x7777777777777777L;
+  private static final long[] SEEDS = {
+      0x97cb3127L, 0xab0e21bdL, 0x42bd5c0bL, 0xc3a5c85cL};
+
+  private final int width;
+  private final long[] table;
+  private final long sampleSize;
+  private long size;
+
+  /**
+   * @param expectedEntries number of files whose frequencies are expected
+   *     to be told apart
+   */
+  public FrequencySketch(int expectedEntries) {
+    int entries = Math.min(Math.max(expectedEntries, 16), MAX_WIDTH);
+    this.width = Integer.highestOneBit(entries - 1) << 1;
+    // 16 counters in each long
+    this.table = new long[DEPTH * width / 16];
+    this.sampleSize = 10L * width;
+  }
+
+  /**
+   * Get the estimated frequency of the file, at most 15.
+   */
+  public int frequency(long fid) {
+    long hash = spread(fid);
+    long min = MAX_COUNT;
+    for (int i = 0; i < DEPTH; i++) {
+      int index = indexOf(hash, i);
+      min = Math.min(min, (table[index >>> 4] >>> offsetOf(index)) & 0xfL);
+    }
+    return (int) min;
+  }
+
+  /**
+   * Record the accesses of the file, the counters saturate at 15.
+   */
+  public void increment(long fid, long count) {
+    if (count <= 0) {
+      return;
+    }
+    long delta = Math.min(count, MAX_COUNT);
+    long hash = spread(fid);
+    boolean added = false;
+    for (int i = 0; i < DEPTH; i++) {
+      int index = indexOf(hash, i);
+      int offset = offsetOf(index);
+      long value = (table[index >>> 4] >>> offset) & 0xfL;
+      long updated = Math.min(value + delta, MAX_COUNT);
+      if (updated != value) {
+        table[index >>> 4] += (updated - value) << offset;
+        added = true;
+      }
+    }
+    if (added) {
+      size += delta;
+      if (size >= sampleSize) {
+        reset();
+      }
+    }
+  }
+
+  /**
+   * Halve all the counters.
+   */
+  void reset() {
+    long odd = 0;
+    for (int i = 0; i < table.length; i++) {
+      odd += Long.bitCount(table[i] & 0x1111111111111111L);
+      table[i] = (table[i] >>> 1) & RESET_MASK;
+    }
+    size = Math.max(0, (size - (odd >>> 2)) >>> 1);
+  }
+
+  int getWidth() {
+    return width;
+  }
+
+  private int indexOf(long hash, int row) {
+    long h = (hash + SEEDS[row]) * SEEDS[row];
+    h += h >>> 32;
+    return row * width + ((int) h & (width - 1));
+  }
+
+  private static int offsetOf(int index) {
+    return (index & 15) << 2;
+  }
+
+  private static long spread(long fid) {
+    long h = fid;
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+}
@@ -0,0 +1,326 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.server.engine.cache;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * W-TinyLFU cache policy weighted by bytes. Missed files are admitted into
+ * a small LRU window first. Files leaving the window are only admitted into
+ * the main segmented LRU if estimated more frequently accessed than the
+ * files to be evicted for them, so that files accessed once, like scans,
+ * do not flush frequently accessed ones. The main space is split into a
+ * probation segment and a protected segment taking files accessed again.
+ * It is pure TinyLFU without the window.
+ *
+ * <p>Not thread safe.
+ */
+public class WTinyLfuPolicy {
+  private static final double PROTECTED_RATIO = 0.8;
+
+  /**
+   * Listener of the files cached and uncached by the policy.
+   */
+  public interface Listener {
+    void onAdmit(long fid);
+
+    void onEvict(long fid);
+  }
+
+  private final FrequencySketch sketch;
+  private final double windowRatio;
+  private long capacity;
+  private long windowCapacity;
+  private long protectedCapacity;
+
+  // File id to bytes, in order from least recently accessed
+  private final LinkedHashMap<Long, Long> window = new LinkedHashMap<>();
+  private final LinkedHashMap<Long, Long> probation = new LinkedHashMap<>();
+  private final LinkedHashMap<Long, Long> protect = new LinkedHashMap<>();
+  private long windowBytes;
+  private long probationBytes;
+  private long protectedBytes;
+  private Listener listener;
+
+  /**
+   * @param capacity bytes of the cache
+   * @param windowRatio share of the window in the cache, 0 for TinyLFU
+   * @param sketchEntries number of files whose frequencies are estimated
+   */
+  public WTinyLfuPolicy(long capacity, double windowRatio, int sketchEntries) {
+    if (windowRatio < 0 || windowRatio >= 1) {
+      throw new IllegalArgumentException("Invalid window ratio " + windowRatio);
+    }
+    this.sketch = new FrequencySketch(sketchEntries);
+    this.windowRatio = windowRatio;
+    setCapacity(capacity);
+  }
+
+  public void setListener(Listener listener) {
+    this.listener = listener;
+  }
+
+  /**
+   * Change the capacity, files are evicted if the cache shrinks.
+   */
+  public void setCapacity(long capacity) {
+    this.capacity = Math.max(0, capacity);
+    this.windowCapacity = (long) (this.capacity * windowRatio);
+    this.protectedCapacity = (long) ((this.capacity - windowCapacity) * PROTECTED_RATIO);
+    shrinkWindow();
+    demoteProtected();
+    evictOverflow();
+  }
+
+  public long getCapacity() {
+    return capacity;
+  }
+
+  public long getUsed() {
+    return windowBytes + probationBytes + protectedBytes;
+  }
+
+  public int size() {
+    return window.size() + probation.size() + protect.size();
+  }
+
+  public boolean contains(long fid) {
+    return window.containsKey(fid) || probation.containsKey(fid) || protect.containsKey(fid);
+  }
+
+  /**
+   * Get the bytes of the cached file.
+   *
+   * @return 0 if not cached
+   */
+  public long sizeOf(long fid) {
+    Long bytes = window.get(fid);
+    if (bytes == null) {
+      bytes = probation.get(fid);
+    }
+    if (bytes == null) {
+      bytes = protect.get(fid);
+    }
+    return bytes == null ? 0 : bytes;
+  }
+
+  public int frequency(long fid) {
+    return sketch.frequency(fid);
+  }
+
+  public Set<Long> getCachedFids() {
+    Set<Long> fids = new HashSet<>(size());
+    fids.addAll(window.keySet());
+    fids.addAll(probation.keySet());
+    fids.addAll(protect.keySet());
+    return fids;
+  }
+
+  /**
+   * Record the accesses of the file, which may be cached and may cause other
+   * files evicted.
+   *
+   * @param bytes bytes to cache the file, or the bytes of it is unchanged
+   *     if not positive and it is cached
+   * @return true if the file was cached before the accesses
+   */
+  public boolean record(long fid, long count, long bytes) {
+    sketch.increment(fid, count);
+    Long cached = window.remove(fid);
+    if (cached != null) {
+      window.put(fid, cached);
+      windowBytes += resize(window, fid, cached, bytes);
+      shrinkWindow();
+    } else if ((cached = probation.remove(fid)) != null) {
+      probationBytes -= cached;
+      long newBytes = bytes > 0 ? bytes : cached;
+      protect.put(fid, newBytes);
+      protectedBytes += newBytes;
+      demoteProtected();
+    } else if ((cached = protect.remove(fid)) != null) {
+      protect.put(fid, cached);
+      protectedBytes += resize(protect, fid, cached, bytes);
+      demoteProtected();
+    } else {
+      if (bytes > 0 && bytes <= capacity) {
+        if (windowCapacity > 0) {
+          window.put(fid, bytes);
+          windowBytes += bytes;
+          notifyAdmit(fid);
+          shrinkWindow();
+        } else {
+          admit(fid, bytes, false);
+        }
+      }
+      evictOverflow();
+      return false;
+    }
+    evictOverflow();
+    return true;
+  }
+
+  /**
+   * Take the file as cached without checking the frequency, for the files
+   * cached before or by others. Files may be evicted for it.
+   */
+  public void addCached(long fid, long bytes) {
+    if (contains(fid) || bytes <= 0) {
+      return;
+    }
+    probation.put(fid, bytes);
+    probationBytes += bytes;
+    evictOverflow();
+  }
+
+  /**
+   * Forget the cached file without notifying, e.g. the file is deleted.
+   */
+  public void remove(long fid) {
+    Long bytes = window.remove(fid);
+    if (bytes != null) {
+      windowBytes -= bytes;
+      return;
+    }
+    bytes = probation.remove(fid);
+    if (bytes != null) {
+      probationBytes -= bytes;
+      return;
+    }
+    bytes = protect.remove(fid);
+    if (bytes != null) {
+      protectedBytes -= bytes;
+    }
+  }
+
+  private static long resize(Map<Long, Long> segment, long fid, long cached, long bytes) {
+    if (bytes <= 0 || bytes == cached) {
+      return 0;
+    }
+    segment.put(fid, bytes);
+    return bytes - cached;
+  }
+
+  /**
+   * Move files out of the window till it fits, each either admitted into
+   * the main space or evicted.
+   */
+  private void shrinkWindow() {
+    while (windowBytes > windowCapacity && !window.isEmpty()) {
+      Iterator<Map.Entry<Long, Long>> it = window.entrySet().iterator();
+      Map.Entry<Long, Long> candidate = it.next();
+      it.remove();
+      windowBytes -= candidate.getValue();
+      admit(candidate.getKey(), candidate.getValue(), true);
+    }
+  }
+
+  /**
+   * Admit the candidate into probation if it is estimated more frequently
+   * accessed than every file to be evicted to make room for it, in order
+   * from the least recently accessed in probation and then in protected.
+   * Ties are in favor of the cached files.
+   */
+  private void admit(long fid, long bytes, boolean cached) {
+    long mainCapacity = capacity - windowCapacity;
+    long needed = probationBytes + protectedBytes + bytes - mainCapacity;
+    if (bytes > mainCapacity) {
+      reject(fid, cached);
+      return;
+    }
+    if (needed > 0) {
+      int frequency = sketch.frequency(fid);
+      List<Long> victims = new ArrayList<>();
+      long freed = 0;
+      Iterator<Map.Entry<Long, Long>> it = probation.entrySet().iterator();
+      boolean inProbation = true;
+      while (freed < needed) {
+        if (!it.hasNext()) {
+          if (!inProbation) {
+            break;
+          }
+          it = protect.entrySet().iterator();
+          inProbation = false;
+          continue;
+        }
+        Map.Entry<Long, Long> victim = it.next();
+        if (sketch.frequency(victim.getKey()) >= frequency) {
+          reject(fid, cached);
+          return;
+        }
+        victims.add(victim.getKey());
+        freed += victim.getValue();
+      }
+      for (long victim : victims) {
+        evict(victim);
+      }
+    }
+    probation.put(fid, bytes);
+    probationBytes += bytes;
+    if (!cached) {
+      notifyAdmit(fid);
+    }
+  }
+
+  private void reject(long fid, boolean cached) {
+    if (cached) {
+      notifyEvict(fid);
+    }
+  }
+
+  private void demoteProtected() {
+    while (protectedBytes > protectedCapacity && !protect.isEmpty()) {
+      Iterator<Map.Entry<Long, Long>> it = protect.entrySet().iterator();
+      Map.Entry<Long, Long> entry = it.next();
+      it.remove();
+      protectedBytes -= entry.getValue();
+      probation.put(entry.getKey(), entry.getValue());
+      probationBytes += entry.getValue();
+    }
+  }
+
+  private void evictOverflow() {
+    while (getUsed() > capacity) {
+      LinkedHashMap<Long, Long> segment = !probation.isEmpty() ? probation
+          : !protect.isEmpty() ? protect : window;
+      evict(segment.keySet().iterator().next());
+    }
+  }
+
+  private void evict(long fid) {
+    remove(fid);
+    notifyEvict(fid);
+  }
+
+  private void notifyAdmit(long fid) {
+    if (listener != null) {
+      listener.onAdmit(fid);
+    }
+  }
+
+  private void notifyEvict(long fid) {
+    if (listener != null) {
+      listener.onEvict(fid);
+    }
+  }
+}
@@ -24,7 +24,6 @@
 import org.smartdata.model.CmdletState;
 import org.smartdata.protocol.message.ActionStatus;
 
-import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
@@ -124,7 +123,11 @@ public void run() {
     runAllActions();
   }
 
-  public synchronized List<ActionStatus> getActionStatuses() throws UnsupportedEncodingException {
+  /**
+   * Get the statuses of the actions not reported finished yet, with only
+   * the result and log appended since the last report.
+   */
+  public synchronized List<ActionStatus> getActionStatuses() {
     if (actionReportList.isEmpty()) {
       return null;
     }
@@ -135,10 +138,11 @@ public synchronized List<ActionStatus> getActionStatuses() throws UnsupportedEnc
     Iterator<SmartAction> iter = actionReportList.iterator();
     while (iter.hasNext()) {
       SmartAction action = iter.next();
-      ActionStatus status = action.getActionStatus();
+      ActionStatus status = action.getActionStatusDelta();
       statuses.add(status);
       if (status.isFinished()) {
         iter.remove();
+        action.releaseOutput();
       }
     }
 
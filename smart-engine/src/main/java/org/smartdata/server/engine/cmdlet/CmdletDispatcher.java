@@ -40,6 +40,7 @@
 import java.util.List;
 import java.util.Map;
 import java.util.Queue;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
@@ -50,7 +51,7 @@ public class CmdletDispatcher {
   private static final Logger LOG = LoggerFactory.getLogger(CmdletDispatcher.class);
   private Queue<Long> pendingCmdlets;
   private final CmdletManager cmdletManager;
-  private final List<Long> runningCmdlets;
+  private final Set<Long> runningCmdlets;
   private final Map<Long, LaunchCmdlet> idToLaunchCmdlet;
   private final ListMultimap<String, ActionScheduler> schedulers;
 
@@ -78,7 +79,7 @@ public class CmdletDispatcher {
 
   public CmdletDispatcher(SmartContext smartContext, CmdletManager cmdletManager,
       Queue<Long> scheduledCmdlets, Map<Long, LaunchCmdlet> idToLaunchCmdlet,
-      List<Long> runningCmdlets, ListMultimap<String, ActionScheduler> schedulers) {
+      Set<Long> runningCmdlets, ListMultimap<String, ActionScheduler> schedulers) {
     this.cmdletManager = cmdletManager;
     this.pendingCmdlets = scheduledCmdlets;
     this.runningCmdlets = runningCmdlets;
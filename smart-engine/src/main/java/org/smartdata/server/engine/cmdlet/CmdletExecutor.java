@@ -30,7 +30,6 @@
 import org.smartdata.protocol.message.ActionStatus;
 import org.smartdata.protocol.message.StatusReport;
 
-import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
@@ -92,15 +91,11 @@ public StatusReport getStatusReport() {
     Iterator<Cmdlet> iter = idToReportCmdlet.values().iterator();
     while (iter.hasNext()) {
       Cmdlet cmdlet = iter.next();
-      try {
-        List<ActionStatus> statuses = cmdlet.getActionStatuses();
-        if (statuses != null) {
-          actionStatusList.addAll(statuses);
-        } else {
-          iter.remove();
-        }
-      } catch (UnsupportedEncodingException e) {
-        LOG.error("Get actionStatus for cmdlet [id={}] error", cmdlet.getId(), e);
+      List<ActionStatus> statuses = cmdlet.getActionStatuses();
+      if (statuses != null) {
+        actionStatusList.addAll(statuses);
+      } else {
+        iter.remove();
       }
     }
 
@@ -21,6 +21,7 @@
 import org.slf4j.LoggerFactory;
 import org.smartdata.SmartContext;
 import org.smartdata.action.ActionException;
+import org.smartdata.action.ActionOutputPool;
 import org.smartdata.action.ActionRegistry;
 import org.smartdata.action.SmartAction;
 //import org.smartdata.alluxio.AlluxioUtil;
@@ -29,6 +30,7 @@
 import org.smartdata.conf.SmartConfKeys;
 import org.smartdata.hdfs.HadoopUtil;
 import org.smartdata.hdfs.action.HdfsAction;
+import org.smartdata.hdfs.action.move.MoverService;
 import org.smartdata.hdfs.client.SmartDFSClient;
 import org.smartdata.model.LaunchAction;
 import org.smartdata.protocol.message.StatusReporter;
@@ -51,6 +53,8 @@ public CmdletFactory(SmartContext smartContext) {
   public CmdletFactory(SmartContext smartContext, StatusReporter reporter) {
     this.smartContext = smartContext;
     this.reporter = reporter;
+    ActionOutputPool.get().configure(smartContext.getConf());
+    MoverService.get().configure(smartContext.getConf());
   }
 
   public Cmdlet createCmdlet(LaunchCmdlet launchCmdlet) throws ActionException {
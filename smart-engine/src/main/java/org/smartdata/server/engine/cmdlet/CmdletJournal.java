@@ -0,0 +1,310 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.server.engine.cmdlet;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.smartdata.model.ActionInfo;
+import org.smartdata.model.CmdletInfo;
+import org.smartdata.model.CmdletState;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only local log of the cmdlet and action states not written to
+ * the metastore yet, so they survive a restart of the server.
+ *
+ * <p>The log is split into segments. The writer of the metastore rolls to a
+ * new segment before taking the states to write, and purges the older
+ * segments once they are committed. Each record carries a checksum, and a
+ * torn record at the tail of a segment is ignored on recovery.
+ */
+public class CmdletJournal implements Closeable {
+  private static final Logger LOG = LoggerFactory.getLogger(CmdletJournal.class);
+  private static final String SEGMENT_PREFIX = "cmdlet-journal-";
+  private static final int MAX_RECORD_SIZE = 64 * 1024 * 1024;
+
+  private final File dir;
+  private long segmentId;
+  private FileOutputStream segmentFile;
+  private DataOutputStream out;
+  private final ByteArrayOutputStream recordBuffer = new ByteArrayOutputStream(1024);
+  private final DataOutputStream record = new DataOutputStream(recordBuffer);
+  private final CRC32 crc = new CRC32();
+
+  public CmdletJournal(File dir) throws IOException {
+    if (!dir.isDirectory() && !dir.mkdirs()) {
+      throw new IOException("Failed to create cmdlet journal directory " + dir);
+    }
+    this.dir = dir;
+    TreeMap<Long, File> segments = listSegments();
+    this.segmentId = segments.isEmpty() ? 0 : segments.lastKey() + 1;
+    openSegment();
+  }
+
+  /**
+   * Append the current state of the cmdlet and its actions, only written
+   * to the file on {@link #sync()} or when the buffer is full.
+   */
+  public synchronized void append(CmdletInfo cmdlet, List<ActionInfo> actions)
+      throws IOException {
+    recordBuffer.reset();
+    writeCmdlet(record, cmdlet);
+    record.writeInt(actions.size());
+    for (ActionInfo action : actions) {
+      writeAction(record, action);
+    }
+    crc.reset();
+    crc.update(recordBuffer.toByteArray(), 0, recordBuffer.size());
+    out.writeInt(recordBuffer.size());
+    out.writeLong(crc.getValue());
+    recordBuffer.writeTo(out);
+  }
+
+  /**
+   * Write the records appended to the file and the disk.
+   */
+  public synchronized void sync() throws IOException {
+    out.flush();
+    segmentFile.getFD().sync();
+  }
+
+  /**
+   * Close the current segment and start a new one.
+   * @return id of the new segment, all the records appended before are
+   *     in the segments with a smaller id
+   */
+  public synchronized long roll() throws IOException {
+    sync();
+    out.close();
+    segmentId++;
+    openSegment();
+    return segmentId;
+  }
+
+  /**
+   * Delete the segments with an id smaller than the given one.
+   */
+  public synchronized void purgeBefore(long id) {
+    for (Map.Entry<Long, File> segment : listSegments().headMap(id).entrySet()) {
+      if (!segment.getValue().delete()) {
+        LOG.warn("Failed to delete cmdlet journal segment " + segment.getValue());
+      }
+    }
+  }
+
+  /**
+   * Read all the records in the segments before the current one, only the
+   * last state of each cmdlet is kept.
+   */
+  public synchronized List<Entry> recover() throws IOException {
+    Map<Long, Entry> entries = new LinkedHashMap<>();
+    for (File file : listSegments().headMap(segmentId).values()) {
+      try (DataInputStream in = new DataInputStream(
+          new BufferedInputStream(new FileInputStream(file)))) {
+        Entry entry;
+        while ((entry = readEntry(in, file)) != null) {
+          entries.remove(entry.getCmdlet().getCid());
+          entries.put(entry.getCmdlet().getCid(), entry);
+        }
+      }
+    }
+    return new ArrayList<>(entries.values());
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    sync();
+    out.close();
+  }
+
+  private void openSegment() throws IOException {
+    segmentFile = new FileOutputStream(new File(dir, SEGMENT_PREFIX + segmentId));
+    out = new DataOutputStream(new BufferedOutputStream(segmentFile, 64 * 1024));
+  }
+
+  private TreeMap<Long, File> listSegments() {
+    TreeMap<Long, File> segments = new TreeMap<>();
+    File[] files = dir.listFiles();
+    if (files == null) {
+      return segments;
+    }
+    for (File file : files) {
+      String name = file.getName();
+      if (name.startsWith(SEGMENT_PREFIX)) {
+        try {
+          segments.put(Long.parseLong(name.substring(SEGMENT_PREFIX.length())), file);
+        } catch (NumberFormatException e) {
+          LOG.warn("Ignore unknown file in cmdlet journal directory: " + file);
+        }
+      }
+    }
+    return segments;
+  }
+
+  private Entry readEntry(DataInputStream in, File file) throws IOException {
+    byte[] data;
+    try {
+      int length = in.readInt();
+      long checksum = in.readLong();
+      if (length < 0 || length > MAX_RECORD_SIZE) {
+        LOG.warn("Ignore the corrupted tail of cmdlet journal segment " + file);
+        return null;
+      }
+      data = new byte[length];
+      in.readFully(data);
+      crc.reset();
+      crc.update(data, 0, length);
+      if (crc.getValue() != checksum) {
+        LOG.warn("Ignore the corrupted tail of cmdlet journal segment " + file);
+        return null;
+      }
+    } catch (EOFException e) {
+      return null;
+    }
+    DataInputStream recordIn = new DataInputStream(new ByteArrayInputStream(data));
+    CmdletInfo cmdlet = readCmdlet(recordIn);
+    int numActions = recordIn.readInt();
+    List<ActionInfo> actions = new ArrayList<>(numActions);
+    for (int i = 0; i < numActions; i++) {
+      actions.add(readAction(recordIn));
+    }
+    return new Entry(cmdlet, actions);
+  }
+
+  private static void writeCmdlet(DataOutputStream out, CmdletInfo cmdlet) throws IOException {
+    out.writeLong(cmdlet.getCid());
+    out.writeLong(cmdlet.getRid());
+    out.writeInt(cmdlet.getState().getValue());
+    writeString(out, cmdlet.getParameters());
+    out.writeLong(cmdlet.getGenerateTime());
+    out.writeLong(cmdlet.getStateChangedTime());
+    out.writeLong(cmdlet.getDeferedToTime());
+    List<Long> aids = cmdlet.getAids();
+    out.writeInt(aids.size());
+    for (Long aid : aids) {
+      out.writeLong(aid);
+    }
+  }
+
+  private static CmdletInfo readCmdlet(DataInputStream in) throws IOException {
+    long cid = in.readLong();
+    long rid = in.readLong();
+    CmdletState state = CmdletState.fromValue(in.readInt());
+    String parameters = readString(in);
+    long generateTime = in.readLong();
+    long stateChangedTime = in.readLong();
+    long deferedToTime = in.readLong();
+    Long[] aids = new Long[in.readInt()];
+    for (int i = 0; i < aids.length; i++) {
+      aids[i] = in.readLong();
+    }
+    return new CmdletInfo(cid, rid, new ArrayList<>(Arrays.asList(aids)), state, parameters,
+        generateTime, stateChangedTime, deferedToTime);
+  }
+
+  private static void writeAction(DataOutputStream out, ActionInfo action) throws IOException {
+    out.writeLong(action.getActionId());
+    out.writeLong(action.getCmdletId());
+    writeString(out, action.getActionName());
+    writeString(out, action.getArgsJsonString());
+    writeString(out, action.getResult());
+    writeString(out, action.getLog());
+    out.writeBoolean(action.isSuccessful());
+    out.writeLong(action.getCreateTime());
+    out.writeBoolean(action.isFinished());
+    out.writeLong(action.getFinishTime());
+    out.writeFloat(action.getProgress());
+  }
+
+  private static ActionInfo readAction(DataInputStream in) throws IOException {
+    ActionInfo action = new ActionInfo();
+    action.setActionId(in.readLong());
+    action.setCmdletId(in.readLong());
+    action.setActionName(readString(in));
+    action.setArgsFromJsonString(readString(in));
+    action.setResult(readString(in));
+    action.setLog(readString(in));
+    action.setSuccessful(in.readBoolean());
+    action.setCreateTime(in.readLong());
+    action.setFinished(in.readBoolean());
+    action.setFinishTime(in.readLong());
+    action.setProgress(in.readFloat());
+    return action;
+  }
+
+  private static void writeString(DataOutputStream out, String s) throws IOException {
+    if (s == null) {
+      out.writeInt(-1);
+      return;
+    }
+    byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    int length = in.readInt();
+    if (length < 0) {
+      return null;
+    }
+    byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * State of a cmdlet and its actions read from the journal.
+   */
+  public static class Entry {
+    private final CmdletInfo cmdlet;
+    private final List<ActionInfo> actions;
+
+    public Entry(CmdletInfo cmdlet, List<ActionInfo> actions) {
+      this.cmdlet = cmdlet;
+      this.actions = actions;
+    }
+
+    public CmdletInfo getCmdlet() {
+      return cmdlet;
+    }
+
+    public List<ActionInfo> getActions() {
+      return actions;
+    }
+  }
+}
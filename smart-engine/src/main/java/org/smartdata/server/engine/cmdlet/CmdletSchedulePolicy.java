@@ -0,0 +1,48 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.server.engine.cmdlet;
+
+import org.smartdata.model.CmdletInfo;
+
+/**
+ * Decides the order pending cmdlets of a shard are scheduled in. Only
+ * called by the thread scheduling the shard.
+ */
+public interface CmdletSchedulePolicy {
+
+  /**
+   * Add a cmdlet ready to be scheduled.
+   */
+  void add(CmdletInfo cmdlet);
+
+  /**
+   * Add a cmdlet to retry, it goes before the others of its rule.
+   */
+  void addFirst(CmdletInfo cmdlet);
+
+  /**
+   * Called at the start of each scheduling pass.
+   */
+  void beginPass();
+
+  /**
+   * Take the next cmdlet to schedule.
+   * @return null if no more cmdlet can be scheduled in this pass
+   */
+  CmdletInfo poll();
+}
@@ -0,0 +1,158 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.server.engine.cmdlet;
+
+import org.smartdata.model.CmdletInfo;
+import org.smartdata.model.CmdletState;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pending cmdlets of one scheduling shard. Cmdlets are submitted from any
+ * thread through a lock-free inbox, and all the other state is owned by the
+ * single thread scheduling the shard, so neither side takes a lock.
+ *
+ * <p>Cmdlets deferred to a later time wait in a queue ordered by that time
+ * and are only visited when due. Cancelled cmdlets are dropped lazily when
+ * they are polled, but stop counting as pending at once. The order of the
+ * cmdlets ready is decided by the {@link CmdletSchedulePolicy} of the shard.
+ */
+public class CmdletScheduleShard {
+  private static final Comparator<CmdletInfo> DEFER_ORDER = new Comparator<CmdletInfo>() {
+    @Override
+    public int compare(CmdletInfo a, CmdletInfo b) {
+      int ret = Long.compare(a.getDeferedToTime(), b.getDeferedToTime());
+      return ret != 0 ? ret : Long.compare(a.getCid(), b.getCid());
+    }
+  };
+
+  private final Queue<CmdletInfo> inbox = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger numQueued = new AtomicInteger(0);
+  private final AtomicInteger numCancelled = new AtomicInteger(0);
+
+  // Only accessed by the scheduling thread
+  private final CmdletSchedulePolicy policy;
+  private final PriorityQueue<CmdletInfo> deferred = new PriorityQueue<>(64, DEFER_ORDER);
+  private final List<CmdletInfo> retries = new ArrayList<>();
+
+  public CmdletScheduleShard() {
+    this(new FifoSchedulePolicy());
+  }
+
+  public CmdletScheduleShard(CmdletSchedulePolicy policy) {
+    this.policy = policy;
+  }
+
+  /**
+   * Add a pending cmdlet, can be called by any thread.
+   */
+  public void add(CmdletInfo cmdlet) {
+    numQueued.incrementAndGet();
+    inbox.add(cmdlet);
+  }
+
+  /**
+   * Called by any thread after a pending cmdlet in this shard is disabled.
+   */
+  public void cancel() {
+    numCancelled.incrementAndGet();
+  }
+
+  /**
+   * Get the number of pending cmdlets not cancelled.
+   */
+  public int size() {
+    return numQueued.get() - numCancelled.get();
+  }
+
+  /**
+   * Start a scheduling pass: take the newly submitted cmdlets, put the ones
+   * to retry back to the head, and release the deferred ones due.
+   */
+  public void beginPass(long now) {
+    CmdletInfo cmdlet;
+    while ((cmdlet = inbox.poll()) != null) {
+      if (cmdlet.getDeferedToTime() > now) {
+        deferred.add(cmdlet);
+      } else {
+        policy.add(cmdlet);
+      }
+    }
+    for (int i = retries.size() - 1; i >= 0; i--) {
+      policy.addFirst(retries.get(i));
+    }
+    retries.clear();
+    while ((cmdlet = deferred.peek()) != null && cmdlet.getDeferedToTime() <= now) {
+      policy.add(deferred.poll());
+    }
+    policy.beginPass();
+  }
+
+  /**
+   * Take the next pending cmdlet ready to be scheduled, cancelled ones are
+   * dropped.
+   * @return null if no more cmdlet ready in this pass
+   */
+  public CmdletInfo poll() {
+    CmdletInfo cmdlet;
+    while ((cmdlet = policy.poll()) != null) {
+      numQueued.decrementAndGet();
+      CmdletState state = cmdlet.getState();
+      if (state == CmdletState.PENDING) {
+        return cmdlet;
+      }
+      if (state == CmdletState.DISABLED) {
+        numCancelled.decrementAndGet();
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Drop a polled cmdlet found not pending any more. One disabled after
+   * polled has been cancelled, which is undone here.
+   */
+  public void drop(CmdletInfo cmdlet) {
+    if (cmdlet.getState() == CmdletState.DISABLED) {
+      numCancelled.decrementAndGet();
+    }
+  }
+
+  /**
+   * Put a polled cmdlet back, it is scheduled again in the next pass
+   * before the others of its rule.
+   */
+  public void retry(CmdletInfo cmdlet) {
+    numQueued.incrementAndGet();
+    retries.add(cmdlet);
+  }
+
+  /**
+   * Put a polled cmdlet back until the given time.
+   */
+  public void defer(CmdletInfo cmdlet) {
+    numQueued.incrementAndGet();
+    deferred.add(cmdlet);
+  }
+}
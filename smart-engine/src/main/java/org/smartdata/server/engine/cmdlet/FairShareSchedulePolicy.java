@@ -0,0 +1,148 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.server.engine.cmdlet;
+
+import org.smartdata.model.CmdletInfo;
+import org.smartdata.model.CmdletPriority;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Schedule cmdlets by priority class first, and share the scheduling
+ * among the rules of a class by their weights, so a rule with a huge
+ * backlog does not hold back the others.
+ *
+ * <p>Each rule with pending cmdlets has its own queue and a virtual time
+ * advanced by 1/weight whenever one of its cmdlets is taken, and the queue
+ * with the least virtual time in the highest class goes next. A queue
+ * becoming active starts from the virtual time of its class, so an idle
+ * rule gets no credit for the time it had nothing to schedule. Rules
+ * reaching their limit of cmdlets in flight are parked until the next pass.
+ */
+public class FairShareSchedulePolicy implements CmdletSchedulePolicy {
+  private static final Comparator<RuleQueue> ORDER = new Comparator<RuleQueue>() {
+    @Override
+    public int compare(RuleQueue a, RuleQueue b) {
+      int ret = a.priority.compareTo(b.priority);
+      if (ret != 0) {
+        return ret;
+      }
+      ret = Double.compare(a.vtime, b.vtime);
+      return ret != 0 ? ret : Long.compare(a.share.getRid(), b.share.getRid());
+    }
+  };
+
+  private final RuleShares shares;
+  private final Map<Long, RuleQueue> queues = new HashMap<>();
+  private final PriorityQueue<RuleQueue> active = new PriorityQueue<>(16, ORDER);
+  private final List<RuleQueue> throttled = new ArrayList<>();
+  private final double[] classVtimes = new double[CmdletPriority.values().length];
+
+  public FairShareSchedulePolicy(RuleShares shares) {
+    this.shares = shares;
+  }
+
+  @Override
+  public void add(CmdletInfo cmdlet) {
+    RuleQueue queue = getQueue(cmdlet.getRid());
+    queue.cmdlets.add(cmdlet);
+    activate(queue);
+  }
+
+  @Override
+  public void addFirst(CmdletInfo cmdlet) {
+    RuleQueue queue = getQueue(cmdlet.getRid());
+    queue.cmdlets.addFirst(cmdlet);
+    activate(queue);
+  }
+
+  @Override
+  public void beginPass() {
+    for (RuleQueue queue : throttled) {
+      queue.state = QueueState.IDLE;
+      activate(queue);
+    }
+    throttled.clear();
+  }
+
+  @Override
+  public CmdletInfo poll() {
+    RuleQueue queue;
+    while ((queue = active.poll()) != null) {
+      if (queue.share.isThrottled()) {
+        queue.state = QueueState.THROTTLED;
+        throttled.add(queue);
+        continue;
+      }
+      CmdletInfo cmdlet = queue.cmdlets.poll();
+      classVtimes[queue.priority.ordinal()] = queue.vtime;
+      queue.vtime += 1.0 / Math.max(1, queue.share.getWeight());
+      if (queue.cmdlets.isEmpty()) {
+        queues.remove(queue.share.getRid());
+      } else {
+        active.add(queue);
+      }
+      return cmdlet;
+    }
+    return null;
+  }
+
+  private RuleQueue getQueue(long rid) {
+    RuleQueue queue = queues.get(rid);
+    if (queue == null) {
+      queue = new RuleQueue(shares.get(rid));
+      queues.put(rid, queue);
+    }
+    return queue;
+  }
+
+  private void activate(RuleQueue queue) {
+    if (queue.state != QueueState.IDLE) {
+      return;
+    }
+    // Priority is only read here as the order in the active queue must not change
+    queue.priority = queue.share.getPriority();
+    queue.vtime = Math.max(queue.vtime, classVtimes[queue.priority.ordinal()]);
+    queue.state = QueueState.ACTIVE;
+    active.add(queue);
+  }
+
+  private enum QueueState {
+    IDLE,
+    ACTIVE,
+    THROTTLED
+  }
+
+  private static class RuleQueue {
+    private final RuleShare share;
+    private final ArrayDeque<CmdletInfo> cmdlets = new ArrayDeque<>();
+    private CmdletPriority priority;
+    private double vtime = 0;
+    private QueueState state = QueueState.IDLE;
+
+    RuleQueue(RuleShare share) {
+      this.share = share;
+    }
+  }
+}
@@ -0,0 +1,55 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.server.engine.cmdlet;
+
+import org.smartdata.model.CmdletInfo;
+
+import java.util.ArrayDeque;
+
+/**
+ * Schedule cmdlets in the order they are submitted, regardless of rules.
+ */
+public class FifoSchedulePolicy implements CmdletSchedulePolicy {
+  private final ArrayDeque<CmdletInfo> ready = new ArrayDeque<>();
+
+  public FifoSchedulePolicy() {
+  }
+
+  // Used when created by configuration
+  public FifoSchedulePolicy(RuleShares shares) {
+  }
+
+  @Override
+  public void add(CmdletInfo cmdlet) {
+    ready.add(cmdlet);
+  }
+
+  @Override
+  public void addFirst(CmdletInfo cmdlet) {
+    ready.addFirst(cmdlet);
+  }
+
+  @Override
+  public void beginPass() {
+  }
+
+  @Override
+  public CmdletInfo poll() {
+    return ready.poll();
+  }
+}
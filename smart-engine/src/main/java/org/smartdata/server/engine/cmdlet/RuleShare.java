@@ -0,0 +1,96 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.server.engine.cmdlet;
+
+import org.smartdata.model.CmdletPriority;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Scheduling options of the cmdlets of one rule: the priority class, the
+ * weight of its share in the class and the limit of its cmdlets in flight.
+ * Options can be changed by any thread at any time.
+ */
+public class RuleShare {
+  public static final int DEFAULT_WEIGHT = 1;
+
+  private final long rid;
+  private volatile CmdletPriority priority = CmdletPriority.NORMAL;
+  private volatile int weight = DEFAULT_WEIGHT;
+  private volatile int maxInFlight = 0;  // 0 means unlimited
+  // Cmdlets scheduled but not finished yet
+  private final AtomicInteger inFlight = new AtomicInteger(0);
+
+  public RuleShare(long rid) {
+    this.rid = rid;
+  }
+
+  public long getRid() {
+    return rid;
+  }
+
+  public CmdletPriority getPriority() {
+    return priority;
+  }
+
+  public void setPriority(CmdletPriority priority) {
+    this.priority = priority;
+  }
+
+  public int getWeight() {
+    return weight;
+  }
+
+  public void setWeight(int weight) {
+    this.weight = weight;
+  }
+
+  public int getMaxInFlight() {
+    return maxInFlight;
+  }
+
+  public void setMaxInFlight(int maxInFlight) {
+    this.maxInFlight = maxInFlight;
+  }
+
+  public int getInFlight() {
+    return inFlight.get();
+  }
+
+  public void incInFlight() {
+    inFlight.incrementAndGet();
+  }
+
+  public void decInFlight() {
+    inFlight.decrementAndGet();
+  }
+
+  /**
+   * Whether the rule has reached its limit of cmdlets in flight.
+   */
+  public boolean isThrottled() {
+    int max = maxInFlight;
+    return max > 0 && inFlight.get() >= max;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("RuleShare{rid=%d, priority=%s, weight=%d, maxInFlight=%d, inFlight=%d}",
+        rid, priority, weight, maxInFlight, inFlight.get());
+  }
+}
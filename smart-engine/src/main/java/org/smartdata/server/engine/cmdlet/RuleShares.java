@@ -0,0 +1,61 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.server.engine.cmdlet;
+
+import org.smartdata.model.CmdletPriority;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Scheduling options of all the rules, shared by the schedule policies
+ * of all the shards. Rules without options given get the default ones.
+ */
+public class RuleShares {
+  private final ConcurrentMap<Long, RuleShare> shares = new ConcurrentHashMap<>();
+
+  public RuleShare get(long rid) {
+    RuleShare share = shares.get(rid);
+    if (share == null) {
+      RuleShare newShare = new RuleShare(rid);
+      share = shares.putIfAbsent(rid, newShare);
+      if (share == null) {
+        share = newShare;
+      }
+    }
+    return share;
+  }
+
+  /**
+   * Update the options of the rule, null or non-positive values keep
+   * the current ones.
+   */
+  public RuleShare update(long rid, CmdletPriority priority, int weight, int maxInFlight) {
+    RuleShare share = get(rid);
+    if (priority != null) {
+      share.setPriority(priority);
+    }
+    if (weight > 0) {
+      share.setWeight(weight);
+    }
+    if (maxInFlight > 0) {
+      share.setMaxInFlight(maxInFlight);
+    }
+    return share;
+  }
+}
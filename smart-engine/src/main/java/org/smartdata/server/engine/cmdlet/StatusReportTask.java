@@ -17,6 +17,9 @@
  */
 package org.smartdata.server.engine.cmdlet;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.smartdata.action.ActionOutputPool;
 import org.smartdata.conf.SmartConf;
 import org.smartdata.conf.SmartConfKeys;
 import org.smartdata.protocol.message.ActionStatus;
@@ -29,6 +32,7 @@
 import java.util.Map;
 
 public class StatusReportTask implements Runnable {
+  static final Logger LOG = LoggerFactory.getLogger(StatusReportTask.class);
   private StatusReporter statusReporter;
   private CmdletExecutor cmdletExecutor;
   private long lastReportTime;
@@ -57,6 +61,11 @@ public void run() {
     if (statusReport != null) {
       List<ActionStatus> actionStatuses = statusReport.getActionStatuses();
       for (ActionStatus actionStatus : actionStatuses) {
+        // Statuses only carry the result and log appended since the last one
+        ActionStatus last = idToActionStatus.get(actionStatus.getActionId());
+        if (last != null) {
+          actionStatus = ActionStatus.merge(last, actionStatus);
+        }
         idToActionStatus.put(actionStatus.getActionId(), actionStatus);
       }
       if (!idToActionStatus.values().isEmpty()) {
@@ -69,9 +78,21 @@ public void run() {
         long currentTime = System.currentTimeMillis();
         if (currentTime - lastReportTime >= interval
             || (double) finishedNum / idToActionStatus.size() >= ratio) {
-          statusReporter.report(new StatusReport(new ArrayList(idToActionStatus.values())));
+          try {
+            statusReporter.report(new StatusReport(new ArrayList(idToActionStatus.values())));
+          } catch (RuntimeException e) {
+            // Keep the statuses not delivered, the result and log appended
+            // after them are only offsets to them
+            LOG.warn("Failed to report status, will report it again", e);
+            return;
+          }
           idToActionStatus.clear();
           lastReportTime = currentTime;
+          if (LOG.isDebugEnabled()) {
+            ActionOutputPool pool = ActionOutputPool.get();
+            LOG.debug("Action output: {} bytes in use, {} bytes pooled, {} bytes spilled",
+                pool.getUsedBytes(), pool.getPooledBytes(), pool.getSpilledBytes());
+          }
         }
       }
     }
@@ -254,6 +254,7 @@ private boolean handleAgentMessage(Object message) {
         return true;
       } else if (message instanceof StatusMessage) {
         AgentMaster.statusUpdater.updateStatus((StatusMessage) message);
+        getSender().tell("status reported", getSelf());
         return true;
       } else if (message instanceof ServeReady) {
         AgentMaster.serveReadyAgent++;
@@ -56,8 +56,12 @@ public void addPeriodicityTask(ScheduleInfo schInfo, Runnable work) {
         schInfo.getRate(), TimeUnit.MILLISECONDS);
   }
 
-  // TODO: to be defined
-  public void addEventTask() {
+  /**
+   * Run the event based rule executor once, for the file events
+   * triggered it so far.
+   */
+  public void addEventTask(RuleExecutor re) {
+    service.execute(re);
   }
 
   public void shutdown() {
@@ -24,6 +24,7 @@
 import org.smartdata.metastore.MetaStore;
 import org.smartdata.metastore.MetaStoreException;
 import org.smartdata.metastore.dao.AccessCountTable;
+import org.smartdata.metastore.dao.FidCountMap;
 import org.smartdata.model.CmdletDescriptor;
 import org.smartdata.model.RuleInfo;
 import org.smartdata.model.RuleState;
@@ -35,11 +36,17 @@
 import org.smartdata.server.engine.data.ExecutionContext;
 
 import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
 import java.util.Stack;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -52,7 +59,13 @@ public class RuleExecutor implements Runnable {
   private volatile boolean exited = false;
   private long exitTime;
   private Stack<String> dynamicCleanups = new Stack<>();
+  // Paths changed by the file events triggering the rule, not checked yet
+  private final Set<String> triggeredPaths =
+      Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+  private final AtomicBoolean triggered = new AtomicBoolean(false);
   private static final Logger LOG = LoggerFactory.getLogger(RuleExecutor.class.getName());
+  private static final int MAX_PATHS_PER_QUERY = 500;
+  private static final String FILE_QUERY_PREFIX = "SELECT path FROM file";
 
   private static Pattern varPattern = Pattern.compile("\\$([a-zA-Z_]+[a-zA-Z0-9_]*)");
   private static Pattern callPattern =
@@ -70,7 +83,7 @@ public TranslateResult getTranslateResult() {
     return tr;
   }
 
-  private String unfoldSqlStatement(String sql) {
+  private String unfoldSqlStatement(String sql) throws MetaStoreException {
     return unfoldVariables(unfoldFunctionCalls(sql));
   }
 
@@ -87,7 +100,7 @@ private String unfoldVariables(String sql) {
     return ret;
   }
 
-  private String unfoldFunctionCalls(String sql) {
+  private String unfoldFunctionCalls(String sql) throws MetaStoreException {
     String ret = sql;
     Matcher m = callPattern.matcher(sql);
     while (m.find()) {
@@ -102,16 +115,24 @@ private String unfoldFunctionCalls(String sql) {
   }
 
   public List<String> executeFileRuleQuery() {
+    return executeFileRuleQuery(null);
+  }
+
+  /**
+   * Execute the rule query.
+   * @param paths only check these paths if not null
+   */
+  public List<String> executeFileRuleQuery(List<String> paths) {
     int index = 0;
     List<String> ret = new ArrayList<>();
     for (String sql : tr.getSqlStatements()) {
-      sql = unfoldSqlStatement(sql);
       try {
+        sql = unfoldSqlStatement(sql);
         if (LOG.isDebugEnabled()) {
           LOG.debug("Rule " + ctx.getRuleId() + " --> " + sql);
         }
         if (index == tr.getRetSqlIndex()) {
-          ret = adapter.executeFilesPathQuery(sql);
+          ret = paths == null ? adapter.executeFilesPathQuery(sql) : queryPaths(sql, paths);
         } else {
           sql = sql.trim();
           if (sql.length() > 5) {
@@ -136,11 +157,73 @@ public List<String> executeFileRuleQuery() {
     return ret;
   }
 
-  public String callFunction(String funcName, List<Object> parameters) {
+  private List<String> queryPaths(String sql, List<String> paths)
+      throws MetaStoreException {
+    if (!sql.trim().startsWith(FILE_QUERY_PREFIX)) {
+      List<String> ret = adapter.executeFilesPathQuery(sql);
+      ret.retainAll(paths);
+      return ret;
+    }
+    List<String> ret = new ArrayList<>();
+    for (int i = 0; i < paths.size(); i += MAX_PATHS_PER_QUERY) {
+      List<String> part = paths.subList(i, Math.min(paths.size(), i + MAX_PATHS_PER_QUERY));
+      ret.addAll(adapter.executeFilesPathQuery(restrictToPaths(sql, part)));
+    }
+    return ret;
+  }
+
+  /**
+   * Restrict the rule query 'SELECT path FROM file [WHERE cond];' to
+   * the given paths.
+   */
+  @VisibleForTesting
+  static String restrictToPaths(String sql, List<String> paths) {
+    StringBuilder sb = new StringBuilder(FILE_QUERY_PREFIX).append(" WHERE path IN (");
+    for (int i = 0; i < paths.size(); i++) {
+      if (i > 0) {
+        sb.append(", ");
+      }
+      sb.append("'").append(paths.get(i).replace("'", "''")).append("'");
+    }
+    sb.append(")");
+    String query = sql.trim();
+    if (query.endsWith(";")) {
+      query = query.substring(0, query.length() - 1);
+    }
+    String cond = query.substring(FILE_QUERY_PREFIX.length()).trim();
+    if (cond.startsWith("WHERE ")) {
+      sb.append(" AND (").append(cond.substring("WHERE ".length())).append(")");
+    }
+    return sb.append(";").toString();
+  }
+
+  /**
+   * Add the paths changed by file events for the rule to check.
+   * @return true if the executor should be scheduled to run
+   */
+  public boolean addTriggeredPaths(Collection<String> paths) {
+    triggeredPaths.addAll(paths);
+    return triggered.compareAndSet(false, true);
+  }
+
+  /**
+   * Call the function generating tables for the rule query.
+   *
+   * @throws MetaStoreException if the function failed to fill the table,
+   *     the rule query should not go on
+   */
+  public String callFunction(String funcName, List<Object> parameters)
+      throws MetaStoreException {
     try {
       Method m = getClass().getMethod(funcName, List.class);
       String ret = (String) (m.invoke(this, parameters));
       return ret;
+    } catch (InvocationTargetException e) {
+      if (e.getCause() instanceof MetaStoreException) {
+        throw (MetaStoreException) e.getCause();
+      }
+      LOG.error("Rule " + ctx.getRuleId() + " exception when call " + funcName, e);
+      return null;
     } catch (Exception e) {
       LOG.error("Rule " + ctx.getRuleId() + " exception when call " + funcName, e);
       return null;
@@ -229,10 +312,16 @@ private void genVirtualAccessCountTableValueOnStoragePolicy(List<Object> paramet
     ctx.setProperty(var, count == null ? 0L : count);
   }
 
-  public String genVirtualAccessCountTable(List<Object> parameters) {
+  public String genVirtualAccessCountTable(List<Object> parameters)
+      throws MetaStoreException {
     List<Object> paraList = (List<Object>) parameters.get(0);
     String newTable = (String) parameters.get(1);
     Long interval = (Long) paraList.get(0);
+    if (ruleManager != null && ruleManager.getStatesManager() != null
+        && ruleManager.getStatesManager().isAccessCountInMemory()) {
+      FidCountMap counts = ruleManager.getStatesManager().getAccessCountsInLast(interval);
+      return generateTableFromCounts(counts, newTable, adapter);
+    }
     String countFilter = "";
     List<String> tableNames = getAccessCountTablesDuringLast(interval);
     return generateSQL(tableNames, newTable, countFilter, adapter);
@@ -274,6 +363,22 @@ static String generateSQL(
     return sqlFinal;
   }
 
+  /**
+   * Fill the virtual table with access counts kept in memory.
+   *
+   * @return empty statement as the table has been filled
+   * @throws MetaStoreException if the table is not filled
+   */
+  @VisibleForTesting
+  static String generateTableFromCounts(FidCountMap counts, String newTable,
+      MetaStore adapter) throws MetaStoreException {
+    String sqlCreate =
+        "CREATE TABLE " + newTable + "(fid INTEGER NOT NULL, count INTEGER NOT NULL);";
+    adapter.execute(sqlCreate);
+    adapter.insertAccessCounts(newTable, counts);
+    return "";
+  }
+
   /**
    * @param lastInterval
    * @return
@@ -315,6 +420,22 @@ private List<String> getAccessCountTablesDuringLast(long lastInterval) {
 
   @Override
   public void run() {
+    if (!tr.isEventBased()) {
+      check(null);
+      return;
+    }
+    // Paths added during a check are checked by the same run
+    do {
+      List<String> paths = new ArrayList<>(triggeredPaths);
+      triggeredPaths.removeAll(paths);
+      if (!paths.isEmpty()) {
+        check(paths);
+      }
+      triggered.set(false);
+    } while (!triggeredPaths.isEmpty() && triggered.compareAndSet(false, true));
+  }
+
+  private void check(List<String> paths) {
     long startCheckTime = System.currentTimeMillis();
     if (exited) {
       exitSchedule();
@@ -350,6 +471,9 @@ public void run() {
         exitSchedule();
       }
       TimeBasedScheduleInfo scheduleInfo = tr.getTbScheduleInfo();
+      if (paths != null && startCheckTime < scheduleInfo.getStartTime()) {
+        return;
+      }
 
       if (!scheduleInfo.isOnce() && scheduleInfo.getEndTime() != TimeBasedScheduleInfo.FOR_EVER) {
         boolean befExit = false;
@@ -369,7 +493,7 @@ public void run() {
       }
 
       if (doExec) {
-        files = executeFileRuleQuery();
+        files = executeFileRuleQuery(paths);
         if (exited) {
           exitSchedule();
         }
@@ -441,6 +565,7 @@ private int submitCmdlets(RuleInfo ruleInfo, List<String> files) {
       if (!exited) {
         try {
           CmdletDescriptor cmd = new CmdletDescriptor(template, ruleId);
+          cmd.copyMetaOptions(tr.getCmdDescriptor());
           cmd.setCmdletParameter(CmdletDescriptor.HDFS_FILE_PATH, file);
           for (RuleExecutorPlugin plugin : plugins) {
             cmd = plugin.preSubmitCmdletDescriptor(ruleInfo, tr, cmd);
@@ -0,0 +1,132 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.server.engine;
+
+import org.smartdata.conf.SmartConf;
+import org.smartdata.conf.SmartConfKeys;
+import org.smartdata.metastore.MetaStore;
+import org.smartdata.server.engine.cmdlet.CmdletDispatcher;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * A benchmark tool for the pending cmdlet queues of CmdletManager. It
+ * submits cmdlets to a CmdletManager from several threads, then lets it
+ * schedule them. The metastore and the dispatcher are mocked, and the
+ * dispatcher never runs out of slots. The cmdlets are echo, or cache of
+ * different files to be scheduled by the real cache action scheduler.
+ * Usage:
+ * <pre>
+ *   CmdletScheduleBenchmark numShards numCmdlets numSubmitters [echo|cache]
+ * </pre>
+ */
+public class CmdletScheduleBenchmark {
+
+  public static long performBench(int numShards, int numCmdlets, int numSubmitters)
+      throws Exception {
+    return performBench(numShards, numCmdlets, numSubmitters, "echo");
+  }
+
+  /**
+   * Run the benchmark and print the result.
+   * @param action echo or cache
+   * @return number of cmdlets scheduled
+   */
+  public static long performBench(int numShards, final int numCmdlets, int numSubmitters,
+      final String action) throws Exception {
+    MetaStore metaStore = mock(MetaStore.class);
+    CmdletDispatcher dispatcher = mock(CmdletDispatcher.class);
+    when(dispatcher.getTotalSlotsLeft()).thenReturn(Integer.MAX_VALUE / 2);
+    SmartConf conf = new SmartConf();
+    conf.setInt(SmartConfKeys.SMART_CMDLET_SCHEDULER_SHARDS_KEY, numShards);
+    conf.setInt(SmartConfKeys.SMART_CMDLET_MAX_NUM_PENDING_KEY, numCmdlets * 2);
+    final CmdletManager cmdletManager = new CmdletManager(new ServerContext(conf, metaStore));
+    cmdletManager.init();
+    cmdletManager.setDispatcher(dispatcher);
+
+    final AtomicInteger numSubmitted = new AtomicInteger(0);
+    final AtomicReference<IOException> error = new AtomicReference<>();
+    List<Thread> submitters = new ArrayList<>();
+    for (int i = 0; i < numSubmitters; i++) {
+      submitters.add(new Thread() {
+        @Override
+        public void run() {
+          try {
+            int n;
+            while ((n = numSubmitted.getAndIncrement()) < numCmdlets) {
+              cmdletManager.submitCmdlet(action.equals("cache")
+                  ? "cache -file /benchmark/file" + n : action);
+            }
+          } catch (IOException e) {
+            error.compareAndSet(null, e);
+          }
+        }
+      });
+    }
+    long startTime = System.nanoTime();
+    for (Thread submitter : submitters) {
+      submitter.start();
+    }
+    for (Thread submitter : submitters) {
+      submitter.join();
+    }
+    long submitNanos = Math.max(1, System.nanoTime() - startTime);
+    if (error.get() != null) {
+      cmdletManager.stop();
+      throw error.get();
+    }
+
+    // Scheduling starts with the manager, every shard by its own thread
+    startTime = System.nanoTime();
+    cmdletManager.start();
+    long deadline = System.currentTimeMillis() + 60 * 1000L;
+    while (cmdletManager.getNumPendingCmdlets() > 0 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(1);
+    }
+    long scheduleNanos = Math.max(1, System.nanoTime() - startTime);
+    long numScheduled = numCmdlets - cmdletManager.getNumPendingCmdlets();
+    cmdletManager.stop();
+
+    System.out.println(String.format("%d shards, %d %s cmdlets: "
+            + "%.1f submissions/s with %d threads, %.1f cmdlets/s scheduled",
+        numShards, numCmdlets, action, numCmdlets * 1e9 / submitNanos, submitters.size(),
+        numScheduled * 1e9 / scheduleNanos));
+    return numScheduled;
+  }
+
+  private static void printUsage() {
+    System.out.println(
+        "Usage: CmdletScheduleBenchmark numShards numCmdlets numSubmitters [echo|cache]");
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length != 3 && args.length != 4) {
+      printUsage();
+      System.exit(1);
+    }
+    performBench(Integer.parseInt(args[0]), Integer.parseInt(args[1]),
+        Integer.parseInt(args[2]), args.length == 4 ? args[3] : "echo");
+  }
+}
@@ -0,0 +1,135 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.server.engine;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.smartdata.conf.SmartConf;
+import org.smartdata.conf.SmartConfKeys;
+import org.smartdata.metastore.MetaStore;
+import org.smartdata.metastore.dao.FidCountMap;
+import org.smartdata.model.CachedFileStatus;
+import org.smartdata.model.FileInfo;
+import org.smartdata.model.StorageCapacity;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class TestCacheManager {
+
+  private static FileInfo file(long fid, long length) {
+    return new FileInfo("/file" + fid, fid, length, false, (short) 3, 1024L,
+        0L, 0L, (short) 0, "root", "root", (byte) 0);
+  }
+
+  @Test
+  public void testCacheAndUncache() throws Exception {
+    SmartConf conf = new SmartConf();
+    conf.setFloat(SmartConfKeys.SMART_CACHE_MANAGER_WINDOW_RATIO_KEY, 0);
+    MetaStore metaStore = mock(MetaStore.class);
+    StatesManager statesManager = mock(StatesManager.class);
+    CmdletManager cmdletManager = mock(CmdletManager.class);
+    when(metaStore.getStorageCapacity("cache"))
+        .thenReturn(new StorageCapacity("cache", 300L, 300L));
+    CachedFileStatus cached = new CachedFileStatus(9, "/file9", 0, 0, 0);
+    when(metaStore.getCachedFileStatus()).thenReturn(Arrays.asList(cached));
+    final List<FileInfo> files = new ArrayList<>();
+    for (long fid = 1; fid <= 9; fid++) {
+      files.add(file(fid, 100));
+    }
+    when(metaStore.getFilesByFids(anyCollectionOf(Long.class))).thenAnswer(
+        new Answer<List<FileInfo>>() {
+          @Override
+          public List<FileInfo> answer(InvocationOnMock invocation) {
+            Collection<?> fids = (Collection<?>) invocation.getArguments()[0];
+            List<FileInfo> found = new ArrayList<>();
+            for (FileInfo file : files) {
+              if (fids.contains(file.getFileId())) {
+                found.add(file);
+              }
+            }
+            return found;
+          }
+        });
+
+    CacheManager manager = new CacheManager(
+        new ServerContext(conf, metaStore), statesManager, cmdletManager);
+    manager.init();
+
+    // File cached before is taken over
+    FidCountMap counts = new FidCountMap();
+    counts.add(1, 5);
+    counts.add(2, 5);
+    manager.onAccessCounts(0, 5000, counts);
+    manager.process();
+    Assert.assertTrue(manager.getPolicy().contains(9));
+    verify(cmdletManager).submitCmdlet("cache -file /file1 -replica 1");
+    verify(cmdletManager).submitCmdlet("cache -file /file2 -replica 1");
+    verify(cmdletManager, never()).submitCmdlet("uncache -file /file9");
+
+    // Evicted for a more frequently accessed one
+    counts = new FidCountMap();
+    counts.add(3, 8);
+    manager.onAccessCounts(5000, 10000, counts);
+    manager.process();
+    verify(cmdletManager).submitCmdlet("uncache -file /file9");
+    verify(cmdletManager).submitCmdlet("cache -file /file3 -replica 1");
+
+    // But not for the ones accessed less
+    counts = new FidCountMap();
+    counts.add(4, 1);
+    manager.onAccessCounts(10000, 15000, counts);
+    manager.process();
+    verify(cmdletManager, never()).submitCmdlet("cache -file /file4 -replica 1");
+
+    // Nothing cached without the capacity
+    when(metaStore.getStorageCapacity("cache")).thenReturn(null);
+    counts = new FidCountMap();
+    counts.add(5, 15);
+    manager.onAccessCounts(15000, 20000, counts);
+    manager.process();
+    verify(cmdletManager, never()).submitCmdlet("cache -file /file5 -replica 1");
+  }
+
+  @Test
+  public void testSafeMode() throws Exception {
+    MetaStore metaStore = mock(MetaStore.class);
+    StatesManager statesManager = mock(StatesManager.class);
+    CmdletManager cmdletManager = mock(CmdletManager.class);
+    when(statesManager.inSafeMode()).thenReturn(true);
+    CacheManager manager = new CacheManager(
+        new ServerContext(new SmartConf(), metaStore), statesManager, cmdletManager);
+    manager.init();
+    FidCountMap counts = new FidCountMap();
+    counts.add(1, 5);
+    manager.onAccessCounts(0, 5000, counts);
+    manager.process();
+    verify(cmdletManager, never()).submitCmdlet(anyString());
+  }
+}
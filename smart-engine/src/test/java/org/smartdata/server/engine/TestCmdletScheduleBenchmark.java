@@ -0,0 +1,34 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.server.engine;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestCmdletScheduleBenchmark {
+  @Test
+  public void testBenchmark() throws Exception {
+    Assert.assertEquals(20000, CmdletScheduleBenchmark.performBench(4, 20000, 4));
+    Assert.assertEquals(1000, CmdletScheduleBenchmark.performBench(1, 1000, 2));
+  }
+
+  @Test
+  public void testBenchmarkWithActionScheduler() throws Exception {
+    Assert.assertEquals(20000, CmdletScheduleBenchmark.performBench(4, 20000, 4, "cache"));
+  }
+}
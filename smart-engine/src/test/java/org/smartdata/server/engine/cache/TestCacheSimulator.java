@@ -0,0 +1,64 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.server.engine.cache;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+
+public class TestCacheSimulator {
+
+  @Test
+  public void testReplay() throws IOException {
+    // Hot files accessed in every window mixed with scans of cold files
+    StringBuilder trace = new StringBuilder("# time fid count bytes\n");
+    long cold = 1000;
+    for (long time = 5000; time <= 500000; time += 5000) {
+      for (long fid = 1; fid <= 5; fid++) {
+        trace.append(CacheSimulator.formatRecord(time, fid, 1, 100)).append('\n');
+      }
+      for (int i = 0; i < 10; i++) {
+        trace.append(CacheSimulator.formatRecord(time, cold++, 1, 100)).append('\n');
+      }
+    }
+
+    CacheSimulator simulator = new CacheSimulator(1000, 0.1, 1000);
+    long records = simulator.replay(new BufferedReader(new StringReader(trace.toString())));
+    Assert.assertEquals(1500, records);
+    List<CacheSimulator.Result> results = simulator.getResults();
+    Assert.assertEquals(3, results.size());
+    CacheSimulator.Result wTinyLfu = results.get(0);
+    CacheSimulator.Result lru = results.get(2);
+    Assert.assertEquals("W-TinyLFU", wTinyLfu.getPolicy());
+    Assert.assertEquals("LRU", lru.getPolicy());
+    Assert.assertEquals(1500, lru.getRequests());
+    Assert.assertEquals(0, lru.getHits());
+    Assert.assertTrue(wTinyLfu.getHitRatio() > 0.3);
+    Assert.assertEquals(wTinyLfu.getHitRatio(), wTinyLfu.getByteHitRatio(), 1e-9);
+  }
+
+  @Test(expected = IOException.class)
+  public void testInvalidRecord() throws IOException {
+    new CacheSimulator(1000, 0, 1000).replay(
+        new BufferedReader(new StringReader("5000 1 x 100\n")));
+  }
+}
@@ -0,0 +1,125 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.server.engine.cache;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class TestWTinyLfuPolicy {
+
+  @Test
+  public void testFrequencySketch() {
+    FrequencySketch sketch = new FrequencySketch(1000);
+    Assert.assertEquals(1024, sketch.getWidth());
+    sketch.increment(1, 3);
+    sketch.increment(1, 2);
+    sketch.increment(2, 100);
+    Assert.assertEquals(5, sketch.frequency(1));
+    Assert.assertEquals(15, sketch.frequency(2));
+    Assert.assertEquals(0, sketch.frequency(3));
+
+    sketch.reset();
+    Assert.assertEquals(2, sketch.frequency(1));
+    Assert.assertEquals(7, sketch.frequency(2));
+
+    // Halved after accesses of 10 times the width
+    long fid = 100;
+    while (sketch.frequency(2) == 7) {
+      sketch.increment(fid++, 1);
+    }
+    Assert.assertTrue(fid - 100 <= 10 * 1024);
+  }
+
+  @Test
+  public void testScanResistance() {
+    WTinyLfuPolicy policy = new WTinyLfuPolicy(1000, 0, 1000);
+    final List<Long> admitted = new ArrayList<>();
+    final List<Long> evicted = new ArrayList<>();
+    policy.setListener(new WTinyLfuPolicy.Listener() {
+      @Override
+      public void onAdmit(long fid) {
+        admitted.add(fid);
+      }
+
+      @Override
+      public void onEvict(long fid) {
+        evicted.add(fid);
+      }
+    });
+
+    for (long fid = 1; fid <= 10; fid++) {
+      Assert.assertFalse(policy.record(fid, 3, 100));
+    }
+    Assert.assertEquals(10, admitted.size());
+    Assert.assertEquals(1000, policy.getUsed());
+    Assert.assertTrue(policy.record(1, 1, 0));
+
+    // Files accessed once do not flush the frequently accessed ones
+    for (long fid = 100; fid < 200; fid++) {
+      Assert.assertFalse(policy.record(fid, 1, 100));
+    }
+    Assert.assertEquals(10, admitted.size());
+    Assert.assertTrue(evicted.isEmpty());
+
+    // But more frequently accessed ones get in
+    Assert.assertFalse(policy.record(200, 5, 200));
+    Assert.assertTrue(policy.contains(200));
+    Assert.assertEquals(2, evicted.size());
+    Assert.assertEquals(1000, policy.getUsed());
+
+    // Files too large are never cached
+    Assert.assertFalse(policy.record(300, 15, 2000));
+    Assert.assertFalse(policy.contains(300));
+
+    policy.setCapacity(500);
+    Assert.assertEquals(500, policy.getUsed());
+    Assert.assertEquals(7, evicted.size());
+    Assert.assertTrue(policy.contains(1));
+
+    policy.remove(1);
+    Assert.assertEquals(400, policy.getUsed());
+    Assert.assertEquals(7, evicted.size());
+  }
+
+  @Test
+  public void testWindow() {
+    WTinyLfuPolicy policy = new WTinyLfuPolicy(1000, 0.2, 1000);
+    for (long fid = 1; fid <= 8; fid++) {
+      policy.record(fid, 2, 100);
+    }
+    // The window keeps the files recently accessed even accessed once
+    policy.record(10, 1, 100);
+    policy.record(11, 1, 100);
+    Assert.assertTrue(policy.contains(10));
+    Assert.assertTrue(policy.contains(11));
+    policy.record(12, 1, 100);
+    Assert.assertTrue(policy.contains(12));
+    Assert.assertFalse(policy.contains(10));
+    for (long fid = 1; fid <= 8; fid++) {
+      Assert.assertTrue(policy.contains(fid));
+    }
+
+    policy.addCached(20, 100);
+    Assert.assertTrue(policy.contains(20));
+    Assert.assertEquals(1000, policy.getUsed());
+    Assert.assertEquals(10, policy.size());
+  }
+}
@@ -20,7 +20,9 @@
 import org.junit.Assert;
 import org.junit.Test;
 import org.smartdata.model.CmdletDescriptor;
+import org.smartdata.model.CmdletPriority;
 
+import java.text.ParseException;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -61,4 +63,30 @@ public void testTrans() throws Exception {
     Assert.assertTrue(des.getActionSize() == transDes.getActionSize());
     Assert.assertTrue(transDes.equals(des));
   }
+
+  @Test
+  public void testMetaCmdlets() throws Exception {
+    String cmd = ".priority high ; .weight 4 ; .inflight 100 ; .defer 5s ; allssd";
+    CmdletDescriptor des = CmdletDescriptor.fromCmdletString(cmd);
+    Assert.assertEquals(1, des.getActionSize());
+    Assert.assertEquals(CmdletPriority.HIGH, des.getPriority());
+    Assert.assertEquals(4, des.getWeight());
+    Assert.assertEquals(100, des.getMaxInFlight());
+
+    CmdletDescriptor copy = new CmdletDescriptor(des.toCmdletString(), 1);
+    Assert.assertNull(copy.getPriority());
+    copy.copyMetaOptions(des);
+    Assert.assertEquals(CmdletPriority.HIGH, copy.getPriority());
+    Assert.assertEquals(des.getDeferIntervalMs(), copy.getDeferIntervalMs());
+
+    String[] invalids = {".priority urgent ; allssd", ".weight 0 ; allssd", ".inflight x ; allssd"};
+    for (String invalid : invalids) {
+      try {
+        CmdletDescriptor.fromCmdletString(invalid);
+        Assert.fail("Should fail to parse " + invalid);
+      } catch (ParseException e) {
+        // Expected
+      }
+    }
+  }
 }
@@ -22,6 +22,7 @@
 import org.smartdata.action.EchoAction;
 import org.smartdata.action.SmartAction;
 import org.smartdata.conf.SmartConf;
+import org.smartdata.conf.SmartConfKeys;
 import org.smartdata.protocol.message.ActionStatus;
 import org.smartdata.protocol.message.StatusMessage;
 import org.smartdata.protocol.message.StatusReport;
@@ -73,6 +74,105 @@ public void report(StatusMessage status) {
     executor.shutdown();
   }
 
+  class LoggingAction extends SmartAction {
+    @Override
+    protected void execute() throws Exception {
+      for (int i = 0; i < 20; i++) {
+        appendLog("line " + i + " \u00e9\u4e2d");
+        appendResult("result " + i);
+        Thread.sleep(20);
+      }
+    }
+  }
+
+  @Test
+  public void testDeltaReport() throws Exception {
+    SmartAction action = new LoggingAction();
+    action.setActionId(101);
+    Cmdlet cmdlet = new Cmdlet(Arrays.asList((SmartAction) action));
+    Thread thread = new Thread(cmdlet);
+    thread.start();
+
+    // Reassemble the log and result from the reports as the server does,
+    // with every two statuses merged as the report task does
+    String log = "";
+    String result = "";
+    ActionStatus pending = null;
+    boolean finished = false;
+    for (int round = 0; !finished; round++) {
+      Thread.sleep(15);
+      ActionStatus status = cmdlet.getActionStatuses().get(0);
+      pending = pending == null ? status : ActionStatus.merge(pending, status);
+      finished = status.isFinished();
+      if (finished || round % 2 == 1) {
+        log = ActionStatus.apply(log, pending.getLog(), pending.getLogOffset());
+        result = ActionStatus.apply(result, pending.getResult(), pending.getResultOffset());
+        pending = null;
+      }
+    }
+    thread.join();
+
+    StringBuilder expectedLog = new StringBuilder();
+    StringBuilder expectedResult = new StringBuilder();
+    for (int i = 0; i < 20; i++) {
+      expectedLog.append("line " + i + " \u00e9\u4e2d" + System.lineSeparator());
+      expectedResult.append("result " + i + System.lineSeparator());
+    }
+    Assert.assertEquals(expectedLog.toString(), log);
+    Assert.assertEquals(expectedResult.toString(), result);
+    // Output is released once reported finished
+    Assert.assertEquals("", action.getActionStatus().getLog());
+    // Only the part after the offset is replaced if reported again
+    Assert.assertEquals("line 0 x", ActionStatus.apply(log, "x", 7));
+  }
+
+  @Test
+  public void testReportNotDelivered() throws Exception {
+    final List<StatusReport> delivered = new ArrayList<>();
+    StatusReporter reporter =
+        new StatusReporter() {
+          private int count = 0;
+
+          @Override
+          public void report(StatusMessage status) {
+            // Every other report is lost
+            if (count++ % 2 == 1) {
+              throw new IllegalStateException("Injected");
+            }
+            delivered.add((StatusReport) status);
+          }
+        };
+    SmartConf conf = new SmartConf();
+    conf.setInt(SmartConfKeys.SMART_STATUS_REPORT_PERIOD_KEY, 0);
+    CmdletExecutor executor = new CmdletExecutor(conf);
+    StatusReportTask statusReportTask = new StatusReportTask(reporter, executor, conf);
+    SmartAction action = new LoggingAction();
+    action.setActionId(101);
+    executor.execute(new Cmdlet(Arrays.asList(action)));
+
+    String log = "";
+    boolean finished = false;
+    while (!finished) {
+      Thread.sleep(15);
+      statusReportTask.run();
+      for (StatusReport report : delivered) {
+        ActionStatus status = report.getActionStatuses().get(0);
+        log = ActionStatus.apply(log, status.getLog(), status.getLogOffset());
+        finished = status.isFinished();
+      }
+      delivered.clear();
+    }
+    executor.shutdown();
+
+    StringBuilder expectedLog = new StringBuilder();
+    for (int i = 0; i < 20; i++) {
+      expectedLog.append("line " + i + " \u00e9\u4e2d" + System.lineSeparator());
+    }
+    Assert.assertEquals(expectedLog.toString(), log);
+    // A part not following the one known is rejected
+    Assert.assertNull(ActionStatus.apply("line", "x", 5));
+  }
+
   class HangingAction extends SmartAction {
     @Override
     protected void execute() throws Exception {
@@ -0,0 +1,107 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.server.engine.cmdlet;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.smartdata.model.ActionInfo;
+import org.smartdata.model.CmdletInfo;
+import org.smartdata.model.CmdletState;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class TestCmdletJournal {
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private CmdletInfo newCmdlet(long cid, CmdletState state) {
+    return new CmdletInfo(cid, 1, Arrays.asList(cid * 10), state, "cache -file /a",
+        1000L, 2000L, 3000L);
+  }
+
+  private ActionInfo newAction(long cid, boolean finished) {
+    Map<String, String> args = new HashMap<>();
+    args.put("-file", "/a");
+    return new ActionInfo(cid * 10, cid, "cache", args, null, "log", finished,
+        1000L, finished, 2000L, finished ? 1.0F : 0.5F);
+  }
+
+  @Test
+  public void testRecover() throws Exception {
+    File dir = folder.newFolder();
+    CmdletJournal journal = new CmdletJournal(dir);
+    journal.append(newCmdlet(1, CmdletState.PENDING),
+        Collections.singletonList(newAction(1, false)));
+    journal.append(newCmdlet(2, CmdletState.PENDING),
+        Collections.singletonList(newAction(2, false)));
+    long segment = journal.roll();
+    journal.append(newCmdlet(1, CmdletState.DONE),
+        Collections.singletonList(newAction(1, true)));
+    journal.close();
+
+    journal = new CmdletJournal(dir);
+    List<CmdletJournal.Entry> entries = journal.recover();
+    Assert.assertEquals(2, entries.size());
+    // Only the last state of each cmdlet is kept
+    Assert.assertEquals(2, entries.get(0).getCmdlet().getCid());
+    CmdletJournal.Entry last = entries.get(1);
+    Assert.assertEquals(newCmdlet(1, CmdletState.DONE), last.getCmdlet());
+    Assert.assertEquals(3000L, last.getCmdlet().getDeferedToTime());
+    Assert.assertEquals(newAction(1, true), last.getActions().get(0));
+
+    // Purged segments are not recovered any more
+    journal.purgeBefore(segment);
+    journal.close();
+    journal = new CmdletJournal(dir);
+    entries = journal.recover();
+    Assert.assertEquals(1, entries.size());
+    Assert.assertEquals(1, entries.get(0).getCmdlet().getCid());
+    journal.purgeBefore(journal.roll());
+    journal.close();
+    Assert.assertEquals(1, dir.listFiles().length);
+  }
+
+  @Test
+  public void testTornTail() throws Exception {
+    File dir = folder.newFolder();
+    CmdletJournal journal = new CmdletJournal(dir);
+    journal.append(newCmdlet(1, CmdletState.PENDING),
+        Collections.singletonList(newAction(1, false)));
+    journal.append(newCmdlet(2, CmdletState.PENDING),
+        Collections.singletonList(newAction(2, false)));
+    journal.close();
+
+    File segment = dir.listFiles()[0];
+    try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+      file.setLength(file.length() - 5);
+    }
+    journal = new CmdletJournal(dir);
+    List<CmdletJournal.Entry> entries = journal.recover();
+    Assert.assertEquals(1, entries.size());
+    Assert.assertEquals(1, entries.get(0).getCmdlet().getCid());
+    journal.close();
+  }
+}
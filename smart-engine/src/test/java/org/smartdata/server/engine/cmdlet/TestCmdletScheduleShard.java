@@ -0,0 +1,93 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.server.engine.cmdlet;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.smartdata.model.CmdletInfo;
+import org.smartdata.model.CmdletState;
+
+public class TestCmdletScheduleShard {
+
+  private CmdletInfo newCmdlet(long cid, long deferedToTime) {
+    return new CmdletInfo(cid, 1, CmdletState.PENDING, "", 0, 0, deferedToTime);
+  }
+
+  @Test
+  public void testScheduleOrder() {
+    CmdletScheduleShard shard = new CmdletScheduleShard();
+    shard.add(newCmdlet(1, 0));
+    shard.add(newCmdlet(2, 2000));
+    shard.add(newCmdlet(3, 1500));
+    shard.add(newCmdlet(4, 0));
+    Assert.assertEquals(4, shard.size());
+
+    shard.beginPass(1000);
+    CmdletInfo first = shard.poll();
+    Assert.assertEquals(1, first.getCid());
+    shard.retry(first);
+    Assert.assertEquals(4, shard.poll().getCid());
+    Assert.assertNull(shard.poll());
+    Assert.assertEquals(3, shard.size());
+
+    // Retried one goes first, then the deferred ones by time
+    shard.beginPass(3000);
+    Assert.assertEquals(1, shard.poll().getCid());
+    Assert.assertEquals(3, shard.poll().getCid());
+    Assert.assertEquals(2, shard.poll().getCid());
+    Assert.assertNull(shard.poll());
+    Assert.assertEquals(0, shard.size());
+  }
+
+  @Test
+  public void testCancel() {
+    CmdletScheduleShard shard = new CmdletScheduleShard();
+    CmdletInfo deferred = newCmdlet(1, 5000);
+    CmdletInfo ready = newCmdlet(2, 0);
+    shard.add(deferred);
+    shard.add(ready);
+    shard.beginPass(1000);
+
+    deferred.setState(CmdletState.DISABLED);
+    shard.cancel();
+    Assert.assertEquals(1, shard.size());
+    Assert.assertEquals(2, shard.poll().getCid());
+    Assert.assertEquals(0, shard.size());
+
+    shard.beginPass(6000);
+    Assert.assertNull(shard.poll());
+    Assert.assertEquals(0, shard.size());
+  }
+
+  @Test
+  public void testCancelAfterPoll() {
+    CmdletScheduleShard shard = new CmdletScheduleShard();
+    CmdletInfo cmdlet = newCmdlet(1, 0);
+    shard.add(cmdlet);
+    shard.beginPass(1000);
+    Assert.assertEquals(1, shard.poll().getCid());
+
+    // Disabled while being scheduled
+    cmdlet.setState(CmdletState.DISABLED);
+    shard.cancel();
+    shard.drop(cmdlet);
+    Assert.assertEquals(0, shard.size());
+    shard.add(newCmdlet(2, 0));
+    Assert.assertEquals(1, shard.size());
+  }
+}
@@ -0,0 +1,121 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.server.engine.cmdlet;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.smartdata.model.CmdletInfo;
+import org.smartdata.model.CmdletPriority;
+import org.smartdata.model.CmdletState;
+
+public class TestFairShareSchedulePolicy {
+  private long nextCid = 1;
+
+  private void add(CmdletSchedulePolicy policy, long rid, int num) {
+    for (int i = 0; i < num; i++) {
+      policy.add(new CmdletInfo(nextCid++, rid, CmdletState.PENDING, "", 0, 0, 0));
+    }
+  }
+
+  @Test
+  public void testPriorityAndWeight() {
+    RuleShares shares = new RuleShares();
+    shares.update(3, CmdletPriority.HIGH, 0, 0);
+    shares.update(2, null, 3, 0);
+    FairShareSchedulePolicy policy = new FairShareSchedulePolicy(shares);
+    add(policy, 1, 1000);
+    add(policy, 2, 1000);
+    add(policy, 3, 5);
+    policy.beginPass();
+
+    // Cmdlets of the high priority rule go first although submitted last
+    for (int i = 0; i < 5; i++) {
+      Assert.assertEquals(3, policy.poll().getRid());
+    }
+    // Then shared by weight 1:3
+    int[] counts = new int[3];
+    for (int i = 0; i < 400; i++) {
+      counts[(int) policy.poll().getRid()]++;
+    }
+    Assert.assertEquals(100, counts[1]);
+    Assert.assertEquals(300, counts[2]);
+
+    // A rule becoming active gets no credit for the time it was idle
+    add(policy, 3, 1);
+    shares.update(3, CmdletPriority.NORMAL, 0, 0);
+    Assert.assertEquals(3, policy.poll().getRid());
+    add(policy, 4, 10);
+    counts = new int[5];
+    for (int i = 0; i < 10; i++) {
+      counts[(int) policy.poll().getRid()]++;
+    }
+    Assert.assertEquals(2, counts[4]);
+    Assert.assertEquals(6, counts[2]);
+  }
+
+  @Test
+  public void testInFlightLimit() {
+    RuleShares shares = new RuleShares();
+    RuleShare limited = shares.update(1, null, 0, 2);
+    FairShareSchedulePolicy policy = new FairShareSchedulePolicy(shares);
+    add(policy, 1, 10);
+    add(policy, 2, 10);
+    policy.beginPass();
+
+    int numLimited = 0;
+    CmdletInfo cmdlet;
+    while ((cmdlet = policy.poll()) != null) {
+      if (cmdlet.getRid() == 1) {
+        limited.incInFlight();
+        numLimited++;
+      }
+    }
+    Assert.assertEquals(2, numLimited);
+
+    // Scheduled again in the next pass once some finish
+    limited.decInFlight();
+    policy.beginPass();
+    Assert.assertEquals(1, policy.poll().getRid());
+    limited.incInFlight();
+    Assert.assertNull(policy.poll());
+
+    // Retried cmdlet goes before the others of its rule
+    limited.setMaxInFlight(0);
+    CmdletInfo retry = new CmdletInfo(100, 1, CmdletState.PENDING, "", 0, 0, 0);
+    policy.addFirst(retry);
+    policy.beginPass();
+    Assert.assertEquals(100, policy.poll().getCid());
+  }
+
+  @Test
+  public void testScheduleShard() {
+    RuleShares shares = new RuleShares();
+    shares.update(2, CmdletPriority.HIGH, 0, 0);
+    CmdletScheduleShard shard = new CmdletScheduleShard(new FairShareSchedulePolicy(shares));
+    shard.add(new CmdletInfo(1, 1, CmdletState.PENDING, "", 0, 0, 0));
+    shard.add(new CmdletInfo(2, 1, CmdletState.PENDING, "", 0, 0, 0));
+    shard.add(new CmdletInfo(3, 2, CmdletState.PENDING, "", 0, 0, 2000));
+    shard.beginPass(1000);
+    Assert.assertEquals(1, shard.poll().getCid());
+    shard.beginPass(3000);
+    Assert.assertEquals(3, shard.poll().getCid());
+    Assert.assertEquals(2, shard.poll().getCid());
+    Assert.assertNull(shard.poll());
+    Assert.assertEquals(0, shard.size());
+  }
+}
@@ -22,10 +22,14 @@
 import org.junit.Before;
 import org.junit.Test;
 import org.smartdata.metastore.MetaStore;
+import org.smartdata.metastore.MetaStoreException;
 import org.smartdata.metastore.TestDaoUtil;
+import org.smartdata.metastore.dao.FidCountMap;
 import org.smartdata.metastore.dao.MetaStoreHelper;
+import org.smartdata.model.FileInfo;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 public class TestRuleExecutor extends TestDaoUtil {
@@ -45,6 +49,25 @@ public void closeActionDao() throws Exception {
     metaStoreHelper = null;
   }
 
+  @Test
+  public void testRestrictToPaths() throws Exception {
+    List<String> paths = Arrays.asList("/a/1", "/a/it's");
+    Assert.assertEquals(
+        "SELECT path FROM file WHERE path IN ('/a/1', '/a/it''s') AND (length > 0);",
+        RuleExecutor.restrictToPaths("SELECT path FROM file WHERE length > 0;", paths));
+    Assert.assertEquals(
+        "SELECT path FROM file WHERE path IN ('/a/1', '/a/it''s');",
+        RuleExecutor.restrictToPaths("SELECT path FROM file", paths));
+
+    for (String path : new String[] {"/a/1", "/a/2", "/b/1"}) {
+      adapter.insertFile(new FileInfo(path, path.hashCode(), 10, false, (short) 1,
+          1024, 0, 0, (short) 0, "user", "group", (byte) 0));
+    }
+    String sql = RuleExecutor.restrictToPaths(
+        "SELECT path FROM file WHERE path LIKE '/a/%';", paths);
+    Assert.assertEquals(Arrays.asList("/a/1"), adapter.executeFilesPathQuery(sql));
+  }
+
   @Test
   public void generateSQL() throws Exception {
     String countFilter = "";
@@ -76,4 +99,24 @@ public void generateSQL() throws Exception {
       Assert.assertTrue(false);
     }
   }
+
+  @Test
+  public void generateTableFromCounts() throws Exception {
+    FidCountMap counts = new FidCountMap();
+    counts.add(1, 3);
+    counts.add(2, 5);
+    String sql = RuleExecutor.generateTableFromCounts(counts, "test_mem", adapter);
+    Assert.assertEquals("", sql);
+    Assert.assertEquals(8L,
+        (long) adapter.queryForLong("SELECT SUM(count) FROM test_mem"));
+
+    // Failure to fill the table fails the rule query instead of matching nothing
+    try {
+      RuleExecutor.generateTableFromCounts(counts, "test_mem", adapter);
+      Assert.fail("Table not filled but no exception");
+    } catch (MetaStoreException e) {
+      // Expected
+    }
+    metaStoreHelper.dropTable("test_mem");
+  }
 }
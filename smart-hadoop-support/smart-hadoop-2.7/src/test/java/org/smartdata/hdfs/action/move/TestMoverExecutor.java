@@ -30,6 +30,7 @@
 import org.apache.hadoop.hdfs.server.protocol.DatanodeStorageReport;
 import org.junit.Assert;
 import org.junit.Test;
+import org.smartdata.conf.SmartConfKeys;
 import org.smartdata.hdfs.MiniClusterWithStoragesHarness;
 import org.smartdata.model.action.FileMovePlan;
 
@@ -37,6 +38,9 @@
 import java.net.URI;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Test for MoverExecutor.
@@ -111,6 +115,89 @@ public void moveInSameNode() throws Exception {
     }
   }
 
+  @Test
+  public void moveWithDatanodeLimit() throws Exception {
+    Configuration conf = new Configuration(smartContext.getConf());
+    conf.setInt(SmartConfKeys.SMART_MOVER_MAX_CONCURRENT_MOVES_PER_DATANODE_KEY, 1);
+    MoverService.get().configure(conf);
+    URI namenode = cluster.getURI();
+    try {
+      StringBuilder stringBuilder = new StringBuilder();
+      for (int i = 0; i < 100; i ++) {
+        stringBuilder.append("This is a block with 50B.");
+      }
+      generateFile(stringBuilder.toString());
+
+      FileMovePlan plan = new FileMovePlan(namenode, fileName);
+      int replicas = 0;
+      for (LocatedBlock lb : getLocatedBlocks(dfsClient, fileName, plan)) {
+        for (DatanodeInfo datanodeInfo : lb.getLocations()) {
+          StorageGroup source = new StorageGroup(datanodeInfo, StorageType.DISK.toString());
+          StorageGroup target = new StorageGroup(datanodeInfo, StorageType.SSD.toString());
+          addPlan(plan, source, target, lb.getBlock().getBlockId());
+          replicas++;
+        }
+      }
+
+      // Record the max moves in flight per DataNode while moving
+      final Map<String, Integer> maxInFlight = new ConcurrentHashMap<>();
+      final AtomicBoolean moving = new AtomicBoolean(true);
+      Thread sampler = new Thread() {
+        @Override
+        public void run() {
+          while (moving.get()) {
+            for (MoverService.DatanodeStats stats
+                : MoverService.get().getDatanodeStats().values()) {
+              Integer max = maxInFlight.get(stats.getDatanode());
+              if (max == null || stats.getInFlight() > max) {
+                maxInFlight.put(stats.getDatanode(), stats.getInFlight());
+              }
+            }
+          }
+        }
+      };
+      sampler.start();
+      MoverStatus status = new MoverStatus();
+      status.setTotalBlocks(replicas);
+      // Moved one by one per DataNode, the connector is shared by actions
+      try {
+        Assert.assertEquals(0, new MoverExecutor(status, conf, 10, 10).executeMove(plan));
+      } finally {
+        moving.set(false);
+        sampler.join();
+      }
+      Assert.assertEquals(replicas, status.getMovedBlocks());
+      Assert.assertFalse(maxInFlight.isEmpty());
+      for (Map.Entry<String, Integer> entry : maxInFlight.entrySet()) {
+        Assert.assertTrue(entry.getKey() + " had " + entry.getValue() + " moves in flight",
+            entry.getValue() <= 1);
+      }
+
+      NameNodeConnector nnc = MoverService.get().getNameNodeConnector(namenode, conf);
+      Assert.assertSame(nnc, MoverService.get().getNameNodeConnector(namenode, conf));
+      MoverService.get().release(nnc);
+      // A dropped connector is kept by its users, but not handed out again
+      MoverService.get().invalidate(namenode, nnc);
+      NameNodeConnector newNnc = MoverService.get().getNameNodeConnector(namenode, conf);
+      Assert.assertNotSame(nnc, newNnc);
+      MoverService.get().release(nnc);
+      MoverService.get().release(newNnc);
+
+      Assert.assertEquals(0, MoverService.get().getQueuedMoves());
+      Assert.assertEquals(0, MoverService.get().getInFlightMoves());
+      long movedBlocks = 0;
+      for (MoverService.DatanodeStats stats
+          : MoverService.get().getDatanodeStats().values()) {
+        Assert.assertEquals(0, stats.getInFlight());
+        Assert.assertEquals(0, stats.getQueued());
+        movedBlocks += stats.getMovedBlocks();
+      }
+      Assert.assertTrue(movedBlocks >= replicas);
+    } finally {
+      MoverService.get().configure(smartContext.getConf());
+    }
+  }
+
   @Test
   // TODO: seems the original replica is not deleted after move
   // DataXceiver.replaceBlock doing this job
@@ -0,0 +1,240 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.hdfs.client;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.protocol.LocatedBlock;
+import org.apache.hadoop.hdfs.protocol.LocatedBlocks;
+import org.smartdata.conf.SmartConfKeys;
+import org.smartdata.model.CompactFileState;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache of the states of compacted small files and the block locations of
+ * their container files in a namespace, shared by all the clients of a user
+ * to the namespace in the JVM. Small files in the same container are opened
+ * without fetching their states and the container blocks again, which carry
+ * the block tokens of the user. The clients still check the permission of
+ * the small files with the NameNode before opening them from the cache.
+ *
+ * <p>Entries expire after the TTL, as the files may be changed by other
+ * clients. The files changed by this JVM are invalidated at once, and so are
+ * the small files of a container whose blocks are found changed, by a
+ * different generation stamp, when the locations are fetched again.
+ */
+public class SmallFileMetaCache {
+  private static final Map<String, SmallFileMetaCache> INSTANCES = new HashMap<>();
+
+  private final long ttl;
+  private final Map<String, Entry<CompactFileState>> fileStates;
+  private final Map<String, Entry<LocatedBlocks>> containerBlocks;
+  private long hits = 0;
+  private long misses = 0;
+
+  SmallFileMetaCache(final int capacity, long ttl) {
+    this.ttl = ttl;
+    this.fileStates = new LinkedHashMap<String, Entry<CompactFileState>>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Entry<CompactFileState>> eldest) {
+        return size() > capacity;
+      }
+    };
+    this.containerBlocks = new LinkedHashMap<String, Entry<LocatedBlocks>>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Entry<LocatedBlocks>> eldest) {
+        return size() > capacity;
+      }
+    };
+  }
+
+  /**
+   * Get the cache of the user to the namespace shared in the JVM, created
+   * with the configuration of the first client.
+   *
+   * @param user the short name of the user
+   * @param namespace the service name of the NameNode
+   * @return null if the cache is disabled
+   */
+  public static synchronized SmallFileMetaCache get(Configuration conf, String user,
+      String namespace) {
+    String key = user + "@" + namespace;
+    SmallFileMetaCache instance = INSTANCES.get(key);
+    if (instance == null) {
+      int capacity = conf.getInt(SmartConfKeys.SMART_CLIENT_SMALL_FILE_META_CACHE_SIZE_KEY,
+          SmartConfKeys.SMART_CLIENT_SMALL_FILE_META_CACHE_SIZE_DEFAULT);
+      long ttl = conf.getLong(SmartConfKeys.SMART_CLIENT_SMALL_FILE_META_CACHE_TTL_MS_KEY,
+          SmartConfKeys.SMART_CLIENT_SMALL_FILE_META_CACHE_TTL_MS_DEFAULT);
+      if (capacity <= 0 || ttl <= 0) {
+        return null;
+      }
+      instance = new SmallFileMetaCache(capacity, ttl);
+      INSTANCES.put(key, instance);
+    }
+    return instance;
+  }
+
+  /**
+   * Get the state of the small file.
+   *
+   * @return null if not cached
+   */
+  public synchronized CompactFileState getFileState(String path) {
+    CompactFileState state = getValid(fileStates, path);
+    if (state == null) {
+      misses++;
+    } else {
+      hits++;
+    }
+    return state;
+  }
+
+  public synchronized void putFileState(String path, CompactFileState state) {
+    fileStates.put(path, new Entry<>(state, System.currentTimeMillis() + ttl));
+  }
+
+  public synchronized boolean isContainer(String path) {
+    return containerBlocks.containsKey(path);
+  }
+
+  /**
+   * Get the block locations of the container fetched from its start, if
+   * they cover the container up to the given length.
+   *
+   * @return a copy to be owned by the caller, null if not cached
+   */
+  public synchronized LocatedBlocks getContainerBlocks(String container, long length) {
+    LocatedBlocks blocks = getValid(containerBlocks, container);
+    if (blocks == null || blocks.getFileLength() < length) {
+      return null;
+    }
+    // Input streams insert the blocks fetched later into the list
+    return new LocatedBlocks(blocks.getFileLength(), blocks.isUnderConstruction(),
+        new ArrayList<>(blocks.getLocatedBlocks()), blocks.getLastLocatedBlock(),
+        blocks.isLastBlockComplete(), blocks.getFileEncryptionInfo());
+  }
+
+  /**
+   * Put the block locations of the container fetched from the NameNode. The
+   * small files of the container are invalidated if its blocks changed.
+   */
+  public synchronized void putContainerBlocks(String container, LocatedBlocks blocks) {
+    Entry<LocatedBlocks> old = containerBlocks.get(container);
+    if (old != null && isChanged(old.value, blocks)) {
+      invalidateContainer(container);
+    }
+    boolean fromStart = blocks.locatedBlockCount() == 0
+        || blocks.get(0).getStartOffset() == 0;
+    if (fromStart && !blocks.isUnderConstruction()) {
+      containerBlocks.put(container, new Entry<>(blocks, System.currentTimeMillis() + ttl));
+    }
+  }
+
+  /**
+   * Invalidate the path and all the paths under it, removed or renamed.
+   */
+  public synchronized void invalidate(String path) {
+    String prefix = path.endsWith("/") ? path : path + "/";
+    Iterator<Map.Entry<String, Entry<CompactFileState>>> iter =
+        fileStates.entrySet().iterator();
+    while (iter.hasNext()) {
+      Map.Entry<String, Entry<CompactFileState>> entry = iter.next();
+      String container = entry.getValue().value.getFileContainerInfo().getContainerFilePath();
+      if (isUnder(entry.getKey(), path, prefix) || isUnder(container, path, prefix)) {
+        iter.remove();
+      }
+    }
+    Iterator<String> containers = containerBlocks.keySet().iterator();
+    while (containers.hasNext()) {
+      if (isUnder(containers.next(), path, prefix)) {
+        containers.remove();
+      }
+    }
+  }
+
+  public synchronized int size() {
+    return fileStates.size();
+  }
+
+  public synchronized long getHits() {
+    return hits;
+  }
+
+  public synchronized long getMisses() {
+    return misses;
+  }
+
+  private void invalidateContainer(String container) {
+    containerBlocks.remove(container);
+    Iterator<Entry<CompactFileState>> iter = fileStates.values().iterator();
+    while (iter.hasNext()) {
+      if (container.equals(iter.next().value.getFileContainerInfo().getContainerFilePath())) {
+        iter.remove();
+      }
+    }
+  }
+
+  private <T> T getValid(Map<String, Entry<T>> map, String key) {
+    Entry<T> entry = map.get(key);
+    if (entry == null) {
+      return null;
+    }
+    if (entry.expireTime < System.currentTimeMillis()) {
+      map.remove(key);
+      return null;
+    }
+    return entry.value;
+  }
+
+  private static boolean isUnder(String path, String dir, String prefix) {
+    return path.equals(dir) || path.startsWith(prefix);
+  }
+
+  // Blocks at the same offset of a different id or generation stamp, or truncated
+  private static boolean isChanged(LocatedBlocks cached, LocatedBlocks fetched) {
+    if (fetched.getFileLength() < cached.getFileLength()) {
+      return true;
+    }
+    Map<Long, LocatedBlock> offsetToBlock = new HashMap<>();
+    for (LocatedBlock block : cached.getLocatedBlocks()) {
+      offsetToBlock.put(block.getStartOffset(), block);
+    }
+    for (LocatedBlock block : fetched.getLocatedBlocks()) {
+      LocatedBlock old = offsetToBlock.get(block.getStartOffset());
+      if (old != null && (old.getBlock().getBlockId() != block.getBlock().getBlockId()
+          || old.getBlock().getGenerationStamp() != block.getBlock().getGenerationStamp())) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static class Entry<T> {
+    private final T value;
+    private final long expireTime;
+
+    Entry(T value, long expireTime) {
+      this.value = value;
+      this.expireTime = expireTime;
+    }
+  }
+}
@@ -23,6 +23,7 @@
 import org.apache.hadoop.fs.CreateFlag;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.MD5MD5CRC32FileChecksum;
+import org.apache.hadoop.fs.Options;
 import org.apache.hadoop.fs.permission.AclEntry;
 import org.apache.hadoop.fs.permission.FsAction;
 import org.apache.hadoop.fs.permission.FsPermission;
@@ -42,10 +43,13 @@
 import org.smartdata.client.SmartClient;
 import org.smartdata.metrics.FileAccessEvent;
 import org.smartdata.model.CompactFileState;
+import org.smartdata.model.CompressionFileState;
+import org.smartdata.model.FileContainerInfo;
 import org.smartdata.model.FileState;
 import org.smartdata.model.NormalFileState;
 
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.URI;
@@ -55,12 +59,16 @@
 public class SmartDFSClient extends DFSClient {
   private static final Logger LOG = LoggerFactory.getLogger(SmartDFSClient.class);
   private static final String CALLER_CLASS = "org.apache.hadoop.hdfs.DFSInputStream";
+  // Small file being opened by the thread, whose container blocks may be cached
+  private static final ThreadLocal<CompactFileState> OPENING = new ThreadLocal<>();
   private SmartClient smartClient = null;
   private boolean healthy = false;
+  private SmallFileMetaCache metaCache;
 
   public SmartDFSClient(InetSocketAddress nameNodeAddress, Configuration conf,
       InetSocketAddress smartServerAddress) throws IOException {
     super(nameNodeAddress, conf);
+    metaCache = getMetaCache(conf);
     if (isSmartClientDisabled()) {
       return;
     }
@@ -76,6 +84,7 @@ public SmartDFSClient(InetSocketAddress nameNodeAddress, Configuration conf,
   public SmartDFSClient(final URI nameNodeUri, final Configuration conf,
       final InetSocketAddress smartServerAddress) throws IOException {
     super(nameNodeUri, conf);
+    metaCache = getMetaCache(conf);
     if (isSmartClientDisabled()) {
       return;
     }
@@ -92,6 +101,7 @@ public SmartDFSClient(URI nameNodeUri, Configuration conf,
       FileSystem.Statistics stats, InetSocketAddress smartServerAddress)
       throws IOException {
     super(nameNodeUri, conf, stats);
+    metaCache = getMetaCache(conf);
     if (isSmartClientDisabled()) {
       return;
     }
@@ -107,6 +117,7 @@ public SmartDFSClient(URI nameNodeUri, Configuration conf,
   public SmartDFSClient(Configuration conf,
       InetSocketAddress smartServerAddress) throws IOException {
     super(conf);
+    metaCache = getMetaCache(conf);
     if (isSmartClientDisabled()) {
       return;
     }
@@ -121,6 +132,7 @@ public SmartDFSClient(Configuration conf,
 
   public SmartDFSClient(Configuration conf) throws IOException {
     super(conf);
+    metaCache = getMetaCache(conf);
     if (isSmartClientDisabled()) {
       return;
     }
@@ -141,21 +153,81 @@ public DFSInputStream open(String src) throws IOException {
   @Override
   public DFSInputStream open(String src, int buffersize,
       boolean verifyChecksum) throws IOException {
+    if (metaCache != null) {
+      CompactFileState cached = metaCache.getFileState(src);
+      if (cached != null) {
+        // Authorized by the NameNode as the cache may be filled by another client
+        super.checkAccess(src, FsAction.READ);
+        try {
+          DFSInputStream is = openCompact(src, verifyChecksum, cached);
+          reportFileAccessEvent(src);
+          return is;
+        } catch (IOException e) {
+          // The container may be removed or changed, open it as usual
+          LOG.debug("Failed to open {} with cached state", src, e);
+          metaCache.invalidate(src);
+          metaCache.invalidate(cached.getFileContainerInfo().getContainerFilePath());
+        }
+      }
+    }
     DFSInputStream is = super.open(src, buffersize, verifyChecksum);
     if (is.getFileLength() == 0) {
       is.close();
       FileState fileState = getFileState(src);
-      if (fileState.getFileStage().equals(FileState.FileStage.PROCESSING)) {
-        throw new IOException("Cannot open " + src + " when it is under PROCESSING to "
-            + fileState.getFileType());
+      try {
+        is = openSmart(src, verifyChecksum, fileState);
+      } catch (FileNotFoundException e) {
+        // The container file is deleted if defragmented after the state got
+        FileState current = getFileState(src);
+        if (!(fileState instanceof CompactFileState)
+            || !(current instanceof CompactFileState)
+            || ((CompactFileState) current).getFileContainerInfo().equals(
+                ((CompactFileState) fileState).getFileContainerInfo())) {
+          throw e;
+        }
+        is = openSmart(src, verifyChecksum, current);
       }
-      is = SmartInputStreamFactory.get().create(this, src,
-          verifyChecksum, fileState);
     }
     reportFileAccessEvent(src);
     return is;
   }
 
+  private DFSInputStream openSmart(String src, boolean verifyChecksum,
+      FileState fileState) throws IOException {
+    if (fileState.getFileStage().equals(FileState.FileStage.PROCESSING)) {
+      throw new IOException("Cannot open " + src + " when it is under PROCESSING to "
+          + fileState.getFileType());
+    }
+    if (metaCache != null && fileState instanceof CompactFileState) {
+      metaCache.putFileState(src, (CompactFileState) fileState);
+      return openCompact(src, verifyChecksum, (CompactFileState) fileState);
+    } else {
+      return SmartInputStreamFactory.get().create(this, src,
+          verifyChecksum, fileState);
+    }
+  }
+
+  private SmallFileMetaCache getMetaCache(Configuration conf) throws IOException {
+    String namespace = getCanonicalServiceName();
+    return SmallFileMetaCache.get(conf,
+        UserGroupInformation.getCurrentUser().getShortUserName(),
+        namespace == null ? "" : namespace);
+  }
+
+  /**
+   * Open the small file, with the cached block locations of its container
+   * if any.
+   */
+  private DFSInputStream openCompact(String src, boolean verifyChecksum,
+      CompactFileState fileState) throws IOException {
+    OPENING.set(fileState);
+    try {
+      return SmartInputStreamFactory.get().create(this, src, verifyChecksum, fileState);
+    } finally {
+      OPENING.remove();
+    }
+  }
+
   @Deprecated
   @Override
   public DFSInputStream open(String src, int buffersize,
@@ -175,6 +247,10 @@ public HdfsDataOutputStream append(final String src, final int buffersize,
         out.close();
         throw new IOException(getExceptionMsg("Append", "SSM Small File"));
       }
+      if (fileState instanceof CompressionFileState) {
+        out.close();
+        throw new IOException(getExceptionMsg("Append", "SSM Compressed File"));
+      }
     }
     return out;
   }
@@ -192,6 +268,10 @@ public HdfsDataOutputStream append(final String src, final int buffersize,
         out.close();
         throw new IOException(getExceptionMsg("Append", "SSM Small File"));
       }
+      if (fileState instanceof CompressionFileState) {
+        out.close();
+        throw new IOException(getExceptionMsg("Append", "SSM Compressed File"));
+      }
     }
     return out;
   }
@@ -201,8 +281,13 @@ public HdfsFileStatus getFileInfo(String src) throws IOException {
     HdfsFileStatus oldStatus = super.getFileInfo(src);
     if (oldStatus != null && oldStatus.getLen() == 0) {
       FileState fileState = getFileState(src);
+      long len = -1;
       if (fileState instanceof CompactFileState) {
-        long len = ((CompactFileState) fileState).getFileContainerInfo().getLength();
+        len = ((CompactFileState) fileState).getFileContainerInfo().getLength();
+      } else if (fileState instanceof CompressionFileState) {
+        len = ((CompressionFileState) fileState).getOriginalLength();
+      }
+      if (len >= 0) {
         return new HdfsFileStatus(len, oldStatus.isDir(), oldStatus.getReplication(),
             oldStatus.getBlockSize(), oldStatus.getModificationTime(), oldStatus.getAccessTime(),
             oldStatus.getPermission(), oldStatus.getOwner(), oldStatus.getGroup(),
@@ -218,9 +303,28 @@ public HdfsFileStatus getFileInfo(String src) throws IOException {
   @Override
   public LocatedBlocks getLocatedBlocks(String src, long start)
       throws IOException {
+    boolean fromInputStream =
+        CALLER_CLASS.equals(Thread.currentThread().getStackTrace()[2].getClassName());
+    if (fromInputStream && metaCache != null) {
+      CompactFileState opening = OPENING.get();
+      boolean isOpening = opening != null
+          && src.equals(opening.getFileContainerInfo().getContainerFilePath());
+      if (isOpening && start == 0) {
+        FileContainerInfo info = opening.getFileContainerInfo();
+        LocatedBlocks cached =
+            metaCache.getContainerBlocks(src, info.getOffset() + info.getLength());
+        if (cached != null) {
+          return cached;
+        }
+      }
+      if (isOpening || metaCache.isContainer(src)) {
+        LocatedBlocks locatedBlocks = super.getLocatedBlocks(src, start);
+        metaCache.putContainerBlocks(src, locatedBlocks);
+        return locatedBlocks;
+      }
+    }
     LocatedBlocks locatedBlocks = super.getLocatedBlocks(src, start);
-    if (!CALLER_CLASS.equals(Thread.currentThread().getStackTrace()[2].getClassName())
-        && locatedBlocks.getFileLength() == 0) {
+    if (!fromInputStream && locatedBlocks.getFileLength() == 0) {
       FileState fileState = getFileState(src);
       if (fileState instanceof CompactFileState) {
         String containerFile = ((CompactFileState) fileState)
@@ -448,6 +552,43 @@ public boolean isFileClosed(String src) throws IOException {
     return isFileClosed;
   }
 
+  @Override
+  public boolean delete(String src, boolean recursive) throws IOException {
+    try {
+      return super.delete(src, recursive);
+    } finally {
+      if (metaCache != null) {
+        metaCache.invalidate(src);
+      }
+    }
+  }
+
+  @Deprecated
+  @Override
+  public boolean rename(String src, String dst) throws IOException {
+    try {
+      return super.rename(src, dst);
+    } finally {
+      if (metaCache != null) {
+        metaCache.invalidate(src);
+        metaCache.invalidate(dst);
+      }
+    }
+  }
+
+  @Override
+  public void rename(String src, String dst, Options.Rename... options)
+      throws IOException {
+    try {
+      super.rename(src, dst, options);
+    } finally {
+      if (metaCache != null) {
+        metaCache.invalidate(src);
+        metaCache.invalidate(dst);
+      }
+    }
+  }
+
   @Override
   public synchronized void close() throws IOException {
     try {
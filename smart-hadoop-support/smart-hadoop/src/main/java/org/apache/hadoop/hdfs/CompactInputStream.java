@@ -18,6 +18,8 @@
 package org.apache.hadoop.hdfs;
 
 import org.apache.hadoop.fs.ReadOption;
+import org.apache.hadoop.hdfs.protocol.DatanodeInfo;
+import org.apache.hadoop.hdfs.protocol.ExtendedBlock;
 import org.apache.hadoop.hdfs.protocol.LocatedBlock;
 import org.apache.hadoop.io.ByteBufferPool;
 import org.smartdata.model.CompactFileState;
@@ -31,10 +33,16 @@
 import java.util.EnumSet;
 import java.util.List;
 
+/**
+ * Input stream of a small file compacted into a container file. It opens
+ * the container and translates the positions of the small file to the
+ * container, which is read by a plain stream of its own.
+ */
 public class CompactInputStream extends SmartInputStream {
-  private FileContainerInfo fileContainerInfo;
+  private final FileContainerInfo fileContainerInfo;
+  // Plain stream of the container file
+  private final DFSInputStream in;
   private boolean closed = false;
-  private static final String INHERITED_CLASS = "org.apache.hadoop.hdfs.DFSInputStream";
 
   CompactInputStream(DFSClient dfsClient, boolean verifyChecksum,
                      FileState fileState) throws IOException {
@@ -43,22 +51,33 @@ public class CompactInputStream extends SmartInputStream {
           verifyChecksum,
           fileState);
     this.fileContainerInfo = ((CompactFileState) fileState).getFileContainerInfo();
-    super.seek(fileContainerInfo.getOffset());
+    try {
+      this.in = new DFSInputStream(dfsClient,
+          fileContainerInfo.getContainerFilePath(), verifyChecksum);
+    } catch (IOException e) {
+      super.close();
+      throw e;
+    }
+    try {
+      in.seek(fileContainerInfo.getOffset());
+    } catch (IOException e) {
+      close();
+      throw e;
+    }
+  }
+
+  private long remaining(long pos) {
+    return fileContainerInfo.getLength() - pos;
   }
 
   @Override
   public long getFileLength() {
-    String callerClass = Thread.currentThread().getStackTrace()[2].getClassName();
-    if (INHERITED_CLASS.equals(callerClass)) {
-      return fileContainerInfo.getLength() + fileContainerInfo.getOffset();
-    } else {
-      return fileContainerInfo.getLength();
-    }
+    return fileContainerInfo.getLength();
   }
 
   @Override
   public List<LocatedBlock> getAllBlocks() throws IOException {
-    List<LocatedBlock> blocks = super.getAllBlocks();
+    List<LocatedBlock> blocks = in.getAllBlocks();
     List<LocatedBlock> ret = new ArrayList<>(16);
     long off = fileContainerInfo.getOffset();
     long len = fileContainerInfo.getLength();
@@ -73,32 +92,44 @@ public List<LocatedBlock> getAllBlocks() throws IOException {
 
   @Override
   public synchronized int read(final byte[] buf, int off, int len) throws IOException {
-    int realLen = (int) Math.min(len, fileContainerInfo.getLength() - getPos());
-    return super.read(buf, off, realLen);
+    long remaining = remaining(getPos());
+    if (remaining <= 0 && len > 0) {
+      return -1;
+    }
+    int realLen = (int) Math.min(len, remaining);
+    return in.read(buf, off, realLen);
   }
 
   @Override
   public synchronized int read(final ByteBuffer buf) throws IOException {
-    int realLen = (int) Math.min(buf.remaining(), fileContainerInfo.getLength() - getPos());
+    long remaining = remaining(getPos());
+    if (remaining <= 0 && buf.hasRemaining()) {
+      return -1;
+    }
+    int realLen = (int) Math.min(buf.remaining(), remaining);
+    int limit = buf.limit();
     buf.limit(realLen + buf.position());
-    return super.read(buf);
+    try {
+      return in.read(buf);
+    } finally {
+      buf.limit(limit);
+    }
   }
 
   @Override
   public int read(long position, byte[] buffer, int offset, int length) throws IOException {
-    int realLen = (int) Math.min(length, fileContainerInfo.getLength() - getPos());
+    long remaining = remaining(position);
+    if (position < 0 || remaining <= 0) {
+      return -1;
+    }
+    int realLen = (int) Math.min(length, remaining);
     long realPos = position + fileContainerInfo.getOffset();
-    return super.read(realPos, buffer, offset, realLen);
+    return in.read(realPos, buffer, offset, realLen);
   }
 
   @Override
   public synchronized long getPos() throws IOException {
-    String callerClass = Thread.currentThread().getStackTrace()[2].getClassName();
-    if (INHERITED_CLASS.equals(callerClass)) {
-      return super.getPos();
-    } else {
-      return super.getPos() - fileContainerInfo.getOffset();
-    }
+    return in.getPos() - fileContainerInfo.getOffset();
   }
 
   @Override
@@ -112,50 +143,70 @@ public synchronized int available() throws IOException {
 
   @Override
   public synchronized void seek(long targetPos) throws IOException {
-    String callerClass = Thread.currentThread().getStackTrace()[2].getClassName();
-    if (INHERITED_CLASS.equals(callerClass)) {
-      super.seek(targetPos);
-    } else {
-      if (targetPos > fileContainerInfo.getLength()) {
-        throw new EOFException("Cannot seek after EOF");
-      }
-      if (targetPos < 0) {
-        throw new EOFException("Cannot seek to negative offset");
-      }
-      super.seek(fileContainerInfo.getOffset() + targetPos);
+    if (targetPos > fileContainerInfo.getLength()) {
+      throw new EOFException("Cannot seek after EOF");
+    }
+    if (targetPos < 0) {
+      throw new EOFException("Cannot seek to negative offset");
     }
+    in.seek(fileContainerInfo.getOffset() + targetPos);
   }
 
   @Override
   public synchronized boolean seekToNewSource(long targetPos) throws IOException {
-    String callerClass = Thread.currentThread().getStackTrace()[2].getClassName();
-    if (INHERITED_CLASS.equals(callerClass)) {
-      return super.seekToNewSource(targetPos);
-    } else {
-      if (targetPos < 0) {
-        throw new EOFException("Cannot seek after EOF");
-      } else {
-        return super.seekToNewSource(fileContainerInfo.getOffset() + targetPos);
-      }
+    if (targetPos < 0) {
+      throw new EOFException("Cannot seek after EOF");
     }
+    return in.seekToNewSource(fileContainerInfo.getOffset() + targetPos);
+  }
+
+  @Override
+  public synchronized DatanodeInfo getCurrentDatanode() {
+    return in.getCurrentDatanode();
+  }
+
+  @Override
+  public synchronized ExtendedBlock getCurrentBlock() {
+    return in.getCurrentBlock();
+  }
+
+  @Override
+  public ReadStatistics getReadStatistics() {
+    return in.getReadStatistics();
+  }
+
+  @Override
+  public void clearReadStatistics() {
+    in.clearReadStatistics();
   }
 
   @Override
   public synchronized void setReadahead(Long readahead) throws IOException {
-    long realReadAhead = Math.min(readahead, fileContainerInfo.getLength() - getPos());
-    super.setReadahead(realReadAhead);
+    long realReadAhead = Math.min(readahead, remaining(getPos()));
+    in.setReadahead(realReadAhead);
+  }
+
+  @Override
+  public synchronized void setDropBehind(Boolean dropBehind) throws IOException {
+    in.setDropBehind(dropBehind);
   }
 
   @Override
   public synchronized ByteBuffer read(ByteBufferPool bufferPool,
                                       int maxLength, EnumSet<ReadOption> opts)
       throws IOException, UnsupportedOperationException {
-    int realMaxLen = (int) Math.min(maxLength, fileContainerInfo.getLength() - getPos());
-    return super.read(bufferPool, realMaxLen, opts);
+    int realMaxLen = (int) Math.min(maxLength, remaining(getPos()));
+    return in.read(bufferPool, realMaxLen, opts);
+  }
+
+  @Override
+  public synchronized void releaseBuffer(ByteBuffer buffer) {
+    in.releaseBuffer(buffer);
   }
 
   @Override
   public synchronized void close() throws IOException {
+    in.close();
     super.close();
     this.closed = true;
   }
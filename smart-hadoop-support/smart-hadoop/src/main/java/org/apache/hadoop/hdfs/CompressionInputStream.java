@@ -17,14 +17,242 @@
  */
 package org.apache.hadoop.hdfs;
 
-import org.apache.hadoop.fs.UnresolvedLinkException;
+import org.apache.hadoop.fs.ByteBufferUtil;
+import org.apache.hadoop.fs.ReadOption;
+import org.apache.hadoop.hdfs.protocol.LocatedBlock;
+import org.apache.hadoop.io.ByteBufferPool;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.io.compress.CodecPool;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.Decompressor;
+import org.smartdata.hdfs.HadoopUtil;
+import org.smartdata.model.CompressionFileState;
 import org.smartdata.model.FileState;
 
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.EnumSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
 
+/**
+ * Input stream of a file compressed by SSM. It opens the compressed file
+ * and finds the chunks holding the data read by the chunk index, so only
+ * these chunks are read and decompressed. The last chunk decompressed is
+ * kept for the sequential reads following. The compressed file is read by
+ * a plain stream of its own.
+ */
 public class CompressionInputStream extends SmartInputStream {
-  CompressionInputStream(DFSClient dfsClient, String src, boolean verifyChecksum,
-      FileState fileState) throws IOException, UnresolvedLinkException {
-    super(dfsClient, src, verifyChecksum, fileState);
+  private final CompressionFileState compressionFileState;
+  private final CompressionCodec codec;
+  // Plain stream of the compressed file
+  private final DFSInputStream in;
+  private Decompressor decompressor;
+  private final Map<ByteBuffer, ByteBufferPool> fallbackBuffers = new IdentityHashMap<>();
+  // Position in the original data
+  private long pos = 0;
+  private int chunkIndex = -1;
+  private byte[] chunk = null;
+  private boolean closed = false;
+
+  CompressionInputStream(DFSClient dfsClient, boolean verifyChecksum,
+      FileState fileState) throws IOException {
+    super(dfsClient,
+        ((CompressionFileState) fileState).getCompressedFilePath(),
+        verifyChecksum,
+        fileState);
+    this.compressionFileState = (CompressionFileState) fileState;
+    this.codec = HadoopUtil.getCompressionCodec(
+        dfsClient.getConfiguration(), compressionFileState.getCodec());
+    try {
+      this.in = new DFSInputStream(dfsClient,
+          compressionFileState.getCompressedFilePath(), verifyChecksum);
+    } catch (IOException e) {
+      super.close();
+      throw e;
+    }
+    this.decompressor = CodecPool.getDecompressor(codec);
+  }
+
+  @Override
+  public long getFileLength() {
+    return compressionFileState.getOriginalLength();
+  }
+
+  @Override
+  public List<LocatedBlock> getAllBlocks() throws IOException {
+    return in.getAllBlocks();
+  }
+
+  @Override
+  public synchronized int read(final byte[] buf, int off, int len) throws IOException {
+    checkOpen();
+    if (len == 0) {
+      return 0;
+    }
+    int read = readAt(pos, buf, off, len);
+    if (read > 0) {
+      pos += read;
+    }
+    return read;
+  }
+
+  @Override
+  public synchronized int read(final ByteBuffer buf) throws IOException {
+    checkOpen();
+    if (!buf.hasRemaining()) {
+      return 0;
+    }
+    byte[] bytes = new byte[(int) Math.min(buf.remaining(),
+        compressionFileState.getBufferSize())];
+    int read = read(bytes, 0, bytes.length);
+    if (read > 0) {
+      buf.put(bytes, 0, read);
+    }
+    return read;
+  }
+
+  @Override
+  public int read(long position, byte[] buffer, int offset, int length)
+      throws IOException {
+    checkOpen();
+    if (length == 0) {
+      return 0;
+    }
+    return readAt(position, buffer, offset, length);
+  }
+
+  /**
+   * Read the original data at the position from the chunks holding it.
+   */
+  private int readAt(long position, byte[] buffer, int offset, int length)
+      throws IOException {
+    long fileLength = compressionFileState.getOriginalLength();
+    if (position < 0 || position >= fileLength) {
+      return -1;
+    }
+    int read = 0;
+    while (read < length && position < fileLength) {
+      int index = compressionFileState.getChunkIndex(position);
+      byte[] data = getChunk(index);
+      int inChunk = (int) (position - (long) index * compressionFileState.getBufferSize());
+      int toCopy = Math.min(length - read, data.length - inChunk);
+      System.arraycopy(data, inChunk, buffer, offset + read, toCopy);
+      read += toCopy;
+      position += toCopy;
+    }
+    return read;
+  }
+
+  /**
+   * Get the decompressed data of the chunk, read from the compressed file
+   * if it is not the last one got.
+   */
+  private synchronized byte[] getChunk(int index) throws IOException {
+    if (index == chunkIndex) {
+      return chunk;
+    }
+    byte[] compressed = new byte[compressionFileState.getCompressedChunkLength(index)];
+    long offset = compressionFileState.getChunkOffset(index);
+    int read = 0;
+    while (read < compressed.length) {
+      int n = in.read(offset + read, compressed, read, compressed.length - read);
+      if (n < 0) {
+        throw new EOFException("Unexpected end of compressed file "
+            + compressionFileState.getCompressedFilePath());
+      }
+      read += n;
+    }
+
+    byte[] data = new byte[compressionFileState.getOriginalChunkLength(index)];
+    InputStream in;
+    if (decompressor != null) {
+      decompressor.reset();
+      in = codec.createInputStream(new ByteArrayInputStream(compressed), decompressor);
+    } else {
+      in = codec.createInputStream(new ByteArrayInputStream(compressed));
+    }
+    IOUtils.readFully(in, data, 0, data.length);
+    chunkIndex = index;
+    chunk = data;
+    return data;
+  }
+
+  @Override
+  public synchronized long getPos() throws IOException {
+    return pos;
+  }
+
+  @Override
+  public synchronized int available() throws IOException {
+    checkOpen();
+    final long remaining = compressionFileState.getOriginalLength() - pos;
+    return remaining <= Integer.MAX_VALUE ? (int) remaining : Integer.MAX_VALUE;
+  }
+
+  @Override
+  public synchronized void seek(long targetPos) throws IOException {
+    if (targetPos > compressionFileState.getOriginalLength()) {
+      throw new EOFException("Cannot seek after EOF");
+    }
+    if (targetPos < 0) {
+      throw new EOFException("Cannot seek to negative offset");
+    }
+    checkOpen();
+    pos = targetPos;
+  }
+
+  @Override
+  public synchronized boolean seekToNewSource(long targetPos) throws IOException {
+    // The chunks are read by positional reads which try other datanodes
+    return false;
+  }
+
+  @Override
+  public synchronized ByteBuffer read(ByteBufferPool bufferPool,
+      int maxLength, EnumSet<ReadOption> opts)
+      throws IOException, UnsupportedOperationException {
+    // No zero copy read as the data read is decompressed
+    ByteBuffer buffer = ByteBufferUtil.fallbackRead(this, bufferPool, maxLength);
+    if (buffer != null) {
+      fallbackBuffers.put(buffer, bufferPool);
+    }
+    return buffer;
+  }
+
+  @Override
+  public synchronized void releaseBuffer(ByteBuffer buffer) {
+    ByteBufferPool bufferPool = fallbackBuffers.remove(buffer);
+    if (bufferPool == null) {
+      super.releaseBuffer(buffer);
+    } else {
+      bufferPool.putBuffer(buffer);
+    }
+  }
+
+  private void checkOpen() throws IOException {
+    if (closed) {
+      throw new IOException("Stream closed.");
+    }
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    chunk = null;
+    chunkIndex = -1;
+    if (decompressor != null) {
+      CodecPool.returnDecompressor(decompressor);
+      decompressor = null;
+    }
+    in.close();
+    super.close();
   }
 }
@@ -24,6 +24,13 @@
 
 /**
  * DFSInputStream for SSM.
+ *
+ * <p>The inherited methods of {@link DFSInputStream} call the overridable
+ * methods such as {@link #getFileLength()} on the file actually opened, and
+ * may do so in other threads, e.g., for hedged reads. So the subclasses
+ * showing a file other than the one opened, such as a small file in its
+ * container file, read it by a plain {@link DFSInputStream} of their own
+ * rather than the inherited methods.
  */
 public abstract class SmartInputStream extends DFSInputStream {
   protected final FileState fileState;
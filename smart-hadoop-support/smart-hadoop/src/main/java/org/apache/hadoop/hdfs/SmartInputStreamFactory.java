@@ -54,7 +54,7 @@ protected DFSInputStream createSmartInputStream(DFSClient dfsClient, String src,
         inputStream = new CompactInputStream(dfsClient, verifyChecksum, fileState);
         break;
       case COMPRESSION:
-        inputStream = new CompressionInputStream(dfsClient, src, verifyChecksum, fileState);
+        inputStream = new CompressionInputStream(dfsClient, verifyChecksum, fileState);
         break;
       case S3:
         inputStream = new S3InputStream(dfsClient, src, verifyChecksum, fileState);
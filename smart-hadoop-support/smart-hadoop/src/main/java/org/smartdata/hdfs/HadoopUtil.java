@@ -22,6 +22,8 @@
 import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.HdfsConfiguration;
 import org.apache.hadoop.hdfs.protocol.HdfsFileStatus;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
 import org.apache.hadoop.security.UserGroupInformation;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -273,6 +275,19 @@ public DFSClient run() throws Exception {
     }
   }
 
+  /**
+   * Get the Hadoop compression codec by its name, e.g., Default, Gzip, Lz4
+   * or Snappy, or by its class name.
+   */
+  public static CompressionCodec getCompressionCodec(Configuration conf, String name)
+      throws IOException {
+    CompressionCodec codec = new CompressionCodecFactory(conf).getCodecByName(name);
+    if (codec == null) {
+      throw new IOException("Unsupported compression codec: " + name);
+    }
+    return codec;
+  }
+
   public static String translateStoragePoliceId2Name(int id) {
     switch (id){
       case 15:
@@ -93,7 +93,7 @@ public void init() throws IOException {
     client = HadoopUtil.getDFSClient(nnUri, conf);
     checkAndCreateIdFiles(nnUri, context.getConf());
     this.executorService = Executors.newScheduledThreadPool(4);
-    this.cachedListFetcher = new CachedListFetcher(client, metaStore);
+    this.cachedListFetcher = new CachedListFetcher(conf, client, metaStore);
     this.inotifyEventFetcher = new InotifyEventFetcher(client,
         metaStore, executorService, new FetchFinishedCallBack(), context.getConf());
     this.dataNodeInfoFetcher = new DataNodeInfoFetcher(
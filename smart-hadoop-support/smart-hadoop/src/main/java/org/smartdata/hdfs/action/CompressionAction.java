@@ -0,0 +1,234 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.hdfs.action;
+
+import org.apache.commons.lang.SerializationUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Options;
+import org.apache.hadoop.fs.XAttrSetFlag;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.protocol.HdfsFileStatus;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.io.compress.CodecPool;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionOutputStream;
+import org.apache.hadoop.io.compress.Compressor;
+import org.smartdata.SmartConstants;
+import org.smartdata.action.Utils;
+import org.smartdata.action.annotation.ActionSignature;
+import org.smartdata.conf.SmartConfKeys;
+import org.smartdata.hdfs.HadoopUtil;
+import org.smartdata.model.CompressionFileState;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.EnumSet;
+import java.util.Map;
+
+/**
+ * An action to compress a file. The data of the file is compressed in
+ * chunks independently and written to the compressed file, and the file
+ * is replaced by an empty one with the chunk index in its XAttr. So reading
+ * the file by SmartDFSClient only decompresses the chunks holding the data
+ * read.
+ *
+ * <p>The chunk index holds an offset for each chunk, so the action fails
+ * before compressing if the index exceeds the XAttr size limit of the
+ * NameNode. The file is replaced by renaming the empty one over it.
+ */
+@ActionSignature(
+    actionId = "compress",
+    displayName = "compress",
+    usage = HdfsAction.FILE_PATH + " $file "
+        + CompressionAction.CODEC + " $codec "
+        + CompressionAction.BUF_SIZE + " $size "
+        + CompressionAction.COMPRESSED_FILE + " $compressed_file "
+)
+public class CompressionAction extends HdfsAction {
+  public static final String CODEC = "-codec";
+  public static final String BUF_SIZE = "-bufSize";
+  public static final String COMPRESSED_FILE = "-compressedFile";
+
+  private float status = 0f;
+  private Configuration conf = null;
+  private String filePath = null;
+  private String codecName = null;
+  private int bufferSize;
+  private String compressedFile = null;
+
+  @Override
+  public void init(Map<String, String> args) {
+    super.init(args);
+    this.conf = getContext().getConf();
+    this.filePath = args.get(FILE_PATH);
+    this.codecName = args.containsKey(CODEC) ? args.get(CODEC)
+        : conf.get(SmartConfKeys.SMART_COMPRESSION_CODEC_KEY,
+            SmartConfKeys.SMART_COMPRESSION_CODEC_DEFAULT);
+    this.bufferSize = args.containsKey(BUF_SIZE) ? Integer.parseInt(args.get(BUF_SIZE))
+        : conf.getInt(SmartConfKeys.SMART_COMPRESSION_BUFFER_SIZE_KEY,
+            SmartConfKeys.SMART_COMPRESSION_BUFFER_SIZE_DEFAULT);
+    this.compressedFile = args.containsKey(COMPRESSED_FILE) ? args.get(COMPRESSED_FILE)
+        : SmartConstants.SMART_COMPRESSED_FILE_DIR + filePath;
+  }
+
+  @Override
+  protected void execute() throws Exception {
+    // Set hdfs client by DFSClient rather than SmartDFSClient
+    this.setDfsClient(HadoopUtil.getDFSClient(
+        HadoopUtil.getNameNodeUri(conf), conf));
+
+    if (filePath == null || filePath.isEmpty()) {
+      throw new IllegalArgumentException(
+          String.format("Invalid file path: %s.", filePath));
+    }
+    if (bufferSize <= 0) {
+      throw new IllegalArgumentException(
+          String.format("Invalid buffer size: %d.", bufferSize));
+    }
+    HdfsFileStatus fileStatus = dfsClient.getFileInfo(filePath);
+    if (fileStatus == null || fileStatus.isDir()) {
+      throw new IOException(String.format("%s is not a file.", filePath));
+    }
+    if (fileStatus.getLen() == 0) {
+      throw new IOException(String.format("%s is empty.", filePath));
+    }
+    Map<String, byte[]> xAttr = dfsClient.getXAttrs(filePath);
+    if (xAttr.containsKey(SmartConstants.SMART_FILE_STATE_XATTR_NAME)) {
+      throw new IOException(String.format(
+          "%s is already compressed or compacted.", filePath));
+    }
+    CompressionCodec codec = HadoopUtil.getCompressionCodec(conf, codecName);
+    appendLog(String.format("Action starts at %s : compress %s to %s by %s.",
+        Utils.getFormatedCurrentTime(), filePath, compressedFile, codecName));
+
+    long length = fileStatus.getLen();
+    long numChunks = (length - 1) / bufferSize + 1;
+    if (numChunks + 1 > Integer.MAX_VALUE) {
+      throw new IOException(String.format(
+          "Too many chunks of %s by buffer size %d.", filePath, bufferSize));
+    }
+    long[] chunkOffsets = new long[(int) numChunks + 1];
+    // The size of the index is known, as the offsets are serialized in fixed size
+    checkXAttrSize(SerializationUtils.serialize(new CompressionFileState(filePath,
+        compressedFile, codecName, bufferSize, length, chunkOffsets)));
+    Compressor compressor = CodecPool.getCompressor(codec, conf);
+    try (InputStream in = dfsClient.open(filePath);
+        OutputStream out = dfsClient.create(compressedFile, true)) {
+      byte[] buf = new byte[bufferSize];
+      ByteArrayOutputStream compressed = new ByteArrayOutputStream(bufferSize);
+      for (int i = 0; i < chunkOffsets.length - 1; i++) {
+        int len = (int) Math.min(bufferSize, length - (long) i * bufferSize);
+        IOUtils.readFully(in, buf, 0, len);
+
+        // Compress each chunk alone, so it can be decompressed alone
+        compressed.reset();
+        CompressionOutputStream cos;
+        if (compressor != null) {
+          compressor.reset();
+          cos = codec.createOutputStream(compressed, compressor);
+        } else {
+          cos = codec.createOutputStream(compressed);
+        }
+        cos.write(buf, 0, len);
+        cos.finish();
+        compressed.writeTo(out);
+        chunkOffsets[i + 1] = chunkOffsets[i] + compressed.size();
+        this.status = 0.9f * (i + 1) / (chunkOffsets.length - 1);
+      }
+    } catch (IOException e) {
+      dfsClient.delete(compressedFile, false);
+      throw e;
+    } finally {
+      if (compressor != null) {
+        CodecPool.returnCompressor(compressor);
+      }
+    }
+
+    // The file must not be changed while compressing
+    HdfsFileStatus currentStatus = dfsClient.getFileInfo(filePath);
+    if (currentStatus == null || currentStatus.getLen() != length
+        || currentStatus.getModificationTime() != fileStatus.getModificationTime()) {
+      dfsClient.delete(compressedFile, false);
+      throw new IOException(String.format(
+          "%s is changed while compressing.", filePath));
+    }
+    dfsClient.setOwner(compressedFile, fileStatus.getOwner(), fileStatus.getGroup());
+    dfsClient.setPermission(compressedFile, fileStatus.getPermission());
+
+    CompressionFileState compressionFileState = new CompressionFileState(filePath,
+        compressedFile, codecName, bufferSize, length, chunkOffsets);
+    replaceAndSetXAttr(filePath, fileStatus, xAttr,
+        SerializationUtils.serialize(compressionFileState));
+    this.status = 1.0f;
+    appendLog(String.format("Compress %s from %d bytes to %d bytes successfully.",
+        filePath, length, compressionFileState.getCompressedLength()));
+  }
+
+  /**
+   * Check the serialized chunk index against the XAttr size limit of the
+   * NameNode, 0 for no limit.
+   */
+  private void checkXAttrSize(byte[] state) throws IOException {
+    int limit = conf.getInt(DFSConfigKeys.DFS_NAMENODE_MAX_XATTR_SIZE_KEY,
+        DFSConfigKeys.DFS_NAMENODE_MAX_XATTR_SIZE_DEFAULT);
+    int size = SmartConstants.SMART_FILE_STATE_XATTR_NAME.length() + state.length;
+    if (limit > 0 && size > limit) {
+      throw new IOException(String.format("The chunk index of %s takes %d bytes, "
+          + "exceeding the XAttr size limit %d, use a larger buffer size than %d.",
+          filePath, size, limit, bufferSize));
+    }
+  }
+
+  /**
+   * Replace the file by an empty one with the same metadata and the XAttr
+   * containing the chunk index.
+   */
+  private void replaceAndSetXAttr(String path, HdfsFileStatus fileStatus,
+      Map<String, byte[]> xAttr, byte[] state) throws IOException {
+    String tmpFile = path + ".compress." + System.currentTimeMillis();
+    try {
+      OutputStream out = dfsClient.create(tmpFile, true);
+      if (out != null) {
+        out.close();
+      }
+      dfsClient.setOwner(tmpFile, fileStatus.getOwner(), fileStatus.getGroup());
+      dfsClient.setPermission(tmpFile, fileStatus.getPermission());
+      dfsClient.setReplication(tmpFile, fileStatus.getReplication());
+      for (Map.Entry<String, byte[]> entry : xAttr.entrySet()) {
+        dfsClient.setXAttr(tmpFile, entry.getKey(), entry.getValue(),
+            EnumSet.of(XAttrSetFlag.CREATE, XAttrSetFlag.REPLACE));
+      }
+      dfsClient.setXAttr(tmpFile, SmartConstants.SMART_FILE_STATE_XATTR_NAME, state,
+          EnumSet.of(XAttrSetFlag.CREATE));
+      dfsClient.rename(tmpFile, path, Options.Rename.OVERWRITE);
+    } catch (IOException e) {
+      // The file is untouched
+      dfsClient.delete(tmpFile, false);
+      dfsClient.delete(compressedFile, false);
+      throw e;
+    }
+    dfsClient.setTimes(path, fileStatus.getModificationTime(), fileStatus.getAccessTime());
+  }
+
+  @Override
+  public float getProgress() {
+    return this.status;
+  }
+}
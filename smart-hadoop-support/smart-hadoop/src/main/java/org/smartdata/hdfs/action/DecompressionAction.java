@@ -0,0 +1,129 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.hdfs.action;
+
+import org.apache.commons.lang.SerializationUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Options;
+import org.apache.hadoop.fs.XAttrSetFlag;
+import org.apache.hadoop.hdfs.DFSInputStream;
+import org.apache.hadoop.hdfs.SmartInputStreamFactory;
+import org.apache.hadoop.hdfs.protocol.HdfsFileStatus;
+import org.apache.hadoop.io.IOUtils;
+import org.smartdata.SmartConstants;
+import org.smartdata.action.Utils;
+import org.smartdata.action.annotation.ActionSignature;
+import org.smartdata.hdfs.HadoopUtil;
+import org.smartdata.model.CompressionFileState;
+import org.smartdata.model.FileState;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.EnumSet;
+import java.util.Map;
+
+/**
+ * An action to recover the data of a file compressed by
+ * {@link CompressionAction} and delete its compressed file.
+ */
+@ActionSignature(
+    actionId = "decompress",
+    displayName = "decompress",
+    usage = HdfsAction.FILE_PATH + " $file "
+)
+public class DecompressionAction extends HdfsAction {
+  private float status = 0f;
+  private Configuration conf = null;
+  private String filePath = null;
+
+  @Override
+  public void init(Map<String, String> args) {
+    super.init(args);
+    this.conf = getContext().getConf();
+    this.filePath = args.get(FILE_PATH);
+  }
+
+  @Override
+  protected void execute() throws Exception {
+    // Set hdfs client by DFSClient rather than SmartDFSClient
+    this.setDfsClient(HadoopUtil.getDFSClient(
+        HadoopUtil.getNameNodeUri(conf), conf));
+
+    if (filePath == null || filePath.isEmpty()) {
+      throw new IllegalArgumentException(
+          String.format("Invalid file path: %s.", filePath));
+    }
+    HdfsFileStatus fileStatus = dfsClient.getFileInfo(filePath);
+    if (fileStatus == null || fileStatus.isDir()) {
+      throw new IOException(String.format("%s is not a file.", filePath));
+    }
+    Map<String, byte[]> xAttr = dfsClient.getXAttrs(filePath);
+    byte[] state = xAttr.get(SmartConstants.SMART_FILE_STATE_XATTR_NAME);
+    FileState fileState = state == null ? null
+        : (FileState) SerializationUtils.deserialize(state);
+    if (!(fileState instanceof CompressionFileState)) {
+      throw new IOException(String.format("%s is not compressed.", filePath));
+    }
+    CompressionFileState compressionFileState = (CompressionFileState) fileState;
+    appendLog(String.format("Action starts at %s : decompress %s.",
+        Utils.getFormatedCurrentTime(), filePath));
+
+    // Write the data to a temporary file and then replace the file by it
+    String tmpFile = filePath + ".decompress." + System.currentTimeMillis();
+    try (DFSInputStream in = SmartInputStreamFactory.get().create(
+        dfsClient, filePath, true, compressionFileState);
+        OutputStream out = dfsClient.create(tmpFile, true)) {
+      byte[] buf = new byte[64 * 1024];
+      long copied = 0;
+      long length = compressionFileState.getOriginalLength();
+      int read;
+      while ((read = in.read(buf, 0, buf.length)) > 0) {
+        out.write(buf, 0, read);
+        copied += read;
+        this.status = 0.9f * copied / length;
+      }
+      if (copied != length) {
+        throw new IOException(String.format(
+            "Only %d of %d bytes of %s decompressed.", copied, length, filePath));
+      }
+    } catch (IOException e) {
+      dfsClient.delete(tmpFile, false);
+      throw e;
+    }
+
+    dfsClient.setOwner(tmpFile, fileStatus.getOwner(), fileStatus.getGroup());
+    dfsClient.setPermission(tmpFile, fileStatus.getPermission());
+    dfsClient.setReplication(tmpFile, fileStatus.getReplication());
+    for (Map.Entry<String, byte[]> entry : xAttr.entrySet()) {
+      if (!entry.getKey().equals(SmartConstants.SMART_FILE_STATE_XATTR_NAME)) {
+        dfsClient.setXAttr(tmpFile, entry.getKey(), entry.getValue(),
+            EnumSet.of(XAttrSetFlag.CREATE, XAttrSetFlag.REPLACE));
+      }
+    }
+    dfsClient.rename(tmpFile, filePath, Options.Rename.OVERWRITE);
+    dfsClient.setTimes(filePath, fileStatus.getModificationTime(), fileStatus.getAccessTime());
+    dfsClient.delete(compressionFileState.getCompressedFilePath(), false);
+    this.status = 1.0f;
+    appendLog(String.format("Decompress %s successfully.", filePath));
+  }
+
+  @Override
+  public float getProgress() {
+    return this.status;
+  }
+}
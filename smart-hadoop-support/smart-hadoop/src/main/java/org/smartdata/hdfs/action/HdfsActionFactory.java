@@ -52,6 +52,9 @@ public class HdfsActionFactory extends AbstractActionFactory {
     addAction(Truncate0Action.class);
     addAction(SmallFileCompactAction.class);
     addAction(SmallFileUncompactAction.class);
+    addAction(SmallFileDefragAction.class);
+    addAction(CompressionAction.class);
+    addAction(DecompressionAction.class);
 //    addAction("list", ListFileAction.class);
 //    addAction("fsck", FsckAction.class);
 //    addAction("diskbalance", DiskBalanceAction.class);
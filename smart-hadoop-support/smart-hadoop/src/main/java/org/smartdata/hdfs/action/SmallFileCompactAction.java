@@ -29,6 +29,7 @@
 import org.smartdata.SmartFilePermission;
 import org.smartdata.action.Utils;
 import org.smartdata.action.annotation.ActionSignature;
+import org.smartdata.conf.SmartConfKeys;
 import org.smartdata.hdfs.CompatibilityHelperLoader;
 import org.smartdata.hdfs.HadoopUtil;
 import org.smartdata.model.CompactFileState;
@@ -36,11 +37,18 @@
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * An action to compact small files to a big container file.
@@ -58,6 +66,9 @@ public class SmallFileCompactAction extends HdfsAction {
   private String containerFile = null;
   private String containerFilePermission = null;
   private String xAttrName = null;
+  private int readThreads;
+  private int metaThreads;
+  private int readBufferSize;
   public static final String CONTAINER_FILE = "-containerFile";
   public static final String CONTAINER_FILE_PERMISSION = "-containerFilePermission";
 
@@ -69,6 +80,13 @@ public void init(Map<String, String> args) {
     this.smallFiles = args.get(FILE_PATH);
     this.containerFile = args.get(CONTAINER_FILE);
     this.containerFilePermission = args.get(CONTAINER_FILE_PERMISSION);
+    this.readThreads = Math.max(1, conf.getInt(SmartConfKeys.SMART_COMPACT_READ_THREADS_KEY,
+        SmartConfKeys.SMART_COMPACT_READ_THREADS_DEFAULT));
+    this.metaThreads = Math.max(1, conf.getInt(SmartConfKeys.SMART_COMPACT_META_THREADS_KEY,
+        SmartConfKeys.SMART_COMPACT_META_THREADS_DEFAULT));
+    this.readBufferSize = Math.max(4, conf.getInt(
+        SmartConfKeys.SMART_COMPACT_READ_BUFFER_KB_KEY,
+        SmartConfKeys.SMART_COMPACT_READ_BUFFER_KB_DEFAULT)) * 1024;
   }
 
   @Override
@@ -125,67 +143,206 @@ protected void execute() throws Exception {
       }
       offset = 0L;
     }
-    List<CompactFileState> compactFileStates = new ArrayList<>();
 
-    for (String smallFile : smallFileList) {
-      if ((smallFile != null) && !smallFile.isEmpty() && dfsClient.exists(smallFile)) {
-        long fileLen = dfsClient.getFileInfo(smallFile).getLen();
-        if (fileLen > 0) {
-          try (InputStream in = dfsClient.open(smallFile)) {
-            // Copy bytes of small file to container file
-            IOUtils.copyBytes(in, out, 4096);
+    long startTime = System.currentTimeMillis();
+    List<SmallFile> copied;
+    ExecutorService readPool = Executors.newFixedThreadPool(readThreads);
+    try {
+      copied = copyToContainer(smallFileList, out, offset, readPool);
+    } catch (IOException e) {
+      // No small file is truncated yet
+      out.close();
+      appendResult(new Gson().toJson(new ArrayList<CompactFileState>()));
+      if (!isContainerFileExist) {
+        dfsClient.delete(containerFile, false);
+      }
+      throw e;
+    } finally {
+      readPool.shutdownNow();
+    }
+    // Small files are truncated only after the container file is closed
+    out.close();
+    long copyTime = System.currentTimeMillis() - startTime;
 
-            // Truncate small file, add file container info to XAttr
-            CompactFileState compactFileState = new CompactFileState(
-                smallFile, new FileContainerInfo(containerFile, offset, fileLen));
-            truncateAndSetXAttr(smallFile, compactFileState);
+    List<CompactFileState> compactFileStates = new ArrayList<>();
+    IOException failure = truncateSmallFiles(copied, compactFileStates);
+    appendResult(new Gson().toJson(compactFileStates));
+    if (!isContainerFileExist && compactFileStates.isEmpty()) {
+      dfsClient.delete(containerFile, false);
+    }
+    if (failure != null) {
+      throw failure;
+    }
 
-            // Update compact file state map, offset, status, and log
-            compactFileStates.add(compactFileState);
-            offset += fileLen;
-            this.status = (smallFileList.indexOf(smallFile) + 1.0f)
-                / smallFileList.size();
-            appendLog(String.format(
-                "Compact %s to %s successfully.", smallFile, containerFile));
-          } catch (IOException e) {
-            // Close output stream and put compact file state map into action result
-            if (out != null) {
-              out.close();
-              appendResult(new Gson().toJson(compactFileStates));
+    long totalTime = Math.max(1L, System.currentTimeMillis() - startTime);
+    long bytes = 0L;
+    for (CompactFileState compactFileState : compactFileStates) {
+      bytes += compactFileState.getFileContainerInfo().getLength();
+    }
+    appendLog(String.format("Compact %d small files (%d bytes) to %s in %d ms "
+        + "(copy %d ms): %.1f files/s, %.1f KB/s.", compactFileStates.size(), bytes,
+        containerFile, totalTime, copyTime, compactFileStates.size() * 1000.0 / totalTime,
+        bytes * 1000.0 / 1024 / totalTime));
+    appendLog(String.format(
+        "Compact all the small files to %s successfully.", containerFile));
+  }
+
+  /**
+   * Copy the small files to the container file. The files are read ahead
+   * by the read pool into reusable buffers, while this thread writes them
+   * to the container file in order.
+   *
+   * @return the small files copied
+   */
+  private List<SmallFile> copyToContainer(List<String> smallFileList,
+      OutputStream out, long offset, ExecutorService readPool) throws IOException {
+    // Buffers are only taken and returned by this thread, which bounds the
+    // number of files read ahead and so never waits for a reader holding none
+    ArrayDeque<byte[]> freeBuffers = new ArrayDeque<>();
+    int maxBuffers = 2 * readThreads;
+    int buffers = 0;
+    ArrayDeque<Future<SmallFile>> reading = new ArrayDeque<>();
+    List<SmallFile> copied = new ArrayList<>();
+    byte[] streamBuffer = null;
+    int next = 0;
+    int done = 0;
+    try {
+      while (done < smallFileList.size()) {
+        while (next < smallFileList.size() && (!freeBuffers.isEmpty() || buffers < maxBuffers)) {
+          byte[] buffer;
+          if (freeBuffers.isEmpty()) {
+            buffer = new byte[readBufferSize];
+            buffers++;
+          } else {
+            buffer = freeBuffers.poll();
+          }
+          final SmallFile smallFile = new SmallFile(smallFileList.get(next++), buffer);
+          reading.add(readPool.submit(new Callable<SmallFile>() {
+            @Override
+            public SmallFile call() throws Exception {
+              smallFile.read();
+              return smallFile;
             }
-            if (!isContainerFileExist && compactFileStates.isEmpty()) {
-              dfsClient.delete(containerFile, false);
+          }));
+        }
+
+        SmallFile smallFile = get(reading.poll());
+        done++;
+        if (smallFile.getLength() > 0) {
+          if (smallFile.isBuffered()) {
+            out.write(smallFile.buffer, 0, (int) smallFile.getLength());
+          } else {
+            // Too large to be read ahead
+            if (streamBuffer == null) {
+              streamBuffer = new byte[readBufferSize];
             }
-            throw e;
+            copyFully(smallFile.path, out, smallFile.getLength(), streamBuffer);
           }
+          smallFile.offset = offset;
+          offset += smallFile.getLength();
+          copied.add(smallFile);
+          appendLog(String.format(
+              "Copy %s to %s successfully.", smallFile.path, containerFile));
         }
+        freeBuffers.add(smallFile.buffer);
+        smallFile.buffer = null;
+        this.status = 0.5f * done / smallFileList.size();
+      }
+    } finally {
+      for (Future<SmallFile> future : reading) {
+        future.cancel(true);
       }
     }
+    return copied;
+  }
 
-    appendResult(new Gson().toJson(compactFileStates));
-    if (out != null) {
-      out.close();
+  private void copyFully(String path, OutputStream out, long length, byte[] buffer)
+      throws IOException {
+    try (InputStream in = dfsClient.open(path)) {
+      long remaining = length;
+      while (remaining > 0) {
+        int toRead = (int) Math.min(buffer.length, remaining);
+        IOUtils.readFully(in, buffer, 0, toRead);
+        out.write(buffer, 0, toRead);
+        remaining -= toRead;
+      }
     }
-    if (!isContainerFileExist && compactFileStates.isEmpty()) {
-      dfsClient.delete(containerFile, false);
+  }
+
+  /**
+   * Truncate the small files copied and set their XAttrs in parallel.
+   *
+   * @return the first failure if any
+   */
+  private IOException truncateSmallFiles(List<SmallFile> copied,
+      List<CompactFileState> compactFileStates) {
+    ExecutorService metaPool = Executors.newFixedThreadPool(metaThreads);
+    List<Future<CompactFileState>> futures = new ArrayList<>(copied.size());
+    try {
+      for (final SmallFile smallFile : copied) {
+        futures.add(metaPool.submit(new Callable<CompactFileState>() {
+          @Override
+          public CompactFileState call() throws Exception {
+            return truncateAndSetXAttr(smallFile);
+          }
+        }));
+      }
+      IOException failure = null;
+      for (int i = 0; i < futures.size(); i++) {
+        try {
+          CompactFileState compactFileState = get(futures.get(i));
+          if (compactFileState != null) {
+            compactFileStates.add(compactFileState);
+          }
+        } catch (IOException e) {
+          if (failure == null) {
+            failure = e;
+          }
+          appendLog(String.format("Failed to compact %s: %s",
+              copied.get(i).path, e.getMessage()));
+        }
+        this.status = 0.5f + 0.5f * (i + 1) / futures.size();
+      }
+      return failure;
+    } finally {
+      metaPool.shutdownNow();
+    }
+  }
+
+  private static <T> T get(Future<T> future) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while compacting small files");
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      throw new IOException(cause);
     }
-    appendLog(String.format(
-        "Compact all the small files to %s successfully.", containerFile));
   }
 
   /**
    * Truncate small file and set XAttr contains file container info.
+   *
+   * @return null if the small file is changed after copied
    */
-  private void truncateAndSetXAttr(String path, CompactFileState compactFileState)
-      throws IOException {
-    // Save original metadata of small file
-    HdfsFileStatus fileStatus = dfsClient.getFileInfo(path);
-    Map<String, byte[]> xAttr = dfsClient.getXAttrs(path);
-
-    // Delete file
-    dfsClient.delete(path, false);
+  private CompactFileState truncateAndSetXAttr(SmallFile smallFile) throws IOException {
+    String path = smallFile.path;
+    HdfsFileStatus fileStatus = smallFile.fileStatus;
+    HdfsFileStatus currentStatus = dfsClient.getFileInfo(path);
+    if (currentStatus == null || currentStatus.getFileId() != fileStatus.getFileId()
+        || currentStatus.getLen() != fileStatus.getLen()
+        || currentStatus.getModificationTime() != fileStatus.getModificationTime()) {
+      appendLog(String.format("Skip %s as it is changed while compacting.", path));
+      return null;
+    }
+    CompactFileState compactFileState = new CompactFileState(path,
+        new FileContainerInfo(containerFile, smallFile.offset, fileStatus.getLen()));
 
-    // Create file
+    // Replace the file by an empty one
     OutputStream out = dfsClient.create(path, true);
     if (out != null) {
       out.close();
@@ -199,7 +356,7 @@ private void truncateAndSetXAttr(String path, CompactFileState compactFileState)
     dfsClient.setTimes(path, fileStatus.getAccessTime(),
         dfsClient.getFileInfo(path).getModificationTime());
 
-    for(Map.Entry<String, byte[]> entry : xAttr.entrySet()) {
+    for(Map.Entry<String, byte[]> entry : smallFile.xAttr.entrySet()) {
       dfsClient.setXAttr(path, entry.getKey(), entry.getValue(),
           EnumSet.of(XAttrSetFlag.CREATE, XAttrSetFlag.REPLACE));
     }
@@ -208,6 +365,51 @@ private void truncateAndSetXAttr(String path, CompactFileState compactFileState)
     dfsClient.setXAttr(path,
         xAttrName, SerializationUtils.serialize(compactFileState),
         EnumSet.of(XAttrSetFlag.CREATE));
+    appendLog(String.format(
+        "Compact %s to %s successfully.", path, containerFile));
+    return compactFileState;
+  }
+
+  /**
+   * A small file read ahead with its metadata.
+   */
+  private class SmallFile {
+    private final String path;
+    private byte[] buffer;
+    private HdfsFileStatus fileStatus;
+    private Map<String, byte[]> xAttr;
+    private boolean buffered = false;
+    private long offset;
+
+    SmallFile(String path, byte[] buffer) {
+      this.path = path;
+      this.buffer = buffer;
+    }
+
+    void read() throws IOException {
+      if (path == null || path.isEmpty()) {
+        return;
+      }
+      fileStatus = dfsClient.getFileInfo(path);
+      if (fileStatus == null || fileStatus.isDir() || fileStatus.getLen() == 0) {
+        return;
+      }
+      xAttr = dfsClient.getXAttrs(path);
+      if (fileStatus.getLen() <= buffer.length) {
+        try (InputStream in = dfsClient.open(path)) {
+          IOUtils.readFully(in, buffer, 0, (int) fileStatus.getLen());
+        }
+        buffered = true;
+      }
+    }
+
+    long getLength() {
+      return fileStatus == null || fileStatus.isDir() ? 0 : fileStatus.getLen();
+    }
+
+    boolean isBuffered() {
+      return buffered;
+    }
   }
 
   @Override
@@ -0,0 +1,246 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.hdfs.action;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import org.apache.commons.lang.SerializationUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.XAttrSetFlag;
+import org.apache.hadoop.hdfs.DFSInputStream;
+import org.apache.hadoop.hdfs.protocol.HdfsFileStatus;
+import org.smartdata.SmartConstants;
+import org.smartdata.action.Utils;
+import org.smartdata.action.annotation.ActionSignature;
+import org.smartdata.hdfs.HadoopUtil;
+import org.smartdata.model.CompactFileState;
+import org.smartdata.model.FileContainerInfo;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An action to reclaim the dead ranges of a container file, i.e., the data
+ * of the small files deleted. The live ranges are copied to a new container
+ * file, then the small files are pointed to it one by one and the old
+ * container file is deleted. The small files can be read all the time.
+ *
+ * <p>The old container file is only deleted if every small file given is
+ * moved or known to be out of it. A small file not found may have been
+ * renamed and still be in it, so the old one is kept and the action fails.
+ * It is defragmented again once the meta store catches up.
+ *
+ * <p>The live small files are given by the scheduler.
+ */
+@ActionSignature(
+    actionId = "defrag",
+    displayName = "defrag",
+    usage = SmallFileDefragAction.CONTAINER_FILE + " $container_file "
+)
+public class SmallFileDefragAction extends HdfsAction {
+  public static final String CONTAINER_FILE = "-containerFile";
+  public static final String NEW_CONTAINER_FILE = "-newContainerFile";
+
+  private float status = 0f;
+  private Configuration conf = null;
+  private String smallFiles = null;
+  private String containerFile = null;
+  private String newContainerFile = null;
+
+  @Override
+  public void init(Map<String, String> args) {
+    super.init(args);
+    this.conf = getContext().getConf();
+    this.smallFiles = args.get(FILE_PATH);
+    this.containerFile = args.get(CONTAINER_FILE);
+    this.newContainerFile = args.get(NEW_CONTAINER_FILE);
+  }
+
+  @Override
+  protected void execute() throws Exception {
+    // Set hdfs client by DFSClient rather than SmartDFSClient
+    this.setDfsClient(HadoopUtil.getDFSClient(
+        HadoopUtil.getNameNodeUri(conf), conf));
+
+    if (containerFile == null || containerFile.isEmpty()) {
+      throw new IllegalArgumentException(
+          String.format("Invalid container file: %s.", containerFile));
+    }
+    if (newContainerFile == null || newContainerFile.isEmpty()
+        || newContainerFile.equals(containerFile)) {
+      throw new IllegalArgumentException(
+          String.format("Invalid new container file: %s.", newContainerFile));
+    }
+    List<CompactFileState> liveFiles = smallFiles == null ? null
+        : new Gson().<List<CompactFileState>>fromJson(smallFiles,
+            new TypeToken<ArrayList<CompactFileState>>() {
+            }.getType());
+    if (liveFiles == null) {
+      throw new IllegalArgumentException(
+          String.format("Invalid small files: %s.", smallFiles));
+    }
+    HdfsFileStatus containerStatus = dfsClient.getFileInfo(containerFile);
+    if (containerStatus == null) {
+      throw new FileNotFoundException(
+          String.format("Container file %s not found.", containerFile));
+    }
+    appendLog(String.format("Action starts at %s : defrag %s to %s.",
+        Utils.getFormatedCurrentTime(), containerFile, newContainerFile));
+
+    Collections.sort(liveFiles, new Comparator<CompactFileState>() {
+      @Override
+      public int compare(CompactFileState s1, CompactFileState s2) {
+        return Long.compare(s1.getFileContainerInfo().getOffset(),
+            s2.getFileContainerInfo().getOffset());
+      }
+    });
+
+    List<CompactFileState> newStates = new ArrayList<>();
+    if (!liveFiles.isEmpty()) {
+      newStates = copyLiveRanges(liveFiles, containerStatus);
+    }
+    this.status = 0.5f;
+
+    // Point the small files to the new container file
+    List<CompactFileState> moved = new ArrayList<>();
+    List<String> unknown = new ArrayList<>();
+    for (int i = 0; i < liveFiles.size(); i++) {
+      MoveResult result = moveSmallFile(liveFiles.get(i), newStates.get(i));
+      if (result == MoveResult.MOVED) {
+        moved.add(newStates.get(i));
+      } else if (result == MoveResult.UNKNOWN) {
+        unknown.add(liveFiles.get(i).getPath());
+      }
+      this.status = 0.5f + 0.5f * (i + 1) / liveFiles.size();
+    }
+    appendResult(new Gson().toJson(moved));
+    if (moved.isEmpty() && !newStates.isEmpty()) {
+      dfsClient.delete(newContainerFile, false);
+    }
+    if (!unknown.isEmpty()) {
+      throw new IOException(String.format("Container file %s is kept, %d small files "
+          + "not found may still be in it: %s.", containerFile, unknown.size(), unknown));
+    }
+
+    // Readers opening the old container file after it is deleted get the
+    // new file state and retry
+    dfsClient.delete(containerFile, false);
+    long newLength = 0L;
+    for (CompactFileState state : newStates) {
+      newLength += state.getFileContainerInfo().getLength();
+    }
+    this.status = 1.0f;
+    appendLog(String.format("Defrag %s successfully, %d small files moved to %s, "
+        + "%d bytes reclaimed.", containerFile, moved.size(), newContainerFile,
+        containerStatus.getLen() - (moved.isEmpty() ? 0L : newLength)));
+  }
+
+  /**
+   * Copy the live ranges to the new container file.
+   *
+   * @return the new states of the small files
+   */
+  private List<CompactFileState> copyLiveRanges(List<CompactFileState> liveFiles,
+      HdfsFileStatus containerStatus) throws IOException {
+    List<CompactFileState> newStates = new ArrayList<>(liveFiles.size());
+    byte[] buf = new byte[64 * 1024];
+    long newOffset = 0L;
+    try (DFSInputStream in = dfsClient.open(containerFile);
+        OutputStream out = dfsClient.create(newContainerFile, true)) {
+      for (CompactFileState state : liveFiles) {
+        FileContainerInfo info = state.getFileContainerInfo();
+        long position = info.getOffset();
+        long remaining = info.getLength();
+        while (remaining > 0) {
+          int toRead = (int) Math.min(buf.length, remaining);
+          in.readFully(position, buf, 0, toRead);
+          out.write(buf, 0, toRead);
+          position += toRead;
+          remaining -= toRead;
+        }
+        newStates.add(new CompactFileState(state.getPath(),
+            new FileContainerInfo(newContainerFile, newOffset, info.getLength())));
+        newOffset += info.getLength();
+      }
+    } catch (IOException e) {
+      dfsClient.delete(newContainerFile, false);
+      throw e;
+    }
+    dfsClient.setOwner(newContainerFile,
+        containerStatus.getOwner(), containerStatus.getGroup());
+    dfsClient.setPermission(newContainerFile, containerStatus.getPermission());
+    return newStates;
+  }
+
+  private enum MoveResult {
+    // Pointed to the new container file
+    MOVED,
+    // Found and not in the old container file any more
+    SKIPPED,
+    // Not found, it may be renamed and still in the old container file
+    UNKNOWN
+  }
+
+  /**
+   * Set the new state of the small file if it is still in the old range.
+   */
+  private MoveResult moveSmallFile(CompactFileState oldState, CompactFileState newState)
+      throws IOException {
+    String path = oldState.getPath();
+    byte[] value;
+    try {
+      value = dfsClient.getXAttrs(path).get(SmartConstants.SMART_FILE_STATE_XATTR_NAME);
+    } catch (FileNotFoundException e) {
+      appendLog(String.format("%s is not found.", path));
+      return MoveResult.UNKNOWN;
+    }
+    Object current = value == null ? null : SerializationUtils.deserialize(value);
+    if (!(current instanceof CompactFileState)
+        || !((CompactFileState) current).getFileContainerInfo().equals(
+            oldState.getFileContainerInfo())) {
+      if (current instanceof CompactFileState && containerFile.equals(
+          ((CompactFileState) current).getFileContainerInfo().getContainerFilePath())) {
+        // Another range of the old container file
+        appendLog(String.format("%s is changed but still in %s.", path, containerFile));
+        return MoveResult.UNKNOWN;
+      }
+      appendLog(String.format("Skip %s as it is changed.", path));
+      return MoveResult.SKIPPED;
+    }
+    try {
+      dfsClient.setXAttr(path, SmartConstants.SMART_FILE_STATE_XATTR_NAME,
+          SerializationUtils.serialize(newState), EnumSet.of(XAttrSetFlag.REPLACE));
+    } catch (FileNotFoundException e) {
+      appendLog(String.format("%s is not found.", path));
+      return MoveResult.UNKNOWN;
+    }
+    return MoveResult.MOVED;
+  }
+
+  @Override
+  public float getProgress() {
+    return this.status;
+  }
+}
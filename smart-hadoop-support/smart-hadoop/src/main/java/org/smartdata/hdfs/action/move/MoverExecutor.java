@@ -24,12 +24,8 @@
 import org.apache.hadoop.hdfs.protocol.DatanodeInfo;
 import org.apache.hadoop.hdfs.protocol.HdfsFileStatus;
 import org.apache.hadoop.hdfs.protocol.LocatedBlock;
-import org.apache.hadoop.hdfs.protocol.datatransfer.TrustedChannelResolver;
-import org.apache.hadoop.hdfs.protocol.datatransfer.sasl.DataTransferSaslUtil;
-import org.apache.hadoop.hdfs.protocol.datatransfer.sasl.SaslDataTransferClient;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.smartdata.conf.SmartConfKeys;
 import org.smartdata.hdfs.CompatibilityHelperLoader;
 import org.smartdata.model.action.FileMovePlan;
 
@@ -40,12 +36,12 @@
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
 
 /**
- * A light-weight executor for Mover.
+ * A light-weight executor for Mover. The replica moves are run by the
+ * {@link MoverService} shared with the other move actions.
  */
 public class MoverExecutor {
   static final Logger LOG = LoggerFactory.getLogger(MoverExecutor.class);
@@ -55,13 +51,11 @@ public class MoverExecutor {
   private String fileName;
   private NameNodeConnector nnc;
   private DFSClient dfsClient;
-  private SaslDataTransferClient saslClient;
+  private MoverService moverService;
 
   private int concurrentMoves;
   private int maxConcurrentMoves;
-  private int maxConcurrentMovesPerInst;
   private int maxRetryTimes;
-  private ExecutorService moveExecutor;
   private List<ReplicaMove> allMoves;
 
   private Map<Long, Block> sourceBlockMap;
@@ -69,17 +63,13 @@ public class MoverExecutor {
   private MoverStatus status;
   private List<LocatedBlock> locatedBlocks;
 
-  private static AtomicInteger instances = new AtomicInteger(0);
-
   public MoverExecutor(MoverStatus status, Configuration conf,
       int maxRetryTimes, int maxConcurrentMoves) {
     this.status = status;
     this.conf = conf;
     this.maxRetryTimes = maxRetryTimes;
     this.maxConcurrentMoves = maxConcurrentMoves;
-    maxConcurrentMovesPerInst = conf.getInt(
-        SmartConfKeys.SMART_CMDLET_MOVER_MAX_CONCURRENT_BLOCKS_PER_SRV_INST_KEY,
-        SmartConfKeys.SMART_CMDLET_MOVER_MAX_CONCURRENT_BLOCKS_PER_SRV_INST_DEFAULT);
+    this.moverService = MoverService.get();
   }
 
   /**
@@ -94,34 +84,42 @@ public int executeMove(FileMovePlan plan, PrintStream resultOs, PrintStream logO
     }
 
     init(plan);
+    try {
+      HdfsFileStatus fileStatus = dfsClient.getFileInfo(fileName);
+      if (fileStatus == null) {
+        throw new RuntimeException("File does not exist.");
+      }
 
-    HdfsFileStatus fileStatus = dfsClient.getFileInfo(fileName);
-    if (fileStatus == null) {
-      throw new RuntimeException("File does not exist.");
-    }
-
-    if (fileStatus.isDir()) {
-      throw new RuntimeException("File path is a directory.");
-    }
+      if (fileStatus.isDir()) {
+        throw new RuntimeException("File path is a directory.");
+      }
 
-    if (fileStatus.getLen() < plan.getFileLength()) {
-      throw new RuntimeException("File has been changed after this action generated.");
-    }
+      if (fileStatus.getLen() < plan.getFileLength()) {
+        throw new RuntimeException("File has been changed after this action generated.");
+      }
 
-    locatedBlocks = dfsClient.getLocatedBlocks(fileName, 0, plan.getFileLength()).getLocatedBlocks();
+      locatedBlocks =
+          dfsClient.getLocatedBlocks(fileName, 0, plan.getFileLength()).getLocatedBlocks();
+      if (!locatedBlocks.isEmpty()
+          && !locatedBlocks.get(0).getBlock().getBlockPoolId().equals(nnc.getBlockpoolID())) {
+        // The shared connector is stale
+        moverService.invalidate(namenode, nnc);
+        moverService.release(nnc);
+        nnc = null;
+        nnc = moverService.getNameNodeConnector(namenode, conf);
+        dfsClient = nnc.getDistributedFileSystem().getClient();
+      }
 
-    parseSchedulePlan(plan);
+      parseSchedulePlan(plan);
 
-    concurrentMoves = allMoves.size() >= maxConcurrentMoves ? maxConcurrentMoves : allMoves.size();
-    concurrentMoves = concurrentMoves == 0 ? 1 : concurrentMoves;
-    moveExecutor = Executors.newFixedThreadPool(concurrentMoves);
-    try {
-      instances.incrementAndGet();
+      concurrentMoves =
+          allMoves.size() >= maxConcurrentMoves ? maxConcurrentMoves : allMoves.size();
+      concurrentMoves = concurrentMoves == 0 ? 1 : concurrentMoves;
       return doMove(resultOs, logOs);
     } finally {
-      instances.decrementAndGet();
-      moveExecutor.shutdown();
-      moveExecutor = null;
+      if (nnc != null) {
+        moverService.release(nnc);
+      }
     }
   }
 
@@ -135,37 +133,29 @@ public int executeMove(FileMovePlan plan, PrintStream resultOs, PrintStream logO
    */
   public int doMove(PrintStream resultOs, PrintStream logOs) throws Exception {
     for (int retryTimes = 0; retryTimes < maxRetryTimes; retryTimes ++) {
-      final AtomicInteger running = new AtomicInteger(0);
-      for (final ReplicaMove replicaMove : allMoves) {
-        moveExecutor.execute(new Runnable() {
-          @Override
-          public void run() {
-            try {
-              running.incrementAndGet();
-              replicaMove.run();
-            } finally {
-              running.decrementAndGet();
-            }
-          }
-        });
-
-        if (maxConcurrentMovesPerInst != 0) {
-          while (running.get() > (maxConcurrentMovesPerInst * 1.0 / instances.get())) {
-            Thread.sleep(50);
+      long startTime = System.currentTimeMillis();
+      final CountDownLatch finished = new CountDownLatch(allMoves.size());
+      // At most concurrentMoves of this action queued or running
+      final Semaphore window = new Semaphore(concurrentMoves);
+      MoverService.Callback callback = new MoverService.Callback() {
+        @Override
+        public void onFinished(ReplicaMove move) {
+          if (move.isSuccessful()) {
+            status.increaseMovedBlocks(1);
           }
+          window.release();
+          finished.countDown();
         }
+      };
+      for (ReplicaMove replicaMove : allMoves) {
+        window.acquire();
+        moverService.submit(replicaMove, callback);
       }
-
-      int sleeped = 0;
-      int[] stat = new int[2];
-      while (true) {
-        ReplicaMove.countStatus(allMoves, stat);
-        if (stat[0] == allMoves.size()) {
-          status.increaseMovedBlocks(stat[1]);
-          break;
-        }
-        Thread.sleep(10);
-        sleeped += 10;
+      finished.await();
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Mover service: {} moves queued, {} in flight, DataNodes: {}",
+            moverService.getQueuedMoves(), moverService.getInFlightMoves(),
+            moverService.getDatanodeStats().values());
       }
 
       int remaining = ReplicaMove.refreshMoverList(allMoves);
@@ -178,8 +168,9 @@ public void run() {
             retryTimes + 1, maxRetryTimes, remaining));
       }
       LOG.debug("{} : {} moves failed, start a new iteration", this, remaining);
-      if (sleeped < 1000) {
-        Thread.sleep(1000 - sleeped);
+      long elapsed = System.currentTimeMillis() - startTime;
+      if (elapsed < 1000) {
+        Thread.sleep(1000 - elapsed);
       }
     }
     int failedMoves = ReplicaMove.failedMoves(allMoves);
@@ -200,10 +191,7 @@ public String toString() {
   private void init(FileMovePlan plan) throws IOException {
     this.namenode = plan.getNamenode();
     this.fileName = plan.getFileName();
-    this.nnc = new NameNodeConnector(namenode, conf);
-    this.saslClient = new SaslDataTransferClient(conf,
-        DataTransferSaslUtil.getSaslPropertiesResolver(conf),
-        TrustedChannelResolver.getInstance(conf), nnc.fallbackToSimpleAuth);
+    this.nnc = moverService.getNameNodeConnector(namenode, conf);
     dfsClient = nnc.getDistributedFileSystem().getClient();
     allMoves = new ArrayList<>();
   }
@@ -229,7 +217,8 @@ private void parseSchedulePlan(FileMovePlan plan) throws IOException {
           .newDatanodeInfo(targetIpAddrs.get(planIndex), targetXferPorts.get(planIndex));
       StorageGroup target = new StorageGroup(targetDatanode, targetStorageTypes.get(planIndex));
       // generate single move
-      ReplicaMove replicaMove = new ReplicaMove(block, source, target, nnc, saslClient);
+      ReplicaMove replicaMove = new ReplicaMove(block, source, target, nnc,
+          nnc.getSaslDataTransferClient());
       allMoves.add(replicaMove);
     }
   }
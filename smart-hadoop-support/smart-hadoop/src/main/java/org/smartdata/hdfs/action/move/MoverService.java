@@ -0,0 +1,364 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.hdfs.action.move;
+
+import org.apache.hadoop.conf.Configuration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.smartdata.conf.SmartConfKeys;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Long-lived service moving replicas for all the move actions on this agent
+ * or server. The connections to NameNodes are shared by the actions, and
+ * the moves are started as soon as the DataNodes involved have a free slot,
+ * so no DataNode is flooded by more moves than it is able to take.
+ */
+public class MoverService {
+  static final Logger LOG = LoggerFactory.getLogger(MoverService.class);
+
+  private static final MoverService INSTANCE = new MoverService();
+  private static final long RATE_WINDOW_MS = 10 * 1000L;
+
+  // Guarded by this, the number of users of each connector handed out
+  private final Map<URI, NameNodeConnector> connectors = new HashMap<>();
+  private final Map<NameNodeConnector, Integer> connectorUsers = new HashMap<>();
+  private final ExecutorService executor;
+
+  // Guarded by this
+  private final LinkedList<PendingMove> pendingMoves = new LinkedList<>();
+  private final Map<String, DatanodeStats> datanodeStats = new HashMap<>();
+  private int inFlight = 0;
+
+  private volatile int maxConcurrentMoves;
+  private volatile int maxConcurrentMovesPerDatanode;
+
+  MoverService() {
+    this.maxConcurrentMoves =
+        SmartConfKeys.SMART_CMDLET_MOVER_MAX_CONCURRENT_BLOCKS_PER_SRV_INST_DEFAULT;
+    this.maxConcurrentMovesPerDatanode =
+        SmartConfKeys.SMART_MOVER_MAX_CONCURRENT_MOVES_PER_DATANODE_DEFAULT;
+    // The number of threads is bounded by the limits of moves in flight
+    this.executor = Executors.newCachedThreadPool(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, "MoverService");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+  }
+
+  public static MoverService get() {
+    return INSTANCE;
+  }
+
+  /**
+   * Update the limits of moves in flight, the moves started keep running.
+   */
+  public void configure(Configuration conf) {
+    this.maxConcurrentMoves = conf.getInt(
+        SmartConfKeys.SMART_CMDLET_MOVER_MAX_CONCURRENT_BLOCKS_PER_SRV_INST_KEY,
+        SmartConfKeys.SMART_CMDLET_MOVER_MAX_CONCURRENT_BLOCKS_PER_SRV_INST_DEFAULT);
+    this.maxConcurrentMovesPerDatanode = conf.getInt(
+        SmartConfKeys.SMART_MOVER_MAX_CONCURRENT_MOVES_PER_DATANODE_KEY,
+        SmartConfKeys.SMART_MOVER_MAX_CONCURRENT_MOVES_PER_DATANODE_DEFAULT);
+    dispatch();
+  }
+
+  /**
+   * Get the shared connector to the NameNode, created on first use. It
+   * must be given back by {@link #release} once no longer used.
+   */
+  public synchronized NameNodeConnector getNameNodeConnector(URI namenode,
+      Configuration conf) throws IOException {
+    NameNodeConnector nnc = connectors.get(namenode);
+    if (nnc == null) {
+      nnc = new NameNodeConnector(namenode, conf);
+      connectors.put(namenode, nnc);
+    }
+    Integer users = connectorUsers.get(nnc);
+    connectorUsers.put(nnc, users == null ? 1 : users + 1);
+    return nnc;
+  }
+
+  /**
+   * Give back a connector got, it is closed after its last user gives it
+   * back if it has been dropped.
+   */
+  public synchronized void release(NameNodeConnector nnc) {
+    Integer users = connectorUsers.get(nnc);
+    if (users == null) {
+      return;
+    }
+    if (users > 1) {
+      connectorUsers.put(nnc, users - 1);
+      return;
+    }
+    connectorUsers.remove(nnc);
+    if (!connectors.containsValue(nnc)) {
+      nnc.close();
+    }
+  }
+
+  /**
+   * Drop the connector if it is stale, e.g., the NameNode is formatted
+   * again with a new block pool, so a new one is created on next use. The
+   * moves still using it keep it open until it is released.
+   */
+  public synchronized void invalidate(URI namenode, NameNodeConnector nnc) {
+    if (connectors.get(namenode) == nnc) {
+      connectors.remove(namenode);
+      if (!connectorUsers.containsKey(nnc)) {
+        nnc.close();
+      }
+    }
+  }
+
+  /**
+   * Queue the move, the callback is called by the thread running it after
+   * the move finished whether successful or not.
+   */
+  void submit(ReplicaMove move, Callback callback) {
+    PendingMove pendingMove = new PendingMove(move, callback);
+    synchronized (this) {
+      pendingMoves.add(pendingMove);
+      for (DatanodeStats stats : getStats(pendingMove)) {
+        stats.queued++;
+      }
+    }
+    dispatch();
+  }
+
+  // Start the queued moves whose DataNodes have a free slot, in order
+  private void dispatch() {
+    List<PendingMove> ready = new ArrayList<>();
+    synchronized (this) {
+      Iterator<PendingMove> it = pendingMoves.iterator();
+      while (it.hasNext() && (maxConcurrentMoves <= 0 || inFlight < maxConcurrentMoves)) {
+        PendingMove pendingMove = it.next();
+        List<DatanodeStats> stats = getStats(pendingMove);
+        if (!hasFreeSlot(stats)) {
+          continue;
+        }
+        it.remove();
+        inFlight++;
+        for (DatanodeStats s : stats) {
+          s.queued--;
+          s.inFlight++;
+        }
+        ready.add(pendingMove);
+      }
+    }
+    for (PendingMove pendingMove : ready) {
+      executor.execute(pendingMove);
+    }
+  }
+
+  private boolean hasFreeSlot(List<DatanodeStats> stats) {
+    if (maxConcurrentMovesPerDatanode <= 0) {
+      return true;
+    }
+    for (DatanodeStats s : stats) {
+      if (s.inFlight >= maxConcurrentMovesPerDatanode) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void onFinished(PendingMove pendingMove) {
+    ReplicaMove move = pendingMove.move;
+    long now = System.currentTimeMillis();
+    synchronized (this) {
+      inFlight--;
+      for (DatanodeStats s : getStats(pendingMove)) {
+        s.inFlight--;
+        if (move.isSuccessful()) {
+          s.onMoved(move.getNumBytes(), now);
+        } else {
+          s.failedMoves++;
+        }
+      }
+    }
+    dispatch();
+    try {
+      pendingMove.callback.onFinished(move);
+    } catch (Throwable t) {
+      LOG.error("Callback of move " + move + " failed", t);
+    }
+  }
+
+  // Stats of the source and target DataNodes, once if they are the same
+  private List<DatanodeStats> getStats(PendingMove pendingMove) {
+    List<DatanodeStats> ret = new ArrayList<>(2);
+    String source = pendingMove.move.getSource().getDatanodeInfo().getXferAddr();
+    String target = pendingMove.move.getTarget().getDatanodeInfo().getXferAddr();
+    ret.add(getStats(source));
+    if (!target.equals(source)) {
+      ret.add(getStats(target));
+    }
+    return ret;
+  }
+
+  private DatanodeStats getStats(String datanode) {
+    DatanodeStats stats = datanodeStats.get(datanode);
+    if (stats == null) {
+      stats = new DatanodeStats(datanode);
+      datanodeStats.put(datanode, stats);
+    }
+    return stats;
+  }
+
+  public synchronized int getQueuedMoves() {
+    return pendingMoves.size();
+  }
+
+  public synchronized int getInFlightMoves() {
+    return inFlight;
+  }
+
+  /**
+   * Get a snapshot of the stats of the DataNodes, by transfer address.
+   */
+  public synchronized Map<String, DatanodeStats> getDatanodeStats() {
+    long now = System.currentTimeMillis();
+    Map<String, DatanodeStats> ret = new HashMap<>();
+    for (DatanodeStats stats : datanodeStats.values()) {
+      ret.put(stats.datanode, stats.snapshot(now));
+    }
+    return ret;
+  }
+
+  /**
+   * Callback of a finished move.
+   */
+  interface Callback {
+    void onFinished(ReplicaMove move);
+  }
+
+  private class PendingMove implements Runnable {
+    private final ReplicaMove move;
+    private final Callback callback;
+
+    PendingMove(ReplicaMove move, Callback callback) {
+      this.move = move;
+      this.callback = callback;
+    }
+
+    @Override
+    public void run() {
+      try {
+        move.run();
+      } finally {
+        onFinished(this);
+      }
+    }
+  }
+
+  /**
+   * Moves of a DataNode, as the source or the target.
+   */
+  public static class DatanodeStats {
+    private final String datanode;
+    private int queued;
+    private int inFlight;
+    private long movedBlocks;
+    private long movedBytes;
+    private long failedMoves;
+    private long windowStart = -1;
+    private long windowBytes;
+    private long bytesPerSecond;
+
+    DatanodeStats(String datanode) {
+      this.datanode = datanode;
+    }
+
+    private void onMoved(long bytes, long now) {
+      movedBlocks++;
+      movedBytes += bytes;
+      if (windowStart < 0) {
+        windowStart = now;
+      }
+      windowBytes += bytes;
+      if (now - windowStart >= RATE_WINDOW_MS) {
+        bytesPerSecond = windowBytes * 1000 / (now - windowStart);
+        windowStart = now;
+        windowBytes = 0;
+      }
+    }
+
+    private DatanodeStats snapshot(long now) {
+      DatanodeStats ret = new DatanodeStats(datanode);
+      ret.queued = queued;
+      ret.inFlight = inFlight;
+      ret.movedBlocks = movedBlocks;
+      ret.movedBytes = movedBytes;
+      ret.failedMoves = failedMoves;
+      // Rate of the window in progress until a full window is seen
+      ret.bytesPerSecond = bytesPerSecond == 0 && windowStart >= 0 && now > windowStart
+          ? windowBytes * 1000 / (now - windowStart) : bytesPerSecond;
+      return ret;
+    }
+
+    public String getDatanode() {
+      return datanode;
+    }
+
+    public int getQueued() {
+      return queued;
+    }
+
+    public int getInFlight() {
+      return inFlight;
+    }
+
+    public long getMovedBlocks() {
+      return movedBlocks;
+    }
+
+    public long getMovedBytes() {
+      return movedBytes;
+    }
+
+    public long getFailedMoves() {
+      return failedMoves;
+    }
+
+    public long getBytesPerSecond() {
+      return bytesPerSecond;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%s[queued=%d, inFlight=%d, moved=%d, failed=%d, bytes/s=%d]",
+          datanode, queued, inFlight, movedBlocks, failedMoves, bytesPerSecond);
+    }
+  }
+}
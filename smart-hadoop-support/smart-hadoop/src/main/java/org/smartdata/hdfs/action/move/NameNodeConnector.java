@@ -28,6 +28,9 @@
 import org.apache.hadoop.hdfs.protocol.ClientProtocol;
 import org.apache.hadoop.hdfs.protocol.DatanodeInfo;
 import org.apache.hadoop.hdfs.protocol.HdfsConstants.DatanodeReportType;
+import org.apache.hadoop.hdfs.protocol.datatransfer.TrustedChannelResolver;
+import org.apache.hadoop.hdfs.protocol.datatransfer.sasl.DataTransferSaslUtil;
+import org.apache.hadoop.hdfs.protocol.datatransfer.sasl.SaslDataTransferClient;
 import org.apache.hadoop.hdfs.server.balancer.KeyManager;
 import org.apache.hadoop.hdfs.server.protocol.BlocksWithLocations;
 import org.apache.hadoop.hdfs.server.protocol.DatanodeStorageReport;
@@ -51,6 +54,7 @@ public class NameNodeConnector implements Closeable {
   private final NamenodeProtocol namenode;
   private final ClientProtocol client;
   private final KeyManager keyManager;
+  private final SaslDataTransferClient saslClient;
   final AtomicBoolean fallbackToSimpleAuth = new AtomicBoolean(false);
 
   private final DistributedFileSystem fs;
@@ -71,6 +75,9 @@ public NameNodeConnector(URI nameNodeUri, Configuration conf)
     final FsServerDefaults defaults = fs.getServerDefaults(new Path("/"));
     this.keyManager = new KeyManager(blockpoolID, namenode,
         defaults.getEncryptDataTransfer(), conf);
+    this.saslClient = new SaslDataTransferClient(conf,
+        DataTransferSaslUtil.getSaslPropertiesResolver(conf),
+        TrustedChannelResolver.getInstance(conf), fallbackToSimpleAuth);
   }
 
   public DistributedFileSystem getDistributedFileSystem() {
@@ -94,6 +101,11 @@ public DatanodeStorageReport[] getLiveDatanodeStorageReport()
     return client.getDatanodeStorageReport(DatanodeReportType.LIVE);
   }
 
+  /** @return the client to set up data transfer with DataNodes */
+  public SaslDataTransferClient getSaslDataTransferClient() {
+    return saslClient;
+  }
+
   /** @return the key manager */
   public KeyManager getKeyManager() {
     return keyManager;
@@ -70,6 +70,22 @@ public ReplicaMove(Block block, StorageGroup source, StorageGroup target,
     this.status = new ReplicaMoveStatus();
   }
 
+  public StorageGroup getSource() {
+    return source;
+  }
+
+  public StorageGroup getTarget() {
+    return target;
+  }
+
+  public long getNumBytes() {
+    return block != null ? block.getNumBytes() : 0L;
+  }
+
+  public boolean isSuccessful() {
+    return status.isSuccessful();
+  }
+
   @Override
   public String toString() {
     String bStr = block != null ? (block + " with size=" + block.getNumBytes() + " ")
@@ -227,8 +243,8 @@ public static int refreshMoverList(List<ReplicaMove> allMoves) {
    * A class for tracking the status of a single move.
    */
   class ReplicaMoveStatus {
-    private boolean finished;
-    private boolean successful;
+    private volatile boolean finished;
+    private volatile boolean successful;
 
     public ReplicaMoveStatus() {
       finished = false;
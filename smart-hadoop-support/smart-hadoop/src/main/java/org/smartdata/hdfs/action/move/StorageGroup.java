@@ -23,12 +23,37 @@
 public class StorageGroup {
   private final String storageType;
   private DatanodeInfo datanode;
+  // Space of the storages as reported, only known for move targets
+  private long capacity;
+  private long remaining;
+  private long maxRemaining;
 
   public StorageGroup(DatanodeInfo datanode, String storageType) {
     this.datanode = datanode;
     this.storageType = storageType;
   }
 
+  public void setSpace(long capacity, long remaining, long maxRemaining) {
+    this.capacity = capacity;
+    this.remaining = remaining;
+    this.maxRemaining = maxRemaining;
+  }
+
+  /** @return total capacity of the storages */
+  public long getCapacity() {
+    return capacity;
+  }
+
+  /** @return total remaining space of the storages */
+  public long getRemaining() {
+    return remaining;
+  }
+
+  /** @return the most remaining space of a single storage */
+  public long getMaxRemaining() {
+    return maxRemaining;
+  }
+
   public String getStorageType() {
     return storageType;
   }
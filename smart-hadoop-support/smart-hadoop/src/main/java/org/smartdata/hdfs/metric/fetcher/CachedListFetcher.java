@@ -17,14 +17,17 @@
  */
 package org.smartdata.hdfs.metric.fetcher;
 
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.RemoteIterator;
 import org.apache.hadoop.hdfs.DFSClient;
 import org.apache.hadoop.hdfs.protocol.CacheDirectiveEntry;
 import org.apache.hadoop.hdfs.protocol.CacheDirectiveInfo;
 import org.apache.hadoop.hdfs.protocol.CachePoolEntry;
+import org.apache.hadoop.hdfs.protocol.CachePoolStats;
 import org.apache.hadoop.util.Time;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.smartdata.conf.SmartConfKeys;
 import org.smartdata.metastore.MetaStore;
 import org.smartdata.metastore.MetaStoreException;
 import org.smartdata.model.CachedFileStatus;
@@ -32,6 +35,7 @@
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -41,28 +45,65 @@
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
+/**
+ * Keep the cached file list and the cache usage in metastore. The list is
+ * updated by cache and uncache actions and inotify events as they happen,
+ * so only the statistics of the cache pool are fetched periodically. The
+ * cache directives are listed only when the pool statistics change, to get
+ * the cached bytes of each file, and fully reconciled with the list at a
+ * long interval to catch the directives changed out of SSM.
+ */
 public class CachedListFetcher {
 
   private static final Long DEFAULT_INTERVAL = 5 * 1000L;
+  private static final String SSM_POOL = "SSMPool";
   private final ScheduledExecutorService scheduledExecutorService;
   private final Long fetchInterval;
+  private final Long reconcileInterval;
   private FetchTask fetchTask;
+  private ReconcileTask reconcileTask;
   private ScheduledFuture scheduledFuture;
+  private ScheduledFuture reconcileFuture;
   private MetaStore metaStore;
+  private DFSClient dfsClient;
+  // Cached bytes of each directive in SSMPool by directive id
+  private Map<Long, Long> directiveBytes = new HashMap<>();
+  private CachePoolStats lastPoolStats;
+  private boolean capacityStored = false;
+  private volatile long cacheCapacity = 0;
+  private volatile long cacheUsed = 0;
 
   public static final Logger LOG =
       LoggerFactory.getLogger(CachedListFetcher.class);
 
   public CachedListFetcher(
-      Long fetchInterval,
+      Long fetchInterval, Long reconcileInterval,
       DFSClient dfsClient, MetaStore metaStore,
       ScheduledExecutorService service) {
     this.fetchInterval = fetchInterval;
+    this.reconcileInterval = reconcileInterval;
     this.metaStore = metaStore;
-    this.fetchTask = new FetchTask(dfsClient, metaStore);
+    this.dfsClient = dfsClient;
+    this.fetchTask = new FetchTask();
+    this.reconcileTask = new ReconcileTask();
     this.scheduledExecutorService = service;
   }
 
+  public CachedListFetcher(
+      Long fetchInterval, Long reconcileInterval,
+      DFSClient dfsClient, MetaStore metaStore) {
+    this(fetchInterval, reconcileInterval, dfsClient, metaStore,
+        Executors.newSingleThreadScheduledExecutor());
+  }
+
+  public CachedListFetcher(
+      Long fetchInterval,
+      DFSClient dfsClient, MetaStore metaStore,
+      ScheduledExecutorService service) {
+    this(fetchInterval, SmartConfKeys.SMART_CACHE_RECONCILE_INTERVAL_MS_DEFAULT,
+        dfsClient, metaStore, service);
+  }
+
   public CachedListFetcher(
       Long fetchInterval,
       DFSClient dfsClient, MetaStore metaStore) {
@@ -82,7 +123,18 @@ public CachedListFetcher(
     this(DEFAULT_INTERVAL, dfsClient, metaStore, service);
   }
 
+  public CachedListFetcher(
+      Configuration conf, DFSClient dfsClient, MetaStore metaStore) {
+    this(DEFAULT_INTERVAL,
+        conf.getLong(SmartConfKeys.SMART_CACHE_RECONCILE_INTERVAL_MS_KEY,
+            SmartConfKeys.SMART_CACHE_RECONCILE_INTERVAL_MS_DEFAULT),
+        dfsClient, metaStore);
+  }
+
   public void start() {
+    // Reconciled at first to catch the changes while SSM was down
+    this.reconcileFuture = scheduledExecutorService.scheduleAtFixedRate(
+        reconcileTask, 0, reconcileInterval, TimeUnit.MILLISECONDS);
     Long current = System.currentTimeMillis();
     Long toWait = fetchInterval - (current % fetchInterval);
     this.scheduledFuture = scheduledExecutorService.scheduleAtFixedRate(
@@ -93,122 +145,185 @@ public void stop() {
     if (scheduledFuture != null) {
       this.scheduledFuture.cancel(false);
     }
+    if (reconcileFuture != null) {
+      this.reconcileFuture.cancel(false);
+    }
   }
 
   public List<CachedFileStatus> getCachedList() throws MetaStoreException {
     return this.metaStore.getCachedFileStatus();
   }
 
-  private static class FetchTask extends Thread {
-    private DFSClient dfsClient;
-    private MetaStore metaStore;
-    private Set<Long> fileSet;
-    private boolean reInit;
+  /**
+   * Get the byte limit of SSMPool, 0 if the pool is not created yet.
+   */
+  public long getCacheCapacity() {
+    return cacheCapacity;
+  }
+
+  /**
+   * Get the bytes cached in SSMPool.
+   */
+  public long getCacheUsed() {
+    return cacheUsed;
+  }
+
+  private static boolean sameStats(CachePoolStats a, CachePoolStats b) {
+    return a != null && b != null
+        && a.getBytesNeeded() == b.getBytesNeeded()
+        && a.getBytesCached() == b.getBytesCached()
+        && a.getFilesNeeded() == b.getFilesNeeded()
+        && a.getFilesCached() == b.getFilesCached();
+  }
 
-    public FetchTask(DFSClient dfsClient, MetaStore metaStore) {
-      this.dfsClient = dfsClient;
-      this.metaStore = metaStore;
-      reInit = true;
+  private synchronized void fetchPoolStats() throws IOException, MetaStoreException {
+    RemoteIterator<CachePoolEntry> cachePoolList = dfsClient.listCachePools();
+    CachePoolStats stats = null;
+    long limit = 0;
+    while (cachePoolList.hasNext()) {
+      CachePoolEntry cachePoolEntry = cachePoolList.next();
+      if (cachePoolEntry.getInfo().getPoolName().equals(SSM_POOL)) {
+        Long poolLimit = cachePoolEntry.getInfo().getLimit();
+        limit = poolLimit == null ? 0 : poolLimit;
+        stats = cachePoolEntry.getStats();
+      }
     }
+    long used = stats == null ? 0 : stats.getBytesCached();
+    if (!capacityStored || limit != cacheCapacity || used != cacheUsed) {
+      metaStore.insertUpdateStoragesTable(
+          new StorageCapacity("cache", limit, limit - used));
+      capacityStored = true;
+    }
+    cacheCapacity = limit;
+    cacheUsed = used;
+    if (stats != null && !sameStats(stats, lastPoolStats)) {
+      // Cached bytes of some directives changed since last fetch
+      updateCachedBytes(listDirectives());
+    }
+    lastPoolStats = stats;
+  }
 
-    private void syncFromDB() {
-      fileSet = new HashSet<>();
-      try {
-        LOG.debug("Sync CacheObject list from DB!");
-        fileSet.addAll(metaStore.getCachedFids());
-        reInit = false;
-      } catch (MetaStoreException e) {
-        LOG.error("Read fids from DB error!", e);
-        reInit = true;
+  private List<CacheDirectiveEntry> listDirectives() throws IOException {
+    CacheDirectiveInfo filter = new CacheDirectiveInfo.Builder().setPool(SSM_POOL).build();
+    RemoteIterator<CacheDirectiveEntry> cacheDirectives =
+        dfsClient.listCacheDirectives(filter);
+    List<CacheDirectiveEntry> entries = new ArrayList<>();
+    while (cacheDirectives.hasNext()) {
+      entries.add(cacheDirectives.next());
+    }
+    return entries;
+  }
+
+  /**
+   * Update the cached bytes of the files whose directive stats changed.
+   */
+  private void updateCachedBytes(List<CacheDirectiveEntry> entries)
+      throws MetaStoreException {
+    Map<Long, Long> newDirectiveBytes = new HashMap<>();
+    Map<String, Long> changed = new HashMap<>();
+    for (CacheDirectiveEntry entry : entries) {
+      long id = entry.getInfo().getId();
+      long bytes = entry.getStats().getBytesCached();
+      newDirectiveBytes.put(id, bytes);
+      Long last = directiveBytes.get(id);
+      if (last == null || last != bytes) {
+        changed.put(entry.getInfo().getPath().toUri().getPath(), bytes);
       }
     }
+    directiveBytes = newDirectiveBytes;
+    if (changed.isEmpty()) {
+      return;
+    }
+    Map<String, Long> pathFid = metaStore.getFileIDs(changed.keySet());
+    Map<Long, Long> fidToBytes = new HashMap<>();
+    for (Map.Entry<String, Long> entry : pathFid.entrySet()) {
+      fidToBytes.put(entry.getValue(), changed.get(entry.getKey()));
+    }
+    metaStore.updateCachedBytes(fidToBytes);
+  }
 
-    private void clearAll() throws MetaStoreException {
-      LOG.debug("CacheObject List empty!");
-      if (fileSet.size() > 0) {
-        metaStore.deleteAllCachedFile();
-        fileSet.clear();
+  /**
+   * Make the cached file list the same as the directives in SSMPool.
+   */
+  private synchronized void reconcile() throws IOException, MetaStoreException {
+    // Read before listing, so a file cached by an action meanwhile is listed
+    // with its directive and not removed. A file uncached meanwhile is
+    // removed by both the action and here.
+    Set<Long> fileSet = new HashSet<>(metaStore.getCachedFids());
+    List<CacheDirectiveEntry> entries = listDirectives();
+    List<String> paths = new ArrayList<>();
+    for (CacheDirectiveEntry entry : entries) {
+      paths.add(entry.getInfo().getPath().toUri().getPath());
+    }
+    Map<String, Long> pathFid = paths.isEmpty()
+        ? new HashMap<String, Long>() : metaStore.getFileIDs(paths);
+    if (pathFid == null) {
+      pathFid = new HashMap<>();
+    }
+    Set<Long> newFileSet = new HashSet<>();
+    List<CachedFileStatus> cachedFileStatuses = new ArrayList<>();
+    for (Map.Entry<String, Long> entry : pathFid.entrySet()) {
+      long fid = entry.getValue();
+      newFileSet.add(fid);
+      if (!fileSet.contains(fid)) {
+        cachedFileStatuses.add(new CachedFileStatus(fid,
+            entry.getKey(), Time.now(), Time.now(), 0));
+      }
+    }
+    if (cachedFileStatuses.size() != 0) {
+      // Removed first as the action caching a file meanwhile may insert it too
+      for (CachedFileStatus status : cachedFileStatuses) {
+        metaStore.deleteCachedFile(status.getFid());
       }
+      metaStore.insertCachedFiles(cachedFileStatuses);
     }
+    // Remove uncached files from DB
+    int removed = 0;
+    if (newFileSet.isEmpty() && !fileSet.isEmpty()) {
+      metaStore.deleteAllCachedFile();
+      removed = fileSet.size();
+    } else {
+      for (Long fid : fileSet) {
+        if (!newFileSet.contains(fid)) {
+          metaStore.deleteCachedFile(fid);
+          removed++;
+        }
+      }
+    }
+    // The cached bytes of all the files are rewritten
+    directiveBytes = new HashMap<>();
+    updateCachedBytes(entries);
+    LOG.debug("Reconciled {} cached files, {} added, {} removed",
+        newFileSet.size(), cachedFileStatuses.size(), removed);
+  }
 
+  private class FetchTask implements Runnable {
     @Override
     public void run() {
-      if (reInit) {
-        syncFromDB();
-      }
-      Set<Long> newFileSet = new HashSet<>();
-      List<CachedFileStatus> cachedFileStatuses = new ArrayList<>();
       try {
-        CacheDirectiveInfo.Builder filterBuilder = new CacheDirectiveInfo.Builder();
-        filterBuilder.setPool("SSMPool");
-        CacheDirectiveInfo filter = filterBuilder.build();
-        RemoteIterator<CacheDirectiveEntry> cacheDirectives =
-            dfsClient.listCacheDirectives(filter);
-        // Add new cache files to DB
-        //get the size of SSM cache pool
-        RemoteIterator<CachePoolEntry> cachePoolList = dfsClient.listCachePools();
-        long cacheMaxSize = 0;
-        while (cachePoolList.hasNext()) {
-          CachePoolEntry cachePoolEntry = cachePoolList.next();
-          if (cachePoolEntry.getInfo().getPoolName().equals("SSMPool")) {
-            cacheMaxSize = cachePoolEntry.getInfo().getLimit();
-          }
-        }
-        long cacheUsage = 0;
-        if (!cacheDirectives.hasNext()) {
-          metaStore.insertUpdateStoragesTable(
-              new StorageCapacity("cache", cacheMaxSize, cacheMaxSize - cacheUsage));
-          clearAll();
-          return;
-        }
-        List<String> paths = new ArrayList<>();
-
-        while (cacheDirectives.hasNext()) {
-          CacheDirectiveEntry cacheDirectiveEntry = cacheDirectives.next();
-          CacheDirectiveInfo currentInfo = cacheDirectiveEntry.getInfo();
-          paths.add(currentInfo.getPath().toString());
-          cacheUsage = cacheUsage + cacheDirectiveEntry.getStats().getBytesCached();
-          LOG.debug("File in HDFS cache: " + currentInfo.getPath().toString());
-        }
-
-
-        //add cache information into metastore
-        metaStore.insertUpdateStoragesTable(
-            new StorageCapacity("cache", cacheMaxSize, cacheMaxSize - cacheUsage));
+        fetchPoolStats();
+      } catch (MetaStoreException e) {
+        LOG.error("Fetch cache pool stats SQL error!", e);
+      } catch (IOException e) {
+        LOG.error("Fetch cache pool stats HDFS error!", e);
+      } catch (Throwable t) {
+        LOG.error("Fetch cache pool stats error!", t);
+      }
+    }
+  }
 
-        // Delete all records to avoid conflict
-        // metaStore.deleteAllCachedFile();
-        // Insert new records into DB
-        Map<String, Long> pathFid = metaStore.getFileIDs(paths);
-        if (pathFid == null || pathFid.size() == 0) {
-          clearAll();
-          return;
-        }
-        for (String p : pathFid.keySet()) {
-          long fid = pathFid.get(p);
-          newFileSet.add(fid);
-          if (!fileSet.contains(fid)) {
-            cachedFileStatuses.add(new CachedFileStatus(fid,
-                p, Time.now(), Time.now(), 0));
-          }
-        }
-        if (cachedFileStatuses.size() != 0) {
-          metaStore.insertCachedFiles(cachedFileStatuses);
-        }
-        // Remove uncached files from DB
-        for (Long fid : fileSet) {
-          if (!newFileSet.contains(fid)) {
-            metaStore.deleteCachedFile(fid);
-          }
-        }
+  private class ReconcileTask implements Runnable {
+    @Override
+    public void run() {
+      try {
+        reconcile();
       } catch (MetaStoreException e) {
         LOG.error("Sync cached file list SQL error!", e);
-        reInit = true;
       } catch (IOException e) {
         LOG.error("Sync cached file list HDFS error!", e);
-        reInit = true;
+      } catch (Throwable t) {
+        LOG.error("Sync cached file list error!", t);
       }
-      fileSet = newFileSet;
     }
   }
 }
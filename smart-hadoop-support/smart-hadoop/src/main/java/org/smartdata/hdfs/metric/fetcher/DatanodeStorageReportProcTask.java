@@ -76,6 +76,9 @@ public void run() {
           final Source source = dn.addSource(t);
           final long maxRemaining = getMaxRemaining(r, t);
           final StorageGroup target = maxRemaining > 0L ? dn.addTarget(t) : null;
+          if (target != null) {
+            setSpace(target, r, maxRemaining);
+          }
           storages.add(source, target);
         }
       }
@@ -96,6 +99,20 @@ private static long getMaxRemaining(DatanodeStorageReport report, String type) {
     return max;
   }
 
+  private static void setSpace(StorageGroup target, DatanodeStorageReport report,
+      long maxRemaining) {
+    long capacity = 0L;
+    long remaining = 0L;
+    for (StorageReport r : report.getStorageReports()) {
+      if (CompatibilityHelperLoader.getHelper().getStorageType(r)
+          .equals(target.getStorageType())) {
+        capacity += r.getCapacity();
+        remaining += r.getRemaining();
+      }
+    }
+    target.setSpace(capacity, remaining, maxRemaining);
+  }
+
   /**
    * Get live datanode storage reports and then build the network topology.
    * @return
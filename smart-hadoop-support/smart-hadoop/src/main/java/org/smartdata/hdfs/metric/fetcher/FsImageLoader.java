@@ -0,0 +1,327 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.hdfs.metric.fetcher;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.protocol.proto.HdfsProtos;
+import org.apache.hadoop.hdfs.server.blockmanagement.BlockStoragePolicySuite;
+import org.apache.hadoop.hdfs.server.namenode.FSImageFormatProtobuf.SectionName;
+import org.apache.hadoop.hdfs.server.namenode.FSImageUtil;
+import org.apache.hadoop.hdfs.server.namenode.FsImageProto.FileSummary;
+import org.apache.hadoop.hdfs.server.namenode.FsImageProto.INodeDirectorySection;
+import org.apache.hadoop.hdfs.server.namenode.FsImageProto.INodeReferenceSection;
+import org.apache.hadoop.hdfs.server.namenode.FsImageProto.INodeSection;
+import org.apache.hadoop.hdfs.server.namenode.FsImageProto.NameSystemSection;
+import org.apache.hadoop.hdfs.server.namenode.FsImageProto.StringTableSection;
+import org.apache.hadoop.hdfs.server.namenode.INodeId;
+import org.apache.hadoop.util.LimitInputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.smartdata.conf.SmartConfKeys;
+import org.smartdata.metastore.MetaStore;
+import org.smartdata.metastore.MetaStoreException;
+import org.smartdata.model.FileInfo;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Load the namespace into metastore from a local copy of NameNode fsimage
+ * instead of listing the whole namespace through RPC.
+ *
+ * <p>The INODE section is streamed twice: directory names are kept in the
+ * first pass to build paths, and all the inodes are inserted in batches in
+ * the second one. The parent of every inode in the current tree is kept in
+ * memory, inodes only reachable from snapshots are not loaded.
+ */
+public class FsImageLoader {
+  public static final Logger LOG = LoggerFactory.getLogger(FsImageLoader.class);
+
+  private static final long ROOT_ID = INodeId.ROOT_INODE_ID;
+  private static final int STRING_ID_MASK = (1 << 24) - 1;
+  private static final int XATTR_NAME_OFFSET = 6;
+
+  private final File image;
+  private final MetaStore metaStore;
+  private final Configuration conf;
+  private final int batchSize;
+  private FileSummary summary;
+  private String[] stringTable;
+
+  public FsImageLoader(File image, MetaStore metaStore, Configuration conf) {
+    this.image = image;
+    this.metaStore = metaStore;
+    this.conf = conf;
+    this.batchSize = Math.max(1, conf.getInt(SmartConfKeys.SMART_NAMESPACE_FETCHER_BATCH_KEY,
+        SmartConfKeys.SMART_NAMESPACE_FETCHER_BATCH_DEFAULT));
+  }
+
+  /**
+   * Get the txid of the last transaction included in the image, inotify
+   * events should be applied from it after loading.
+   */
+  public long getTransactionId() throws IOException {
+    InputStream in = openSection(SectionName.NS_INFO);
+    try {
+      return NameSystemSection.parseDelimitedFrom(in).getTransactionId();
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Replace all the files in metastore with the ones in the image.
+   * @return number of files and directories loaded
+   */
+  public long load() throws IOException, MetaStoreException {
+    long startTime = System.currentTimeMillis();
+    loadStringTable();
+    Map<Long, Long> parents = loadParents(loadReferences());
+    Map<Long, String> dirNames = loadDirNames(parents);
+
+    metaStore.resetNamespaceCheckpoints(null);
+    Map<Long, String> dirPaths = new HashMap<>();
+    dirPaths.put(ROOT_ID, "/");
+    List<FileInfo> batch = new ArrayList<>(batchSize);
+    long numLoaded = 0;
+    InputStream in = openSection(SectionName.INODE);
+    try {
+      long numInodes = INodeSection.parseDelimitedFrom(in).getNumInodes();
+      for (long i = 0; i < numInodes; i++) {
+        INodeSection.INode inode = INodeSection.INode.parseDelimitedFrom(in);
+        String path = inode.getId() == ROOT_ID ? "/" : null;
+        Long parent = parents.get(inode.getId());
+        if (parent != null) {
+          String parentPath = getDirPath(parent, parents, dirNames, dirPaths);
+          if (parentPath != null) {
+            String name = inode.getName().toStringUtf8();
+            path = parentPath.endsWith("/") ? parentPath + name : parentPath + "/" + name;
+          }
+        }
+        FileInfo fileInfo = path == null ? null : convertToFileInfo(inode, path);
+        if (fileInfo == null) {
+          continue;
+        }
+        batch.add(fileInfo);
+        if (batch.size() >= batchSize) {
+          numLoaded += insert(batch);
+        }
+      }
+      numLoaded += insert(batch);
+    } finally {
+      in.close();
+    }
+    long curr = System.currentTimeMillis();
+    LOG.info(String.format("Loaded %d files and directories from %s in %dms",
+        numLoaded, image, curr - startTime));
+    return numLoaded;
+  }
+
+  private int insert(List<FileInfo> batch) throws MetaStoreException {
+    int size = batch.size();
+    if (size > 0) {
+      metaStore.insertFiles(batch.toArray(new FileInfo[size]));
+      batch.clear();
+    }
+    return size;
+  }
+
+  private String getDirPath(long id, Map<Long, Long> parents,
+      Map<Long, String> dirNames, Map<Long, String> dirPaths) {
+    List<Long> ancestors = new ArrayList<>();
+    long curr = id;
+    String path;
+    while ((path = dirPaths.get(curr)) == null) {
+      Long parent = parents.get(curr);
+      if (parent == null || !dirNames.containsKey(curr)) {
+        return null;
+      }
+      ancestors.add(curr);
+      curr = parent;
+    }
+    for (int i = ancestors.size() - 1; i >= 0; i--) {
+      long dir = ancestors.get(i);
+      path = path.endsWith("/") ? path + dirNames.get(dir) : path + "/" + dirNames.get(dir);
+      dirPaths.put(dir, path);
+    }
+    return path;
+  }
+
+  private FileInfo convertToFileInfo(INodeSection.INode inode, String path) {
+    if (inode.getType() == INodeSection.INode.Type.FILE) {
+      INodeSection.INodeFile file = inode.getFile();
+      long length = 0;
+      for (HdfsProtos.BlockProto block : file.getBlocksList()) {
+        length += block.getNumBytes();
+      }
+      long permission = file.getPermission();
+      return new FileInfo(path, inode.getId(), length, false,
+          (short) file.getReplication(), file.getPreferredBlockSize(),
+          file.getModificationTime(), file.getAccessTime(), (short) permission,
+          getUser(permission), getGroup(permission), (byte) file.getStoragePolicyID());
+    } else if (inode.getType() == INodeSection.INode.Type.DIRECTORY) {
+      INodeSection.INodeDirectory dir = inode.getDirectory();
+      long permission = dir.getPermission();
+      return new FileInfo(path, inode.getId(), 0, true, (short) 0, 0,
+          dir.getModificationTime(), 0, (short) permission,
+          getUser(permission), getGroup(permission), getStoragePolicy(dir));
+    }
+    // Symlinks are not supported
+    return null;
+  }
+
+  private byte getStoragePolicy(INodeSection.INodeDirectory dir) {
+    for (INodeSection.XAttrCompactProto xattr : dir.getXAttrs().getXAttrsList()) {
+      // The name is packed as namespace(2 bits), name id(24 bits), reserved(6 bits)
+      String name = stringTable[(xattr.getName() >>> XATTR_NAME_OFFSET) & STRING_ID_MASK];
+      if (BlockStoragePolicySuite.STORAGE_POLICY_XATTR_NAME.equals(name)
+          && xattr.getValue().size() > 0) {
+        return xattr.getValue().byteAt(0);
+      }
+    }
+    return 0;
+  }
+
+  // The permission is packed as user id(24 bits), group id(24 bits), mode(16 bits)
+  private String getUser(long permission) {
+    return stringTable[(int) (permission >>> 40) & STRING_ID_MASK];
+  }
+
+  private String getGroup(long permission) {
+    return stringTable[(int) (permission >>> 16) & STRING_ID_MASK];
+  }
+
+  private void loadStringTable() throws IOException {
+    InputStream in = openSection(SectionName.STRING_TABLE);
+    try {
+      StringTableSection section = StringTableSection.parseDelimitedFrom(in);
+      List<StringTableSection.Entry> entries = new ArrayList<>();
+      int maxId = 0;
+      for (int i = 0; i < section.getNumEntry(); i++) {
+        StringTableSection.Entry entry = StringTableSection.Entry.parseDelimitedFrom(in);
+        entries.add(entry);
+        maxId = Math.max(maxId, entry.getId());
+      }
+      stringTable = new String[maxId + 1];
+      for (StringTableSection.Entry entry : entries) {
+        stringTable[entry.getId()] = entry.getStr();
+      }
+    } finally {
+      in.close();
+    }
+  }
+
+  // Inodes referred by the directories renamed after snapshots taken
+  private List<Long> loadReferences() throws IOException {
+    List<Long> referredIds = new ArrayList<>();
+    InputStream in = openSection(SectionName.INODE_REFERENCE);
+    if (in == null) {
+      return referredIds;
+    }
+    try {
+      INodeReferenceSection.INodeReference reference;
+      while ((reference = INodeReferenceSection.INodeReference.parseDelimitedFrom(in)) != null) {
+        referredIds.add(reference.getReferredId());
+      }
+    } finally {
+      in.close();
+    }
+    return referredIds;
+  }
+
+  private Map<Long, Long> loadParents(List<Long> referredIds) throws IOException {
+    Map<Long, Long> parents = new HashMap<>();
+    InputStream in = openSection(SectionName.INODE_DIR);
+    try {
+      INodeDirectorySection.DirEntry entry;
+      while ((entry = INodeDirectorySection.DirEntry.parseDelimitedFrom(in)) != null) {
+        for (long child : entry.getChildrenList()) {
+          parents.put(child, entry.getParent());
+        }
+        for (int ref : entry.getRefChildrenList()) {
+          parents.put(referredIds.get(ref), entry.getParent());
+        }
+      }
+    } finally {
+      in.close();
+    }
+    return parents;
+  }
+
+  private Map<Long, String> loadDirNames(Map<Long, Long> parents) throws IOException {
+    Map<Long, String> dirNames = new HashMap<>();
+    InputStream in = openSection(SectionName.INODE);
+    try {
+      long numInodes = INodeSection.parseDelimitedFrom(in).getNumInodes();
+      for (long i = 0; i < numInodes; i++) {
+        INodeSection.INode inode = INodeSection.INode.parseDelimitedFrom(in);
+        if (inode.getType() == INodeSection.INode.Type.DIRECTORY
+            && (inode.getId() == ROOT_ID || parents.containsKey(inode.getId()))) {
+          dirNames.put(inode.getId(), inode.getName().toStringUtf8());
+        }
+      }
+    } finally {
+      in.close();
+    }
+    return dirNames;
+  }
+
+  /**
+   * Open the section for streaming.
+   * @return null if the section is not in the image
+   */
+  private InputStream openSection(SectionName name) throws IOException {
+    if (summary == null) {
+      RandomAccessFile file = new RandomAccessFile(image, "r");
+      try {
+        if (!FSImageUtil.checkFileFormat(file)) {
+          throw new IOException("Unrecognized fsimage format: " + image);
+        }
+        summary = FSImageUtil.loadSummary(file);
+      } finally {
+        file.close();
+      }
+    }
+    for (FileSummary.Section section : summary.getSectionsList()) {
+      if (SectionName.fromString(section.getName()) != name) {
+        continue;
+      }
+      FileInputStream fin = new FileInputStream(image);
+      try {
+        fin.getChannel().position(section.getOffset());
+        return FSImageUtil.wrapInputStreamForCompression(conf, summary.getCodec(),
+            new BufferedInputStream(new LimitInputStream(fin, section.getLength())));
+      } catch (IOException e) {
+        fin.close();
+        throw e;
+      }
+    }
+    if (name == SectionName.INODE_REFERENCE) {
+      return null;
+    }
+    throw new IOException("Section " + name + " not found in " + image);
+  }
+}
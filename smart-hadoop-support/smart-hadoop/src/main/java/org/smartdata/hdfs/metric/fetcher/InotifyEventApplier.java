@@ -24,17 +24,34 @@
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.smartdata.hdfs.HadoopUtil;
+import org.smartdata.metastore.ContainerFileIndex;
 import org.smartdata.metastore.DBType;
+import org.smartdata.metastore.FileIdCache;
 import org.smartdata.metastore.MetaStore;
 import org.smartdata.metastore.MetaStoreException;
 import org.smartdata.model.BackUpInfo;
+import org.smartdata.model.FileEvent;
+import org.smartdata.model.FileEventManager;
+import org.smartdata.model.FileEventType;
 import org.smartdata.model.FileDiff;
 import org.smartdata.model.FileDiffType;
 import org.smartdata.model.FileInfo;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
@@ -46,18 +63,51 @@
 public class InotifyEventApplier {
   private final MetaStore metaStore;
   private DFSClient client;
+  private final int numPartitions;
+  private final ExecutorService executor;
+  private final AtomicLong appliedEvents = new AtomicLong(0);
+  private final AtomicLong coalescedEvents = new AtomicLong(0);
+  private final AtomicLong applyTime = new AtomicLong(0);
   private static final Logger LOG =
       LoggerFactory.getLogger(InotifyEventFetcher.class);
 
   public InotifyEventApplier(MetaStore metaStore, DFSClient client) {
+    this(metaStore, client, 1);
+  }
+
+  /**
+   * @param numThreads number of threads writing batched changes to metastore
+   */
+  public InotifyEventApplier(MetaStore metaStore, DFSClient client, int numThreads) {
     this.metaStore = metaStore;
     this.client = client;
+    this.numPartitions = Math.max(1, numThreads);
+    this.executor = numPartitions == 1 ? null
+        : Executors.newFixedThreadPool(numPartitions, new ThreadFactory() {
+          @Override
+          public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "InotifyEventApplier");
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
   }
 
 
+  /**
+   * Apply the events in order. Creates and updates of files are coalesced
+   * by path and written in batches, renames, deletes and changes to files
+   * under backup are applied one by one in between.
+   */
   public void apply(List<Event> events) throws IOException, MetaStoreException {
-    List<String> statements = new ArrayList<>();
+    long startTime = System.currentTimeMillis();
+    FileChangeBatch batch = new FileChangeBatch();
     for (Event event : events) {
+      if (batch.add(event)) {
+        continue;
+      }
+      flush(batch);
+      List<String> statements = new ArrayList<>();
       List<String> gen = getSqlStatement(event);
       if (gen != null && !gen.isEmpty()){
         for (String s : gen) {
@@ -66,8 +116,288 @@ public void apply(List<Event> events) throws IOException, MetaStoreException {
           }
         }
       }
+      this.metaStore.execute(statements);
+    }
+    flush(batch);
+    updateFileIdCache(events);
+    if (FileEventManager.hasListeners()) {
+      FileEventManager.onFileEvents(toFileEvents(events));
+    }
+
+    long elapsed = System.currentTimeMillis() - startTime;
+    appliedEvents.addAndGet(events.size());
+    applyTime.addAndGet(elapsed);
+    if (elapsed > 1000 || LOG.isDebugEnabled()) {
+      LOG.info("Applied {} events in {}ms, {} events applied and {} coalesced in total.",
+          events.size(), elapsed, appliedEvents.get(), coalescedEvents.get());
+    }
+  }
+
+  private void flush(FileChangeBatch batch) throws IOException, MetaStoreException {
+    if (batch.numEvents == 0) {
+      return;
+    }
+    coalescedEvents.addAndGet(batch.numEvents - batch.created.size() - batch.updates.size());
+    if (executor == null) {
+      flush(batch.created, batch.updates);
+      batch.clear();
+      return;
+    }
+
+    // Each path is changed at most once in a batch, so partitions are
+    // independent and only the barrier events need ordering.
+    List<Set<String>> created = new ArrayList<>(numPartitions);
+    List<Map<String, Map<String, Object>>> updates = new ArrayList<>(numPartitions);
+    for (int i = 0; i < numPartitions; i++) {
+      created.add(new LinkedHashSet<String>());
+      updates.add(new LinkedHashMap<String, Map<String, Object>>());
+    }
+    for (String path : batch.created) {
+      created.get(partitionOf(path)).add(path);
+    }
+    for (Map.Entry<String, Map<String, Object>> entry : batch.updates.entrySet()) {
+      updates.get(partitionOf(entry.getKey())).put(entry.getKey(), entry.getValue());
+    }
+    batch.clear();
+
+    List<Future<Void>> futures = new ArrayList<>(numPartitions);
+    for (int i = 0; i < numPartitions; i++) {
+      final Set<String> partCreated = created.get(i);
+      final Map<String, Map<String, Object>> partUpdates = updates.get(i);
+      if (partCreated.isEmpty() && partUpdates.isEmpty()) {
+        continue;
+      }
+      futures.add(executor.submit(new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+          flush(partCreated, partUpdates);
+          return null;
+        }
+      }));
+    }
+    MetaStoreException failure = null;
+    for (Future<Void> future : futures) {
+      try {
+        future.get();
+      } catch (ExecutionException e) {
+        failure = new MetaStoreException(e.getCause());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException(e);
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  private void flush(Set<String> created, Map<String, Map<String, Object>> updates)
+      throws IOException, MetaStoreException {
+    List<FileInfo> files = new ArrayList<>(created.size());
+    for (String path : created) {
+      HdfsFileStatus fileStatus = client.getFileInfo(path);
+      if (fileStatus == null) {
+        LOG.debug("Can not get HdfsFileStatus for file " + path);
+        continue;
+      }
+      files.add(HadoopUtil.convertFileStatus(fileStatus, path));
+    }
+    metaStore.applyFileChanges(files, updates);
+  }
+
+  // Files in the same directory are applied by the same thread
+  private int partitionOf(String path) {
+    int index = path.lastIndexOf('/');
+    String parent = index > 0 ? path.substring(0, index) : "/";
+    return (parent.hashCode() & Integer.MAX_VALUE) % numPartitions;
+  }
+
+  public void close() {
+    if (executor != null) {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Get the number of threads writing changes to metastore.
+   */
+  public int getNumThreads() {
+    return numPartitions;
+  }
+
+  /**
+   * Get the number of events applied.
+   */
+  public long getAppliedEvents() {
+    return appliedEvents.get();
+  }
+
+  /**
+   * Get the number of events merged into the changes of other events.
+   */
+  public long getCoalescedEvents() {
+    return coalescedEvents.get();
+  }
+
+  /**
+   * Get the time spent on applying events in milliseconds.
+   */
+  public long getApplyTime() {
+    return applyTime.get();
+  }
+
+  // Notified after applied, so listeners see the up-to-date file table
+  private List<FileEvent> toFileEvents(List<Event> events) {
+    List<FileEvent> fileEvents = new ArrayList<>(events.size());
+    for (Event event : events) {
+      switch (event.getEventType()) {
+        case CREATE:
+          fileEvents.add(new FileEvent(FileEventType.CREATE,
+              ((Event.CreateEvent) event).getPath()));
+          break;
+        case CLOSE:
+          fileEvents.add(new FileEvent(FileEventType.CLOSE,
+              ((Event.CloseEvent) event).getPath()));
+          break;
+        case APPEND:
+          fileEvents.add(new FileEvent(FileEventType.APPEND,
+              ((Event.AppendEvent) event).getPath()));
+          break;
+        case RENAME:
+          Event.RenameEvent renameEvent = (Event.RenameEvent) event;
+          fileEvents.add(new FileEvent(FileEventType.RENAME,
+              renameEvent.getSrcPath(), renameEvent.getDstPath()));
+          break;
+        case METADATA:
+          fileEvents.add(new FileEvent(FileEventType.METADATA,
+              ((Event.MetadataUpdateEvent) event).getPath()));
+          break;
+        case UNLINK:
+          fileEvents.add(new FileEvent(FileEventType.UNLINK,
+              ((Event.UnlinkEvent) event).getPath()));
+          break;
+        default:
+          break;
+      }
+    }
+    return fileEvents;
+  }
+
+  // Paths changed by the statements executed must not be resolved from cache,
+  // and the ranges of small files deleted become dead in their containers
+  private void updateFileIdCache(List<Event> events) {
+    FileIdCache cache = metaStore.getFileIdCache();
+    ContainerFileIndex index = metaStore.getContainerFileIndex();
+    for (Event event : events) {
+      switch (event.getEventType()) {
+        case RENAME:
+          Event.RenameEvent renameEvent = (Event.RenameEvent) event;
+          cache.rename(renameEvent.getSrcPath(), renameEvent.getDstPath());
+          index.rename(renameEvent.getSrcPath(), renameEvent.getDstPath());
+          break;
+        case UNLINK:
+          cache.remove(((Event.UnlinkEvent) event).getPath());
+          index.remove(((Event.UnlinkEvent) event).getPath());
+          break;
+        default:
+          break;
+      }
+    }
+  }
+
+  /**
+   * File creations and column updates pending to be written, coalesced by
+   * path. A file created in the batch is read from NameNode when flushed,
+   * which already reflects the later changes to it in the batch.
+   */
+  private class FileChangeBatch {
+    private final Set<String> created = new LinkedHashSet<>();
+    private final Map<String, Map<String, Object>> updates = new LinkedHashMap<>();
+    private int numEvents = 0;
+
+    /**
+     * Add the event into batch.
+     * @return false if the event can not be batched
+     */
+    boolean add(Event event) throws MetaStoreException {
+      switch (event.getEventType()) {
+        case CREATE:
+          String path = ((Event.CreateEvent) event).getPath();
+          if (inBackup(path)) {
+            return false;
+          }
+          updates.remove(path);
+          created.add(path);
+          break;
+        case CLOSE:
+          Event.CloseEvent closeEvent = (Event.CloseEvent) event;
+          if (inBackup(closeEvent.getPath())) {
+            return false;
+          }
+          update(closeEvent.getPath(), "length", closeEvent.getFileSize());
+          update(closeEvent.getPath(), "modification_time", closeEvent.getTimestamp());
+          break;
+        case METADATA:
+          Event.MetadataUpdateEvent metaEvent = (Event.MetadataUpdateEvent) event;
+          if (inBackup(metaEvent.getPath())) {
+            return false;
+          }
+          addMetadataUpdate(metaEvent);
+          break;
+        case RENAME:
+        case UNLINK:
+          return false;
+        default:
+          // Nothing to apply, e.g. append
+          break;
+      }
+      numEvents++;
+      return true;
+    }
+
+    private void addMetadataUpdate(Event.MetadataUpdateEvent event) {
+      String path = event.getPath();
+      switch (event.getMetadataType()) {
+        case TIMES:
+          if (event.getMtime() > 0) {
+            update(path, "modification_time", event.getMtime());
+          }
+          if (event.getAtime() > 0) {
+            update(path, "access_time", event.getAtime());
+          }
+          break;
+        case OWNER:
+          update(path, "owner", event.getOwnerName());
+          update(path, "owner_group", event.getGroupName());
+          break;
+        case PERMS:
+          update(path, "permission", event.getPerms().toShort());
+          break;
+        case REPLICATION:
+          update(path, "block_replication", event.getReplication());
+          break;
+        default:
+          break;
+      }
+    }
+
+    private void update(String path, String column, Object value) {
+      if (created.contains(path)) {
+        return;
+      }
+      Map<String, Object> columns = updates.get(path);
+      if (columns == null) {
+        columns = new HashMap<>();
+        updates.put(path, columns);
+      }
+      columns.put(column, value);
+    }
+
+    void clear() {
+      created.clear();
+      updates.clear();
+      numEvents = 0;
     }
-    this.metaStore.execute(statements);
   }
 
   //check if the dir is in ignoreList
@@ -246,6 +576,11 @@ private List<String> getRenameSql(Event.RenameEvent renameEvent)
           + "WHERE path = '%s';", src, dest, src));
       ret.add(String.format("UPDATE small_file SET path = replace(path, '%s', '%s') "
           + "WHERE path = '%s';", src, dest, src));
+      // Cache directives are kept on the path, the renamed files are no longer cached
+      ret.add(String.format("DELETE FROM cached_file WHERE path = '%s';", src));
+      if (info.isdir()) {
+        ret.add(String.format("DELETE FROM cached_file WHERE path LIKE '%s/%%';", src));
+      }
       if (info.isdir()) {
         if (metaStore.getDbType() == DBType.MYSQL) {
           ret.add(String.format("UPDATE file SET path = CONCAT('%s', SUBSTR(path, %d)) "
@@ -364,7 +699,9 @@ private List<String> getUnlinkSql(Event.UnlinkEvent unlinkEvent) throws MetaStor
       return Arrays.asList(
           String.format("DELETE FROM file WHERE path like '%s%%'", root),
           String.format("DELETE FROM file_state WHERE path like '%s%%'", root),
-          String.format("DELETE FROM small_file WHERE path like '%s%%'", root));
+          String.format("DELETE FROM small_file WHERE path like '%s%%'", root),
+          String.format("DELETE FROM container_file WHERE path like '%s%%'", root),
+          String.format("DELETE FROM cached_file WHERE path like '%s%%'", root));
     }
     String path = unlinkEvent.getPath();
     // file has no "/" appended in the metaStore
@@ -380,14 +717,21 @@ private List<String> getUnlinkSql(Event.UnlinkEvent unlinkEvent) throws MetaStor
           String.format("DELETE FROM file_state WHERE path LIKE '%s/%%';", unlinkEvent.getPath()),
           String.format("DELETE FROM file_state WHERE path = '%s';", unlinkEvent.getPath()),
           String.format("DELETE FROM small_file WHERE path LIKE '%s/%%';", unlinkEvent.getPath()),
-          String.format("DELETE FROM small_file WHERE path = '%s';", unlinkEvent.getPath()));
+          String.format("DELETE FROM small_file WHERE path = '%s';", unlinkEvent.getPath()),
+          String.format("DELETE FROM container_file WHERE path LIKE '%s/%%';",
+              unlinkEvent.getPath()),
+          String.format("DELETE FROM container_file WHERE path = '%s';", unlinkEvent.getPath()),
+          String.format("DELETE FROM cached_file WHERE path LIKE '%s/%%';", unlinkEvent.getPath()),
+          String.format("DELETE FROM cached_file WHERE path = '%s';", unlinkEvent.getPath()));
     } else {
       insertDeleteDiff(unlinkEvent.getPath(), false);
       // delete file in file table
       return Arrays.asList(
           String.format("DELETE FROM file WHERE path = '%s';", unlinkEvent.getPath()),
           String.format("DELETE FROM file_state WHERE path = '%s';", unlinkEvent.getPath()),
-          String.format("DELETE FROM small_file WHERE path = '%s';", unlinkEvent.getPath()));
+          String.format("DELETE FROM small_file WHERE path = '%s';", unlinkEvent.getPath()),
+          String.format("DELETE FROM container_file WHERE path = '%s';", unlinkEvent.getPath()),
+          String.format("DELETE FROM cached_file WHERE path = '%s';", unlinkEvent.getPath()));
     }
   }
 
@@ -34,7 +34,7 @@
 import org.smartdata.SmartConstants;
 import org.smartdata.conf.SmartConf;
 import org.smartdata.conf.SmartConfKeys;
-
+import org.smartdata.metastore.DBType;
 import org.smartdata.metastore.MetaStore;
 import org.smartdata.metastore.MetaStoreException;
 import org.smartdata.model.SystemInfo;
@@ -69,12 +69,24 @@ public class InotifyEventFetcher {
 
   public InotifyEventFetcher(DFSClient client, MetaStore metaStore,
       ScheduledExecutorService service, Callable callBack) {
-    this(client, metaStore, service, new InotifyEventApplier(metaStore, client), callBack, new SmartConf());
+    this(client, metaStore, service, callBack, new SmartConf());
   }
 
   public InotifyEventFetcher(DFSClient client, MetaStore metaStore,
       ScheduledExecutorService service, Callable callBack, SmartConf conf) {
-    this(client, metaStore, service, new InotifyEventApplier(metaStore, client), callBack, conf);
+    this(client, metaStore, service, createApplier(client, metaStore, conf), callBack, conf);
+  }
+
+  @VisibleForTesting
+  static InotifyEventApplier createApplier(
+      DFSClient client, MetaStore metaStore, SmartConf conf) {
+    int numThreads = conf.getInt(SmartConfKeys.SMART_INOTIFY_APPLY_THREADS_KEY,
+        SmartConfKeys.SMART_INOTIFY_APPLY_THREADS_DEFAULT);
+    // SQLite does not support concurrent writers
+    if (metaStore.getDbType() == DBType.SQLITE) {
+      numThreads = 1;
+    }
+    return new InotifyEventApplier(metaStore, client, numThreads);
   }
   
 
@@ -110,7 +122,7 @@ public void start() throws IOException {
       Long lastTxid = getLastTxid();
       if (lastTxid != null && lastTxid != -1 && canContinueFromLastTxid(client, lastTxid)) {
         startFromLastTxid(lastTxid);
-      } else {
+      } else if (!startWithLoadingFsImage()) {
         startWithFetchingNameSpace();
       }
     } else {
@@ -145,13 +157,39 @@ private Long getLastTxid() {
     }
   }
 
+  // Edit log txid when the interrupted namespace fetch started
+  private Long getNamespaceFetchTxid() {
+    try {
+      SystemInfo info = metaStore.getSystemInfoByProperty(
+          SmartConstants.SMART_HADOOP_NAMESPACE_FETCH_TXID);
+      return info != null ? Long.parseLong(info.getValue()) : null;
+    } catch (MetaStoreException e) {
+      return null;
+    }
+  }
+
   private void startWithFetchingNameSpace() throws IOException {
     ListeningExecutorService listeningExecutorService = MoreExecutors.listeningDecorator(scheduledExecutorService);
     inotifyFile = new File("/tmp/inotify" + new Random().nextLong());
     queueFile = new QueueFile(inotifyFile);
-    long startId = client.getNamenode().getCurrentEditLogTxid();
-    LOG.info("Start fetching namespace with current edit log txid = " + startId);
-    nameSpaceFetcher.startFetch();
+    long startId;
+    Long fetchTxid = getNamespaceFetchTxid();
+    if (fetchTxid != null && nameSpaceFetcher.hasCheckpoint()
+        && canContinueFromLastTxid(client, fetchTxid)) {
+      startId = fetchTxid;
+      LOG.info("Resume fetching namespace started with edit log txid = " + startId);
+      nameSpaceFetcher.startFetch(true);
+    } else {
+      startId = client.getNamenode().getCurrentEditLogTxid();
+      LOG.info("Start fetching namespace with current edit log txid = " + startId);
+      nameSpaceFetcher.startFetch(false);
+      try {
+        metaStore.updateAndInsertIfNotExist(new SystemInfo(
+            SmartConstants.SMART_HADOOP_NAMESPACE_FETCH_TXID, String.valueOf(startId)));
+      } catch (MetaStoreException e) {
+        LOG.warn("Failed to save namespace fetch txid, it can not be resumed", e);
+      }
+    }
     inotifyFetchFuture = scheduledExecutorService.scheduleAtFixedRate(
       new InotifyFetchTask(queueFile, client, startId), 0, 100, TimeUnit.MILLISECONDS);
     eventApplyTask = new EventApplyTask(nameSpaceFetcher, applier, queueFile, startId, conf);
@@ -160,6 +198,35 @@ private void startWithFetchingNameSpace() throws IOException {
     LOG.info("Start apply iNotify events.");
   }
 
+  /**
+   * Load namespace from the configured fsimage and apply inotify events
+   * from the txid of the image.
+   * @return false if no fsimage configured or the events are unavailable
+   */
+  private boolean startWithLoadingFsImage() throws IOException {
+    String imagePath = conf.getTrimmed(SmartConfKeys.SMART_NAMESPACE_FETCHER_FSIMAGE_KEY, "");
+    if (imagePath.isEmpty()) {
+      return false;
+    }
+    FsImageLoader loader = new FsImageLoader(new File(imagePath), metaStore, conf);
+    long txid = loader.getTransactionId();
+    if (!canContinueFromLastTxid(client, txid)) {
+      LOG.warn("Inotify events after txid " + txid + " of fsimage " + imagePath
+          + " are unavailable, fetch namespace instead.");
+      return false;
+    }
+    LOG.info("Load namespace from fsimage " + imagePath + " with txid = " + txid);
+    try {
+      loader.load();
+      metaStore.updateAndInsertIfNotExist(new SystemInfo(
+          SmartConstants.SMART_HADOOP_LAST_INOTIFY_TXID, String.valueOf(txid)));
+    } catch (MetaStoreException e) {
+      throw new IOException("Failed to load fsimage " + imagePath, e);
+    }
+    startFromLastTxid(txid);
+    return true;
+  }
+
   private void startFromLastTxid(long lastId) throws IOException {
     LOG.info("Skipped fetching Name Space, start applying inotify events from " + lastId);
     submitFetchAndApplyTask(lastId);
@@ -197,10 +264,31 @@ public void onSuccess(Object o) {
 
     @Override
     public void onFailure(Throwable throwable) {
+      inotifyFetchFuture.cancel(false);
+      nameSpaceFetcher.stop();
       LOG.error("NameSpaceFetcher failed", throwable);
     }
   }
 
+  public InotifyEventApplier getApplier() {
+    return applier;
+  }
+
+  /**
+   * Get the number of event batches fetched but not applied yet, i.e. the
+   * lag of the metastore behind NameNode.
+   */
+  public int getPendingEventBatches() {
+    return queueFile == null ? 0 : queueFile.size();
+  }
+
+  /**
+   * Get the txid of the last event batch applied.
+   */
+  public long getLastAppliedTxid() {
+    return eventApplyTask == null ? -1 : eventApplyTask.getLastId();
+  }
+
   public void stop() {
     if (inotifyFile != null) {
       inotifyFile.delete();
@@ -211,6 +299,7 @@ public void stop() {
     if (fetchAndApplyFuture != null){
       fetchAndApplyFuture.cancel(false);
     }
+    applier.close();
   }
 
   private static class InotifyFetchTask implements Runnable {
@@ -240,7 +329,7 @@ private static class EventApplyTask implements Runnable {
     private final NamespaceFetcher namespaceFetcher;
     private final InotifyEventApplier applier;
     private final QueueFile queueFile;
-    private long lastId;
+    private volatile long lastId;
     private SmartConf conf;
     private List<String> ignoreList;
 
@@ -332,17 +421,31 @@ public Event[] deleteIgnoreEvent(Event[] events) {
     public void run() {
       try {
         while (!Thread.currentThread().isInterrupted()) {
-          if (!namespaceFetcher.fetchFinished()) {
+          if (namespaceFetcher.fetchFailed()) {
+            throw new IllegalStateException("Failed to fetch namespace, "
+                + "it is resumed from the checkpoints after restart");
+          } else if (!namespaceFetcher.fetchFinished()) {
             Thread.sleep(100);
           } else {
+            int maxEvents = conf.getInt(SmartConfKeys.SMART_INOTIFY_APPLY_BATCH_KEY,
+                SmartConfKeys.SMART_INOTIFY_APPLY_BATCH_DEFAULT);
+            List<Event> events = new ArrayList<>();
             while (!queueFile.isEmpty()) {
-              EventBatch batch = EventBatchSerializer.deserialize(queueFile.peek());
-              queueFile.remove();
-              Event[] event = batch.getEvents();
-              event = deleteIgnoreEvent(event);
-              if (event.length > 0) {
-                this.applier.apply(event);
-                this.lastId = batch.getTxid();
+              // Apply events of several batches together to be coalesced
+              long txid = lastId;
+              while (!queueFile.isEmpty() && events.size() < maxEvents) {
+                EventBatch batch = EventBatchSerializer.deserialize(queueFile.peek());
+                queueFile.remove();
+                Event[] event = deleteIgnoreEvent(batch.getEvents());
+                if (event.length > 0) {
+                  events.addAll(Arrays.asList(event));
+                  txid = batch.getTxid();
+                }
+              }
+              if (!events.isEmpty()) {
+                this.applier.apply(events);
+                this.lastId = txid;
+                events.clear();
               }
             }
             break;
@@ -41,39 +41,76 @@
 import org.smartdata.model.action.FileMovePlan;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * A processor to do Mover action.
+ * A processor to do Mover action. Plans of different files can be made
+ * concurrently, they share the view of storages and the reservations.
  */
 public class MovePlanMaker {
   static final Logger LOG = LoggerFactory.getLogger(MovePlanMaker.class);
 
   private final DFSClient dfs;
-  private NetworkTopology networkTopology;
-  private StorageMap storages;
+  private volatile ClusterView clusterView;
   private final AtomicInteger retryCount;
 
   private final Map<String, BlockStoragePolicy> mapStoragePolicies;
   private final MovePlanStatistics statistics;
-  private FileMovePlan schedulePlan;
+  private final TargetReservations reservations;
+  private final AtomicLong tempPlanId;
+  private final ExecutorService planExecutor;
+
+  // Reservations of the plans whose actions never end are dropped
+  private static final long RESERVATION_EXPIRE_MS = 60 * 60 * 1000L;
+  // List the parent directory rather than the files one by one if at
+  // least the ratio of its children are planned
+  private static final int LIST_PARENT_RATIO = 4;
 
   public MovePlanMaker(DFSClient dfsClient, StorageMap storages,
       NetworkTopology cluster, MovePlanStatistics statistics) throws IOException {
+    this(dfsClient, storages, cluster, statistics, 1);
+  }
+
+  /**
+   * @param planThreads number of threads making plans of a batch of files
+   */
+  public MovePlanMaker(DFSClient dfsClient, StorageMap storages,
+      NetworkTopology cluster, MovePlanStatistics statistics, int planThreads)
+      throws IOException {
     this.dfs = dfsClient;
-    this.storages = storages;
-    this.networkTopology = cluster;
+    this.clusterView = new ClusterView(storages, cluster);
     this.retryCount = new AtomicInteger(1);
     this.mapStoragePolicies = new HashMap<>();
     initStoragePolicies();
     this.statistics = statistics;
+    this.reservations = new TargetReservations();
+    this.tempPlanId = new AtomicLong(-1L);
+    this.planExecutor = planThreads <= 1 ? null
+        : Executors.newFixedThreadPool(planThreads, new ThreadFactory() {
+          @Override
+          public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "MovePlanMaker");
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
   }
 
   private void initStoragePolicies() throws IOException {
@@ -84,7 +121,7 @@ private void initStoragePolicies() throws IOException {
     }
   }
 
-  private DBlock newDBlock(LocatedBlock lb, List<MLocation> locations) {
+  private DBlock newDBlock(LocatedBlock lb, List<MLocation> locations, StorageMap storages) {
     Block blk = lb.getBlock().getLocalBlock();
     DBlock db = new DBlock(blk);
     for(MLocation ml : locations) {
@@ -96,31 +133,179 @@ private DBlock newDBlock(LocatedBlock lb, List<MLocation> locations) {
     return db;
   }
 
-  public synchronized void updateClusterInfo(StorageMap storages, NetworkTopology cluster) {
-    this.storages = storages;
-    this.networkTopology = cluster;
+  public void updateClusterInfo(StorageMap storages, NetworkTopology cluster) {
+    this.clusterView = new ClusterView(storages, cluster);
+    reservations.expire(System.currentTimeMillis() - RESERVATION_EXPIRE_MS);
+  }
+
+  public TargetReservations getReservations() {
+    return reservations;
+  }
+
+  /**
+   * Get an id for a plan not bound to an action, never the same as an
+   * action id.
+   */
+  public long newTempPlanId() {
+    return tempPlanId.getAndDecrement();
+  }
+
+  /**
+   * Make a move plan without keeping the space reserved on its targets.
+   */
+  public FileMovePlan processNamespace(Path targetPath, String destPolicy)
+      throws IOException {
+    long id = newTempPlanId();
+    try {
+      return processNamespace(targetPath, destPolicy, id);
+    } finally {
+      reservations.release(id);
+    }
   }
 
   /**
-   * @return whether there is still remaining migration work for the next
-   * round
+   * Make a move plan, the space of the replicas moved is reserved on the
+   * targets until {@link #releasePlan(long)} is called with the plan id.
    */
-  public synchronized FileMovePlan processNamespace(Path targetPath, String destPolicy) throws IOException {
-    schedulePlan = new FileMovePlan();
+  public FileMovePlan processNamespace(Path targetPath, String destPolicy,
+      long planId) throws IOException {
     String filePath = targetPath.toUri().getPath();
-    schedulePlan.setFileName(filePath);
+    return makePlan(filePath, getLocatedFileStatus(filePath), destPolicy, planId);
+  }
+
+  /**
+   * Make the move plans of many files. The located statuses of the files
+   * are fetched in parallel, by listing their parent directory when many
+   * files of a directory are requested, and the plans are made
+   * concurrently.
+   *
+   * @return the plans in the order of requests, null for a file failed
+   */
+  public List<FileMovePlan> processNamespace(List<PlanRequest> requests) {
+    final FileMovePlan[] plans = new FileMovePlan[requests.size()];
+    Map<String, List<Integer>> byParent = new HashMap<>();
+    for (int i = 0; i < requests.size(); i++) {
+      Path parentPath = new Path(requests.get(i).getFile()).getParent();
+      String parent = parentPath == null ? "/" : parentPath.toUri().getPath();
+      List<Integer> indexes = byParent.get(parent);
+      if (indexes == null) {
+        indexes = new ArrayList<>();
+        byParent.put(parent, indexes);
+      }
+      indexes.add(i);
+    }
+
+    List<Callable<Void>> tasks = new ArrayList<>(byParent.size());
+    for (final Map.Entry<String, List<Integer>> entry : byParent.entrySet()) {
+      final List<PlanRequest> group = new ArrayList<>(entry.getValue().size());
+      for (int index : entry.getValue()) {
+        group.add(requests.get(index));
+      }
+      tasks.add(new Callable<Void>() {
+        @Override
+        public Void call() {
+          List<FileMovePlan> groupPlans = makePlans(entry.getKey(), group);
+          for (int i = 0; i < groupPlans.size(); i++) {
+            plans[entry.getValue().get(i)] = groupPlans.get(i);
+          }
+          return null;
+        }
+      });
+    }
+    runAll(tasks);
+    return Arrays.asList(plans);
+  }
+
+  private void runAll(List<Callable<Void>> tasks) {
+    if (planExecutor == null) {
+      for (Callable<Void> task : tasks) {
+        try {
+          task.call();
+        } catch (Exception e) {
+          LOG.error("Failed to make move plans", e);
+        }
+      }
+      return;
+    }
+    try {
+      for (Future<Void> future : planExecutor.invokeAll(tasks)) {
+        try {
+          future.get();
+        } catch (ExecutionException e) {
+          LOG.error("Failed to make move plans", e.getCause());
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  // Make the plans of the files under the same parent directory
+  private List<FileMovePlan> makePlans(String parent, List<PlanRequest> group) {
+    Map<String, HdfsFileStatus> listed = null;
+    if (group.size() > 1) {
+      try {
+        HdfsFileStatus parentStatus = dfs.getFileInfo(parent);
+        if (parentStatus != null && parentStatus.isDir()
+            && parentStatus.getChildrenNum() <= group.size() * LIST_PARENT_RATIO) {
+          listed = listLocatedChildren(parent);
+        }
+      } catch (IOException e) {
+        LOG.warn("Failed to list " + parent + ", get files one by one", e);
+      }
+    }
+
+    List<FileMovePlan> ret = new ArrayList<>(group.size());
+    for (PlanRequest request : group) {
+      String file = request.getFile();
+      FileMovePlan plan = null;
+      try {
+        HdfsFileStatus status = listed != null
+            ? listed.get(new Path(file).getName()) : getLocatedFileStatus(file);
+        if (status == null) {
+          throw new IOException("File '" + file + "' not found!");
+        }
+        plan = makePlan(file, status, request.getDestPolicy(), request.getPlanId());
+      } catch (Throwable t) {
+        LOG.warn("Failed to make move plan of " + file, t);
+      }
+      ret.add(plan);
+    }
+    return ret;
+  }
 
+  private Map<String, HdfsFileStatus> listLocatedChildren(String dir) throws IOException {
+    Map<String, HdfsFileStatus> ret = new HashMap<>();
+    byte[] startAfter = HdfsFileStatus.EMPTY_NAME;
+    DirectoryListing listing;
+    do {
+      listing = dfs.listPaths(dir, startAfter, true);
+      if (listing == null) {
+        break;
+      }
+      for (HdfsFileStatus status : listing.getPartialListing()) {
+        ret.put(status.getLocalName(), status);
+      }
+      startAfter = listing.getLastName();
+    } while (listing.hasMore());
+    return ret;
+  }
+
+  /**
+   * Get the status of the file with the locations of its blocks, or the
+   * status of a directory without locations.
+   */
+  private HdfsFileStatus getLocatedFileStatus(String filePath) throws IOException {
     HdfsFileStatus status = dfs.getFileInfo(filePath);
     if (status == null) {
       throw new IOException("File '" + filePath + "' not found!");
     }
     if (status.isDir()) {
-      schedulePlan.setDir(true);
-      return schedulePlan;
+      return status;
     }
 
     DirectoryListing files = dfs.listPaths(filePath, HdfsFileStatus.EMPTY_NAME, true);
-    HdfsFileStatus[] statuses = files.getPartialListing();
+    HdfsFileStatus[] statuses = files == null ? null : files.getPartialListing();
     if (statuses == null || statuses.length == 0) {
       throw new IOException("File '" + filePath + "' not found!");
     }
@@ -131,16 +316,52 @@ public synchronized FileMovePlan processNamespace(Path targetPath, String destPo
     if (status.isDir()) {
       throw new IOException("Unexpected '" + filePath + "' directory located status error.");
     }
-    schedulePlan.setDir(false);
-    schedulePlan.setFileLength(status.getLen());
-    processFile(targetPath.toUri().getPath(), (HdfsLocatedFileStatus) status, destPolicy);
-    return schedulePlan;
+    return status;
+  }
+
+  /**
+   * Release the space reserved by the plan, called when its action finished.
+   */
+  public void releasePlan(long planId) {
+    reservations.release(planId);
+  }
+
+  public void close() {
+    if (planExecutor != null) {
+      planExecutor.shutdownNow();
+    }
+  }
+
+  private FileMovePlan makePlan(String filePath, HdfsFileStatus status, String destPolicy,
+      long planId) throws IOException {
+    PlanContext ctx = new PlanContext(clusterView, planId);
+    ctx.plan.setFileName(filePath);
+    if (status.isDir()) {
+      ctx.plan.setDir(true);
+      return ctx.plan;
+    }
+    if (!(status instanceof HdfsLocatedFileStatus)) {
+      throw new IOException("No block locations of '" + filePath + "'.");
+    }
+    try {
+      ctx.plan.setDir(false);
+      ctx.plan.setFileLength(status.getLen());
+      processFile(filePath, (HdfsLocatedFileStatus) status, destPolicy, ctx);
+      if (!ctx.plannedTypes.isEmpty()) {
+        statistics.setTargetUtilizationSpread(getUtilizationSpread(ctx));
+      }
+      return ctx.plan;
+    } catch (RuntimeException e) {
+      reservations.release(planId);
+      throw e;
+    }
   }
 
   /**
    * @return true if it is necessary to run another round of migration
    */
-  private void processFile(String fullPath, HdfsLocatedFileStatus status, String destPolicy) {
+  private void processFile(String fullPath, HdfsLocatedFileStatus status, String destPolicy,
+      PlanContext ctx) {
     final BlockStoragePolicy policy = mapStoragePolicies.get(destPolicy);
     if (policy == null) {
       LOG.warn("Failed to get the storage policy of file " + fullPath);
@@ -162,30 +383,30 @@ private void processFile(String fullPath, HdfsLocatedFileStatus status, String d
           new StorageTypeDiff(types, CompatibilityHelperLoader.getHelper().getStorageTypes(lb));
       int remainingReplications = diff.removeOverlap(true);
       long toMove = lb.getBlockSize() * remainingReplications;
-      schedulePlan.addSizeToMove(toMove);
-      schedulePlan.incBlocksToMove();
-      schedulePlan.addFileLengthToMove(lb.getBlockSize());
+      ctx.plan.addSizeToMove(toMove);
+      ctx.plan.incBlocksToMove();
+      ctx.plan.addFileLengthToMove(lb.getBlockSize());
       statistics.increaseTotalSize(toMove);
       statistics.increaseTotalBlocks(remainingReplications);
       if (remainingReplications != 0) {
-        scheduleMoveBlock(diff, lb);
+        scheduleMoveBlock(diff, lb, ctx);
       }
     }
   }
 
-  boolean scheduleMoveBlock(StorageTypeDiff diff, LocatedBlock lb) {
+  boolean scheduleMoveBlock(StorageTypeDiff diff, LocatedBlock lb, PlanContext ctx) {
     final List<MLocation> locations = MLocation.toLocations(lb);
     Collections.shuffle(locations);
-    final DBlock db = newDBlock(lb, locations);
+    final DBlock db = newDBlock(lb, locations, ctx.storages);
     boolean needMove = false;
 
     for (int i = 0; i < diff.existing.size(); i++) {
       String t = diff.existing.get(i);
       MLocation ml = locations.get(i);
-      final Source source = storages.getSource(ml);
+      final Source source = ctx.storages.getSource(ml);
       if (ml.getStorageType().equals(t) && source != null) {
         // try to schedule one replica move.
-        if (scheduleMoveReplica(db, source, Arrays.asList(diff.expected.get(i)))) {
+        if (scheduleMoveReplica(db, source, Arrays.asList(diff.expected.get(i)), ctx)) {
           needMove = true;
         }
       }
@@ -194,53 +415,83 @@ boolean scheduleMoveBlock(StorageTypeDiff diff, LocatedBlock lb) {
   }
 
   boolean scheduleMoveReplica(DBlock db, Source source,
-                              List<String> targetTypes) {
+                              List<String> targetTypes, PlanContext ctx) {
     // Match storage on the same node
-    if (chooseTargetInSameNode(db, source, targetTypes)) {
+    if (chooseTargetInSameNode(db, source, targetTypes, ctx)) {
       return true;
     }
 
-    if (networkTopology.isNodeGroupAware()) {
-      if (chooseTarget(db, source, targetTypes, Matcher.SAME_NODE_GROUP)) {
+    if (ctx.networkTopology.isNodeGroupAware()) {
+      if (chooseTarget(db, source, targetTypes, Matcher.SAME_NODE_GROUP, ctx)) {
         return true;
       }
     }
 
     // Then, match nodes on the same rack
-    if (chooseTarget(db, source, targetTypes, Matcher.SAME_RACK)) {
+    if (chooseTarget(db, source, targetTypes, Matcher.SAME_RACK, ctx)) {
       return true;
     }
     // At last, match all remaining nodes
-    return chooseTarget(db, source, targetTypes, Matcher.ANY_OTHER);
+    return chooseTarget(db, source, targetTypes, Matcher.ANY_OTHER, ctx);
   }
 
   /**
    * Choose the target storage within same Datanode if possible.
    */
   boolean chooseTargetInSameNode(DBlock db, Source source,
-                                 List<String> targetTypes) {
+                                 List<String> targetTypes, PlanContext ctx) {
     for (String t : targetTypes) {
-      StorageGroup target = storages.getTarget(source.getDatanodeInfo()
+      StorageGroup target = ctx.storages.getTarget(source.getDatanodeInfo()
               .getDatanodeUuid(), t);
       if (target == null) {
         continue;
       }
-      addPlan(source, target, db.getBlock().getBlockId());
+      // Checked and reserved at once for the plans made concurrently
+      synchronized (reservations) {
+        if (!hasSpace(target, db.getBlock().getNumBytes())) {
+          continue;
+        }
+        addPlan(source, target, db.getBlock(), ctx);
+      }
       return true;
     }
     return false;
   }
 
+  /**
+   * Choose the least utilized target matched, counting the space reserved
+   * by the plans made before.
+   */
   boolean chooseTarget(DBlock db, Source source,
-                       List<String> targetTypes, Matcher matcher) {
-    final NetworkTopology cluster = this.networkTopology;
+                       List<String> targetTypes, Matcher matcher, PlanContext ctx) {
+    final NetworkTopology cluster = ctx.networkTopology;
+    final long blockSize = db.getBlock().getNumBytes();
     for (String t : targetTypes) {
-      final List<StorageGroup> targets = storages.getTargetStorages(t);
+      final List<StorageGroup> targets = new ArrayList<>();
+      for (StorageGroup target : ctx.storages.getTargetStorages(t)) {
+        if (matcher.match(cluster, source.getDatanodeInfo(), target.getDatanodeInfo())) {
+          targets.add(target);
+        }
+      }
+      // Break ties randomly
       Collections.shuffle(targets);
-      for (StorageGroup target : targets) {
-        if (matcher.match(cluster, source.getDatanodeInfo(),
-                target.getDatanodeInfo())) {
-          addPlan(source, target, db.getBlock().getBlockId());
+      synchronized (reservations) {
+        StorageGroup best = null;
+        double bestUtilization = 0;
+        for (StorageGroup target : targets) {
+          if (!hasSpace(target, blockSize)) {
+            continue;
+          }
+          double utilization = getUtilization(target);
+          if (best == null || utilization < bestUtilization
+              || (utilization == bestUtilization
+                  && reservations.getPendingMoves(target) < reservations.getPendingMoves(best))) {
+            best = target;
+            bestUtilization = utilization;
+          }
+        }
+        if (best != null) {
+          addPlan(source, best, db.getBlock(), ctx);
           return true;
         }
       }
@@ -248,11 +499,98 @@ boolean chooseTarget(DBlock db, Source source,
     return false;
   }
 
-  private void addPlan(StorageGroup source, StorageGroup target, long blockId) {
+  private boolean hasSpace(StorageGroup target, long bytes) {
+    return target.getMaxRemaining() >= bytes
+        && target.getRemaining() - reservations.getReservedBytes(target) >= bytes;
+  }
+
+  private double getUtilization(StorageGroup target) {
+    if (target.getCapacity() <= 0) {
+      return 1.0;
+    }
+    long used = target.getCapacity() - target.getRemaining()
+        + reservations.getReservedBytes(target);
+    return used * 1.0 / target.getCapacity();
+  }
+
+  // Difference between the most and the least utilized targets of the types
+  private double getUtilizationSpread(PlanContext ctx) {
+    double min = Double.MAX_VALUE;
+    double max = 0;
+    for (String t : ctx.plannedTypes) {
+      for (StorageGroup target : ctx.storages.getTargetStorages(t)) {
+        double utilization = getUtilization(target);
+        min = Math.min(min, utilization);
+        max = Math.max(max, utilization);
+      }
+    }
+    return max >= min ? max - min : 0;
+  }
+
+  private void addPlan(StorageGroup source, StorageGroup target, Block block,
+      PlanContext ctx) {
     DatanodeInfo sourceDatanode = source.getDatanodeInfo();
     DatanodeInfo targetDatanode = target.getDatanodeInfo();
-    schedulePlan.addPlan(blockId, sourceDatanode.getDatanodeUuid(), source.getStorageType(),
-        targetDatanode.getIpAddr(), targetDatanode.getXferPort(), target.getStorageType());
+    ctx.plan.addPlan(block.getBlockId(), sourceDatanode.getDatanodeUuid(),
+        source.getStorageType(), targetDatanode.getIpAddr(), targetDatanode.getXferPort(),
+        target.getStorageType());
+    reservations.reserve(ctx.planId, target, block.getNumBytes());
+    ctx.plannedTypes.add(target.getStorageType());
+  }
+
+  /**
+   * A file to make move plan for.
+   */
+  public static class PlanRequest {
+    private final String file;
+    private final String destPolicy;
+    private final long planId;
+
+    public PlanRequest(String file, String destPolicy, long planId) {
+      this.file = file;
+      this.destPolicy = destPolicy;
+      this.planId = planId;
+    }
+
+    public String getFile() {
+      return file;
+    }
+
+    public String getDestPolicy() {
+      return destPolicy;
+    }
+
+    public long getPlanId() {
+      return planId;
+    }
+  }
+
+  // Storages and topology replaced together on cluster info update
+  private static class ClusterView {
+    private final StorageMap storages;
+    private final NetworkTopology networkTopology;
+
+    ClusterView(StorageMap storages, NetworkTopology networkTopology) {
+      this.storages = storages;
+      this.networkTopology = networkTopology;
+    }
+  }
+
+  /**
+   * State of a plan being made.
+   */
+  static class PlanContext {
+    private final FileMovePlan plan = new FileMovePlan();
+    private final StorageMap storages;
+    private final NetworkTopology networkTopology;
+    private final long planId;
+    private final Set<String> plannedTypes = new HashSet<>();
+
+    PlanContext(ClusterView view, long planId) {
+      this.storages = view.storages;
+      this.networkTopology = view.networkTopology;
+      this.planId = planId;
+    }
   }
 
   /**
@@ -18,43 +18,74 @@
 package org.smartdata.hdfs.metric.fetcher;
 
 import org.apache.hadoop.hdfs.DFSClient;
+import org.apache.hadoop.hdfs.DFSUtil;
 import org.apache.hadoop.hdfs.protocol.DirectoryListing;
 import org.apache.hadoop.hdfs.protocol.HdfsFileStatus;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.smartdata.conf.SmartConf;
 import org.smartdata.conf.SmartConfKeys;
+import org.smartdata.metastore.MetaStore;
 import org.smartdata.metastore.MetaStoreException;
 import org.smartdata.model.FileInfo;
-import org.smartdata.metastore.MetaStore;
-import org.smartdata.metastore.ingestion.IngestionTask;
-import org.smartdata.model.FileInfoBatch;
-import org.smartdata.metastore.ingestion.FileStatusIngester;
-import org.smartdata.protocol.message.StatusReport;
-
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Fetch the whole namespace from NameNode into metastore.
+ *
+ * <p>Producers list directories page by page and put the pages into a
+ * bounded queue, consumers insert the files of the pages together with the
+ * listing cursors of the directories in one transaction. A directory is
+ * listed again only after its previous page is committed, so the fetch can
+ * be resumed from the cursors persisted after a restart.
+ *
+ * <p>A directory failed to list is listed again later from its cursor. The
+ * fetch fails if it keeps failing, with its cursor kept to be resumed from.
+ */
 public class NamespaceFetcher {
   private static final Long DEFAULT_INTERVAL = 1L;
+  private static final String ROOT = "/";
 
+  private final DFSClient client;
   private final ScheduledExecutorService scheduledExecutorService;
   private final long fetchInterval;
+  private final int numProducers;
+  private final int numConsumers;
+  private final int batchSize;
+  private final int maxListRetries;
+  private final long listRetryInterval;
+  private final List<String> ignoreList;
   private ScheduledFuture[] fetchTaskFutures;
   private ScheduledFuture[] consumerFutures;
-  private FileStatusIngester[] consumers;
-  private IngestionTask[] ingestionTasks;
   private MetaStore metaStore;
   private SmartConf conf;
 
+  // Directories to be listed, with the cursor to continue listing
+  private final LinkedBlockingDeque<DirCursor> pendingDirs = new LinkedBlockingDeque<>();
+  private final BlockingQueue<ListingPage> pages;
+  // Directories found but not fully fetched
+  private final AtomicLong numUnfinishedDirs = new AtomicLong(0);
+  private final AtomicLong numFilesFetched = new AtomicLong(0);
+  private final AtomicLong numDirectoriesFetched = new AtomicLong(0);
+  private final AtomicLong numPersisted = new AtomicLong(0);
+  private volatile boolean finished = false;
+  private volatile boolean failed = false;
+  private long startTime;
+
   public static final Logger LOG =
       LoggerFactory.getLogger(NamespaceFetcher.class);
 
@@ -72,226 +103,273 @@ public NamespaceFetcher(DFSClient client, MetaStore metaStore, long fetchInterva
 
   public NamespaceFetcher(DFSClient client, MetaStore metaStore, long fetchInterval,
       ScheduledExecutorService service, SmartConf conf) {
+    this.client = client;
     int numProducers = conf.getInt(SmartConfKeys.SMART_NAMESPACE_FETCHER_PRODUCERS_NUM_KEY,
         SmartConfKeys.SMART_NAMESPACE_FETCHER_PRODUCERS_NUM_DEFAULT);
-    numProducers = numProducers <= 0 ? 1 : numProducers;
-    this.ingestionTasks = new IngestionTask[numProducers];
-    for (int i = 0; i < numProducers; i++) {
-      ingestionTasks[i] = new HdfsFetchTask(ingestionTasks, client, conf);
-    }
-
+    this.numProducers = numProducers <= 0 ? 1 : numProducers;
     int numConsumers = conf.getInt(SmartConfKeys.SMART_NAMESPACE_FETCHER_CONSUMERS_NUM_KEY,
         SmartConfKeys.SMART_NAMESPACE_FETCHER_CONSUMERS_NUM_DEFAULT);
-    numConsumers = numConsumers <= 0 ? 1 : numConsumers;
-    consumers = new FileStatusIngester[numConsumers];
-    for (int i = 0; i < numConsumers; i++) {
-      consumers[i] = new FileStatusIngester(metaStore);
+    this.numConsumers = numConsumers <= 0 ? 1 : numConsumers;
+    this.batchSize = Math.max(1, conf.getInt(SmartConfKeys.SMART_NAMESPACE_FETCHER_BATCH_KEY,
+        SmartConfKeys.SMART_NAMESPACE_FETCHER_BATCH_DEFAULT));
+    int queueSize = conf.getInt(SmartConfKeys.SMART_NAMESPACE_FETCHER_QUEUE_SIZE_KEY,
+        SmartConfKeys.SMART_NAMESPACE_FETCHER_QUEUE_SIZE_DEFAULT);
+    this.pages = new ArrayBlockingQueue<>(Math.max(1, queueSize));
+    this.maxListRetries = Math.max(0, conf.getInt(
+        SmartConfKeys.SMART_NAMESPACE_FETCHER_LIST_RETRIES_KEY,
+        SmartConfKeys.SMART_NAMESPACE_FETCHER_LIST_RETRIES_DEFAULT));
+    this.listRetryInterval = Math.max(0L, conf.getLong(
+        SmartConfKeys.SMART_NAMESPACE_FETCHER_LIST_RETRY_INTERVAL_MS_KEY,
+        SmartConfKeys.SMART_NAMESPACE_FETCHER_LIST_RETRY_INTERVAL_MS_DEFAULT));
+
+    Collection<String> ignoreDirs =
+        conf.getTrimmedStringCollection(SmartConfKeys.SMART_IGNORE_DIRS_KEY);
+    this.ignoreList = new ArrayList<>(ignoreDirs.size());
+    for (String dir : ignoreDirs) {
+      ignoreList.add(dir.endsWith("/") ? dir : dir + "/");
     }
+
     this.fetchInterval = fetchInterval;
     if (service != null) {
       this.scheduledExecutorService = service;
     } else {
-      scheduledExecutorService = Executors.newScheduledThreadPool(numProducers + numConsumers);
+      scheduledExecutorService =
+          Executors.newScheduledThreadPool(this.numProducers + this.numConsumers);
     }
     this.metaStore = metaStore;
     this.conf = conf;
   }
 
+  /**
+   * Start fetching, continue from the last checkpoint if there is one.
+   */
   public void startFetch() throws IOException {
+    startFetch(true);
+  }
+
+  /**
+   * Start fetching.
+   * @param resume continue from the last checkpoint if true, otherwise
+   *               delete all files and fetch from root
+   */
+  public void startFetch(boolean resume) throws IOException {
+    Map<String, String> checkpoints = new HashMap<>();
     try {
-      metaStore.deleteAllFileInfo();
+      if (resume) {
+        checkpoints.putAll(metaStore.getNamespaceCheckpoints());
+      }
+      if (checkpoints.isEmpty()) {
+        metaStore.resetNamespaceCheckpoints(ROOT);
+        checkpoints.put(ROOT, "");
+      } else {
+        LOG.info("Resume fetching namespace with {} directories unfinished.",
+            checkpoints.size());
+      }
     } catch (MetaStoreException e) {
       throw new IOException("Error while reset files", e);
     }
-    this.fetchTaskFutures = new ScheduledFuture[ingestionTasks.length];
-    for (int i = 0; i < ingestionTasks.length; i++) {
+    for (Map.Entry<String, String> checkpoint : checkpoints.entrySet()) {
+      String cursor = checkpoint.getValue();
+      pendingDirs.add(new DirCursor(checkpoint.getKey(),
+          cursor == null || cursor.isEmpty() ? null : DFSUtil.string2Bytes(cursor)));
+    }
+    numUnfinishedDirs.set(checkpoints.size());
+    startTime = System.currentTimeMillis();
+
+    this.fetchTaskFutures = new ScheduledFuture[numProducers];
+    for (int i = 0; i < numProducers; i++) {
       fetchTaskFutures[i] = this.scheduledExecutorService.scheduleAtFixedRate(
-          ingestionTasks[i], 0, fetchInterval, TimeUnit.MILLISECONDS);
+          new HdfsFetchTask(), 0, fetchInterval, TimeUnit.MILLISECONDS);
     }
 
-    this.consumerFutures = new ScheduledFuture[consumers.length];
-    for (int i = 0; i < consumers.length; i++) {
+    this.consumerFutures = new ScheduledFuture[numConsumers];
+    for (int i = 0; i < numConsumers; i++) {
       consumerFutures[i] = this.scheduledExecutorService.scheduleAtFixedRate(
-          consumers[i], 0, fetchInterval, TimeUnit.MILLISECONDS);
+          new IngestTask(i), 0, fetchInterval, TimeUnit.MILLISECONDS);
     }
     LOG.info("Started.");
   }
 
+  /**
+   * Whether there is a fetch interrupted before finished.
+   */
+  public boolean hasCheckpoint() throws IOException {
+    try {
+      return !metaStore.getNamespaceCheckpoints().isEmpty();
+    } catch (MetaStoreException e) {
+      throw new IOException(e);
+    }
+  }
+
   public boolean fetchFinished() {
-    return IngestionTask.finished();
+    return finished;
+  }
+
+  /**
+   * Whether a directory failed to list after retries. The fetch can not
+   * finish then, and is resumed from the checkpoints after restart.
+   */
+  public boolean fetchFailed() {
+    return failed;
+  }
+
+  public long getNumFilesFetched() {
+    return numFilesFetched.get();
+  }
+
+  public long getNumDirectoriesFetched() {
+    return numDirectoriesFetched.get();
+  }
+
+  public long getNumPersisted() {
+    return numPersisted.get();
   }
 
   public void stop() {
     if (fetchTaskFutures != null) {
       for (ScheduledFuture f: fetchTaskFutures) {
         if (f != null) {
-          f.cancel(false);
+          f.cancel(true);
         }
       }
     }
     if (consumerFutures != null) {
       for (ScheduledFuture f : consumerFutures) {
         if (f != null) {
-          f.cancel(false);
+          f.cancel(true);
         }
       }
     }
   }
 
-  private static class HdfsFetchTask extends IngestionTask {
-    private final HdfsFileStatus[] EMPTY_STATUS = new HdfsFileStatus[0];
-    private final DFSClient client;
-    private final SmartConf conf;
-    private byte[] startAfter = null;
-    private final byte[] empty = HdfsFileStatus.EMPTY_NAME;
-    private String parent = "";
-    private String pendingParent;
-    private IngestionTask[] ingestionTasks;
-    private static List<String> ignoreList;
-    private static int idCounter = 0;
-    private int id;
-
-    public HdfsFetchTask(IngestionTask[] ingestionTasks, DFSClient client, SmartConf conf) {
-      super();
-      id = idCounter++;
-      this.ingestionTasks = ingestionTasks;
-      this.client = client;
-      this.conf = conf;
-      defaultBatchSize = conf.getInt(SmartConfKeys
-              .SMART_NAMESPACE_FETCHER_BATCH_KEY,
-          SmartConfKeys.SMART_NAMESPACE_FETCHER_BATCH_DEFAULT);
-
-      Collection<String> ignoreDirs =
-          this.conf.getTrimmedStringCollection(SmartConfKeys.SMART_IGNORE_DIRS_KEY);
-      ignoreList = new ArrayList<>(ignoreDirs.size());
-      for (String dir : ignoreDirs) {
-        ignoreList.add(dir.endsWith("/") ? dir : dir + "/");
+  private boolean isIgnored(String path) {
+    String dir = path.endsWith("/") ? path : path + "/";
+    for (String ignored : ignoreList) {
+      if (dir.startsWith(ignored)) {
+        return true;
       }
     }
+    return false;
+  }
 
-    // BFS finished
-    public boolean isDequeEmpty() {
-      for (IngestionTask ingestionTask: ingestionTasks) {
-        if (((HdfsFetchTask)ingestionTask).parent != null) {
-          return false;
-        }
-      }
-      return true;
-    }
+  private static class DirCursor {
+    private final String path;
+    // null if the directory is not listed yet
+    private final byte[] startAfter;
+    // Times failed to list from the cursor
+    private final int failures;
 
-    @Override
-    public void run() {
-      if (LOG.isDebugEnabled()) {
-        long curr = System.currentTimeMillis();
-        if (curr - lastUpdateTime >= 2000) {
-          LOG.debug(String.format(
-              "%d sec, numDirectories = %d, numFiles = %d, batchsInqueue = %d",
-              (curr - startTime) / 1000,
-              numDirectoriesFetched.get(), numFilesFetched.get(), batches.size()));
-          lastUpdateTime = curr;
-        }
-      }
+    DirCursor(String path, byte[] startAfter) {
+      this(path, startAfter, 0);
+    }
 
-      if (batches.size() >= maxPendingBatches) {
-        return;
-      }
+    DirCursor(String path, byte[] startAfter, int failures) {
+      this.path = path;
+      this.startAfter = startAfter;
+      this.failures = failures;
+    }
+  }
 
-      if (this.pendingParent != null) {
-        this.parent = pendingParent;
-        this.pendingParent = null;
-      } else {
-        this.parent = deque.pollFirst();
-      }
-      if (parent == null) {
-        if (currentBatch.actualSize() > 0) {
-          try {
-            this.batches.put(currentBatch);
-          } catch (InterruptedException e) {
-            LOG.error("Current batch actual size = "
-                + currentBatch.actualSize(), e);
-          }
-          this.currentBatch = new FileInfoBatch(defaultBatchSize);
-        }
+  /**
+   * Result of listing a page of a directory.
+   */
+  private static class ListingPage {
+    private final DirCursor dir;
+    private final List<FileInfo> files = new ArrayList<>();
+    private final List<String> subDirs = new ArrayList<>();
+    // null if the directory is fully listed
+    private byte[] nextStartAfter;
 
-        if (this.id == 0 && isDequeEmpty() && this.batches.isEmpty()) {
-          if (!IngestionTask.isFinished) {
-            IngestionTask.isFinished = true;
-            long curr = System.currentTimeMillis();
-            LOG.info(String.format(
-                "Finished fetch Namespace! %ds, %dms used, numDirs = %d, numFiles = %d",
-                (curr - startTime) / 1000, (curr -  startTime) % 1000,
-                numDirectoriesFetched.get(), numFilesFetched.get()));
-          }
-        }
-        return;
-      }
+    ListingPage(DirCursor dir) {
+      this.dir = dir;
+    }
+  }
 
-      if (startAfter == null) {
-        String tmpParent = parent.endsWith("/") ? parent : parent + "/";
-        for (String dir : ignoreList) {
-          if (tmpParent.startsWith(dir)) {
-            return;
+  private class HdfsFetchTask implements Runnable {
+    @Override
+    public void run() {
+      try {
+        DirCursor dir;
+        while (!Thread.currentThread().isInterrupted() && !failed
+            && (dir = pendingDirs.poll()) != null) {
+          ListingPage page = list(dir);
+          if (page != null) {
+            // Blocked if consumers fall behind
+            pages.put(page);
           }
         }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
       }
+    }
 
+    /**
+     * List a page of the directory.
+     *
+     * @return null if failed, the directory is listed again later
+     */
+    private ListingPage list(DirCursor dir) {
+      ListingPage page = new ListingPage(dir);
       try {
-        HdfsFileStatus status = client.getFileInfo(parent);
-        if (status != null && status.isDir()) {
-          if (startAfter == null) {
-            FileInfo internal = convertToFileInfo(status, "");
-            internal.setPath(parent);
-            this.addFileStatus(internal);
-            numDirectoriesFetched.incrementAndGet();
+        if (dir.startAfter == null) {
+          if (isIgnored(dir.path)) {
+            return page;
+          }
+          HdfsFileStatus status = client.getFileInfo(dir.path);
+          if (status == null || !status.isDir()) {
+            return page;
           }
+          FileInfo internal = convertToFileInfo(status, "");
+          internal.setPath(dir.path);
+          page.files.add(internal);
+          numDirectoriesFetched.incrementAndGet();
+        }
 
-          HdfsFileStatus[] children;
-          do {
-            children = listStatus(parent);
-            if (children == null || children.length == 0) {
-              break;
-            }
-            for (HdfsFileStatus child : children) {
-              if (child.isDir()) {
-                this.deque.add(child.getFullName(parent));
-              } else {
-                this.addFileStatus(convertToFileInfo(child, parent));
-                numFilesFetched.incrementAndGet();
-              }
+        DirectoryListing listing = client.listPaths(dir.path,
+            dir.startAfter == null ? HdfsFileStatus.EMPTY_NAME : dir.startAfter);
+        if (listing == null) {
+          // the directory does not exist
+          return page;
+        }
+        for (HdfsFileStatus child : listing.getPartialListing()) {
+          String path = child.getFullName(dir.path);
+          if (child.isDir()) {
+            if (!isIgnored(path)) {
+              page.subDirs.add(path);
             }
-          } while (startAfter != null && batches.size() < maxPendingBatches);
-          if (startAfter != null) {
-            pendingParent = parent;
+          } else {
+            page.files.add(convertToFileInfo(child, dir.path));
+            numFilesFetched.incrementAndGet();
           }
         }
-      } catch (IOException | InterruptedException e) {
-        startAfter = null;
+        if (listing.hasMore()) {
+          page.nextStartAfter = listing.getLastName();
+        }
+      } catch (IOException e) {
         LOG.error("Totally, numDirectoriesFetched = " + numDirectoriesFetched
             + ", numFilesFetched = " + numFilesFetched
-            + ". Parent = " + parent, e);
+            + ". Parent = " + dir.path, e);
+        retry(dir);
+        return null;
       }
-
+      return page;
     }
 
-    /**
-     *  Code copy form {@link org.apache.hadoop.fs.Hdfs}
-     */
-    private HdfsFileStatus[] listStatus(String src) throws IOException {
-      DirectoryListing thisListing = client.listPaths(
-        src, startAfter == null ? empty : startAfter);
-      if (thisListing == null) {
-        // the directory does not exist
-        startAfter = null;
-        return EMPTY_STATUS;
-      }
-      HdfsFileStatus[] partialListing = thisListing.getPartialListing();
-      if (!thisListing.hasMore()) {
-        // got all entries of the directory
-        startAfter = null;
-      } else {
-        startAfter = thisListing.getLastName();
+    private void retry(DirCursor dir) {
+      if (dir.failures >= maxListRetries) {
+        LOG.error("Failed to list {} after {} retries, the namespace fetch fails "
+            + "and can be resumed from the checkpoints after restart.",
+            dir.path, dir.failures);
+        failed = true;
+        return;
       }
-      return partialListing;
+      final DirCursor cursor = new DirCursor(dir.path, dir.startAfter, dir.failures + 1);
+      scheduledExecutorService.schedule(new Runnable() {
+        @Override
+        public void run() {
+          pendingDirs.add(cursor);
+        }
+      }, listRetryInterval << Math.min(dir.failures, 10), TimeUnit.MILLISECONDS);
     }
 
     private FileInfo convertToFileInfo(HdfsFileStatus status, String parent) {
@@ -311,4 +389,94 @@ private FileInfo convertToFileInfo(HdfsFileStatus status, String parent) {
       return fileInfo;
     }
   }
+
+  private class IngestTask implements Runnable {
+    private final int id;
+    private long lastUpdateTime = System.currentTimeMillis();
+
+    IngestTask(int id) {
+      this.id = id;
+    }
+
+    @Override
+    public void run() {
+      List<ListingPage> batch = new ArrayList<>();
+      while (!Thread.currentThread().isInterrupted()) {
+        batch.clear();
+        int numFiles = 0;
+        ListingPage page;
+        while (numFiles < batchSize && (page = pages.poll()) != null) {
+          batch.add(page);
+          numFiles += page.files.size();
+        }
+        if (batch.isEmpty()) {
+          break;
+        }
+        commit(batch, numFiles);
+      }
+      if (id == 0) {
+        logProgress();
+      }
+    }
+
+    private void commit(List<ListingPage> batch, int numFiles) {
+      FileInfo[] files = new FileInfo[numFiles];
+      List<String> newDirs = new ArrayList<>();
+      Map<String, String> cursors = new HashMap<>();
+      List<String> finishedDirs = new ArrayList<>();
+      int index = 0;
+      for (ListingPage page : batch) {
+        for (FileInfo file : page.files) {
+          files[index++] = file;
+        }
+        newDirs.addAll(page.subDirs);
+        if (page.nextStartAfter != null) {
+          cursors.put(page.dir.path, DFSUtil.bytes2String(page.nextStartAfter));
+        } else {
+          finishedDirs.add(page.dir.path);
+        }
+      }
+      try {
+        metaStore.commitNamespaceFetch(files, newDirs, cursors, finishedDirs);
+      } catch (MetaStoreException e) {
+        LOG.error("Consumer {} error, the directories will be listed again", id, e);
+        for (ListingPage page : batch) {
+          pendingDirs.add(page.dir);
+        }
+        return;
+      }
+      numPersisted.addAndGet(numFiles);
+
+      // Count new directories before the finished ones to never reach 0 early
+      numUnfinishedDirs.addAndGet(newDirs.size());
+      for (ListingPage page : batch) {
+        for (String dir : page.subDirs) {
+          pendingDirs.add(new DirCursor(dir, null));
+        }
+        if (page.nextStartAfter != null) {
+          pendingDirs.add(new DirCursor(page.dir.path, page.nextStartAfter));
+        }
+      }
+      if (numUnfinishedDirs.addAndGet(-finishedDirs.size()) == 0 && !finished) {
+        finished = true;
+        long curr = System.currentTimeMillis();
+        LOG.info(String.format(
+            "Finished fetch Namespace! %ds, %dms used, numDirs = %d, numFiles = %d",
+            (curr - startTime) / 1000, (curr - startTime) % 1000,
+            numDirectoriesFetched.get(), numFilesFetched.get()));
+      }
+    }
+
+    private void logProgress() {
+      long curr = System.currentTimeMillis();
+      if (curr - lastUpdateTime >= 5000) {
+        LOG.info(String.format(
+            "%d sec, numDirectories = %d, numFiles = %d, persisted = %d, "
+                + "pendingDirs = %d, pendingListings = %d",
+            (curr - startTime) / 1000, numDirectoriesFetched.get(), numFilesFetched.get(),
+            numPersisted.get(), pendingDirs.size(), pages.size()));
+        lastUpdateTime = curr;
+      }
+    }
+  }
 }
@@ -0,0 +1,153 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.hdfs.metric.fetcher;
+
+import org.smartdata.hdfs.action.move.StorageGroup;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bytes and replica moves reserved on target storages by the move plans
+ * made, kept until the actions of the plans finish. The storage reports
+ * do not count the moves not done yet, so the plans made in a row would
+ * otherwise all see the same free space.
+ */
+public class TargetReservations {
+  // Reserved load by datanode uuid and storage type
+  private final Map<String, Load> loads = new HashMap<>();
+  private final Map<Long, Reservation> reservations = new HashMap<>();
+
+  private static String toKey(StorageGroup target) {
+    return target.getDatanodeInfo().getDatanodeUuid() + ":" + target.getStorageType();
+  }
+
+  /**
+   * Reserve the bytes of one replica move on the target for the plan.
+   */
+  public synchronized void reserve(long planId, StorageGroup target, long bytes) {
+    String key = toKey(target);
+    Reservation reservation = reservations.get(planId);
+    if (reservation == null) {
+      reservation = new Reservation(System.currentTimeMillis());
+      reservations.put(planId, reservation);
+    }
+    reservation.keys.add(key);
+    reservation.bytes.add(bytes);
+    Load load = loads.get(key);
+    if (load == null) {
+      load = new Load();
+      loads.put(key, load);
+    }
+    load.bytes += bytes;
+    load.moves++;
+  }
+
+  /**
+   * Release all the reservations of the plan.
+   */
+  public synchronized void release(long planId) {
+    Reservation reservation = reservations.remove(planId);
+    if (reservation == null) {
+      return;
+    }
+    for (int i = 0; i < reservation.keys.size(); i++) {
+      String key = reservation.keys.get(i);
+      Load load = loads.get(key);
+      if (load == null) {
+        continue;
+      }
+      load.bytes -= reservation.bytes.get(i);
+      load.moves--;
+      if (load.moves <= 0) {
+        loads.remove(key);
+      }
+    }
+  }
+
+  /**
+   * Move the reservations of a plan to another id, e.g., when a plan made
+   * ahead is taken by an action.
+   */
+  public synchronized void transfer(long fromPlanId, long toPlanId) {
+    Reservation reservation = reservations.remove(fromPlanId);
+    if (reservation == null) {
+      return;
+    }
+    Reservation existing = reservations.put(toPlanId, reservation);
+    if (existing != null) {
+      reservation.keys.addAll(existing.keys);
+      reservation.bytes.addAll(existing.bytes);
+    }
+  }
+
+  /**
+   * Release the reservations made before the given time, in case the end
+   * of their actions is never seen.
+   */
+  public synchronized void expire(long before) {
+    List<Long> expired = new ArrayList<>();
+    for (Iterator<Map.Entry<Long, Reservation>> it = reservations.entrySet().iterator();
+        it.hasNext();) {
+      Map.Entry<Long, Reservation> entry = it.next();
+      if (entry.getValue().createTime < before) {
+        expired.add(entry.getKey());
+      }
+    }
+    for (long planId : expired) {
+      release(planId);
+    }
+  }
+
+  public synchronized long getReservedBytes(StorageGroup target) {
+    Load load = loads.get(toKey(target));
+    return load == null ? 0L : load.bytes;
+  }
+
+  public synchronized int getPendingMoves(StorageGroup target) {
+    Load load = loads.get(toKey(target));
+    return load == null ? 0 : load.moves;
+  }
+
+  public synchronized int getPendingMovesOfPlan(long planId) {
+    Reservation reservation = reservations.get(planId);
+    return reservation == null ? 0 : reservation.keys.size();
+  }
+
+  public synchronized int size() {
+    return reservations.size();
+  }
+
+  private static class Load {
+    private long bytes;
+    private int moves;
+  }
+
+  private static class Reservation {
+    private final long createTime;
+    private final List<String> keys = new ArrayList<>();
+    private final List<Long> bytes = new ArrayList<>();
+
+    Reservation(long createTime) {
+      this.createTime = createTime;
+    }
+  }
+}
@@ -29,6 +29,14 @@
 
 public abstract class ActionSchedulerService extends AbstractService implements ActionScheduler {
   private MetaStore metaStore;
+  private CmdletSubmitter cmdletSubmitter;
+
+  /**
+   * Submitter of the cmdlets generated by schedulers themselves.
+   */
+  public interface CmdletSubmitter {
+    long submitCmdlet(String cmdlet) throws IOException;
+  }
 
   public ActionSchedulerService(SmartContext context, MetaStore metaStore) {
     super(context);
@@ -51,4 +59,25 @@ public void onPreDispatch(LaunchAction action) {
 
   public void onActionFinished(ActionInfo actionInfo) {
   }
+
+  public boolean isThreadSafe() {
+    return false;
+  }
+
+  public void setCmdletSubmitter(CmdletSubmitter cmdletSubmitter) {
+    this.cmdletSubmitter = cmdletSubmitter;
+  }
+
+  /**
+   * Submit a cmdlet, e.g., to maintain the data generated by the actions
+   * scheduled before.
+   *
+   * @return the id of the cmdlet
+   */
+  protected long submitCmdlet(String cmdlet) throws IOException {
+    if (cmdletSubmitter == null) {
+      throw new IOException("No cmdlet submitter for " + getClass().getSimpleName());
+    }
+    return cmdletSubmitter.submitCmdlet(cmdlet);
+  }
 }
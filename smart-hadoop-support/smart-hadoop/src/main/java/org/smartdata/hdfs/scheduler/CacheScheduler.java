@@ -0,0 +1,157 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.hdfs.scheduler;
+
+import org.apache.hadoop.util.Time;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.smartdata.SmartContext;
+import org.smartdata.hdfs.action.HdfsAction;
+import org.smartdata.metastore.MetaStore;
+import org.smartdata.metastore.MetaStoreException;
+import org.smartdata.model.ActionInfo;
+import org.smartdata.model.CachedFileStatus;
+import org.smartdata.model.FileInfo;
+import org.smartdata.model.LaunchAction;
+import org.smartdata.model.action.ScheduleResult;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Scheduler of cache and uncache actions. The cached file list is updated
+ * when an action succeeds, so it does not wait for the next reconcile of
+ * {@link org.smartdata.hdfs.metric.fetcher.CachedListFetcher}. A file is
+ * cached or uncached by only one action at a time to keep the updates in
+ * the order of the directive changes.
+ */
+public class CacheScheduler extends ActionSchedulerService {
+  private static final String CACHE = "cache";
+  private static final String UNCACHE = "uncache";
+  private static final List<String> actions = Arrays.asList(CACHE, UNCACHE);
+  static final Logger LOG = LoggerFactory.getLogger(CacheScheduler.class);
+  private MetaStore metaStore;
+  // Path of the file to the id of the action caching or uncaching it
+  private Map<String, Long> fileLock;
+
+  public CacheScheduler(SmartContext context, MetaStore metaStore) {
+    super(context, metaStore);
+    this.metaStore = metaStore;
+    this.fileLock = Collections.synchronizedMap(new HashMap<String, Long>());
+  }
+
+  @Override
+  public List<String> getSupportedActions() {
+    return actions;
+  }
+
+  @Override
+  public boolean isThreadSafe() {
+    // Files are locked under fileLock
+    return true;
+  }
+
+  @Override
+  public ScheduleResult onSchedule(ActionInfo actionInfo, LaunchAction action) {
+    String path = getPath(actionInfo);
+    if (path == null) {
+      return ScheduleResult.SUCCESS;
+    }
+    synchronized (fileLock) {
+      Long locker = fileLock.get(path);
+      if (locker != null && locker != actionInfo.getActionId()) {
+        return ScheduleResult.RETRY;
+      }
+      fileLock.put(path, actionInfo.getActionId());
+    }
+    return ScheduleResult.SUCCESS;
+  }
+
+  @Override
+  public void postSchedule(ActionInfo actionInfo, ScheduleResult result) {
+    if (result != ScheduleResult.SUCCESS) {
+      unlock(actionInfo);
+    }
+  }
+
+  @Override
+  public void onActionFinished(ActionInfo actionInfo) {
+    String path = getPath(actionInfo);
+    if (path != null && actionInfo.isFinished() && actionInfo.isSuccessful()) {
+      try {
+        FileInfo fileInfo = metaStore.getFile(path);
+        // Left to the reconcile if the file is not synchronized yet
+        if (fileInfo != null) {
+          updateCachedFile(fileInfo, actionInfo.getActionName().equals(CACHE));
+        }
+      } catch (MetaStoreException e) {
+        LOG.error("Failed to update cached file " + path, e);
+      }
+    }
+    unlock(actionInfo);
+  }
+
+  private void updateCachedFile(FileInfo fileInfo, boolean cached)
+      throws MetaStoreException {
+    long fid = fileInfo.getFileId();
+    // Removed first as the file may be cached by a directive added before
+    metaStore.deleteCachedFile(fid);
+    if (cached) {
+      long now = Time.now();
+      metaStore.insertCachedFiles(Collections.singletonList(
+          new CachedFileStatus(fid, fileInfo.getPath(), now, now, 0)));
+      LOG.debug("File {} is cached", fileInfo.getPath());
+    } else {
+      LOG.debug("File {} is uncached", fileInfo.getPath());
+    }
+  }
+
+  private String getPath(ActionInfo actionInfo) {
+    Map<String, String> args = actionInfo.getArgs();
+    return args == null ? null : args.get(HdfsAction.FILE_PATH);
+  }
+
+  private void unlock(ActionInfo actionInfo) {
+    String path = getPath(actionInfo);
+    if (path == null) {
+      return;
+    }
+    synchronized (fileLock) {
+      Long locker = fileLock.get(path);
+      if (locker != null && locker == actionInfo.getActionId()) {
+        fileLock.remove(path);
+      }
+    }
+  }
+
+  @Override
+  public void init() throws IOException {
+  }
+
+  @Override
+  public void start() throws IOException {
+  }
+
+  @Override
+  public void stop() throws IOException {
+  }
+}
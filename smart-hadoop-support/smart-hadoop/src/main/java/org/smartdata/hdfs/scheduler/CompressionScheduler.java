@@ -0,0 +1,150 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.hdfs.scheduler;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.smartdata.SmartContext;
+import org.smartdata.hdfs.action.HdfsAction;
+import org.smartdata.metastore.MetaStore;
+import org.smartdata.metastore.MetaStoreException;
+import org.smartdata.model.ActionInfo;
+import org.smartdata.model.FileInfo;
+import org.smartdata.model.FileState;
+import org.smartdata.model.LaunchAction;
+import org.smartdata.model.action.ScheduleResult;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Scheduler of compress and decompress actions. A file is compressed or
+ * decompressed by only one action at a time, and its file state is updated
+ * when the action succeeds.
+ */
+public class CompressionScheduler extends ActionSchedulerService {
+  private static final String COMPRESS = "compress";
+  private static final String DECOMPRESS = "decompress";
+  private static final List<String> actions = Arrays.asList(COMPRESS, DECOMPRESS);
+  static final Logger LOG =
+      LoggerFactory.getLogger(CompressionScheduler.class);
+  private MetaStore metaStore;
+  // The file being compressed or decompressed is locked
+  private Set<String> fileLock;
+
+  public CompressionScheduler(SmartContext context, MetaStore metaStore) {
+    super(context, metaStore);
+    this.metaStore = metaStore;
+    this.fileLock = Collections.synchronizedSet(new HashSet<String>());
+  }
+
+  private boolean isCompressed(String path) throws IOException {
+    try {
+      return metaStore.getFileState(path).getFileType()
+          == FileState.FileType.COMPRESSION;
+    } catch (MetaStoreException e) {
+      throw new IOException(e);
+    }
+  }
+
+  private boolean isEmpty(String path) throws IOException {
+    try {
+      FileInfo fileInfo = metaStore.getFile(path);
+      // Checked by the action if the file is not synchronized yet
+      return fileInfo != null && fileInfo.getLength() == 0;
+    } catch (MetaStoreException e) {
+      throw new IOException(e);
+    }
+  }
+
+  @Override
+  public List<String> getSupportedActions() {
+    return actions;
+  }
+
+  @Override
+  public boolean isThreadSafe() {
+    return true;
+  }
+
+  @Override
+  public ScheduleResult onSchedule(ActionInfo actionInfo, LaunchAction action) {
+    return ScheduleResult.SUCCESS;
+  }
+
+  @Override
+  public boolean onSubmit(ActionInfo actionInfo) throws IOException {
+    if (actionInfo.getArgs() == null) {
+      throw new IOException("No arguments for the action");
+    }
+    String path = actionInfo.getArgs().get(HdfsAction.FILE_PATH);
+    if (path == null || path.isEmpty()) {
+      throw new IOException("No file path for the action");
+    }
+    if (actionInfo.getActionName().equals(COMPRESS)) {
+      if (isCompressed(path)) {
+        throw new IOException("The submit file " + path + " is already compressed");
+      }
+      if (isEmpty(path)) {
+        throw new IOException("The submit file " + path + " length is 0");
+      }
+    }
+    if (!fileLock.add(path)) {
+      throw new IOException("The submit file " + path + " is locked");
+    }
+    LOG.debug("The file {} can be submitted", path);
+    return true;
+  }
+
+  @Override
+  public void onActionFinished(ActionInfo actionInfo) {
+    String path = actionInfo.getArgs().get(HdfsAction.FILE_PATH);
+    if (actionInfo.isFinished() && actionInfo.isSuccessful()) {
+      try {
+        if (actionInfo.getActionName().equals(COMPRESS)) {
+          // The chunk index is only kept in the XAttr of the file
+          metaStore.insertUpdateFileState(new FileState(path,
+              FileState.FileType.COMPRESSION, FileState.FileStage.DONE));
+        } else {
+          metaStore.deleteFileState(path);
+        }
+      } catch (MetaStoreException e) {
+        LOG.error("Failed to update file state of " + path, e);
+      }
+    }
+    if (fileLock.remove(path)) {
+      LOG.debug("Unlocked file {}", path);
+    }
+  }
+
+  @Override
+  public void init() throws IOException {
+  }
+
+  @Override
+  public void start() throws IOException {
+  }
+
+  @Override
+  public void stop() throws IOException {
+  }
+}
@@ -79,6 +79,11 @@ public List<String> getSupportedActions() {
     return actions;
   }
 
+  @Override
+  public boolean isThreadSafe() {
+    return true;
+  }
+
   @Override
   public ScheduleResult onSchedule(ActionInfo actionInfo, LaunchAction action) {
     return ScheduleResult.SUCCESS;
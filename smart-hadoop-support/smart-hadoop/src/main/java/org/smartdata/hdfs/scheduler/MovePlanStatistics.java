@@ -20,6 +20,7 @@
 public class MovePlanStatistics {
   private long totalBlocks;
   private long totalSize;
+  private volatile double targetUtilizationSpread;
 
   public MovePlanStatistics() {
     totalBlocks = 0;
@@ -31,19 +32,33 @@ public MovePlanStatistics(long totalBlocks, long totalSize) {
     this.totalSize = totalSize;
   }
 
-  public void increaseTotalBlocks(int numBlocks) {
+  public synchronized void increaseTotalBlocks(int numBlocks) {
     totalBlocks += numBlocks;
   }
 
-  public void increaseTotalSize(long size) {
+  public synchronized void increaseTotalSize(long size) {
     totalSize += size;
   }
 
-  public long getTotalBlocks() {
+  public synchronized long getTotalBlocks() {
     return totalBlocks;
   }
 
-  public long getTotalSize() {
+  public synchronized long getTotalSize() {
     return totalSize;
   }
+
+  public void setTargetUtilizationSpread(double spread) {
+    targetUtilizationSpread = spread;
+  }
+
+  /**
+   * Get the quality of the last plan made, the difference of utilization
+   * between the most and the least utilized targets of the storage types
+   * moved to, counting the space reserved by the plans. The lower the more
+   * balanced.
+   */
+  public double getTargetUtilizationSpread() {
+    return targetUtilizationSpread;
+  }
 }
@@ -31,6 +31,7 @@
 import org.smartdata.hdfs.action.MoveFileAction;
 import org.smartdata.hdfs.metric.fetcher.DatanodeStorageReportProcTask;
 import org.smartdata.hdfs.metric.fetcher.MovePlanMaker;
+import org.smartdata.hdfs.metric.fetcher.MovePlanMaker.PlanRequest;
 import org.smartdata.metastore.MetaStore;
 import org.smartdata.model.ActionInfo;
 import org.smartdata.model.LaunchAction;
@@ -40,8 +41,12 @@
 import java.io.IOException;
 import java.net.URI;
 import java.security.PrivilegedExceptionAction;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
@@ -57,6 +62,17 @@ public class MoverScheduler extends ActionSchedulerService {
   private ScheduledFuture updateServiceFuture;
   private long throttleInMb;
   private RateLimiter rateLimiter = null;
+  private int planThreads;
+  private int planBatchSize;
+  private ScheduledExecutorService planService;
+
+  // Move actions submitted whose plans are to be made ahead of scheduling
+  private final ConcurrentLinkedQueue<Long> planQueue = new ConcurrentLinkedQueue<>();
+  private final ConcurrentHashMap<Long, PlanRequest> pendingRequests =
+      new ConcurrentHashMap<>();
+  // Plans made ahead by action id
+  private final ConcurrentHashMap<Long, PlannedMove> plannedMoves =
+      new ConcurrentHashMap<>();
 
   public static final Logger LOG =
       LoggerFactory.getLogger(MoverScheduler.class);
@@ -71,6 +87,12 @@ public MoverScheduler(SmartContext context, MetaStore metaStore)
     if (throttleInMb > 0) {
       rateLimiter = RateLimiter.create(throttleInMb);
     }
+    planThreads = getContext().getConf().getInt(
+        SmartConfKeys.SMART_MOVER_PLAN_THREADS_KEY,
+        SmartConfKeys.SMART_MOVER_PLAN_THREADS_DEFAULT);
+    planBatchSize = getContext().getConf().getInt(
+        SmartConfKeys.SMART_MOVER_PLAN_BATCH_SIZE_KEY,
+        SmartConfKeys.SMART_MOVER_PLAN_BATCH_SIZE_DEFAULT);
   }
 
   public void init() throws IOException {
@@ -89,11 +111,16 @@ public void start() throws IOException {
     DatanodeStorageReportProcTask task =
         new DatanodeStorageReportProcTask(client, getContext().getConf());
     task.run();
-    planMaker = new MovePlanMaker(client, task.getStorages(), task.getNetworkTopology(), statistics);
+    planMaker = new MovePlanMaker(client, task.getStorages(), task.getNetworkTopology(),
+        statistics, planThreads);
 
     updateServiceFuture = updateService.scheduleAtFixedRate(
         new UpdateClusterInfoTask(task),
         dnInfoUpdateInterval, dnInfoUpdateInterval, TimeUnit.MILLISECONDS);
+    if (planBatchSize > 0) {
+      planService = Executors.newSingleThreadScheduledExecutor();
+      planService.scheduleWithFixedDelay(new PlanAheadTask(), 100, 100, TimeUnit.MILLISECONDS);
+    }
   }
 
   /**
@@ -104,6 +131,12 @@ public void stop() throws IOException {
     if (updateServiceFuture != null) {
       updateServiceFuture.cancel(false);
     }
+    if (planService != null) {
+      planService.shutdownNow();
+    }
+    if (planMaker != null) {
+      planMaker.close();
+    }
   }
 
   private static final List<String> actions =
@@ -112,6 +145,12 @@ public List<String> getSupportedActions() {
     return actions;
   }
 
+  @Override
+  public boolean isThreadSafe() {
+    // Plans are made by a MovePlanMaker and kept in concurrent maps
+    return true;
+  }
+
   @Override
   public ScheduleResult onSchedule(ActionInfo actionInfo, LaunchAction action) {
     if (!actions.contains(action.getActionType())) {
@@ -123,30 +162,13 @@ public ScheduleResult onSchedule(ActionInfo actionInfo, LaunchAction action) {
       return ScheduleResult.FAIL;
     }
 
-    String policy = null;
-    switch (action.getActionType()) {
-      case "allssd":
-        policy = "ALL_SSD";
-        break;
-      case "onessd":
-        policy = "ONE_SSD";
-        break;
-      case "archive":
-        policy = "COLD";
-        break;
-      case "alldisk":
-        policy = "HOT";
-        break;
-      case "onedisk":
-        policy = "WARM";
-        break;
-      case "ramdisk":
-        policy = "LAZY_PERSIST";
-        break;
-    }
+    String policy = getPolicy(action.getActionType());
 
     try {
-      FileMovePlan plan = planMaker.processNamespace(new Path(file), policy);
+      FileMovePlan plan = takePlannedMove(actionInfo.getActionId(), file, policy);
+      if (plan == null) {
+        plan = planMaker.processNamespace(new Path(file), policy, actionInfo.getActionId());
+      }
       if (rateLimiter != null) {
         // Two possible understandings here: file level and replica level
         int len = (int)(plan.getFileLengthToMove() >> 20);
@@ -155,6 +177,7 @@ public ScheduleResult onSchedule(ActionInfo actionInfo, LaunchAction action) {
             if (LOG.isDebugEnabled()) {
               LOG.debug("Cancel Scheduling action {} due to throttling. {}", actionInfo, plan);
             }
+            planMaker.releasePlan(actionInfo.getActionId());
             return ScheduleResult.RETRY;
           }
         }
@@ -171,15 +194,155 @@ public ScheduleResult onSchedule(ActionInfo actionInfo, LaunchAction action) {
     }
   }
 
+  private static String getPolicy(String actionType) {
+    switch (actionType) {
+      case "allssd":
+        return "ALL_SSD";
+      case "onessd":
+        return "ONE_SSD";
+      case "archive":
+        return "COLD";
+      case "alldisk":
+        return "HOT";
+      case "onedisk":
+        return "WARM";
+      case "ramdisk":
+        return "LAZY_PERSIST";
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * Take the plan made ahead for the action, its reservations are moved
+   * to the action.
+   *
+   * @return null if no plan is made or the plan is out of date
+   */
+  private FileMovePlan takePlannedMove(long actionId, String file, String policy) {
+    pendingRequests.remove(actionId);
+    PlannedMove plannedMove = plannedMoves.remove(actionId);
+    if (plannedMove == null) {
+      return null;
+    }
+    PlanRequest request = plannedMove.request;
+    if (!request.getFile().equals(file) || !request.getDestPolicy().equals(policy)
+        || plannedMove.isExpired(System.currentTimeMillis())) {
+      planMaker.releasePlan(request.getPlanId());
+      return null;
+    }
+    planMaker.getReservations().transfer(request.getPlanId(), actionId);
+    return plannedMove.plan;
+  }
+
+  /**
+   * Make the plans of a batch of the actions submitted ahead of their
+   * scheduling, so that the files are planned in parallel.
+   */
+  private void planAhead() {
+    long now = System.currentTimeMillis();
+    for (Iterator<PlannedMove> it = plannedMoves.values().iterator(); it.hasNext();) {
+      PlannedMove plannedMove = it.next();
+      if (plannedMove.isExpired(now)) {
+        it.remove();
+        planMaker.releasePlan(plannedMove.request.getPlanId());
+      }
+    }
+
+    // Planned not too far ahead, or the plans are out of date when used
+    int toPlan = Math.min(planBatchSize, 2 * planBatchSize - plannedMoves.size());
+    List<Long> actionIds = new ArrayList<>();
+    List<PlanRequest> requests = new ArrayList<>();
+    PlanRequest request;
+    Long actionId;
+    while (requests.size() < toPlan && (actionId = planQueue.poll()) != null) {
+      // Not pending if the action is scheduled already
+      request = pendingRequests.get(actionId);
+      if (request != null) {
+        actionIds.add(actionId);
+        requests.add(request);
+      }
+    }
+    if (requests.isEmpty()) {
+      return;
+    }
+
+    List<FileMovePlan> plans = planMaker.processNamespace(requests);
+    now = System.currentTimeMillis();
+    for (int i = 0; i < plans.size(); i++) {
+      request = requests.get(i);
+      // Planned inline if the action is scheduled meanwhile
+      if (plans.get(i) == null || !pendingRequests.remove(actionIds.get(i), request)) {
+        planMaker.releasePlan(request.getPlanId());
+      } else {
+        plannedMoves.put(actionIds.get(i), new PlannedMove(request, plans.get(i), now));
+      }
+    }
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Planned {} moves ahead in {} ms.", requests.size(),
+          System.currentTimeMillis() - now);
+    }
+  }
+
+  @Override
+  public void postSchedule(ActionInfo actionInfo, ScheduleResult result) {
+    // Another action of the cmdlet is not scheduled
+    if (result != ScheduleResult.SUCCESS && planMaker != null) {
+      planMaker.releasePlan(actionInfo.getActionId());
+    }
+  }
+
+  @Override
+  public void onActionFinished(ActionInfo actionInfo) {
+    if (planMaker != null) {
+      planMaker.releasePlan(actionInfo.getActionId());
+    }
+  }
+
   @Override
   public boolean onSubmit(ActionInfo actionInfo) throws IOException {
     // check args
     if (actionInfo.getArgs() == null) {
       throw new IOException("No arguments for the action");
     }
+    String file = actionInfo.getArgs().get(HdfsAction.FILE_PATH);
+    String policy = getPolicy(actionInfo.getActionName());
+    if (planService != null && file != null && policy != null) {
+      pendingRequests.put(actionInfo.getActionId(),
+          new PlanRequest(file, policy, planMaker.newTempPlanId()));
+      planQueue.offer(actionInfo.getActionId());
+    }
     return true;
   }
 
+  private class PlannedMove {
+    private final PlanRequest request;
+    private final FileMovePlan plan;
+    private final long planTime;
+
+    PlannedMove(PlanRequest request, FileMovePlan plan, long planTime) {
+      this.request = request;
+      this.plan = plan;
+      this.planTime = planTime;
+    }
+
+    // The storage view is refreshed at the same interval
+    boolean isExpired(long now) {
+      return now - planTime > dnInfoUpdateInterval;
+    }
+  }
+
+  private class PlanAheadTask implements Runnable {
+    @Override
+    public void run() {
+      try {
+        planAhead();
+      } catch (Throwable t) {
+        LOG.warn("Exception when making move plans ahead ", t);
+      }
+    }
+  }
+
   private class UpdateClusterInfoTask implements Runnable {
     private DatanodeStorageReportProcTask task;
 
@@ -18,14 +18,18 @@
 package org.smartdata.hdfs.scheduler;
 
 import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
 import com.google.gson.reflect.TypeToken;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.smartdata.SmartContext;
 import org.smartdata.SmartFilePermission;
+import org.smartdata.conf.SmartConfKeys;
 import org.smartdata.hdfs.action.HdfsAction;
 import org.smartdata.hdfs.action.SmallFileCompactAction;
+import org.smartdata.hdfs.action.SmallFileDefragAction;
 import org.smartdata.hdfs.action.SmallFileUncompactAction;
+import org.smartdata.metastore.ContainerFileIndex;
 import org.smartdata.metastore.MetaStore;
 import org.smartdata.metastore.MetaStoreException;
 import org.smartdata.model.ActionInfo;
@@ -49,6 +53,8 @@
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 public class SmallFileScheduler extends ActionSchedulerService {
   private MetaStore metaStore;
@@ -79,14 +85,32 @@ public class SmallFileScheduler extends ActionSchedulerService {
   private Queue<CompactFileState> compactFileStateQueue;
 
   /**
-   * Scheduled service to update meta store.
+   * Container files whose defrag action is submitted and not finished.
+   */
+  private Set<String> defragContainerFiles;
+
+  /**
+   * Live ranges of container files.
+   */
+  private ContainerFileIndex containerFileIndex;
+
+  /**
+   * Scheduled service to update meta store and check container files.
    */
   private ScheduledExecutorService executorService;
 
+  // Compact file states polled from the queue are inserted in the lock, so a
+  // container file is never defragmented without the small files inserting
+  private final Object syncLock = new Object();
+  private float defragDeadRatio;
+  private long defragCheckInterval;
+
   private static final int META_STORE_INSERT_BATCH_SIZE = 200;
   private static final String COMPACT_ACTION_NAME = "compact";
   private static final String UNCOMPACT_ACTION_NAME = "uncompact";
-  private static final List<String> ACTIONS = Arrays.asList("compact", "uncompact");
+  private static final String DEFRAG_ACTION_NAME = "defrag";
+  private static final List<String> ACTIONS = Arrays.asList("compact", "uncompact", "defrag");
+  private static final Pattern DEFRAG_SUFFIX = Pattern.compile("_defrag_\\d+$");
   public static final Logger LOG = LoggerFactory.getLogger(SmallFileScheduler.class);
 
   public SmallFileScheduler(SmartContext context, MetaStore metaStore) {
@@ -101,20 +125,33 @@ public void init() {
     this.containerFileCache = Collections.synchronizedSet(new HashSet<String>());
     this.handlingSmallFileCache = Collections.synchronizedSet(new HashSet<String>());
     this.compactFileStateQueue = new ConcurrentLinkedQueue<>();
+    this.defragContainerFiles = Collections.synchronizedSet(new HashSet<String>());
     this.executorService = Executors.newSingleThreadScheduledExecutor();
+    this.defragDeadRatio = getContext().getConf().getFloat(
+        SmartConfKeys.SMART_COMPACT_DEFRAG_DEAD_RATIO_KEY,
+        SmartConfKeys.SMART_COMPACT_DEFRAG_DEAD_RATIO_DEFAULT);
+    this.defragCheckInterval = getContext().getConf().getLong(
+        SmartConfKeys.SMART_COMPACT_DEFRAG_CHECK_INTERVAL_MS_KEY,
+        SmartConfKeys.SMART_COMPACT_DEFRAG_CHECK_INTERVAL_MS_DEFAULT);
   }
 
   @Override
   public void start() throws IOException {
-    executorService.scheduleAtFixedRate(
-        new ScheduleTask(), 100, 50,
-        TimeUnit.MILLISECONDS);
     try {
+      this.containerFileIndex = metaStore.loadContainerFileIndex();
       List<String> containerFileList = metaStore.getAllContainerFiles();
       this.containerFileCache.addAll(containerFileList);
     } catch (MetaStoreException e) {
       throw new IOException(e);
     }
+    executorService.scheduleAtFixedRate(
+        new ScheduleTask(), 100, 50,
+        TimeUnit.MILLISECONDS);
+    if (defragCheckInterval > 0) {
+      executorService.scheduleAtFixedRate(
+          new DefragCheckTask(), defragCheckInterval, defragCheckInterval,
+          TimeUnit.MILLISECONDS);
+    }
   }
 
   @Override
@@ -156,6 +193,13 @@ public boolean onSubmit(ActionInfo actionInfo) throws IOException {
       } else {
         throw new IOException("Illegal small files is invalid.");
       }
+    } else if (DEFRAG_ACTION_NAME.equals(actionInfo.getActionName())) {
+      String containerFilePath = actionInfo.getArgs().get(
+          SmallFileDefragAction.CONTAINER_FILE);
+      if (containerFilePath == null || containerFilePath.isEmpty()) {
+        throw new IOException("Illegal container file path: " + containerFilePath);
+      }
+      return true;
     } else {
       return true;
     }
@@ -411,12 +455,68 @@ private ScheduleResult getUncompactScheduleResult(ActionInfo actionInfo,
     }
   }
 
+  /**
+   * Get defrag action schedule result according to action info, and reset
+   * action arguments with the live small files of the container file.
+   */
+  private ScheduleResult getDefragScheduleResult(ActionInfo actionInfo,
+      LaunchAction action) {
+    String containerFilePath = actionInfo.getArgs().get(
+        SmallFileDefragAction.CONTAINER_FILE);
+    if (!containerFileCache.contains(containerFilePath)) {
+      LOG.debug("{} is not container file.", containerFilePath);
+      actionInfo.setResult(containerFilePath + " is not container file.");
+      return ScheduleResult.FAIL;
+    }
+
+    synchronized (syncLock) {
+      // Retry if container file is locked or being appended
+      if (containerFileLock.contains(containerFilePath)
+          || hasPendingFileStates(containerFilePath)) {
+        return ScheduleResult.RETRY;
+      }
+      String newContainerFilePath = getNewContainerFile(containerFilePath);
+      List<CompactFileState> liveFiles =
+          containerFileIndex.getLiveFiles(containerFilePath);
+
+      // Lock both container files
+      containerFileLock.add(containerFilePath);
+      containerFileLock.add(newContainerFilePath);
+      Map<String, String> args = new HashMap<>(3);
+      args.put(HdfsAction.FILE_PATH, new Gson().toJson(liveFiles));
+      args.put(SmallFileDefragAction.CONTAINER_FILE, containerFilePath);
+      args.put(SmallFileDefragAction.NEW_CONTAINER_FILE, newContainerFilePath);
+      action.setArgs(args);
+      actionInfo.setArgs(args);
+      return ScheduleResult.SUCCESS;
+    }
+  }
+
+  private boolean hasPendingFileStates(String containerFilePath) {
+    for (CompactFileState compactFileState : compactFileStateQueue) {
+      if (containerFilePath.equals(
+          compactFileState.getFileContainerInfo().getContainerFilePath())) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static String getNewContainerFile(String containerFilePath) {
+    Matcher matcher = DEFRAG_SUFFIX.matcher(containerFilePath);
+    String base = matcher.find()
+        ? containerFilePath.substring(0, matcher.start()) : containerFilePath;
+    return base + "_defrag_" + System.currentTimeMillis();
+  }
+
   @Override
   public ScheduleResult onSchedule(ActionInfo actionInfo, LaunchAction action) {
     if (COMPACT_ACTION_NAME.equals(actionInfo.getActionName())) {
       return getCompactScheduleResult(actionInfo);
     } else if (UNCOMPACT_ACTION_NAME.equals(actionInfo.getActionName())) {
       return getUncompactScheduleResult(actionInfo, action);
+    } else if (DEFRAG_ACTION_NAME.equals(actionInfo.getActionName())) {
+      return getDefragScheduleResult(actionInfo, action);
     } else {
       return ScheduleResult.SUCCESS;
     }
@@ -471,6 +571,45 @@ private void handleUncompactActionResult(ActionInfo actionInfo) {
     containerFileLock.remove(containerFilePath);
   }
 
+  /**
+   * Handle defrag action result.
+   */
+  private void handleDefragActionResult(ActionInfo actionInfo) {
+    String containerFilePath = actionInfo.getArgs().get(
+        SmallFileDefragAction.CONTAINER_FILE);
+    String newContainerFilePath = actionInfo.getArgs().get(
+        SmallFileDefragAction.NEW_CONTAINER_FILE);
+    List<CompactFileState> compactFileStates = null;
+    String result = actionInfo.getResult();
+    if (result != null && !result.isEmpty()) {
+      try {
+        compactFileStates = new Gson().fromJson(result,
+            new TypeToken<ArrayList<CompactFileState>>() {
+            }.getType());
+      } catch (JsonSyntaxException e) {
+        LOG.warn("Invalid result of defrag action: {}", result);
+      }
+    }
+
+    // The small files moved point to the new container file
+    if (compactFileStates != null && !compactFileStates.isEmpty()) {
+      containerFileCache.add(newContainerFilePath);
+      for (CompactFileState compactFileState : compactFileStates) {
+        handlingSmallFileCache.add(compactFileState.getPath());
+        compactFileStateQueue.offer(compactFileState);
+      }
+    }
+    if (actionInfo.isSuccessful()) {
+      containerFileCache.remove(containerFilePath);
+    }
+
+    if (newContainerFilePath != null) {
+      containerFileLock.remove(newContainerFilePath);
+    }
+    containerFileLock.remove(containerFilePath);
+    defragContainerFiles.remove(containerFilePath);
+  }
+
   @Override
   public void onActionFinished(ActionInfo actionInfo) {
     if (actionInfo.isFinished()) {
@@ -478,6 +617,56 @@ public void onActionFinished(ActionInfo actionInfo) {
         handleCompactActionResult(actionInfo);
       } else if (UNCOMPACT_ACTION_NAME.equals(actionInfo.getActionName())) {
         handleUncompactActionResult(actionInfo);
+      } else if (DEFRAG_ACTION_NAME.equals(actionInfo.getActionName())) {
+        handleDefragActionResult(actionInfo);
+      }
+    }
+  }
+
+  /**
+   * Submit defrag actions for the container files whose ratio of dead bytes
+   * exceeds the threshold.
+   */
+  private void checkContainerFiles() {
+    List<String> containerFiles;
+    synchronized (containerFileCache) {
+      containerFiles = new ArrayList<>(containerFileCache);
+    }
+    for (String containerFile : containerFiles) {
+      if (containerFileLock.contains(containerFile)
+          || defragContainerFiles.contains(containerFile)) {
+        continue;
+      }
+      FileInfo fileInfo;
+      try {
+        fileInfo = metaStore.getFile(containerFile);
+      } catch (MetaStoreException e) {
+        LOG.error("Failed to get file info of " + containerFile, e);
+        continue;
+      }
+      if (fileInfo == null || fileInfo.getLength() == 0) {
+        continue;
+      }
+      long length = fileInfo.getLength();
+      long deadBytes;
+      synchronized (syncLock) {
+        if (hasPendingFileStates(containerFile)) {
+          continue;
+        }
+        deadBytes = length - containerFileIndex.getLiveBytes(containerFile);
+      }
+      if (deadBytes < defragDeadRatio * length) {
+        continue;
+      }
+      defragContainerFiles.add(containerFile);
+      try {
+        long cmdletId = submitCmdlet(DEFRAG_ACTION_NAME + " "
+            + SmallFileDefragAction.CONTAINER_FILE + " " + containerFile);
+        LOG.info("Submitted cmdlet {} to defrag {} with {} of {} bytes dead.",
+            cmdletId, containerFile, deadBytes, length);
+      } catch (IOException e) {
+        defragContainerFiles.remove(containerFile);
+        LOG.warn("Failed to submit defrag action for " + containerFile, e);
       }
     }
   }
@@ -486,6 +675,12 @@ public void onActionFinished(ActionInfo actionInfo) {
    * Sync compact file states with meta store.
    */
   private void syncMetaStore() {
+    synchronized (syncLock) {
+      doSyncMetaStore();
+    }
+  }
+
+  private void doSyncMetaStore() {
     List<CompactFileState> compactFileStates = new ArrayList<>();
 
     // Get compact file states from compactFileStateQueue
@@ -544,6 +739,20 @@ public void run() {
     }
   }
 
+  /**
+   * Scheduled task to defrag container files.
+   */
+  private class DefragCheckTask implements Runnable {
+    @Override
+    public void run() {
+      try {
+        checkContainerFiles();
+      } catch (Throwable t) {
+        LOG.error("Failed to check container files for defrag.", t);
+      }
+    }
+  }
+
   @Override
   public void stop() throws IOException {
     try {
@@ -0,0 +1,115 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.hdfs;
+
+import org.apache.commons.lang.SerializationUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.hdfs.DFSClient;
+import org.apache.hadoop.hdfs.DFSInputStream;
+import org.apache.hadoop.hdfs.HdfsConfiguration;
+import org.apache.hadoop.hdfs.SmartInputStreamFactory;
+import org.smartdata.SmartConstants;
+import org.smartdata.model.CompactFileState;
+import org.smartdata.model.FileState;
+
+import java.io.IOException;
+
+/**
+ * A benchmark tool comparing the read throughput of a normal file and of a
+ * small file compacted into a container file, the same way SmartDFSClient
+ * opens them. Each file is opened once and read from the start in the
+ * given number of rounds, with reads of the given size. Usage:
+ * <pre>
+ *   SmallFileReadBenchmark normalFile compactedFile rounds readSize
+ * </pre>
+ */
+public class SmallFileReadBenchmark {
+
+  /**
+   * Run the benchmark and print the result.
+   * @return bytes of the compacted file read in each round
+   */
+  public static long performBench(DFSClient dfsClient, String normalFile,
+      String compactedFile, int rounds, int readSize) throws IOException {
+    byte[] xattr = dfsClient.getXAttr(compactedFile, SmartConstants.SMART_FILE_STATE_XATTR_NAME);
+    FileState fileState = xattr == null ? null : (FileState) SerializationUtils.deserialize(xattr);
+    if (!(fileState instanceof CompactFileState)) {
+      throw new IOException(compactedFile + " is not compacted");
+    }
+    DFSInputStream normal = dfsClient.open(normalFile);
+    DFSInputStream compacted =
+        SmartInputStreamFactory.get().create(dfsClient, compactedFile, true, fileState);
+    try {
+      // Warm up the block readers and the JIT
+      readRounds(normal, Math.max(1, rounds / 10), readSize);
+      readRounds(compacted, Math.max(1, rounds / 10), readSize);
+      long[] nanos = new long[2];
+      long[] bytes = new long[2];
+      DFSInputStream[] streams = new DFSInputStream[] {normal, compacted};
+      for (int i = 0; i < streams.length; i++) {
+        long startTime = System.nanoTime();
+        bytes[i] = readRounds(streams[i], rounds, readSize);
+        nanos[i] = Math.max(1, System.nanoTime() - startTime);
+      }
+      System.out.println(String.format("%d rounds of %d byte reads: normal file %.1f MB/s "
+              + "%.1fns per read, compacted file %.1f MB/s %.1fns per read",
+          rounds, readSize,
+          bytes[0] * 1e3 / nanos[0], (double) nanos[0] * readSize / Math.max(1, bytes[0]),
+          bytes[1] * 1e3 / nanos[1], (double) nanos[1] * readSize / Math.max(1, bytes[1])));
+      return bytes[1] / rounds;
+    } finally {
+      normal.close();
+      compacted.close();
+    }
+  }
+
+  private static long readRounds(DFSInputStream in, int rounds, int readSize)
+      throws IOException {
+    byte[] buf = new byte[readSize];
+    long total = 0;
+    for (int i = 0; i < rounds; i++) {
+      in.seek(0);
+      int n;
+      while ((n = in.read(buf, 0, readSize)) > 0) {
+        total += n;
+      }
+    }
+    return total;
+  }
+
+  private static void printUsage() {
+    System.out.println(
+        "Usage: SmallFileReadBenchmark normalFile compactedFile rounds readSize");
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length != 4) {
+      printUsage();
+      System.exit(1);
+    }
+    Configuration conf = new HdfsConfiguration();
+    DFSClient dfsClient = new DFSClient(FileSystem.getDefaultUri(conf), conf);
+    try {
+      performBench(dfsClient, args[0], args[1], Integer.parseInt(args[2]),
+          Integer.parseInt(args[3]));
+    } finally {
+      dfsClient.close();
+    }
+  }
+}
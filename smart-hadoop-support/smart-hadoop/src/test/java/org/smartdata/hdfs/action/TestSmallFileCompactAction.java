@@ -18,14 +18,21 @@
 package org.smartdata.hdfs.action;
 
 import com.google.gson.Gson;
+import org.apache.commons.lang.SerializationUtils;
 import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hdfs.protocol.HdfsFileStatus;
+import org.apache.hadoop.io.IOUtils;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Test;
+import org.smartdata.SmartConstants;
+import org.smartdata.conf.SmartConfKeys;
 import org.smartdata.hdfs.MiniClusterHarness;
+import org.smartdata.model.CompactFileState;
 
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -76,6 +83,61 @@ public void testAction() throws Exception {
     Assert.assertEquals(sumFileLen, containerFileInfo.getLen());
   }
 
+  @Test
+  public void testPipelinedCopy() throws Exception {
+    // Files larger than the buffer are copied directly
+    smartContext.getConf().setInt(SmartConfKeys.SMART_COMPACT_READ_BUFFER_KB_KEY, 4);
+    smartContext.getConf().setInt(SmartConfKeys.SMART_COMPACT_READ_THREADS_KEY, 2);
+    int[] lengths = {100, 10000, 0, 4096, 1, 5000, 300};
+    List<String> smallFileList = new ArrayList<>();
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    Random rb = new Random(2018);
+    for (int i = 0; i < lengths.length; i++) {
+      String fileName = "/test/small_files/file_" + i;
+      byte[] data = new byte[lengths[i]];
+      rb.nextBytes(data);
+      FSDataOutputStream out = dfs.create(new Path(fileName), (short) 1);
+      out.write(data);
+      out.close();
+      expected.write(data);
+      smallFileList.add(fileName);
+    }
+    smallFileList.add("/test/small_files/not_exist");
+
+    SmallFileCompactAction smallFileCompactAction = new SmallFileCompactAction();
+    smallFileCompactAction.setDfsClient(dfsClient);
+    smallFileCompactAction.setContext(smartContext);
+    Map<String , String> args = new HashMap<>();
+    args.put(SmallFileCompactAction.FILE_PATH , new Gson().toJson(smallFileList));
+    args.put(SmallFileCompactAction.CONTAINER_FILE, "/test/small_files/container_file");
+    smallFileCompactAction.init(args);
+    smallFileCompactAction.run();
+    Assert.assertTrue(smallFileCompactAction.getExpectedAfterRun());
+
+    byte[] container = new byte[expected.size()];
+    try (InputStream in = dfsClient.open("/test/small_files/container_file")) {
+      IOUtils.readFully(in, container, 0, container.length);
+      Assert.assertEquals(-1, in.read());
+    }
+    Assert.assertArrayEquals(expected.toByteArray(), container);
+
+    long offset = 0;
+    for (int i = 0; i < lengths.length; i++) {
+      String fileName = "/test/small_files/file_" + i;
+      Assert.assertEquals(0, dfsClient.getFileInfo(fileName).getLen());
+      byte[] xAttr = dfsClient.getXAttrs(fileName)
+          .get(SmartConstants.SMART_FILE_STATE_XATTR_NAME);
+      if (lengths[i] == 0) {
+        Assert.assertNull(xAttr);
+        continue;
+      }
+      CompactFileState state = (CompactFileState) SerializationUtils.deserialize(xAttr);
+      Assert.assertEquals(offset, state.getFileContainerInfo().getOffset());
+      Assert.assertEquals(lengths[i], state.getFileContainerInfo().getLength());
+      offset += lengths[i];
+    }
+  }
+
   @After
   public void tearDown() throws Exception {
     dfs.getClient().delete("/test", true);
@@ -0,0 +1,119 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.hdfs.action;
+
+import com.google.gson.Gson;
+import org.apache.commons.lang.SerializationUtils;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.Path;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.smartdata.SmartConstants;
+import org.smartdata.hdfs.MiniClusterHarness;
+import org.smartdata.model.CompactFileState;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class TestSmallFileDefragAction extends MiniClusterHarness {
+  private static final String CONTAINER_FILE = "/test/small_files/container_file";
+  private static final String NEW_CONTAINER_FILE = "/test/small_files/container_file_new";
+
+  @Before
+  public void compact() throws Exception {
+    List<String> smallFileList = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      String fileName = "/test/small_files/file_" + i;
+      FSDataOutputStream out = dfs.create(new Path(fileName), (short) 1);
+      out.write(new byte[10 * (i + 1)]);
+      out.close();
+      smallFileList.add(fileName);
+    }
+    SmallFileCompactAction smallFileCompactAction = new SmallFileCompactAction();
+    smallFileCompactAction.setDfsClient(dfsClient);
+    smallFileCompactAction.setContext(smartContext);
+    Map<String, String> args = new HashMap<>();
+    args.put(SmallFileCompactAction.FILE_PATH, new Gson().toJson(smallFileList));
+    args.put(SmallFileCompactAction.CONTAINER_FILE, CONTAINER_FILE);
+    smallFileCompactAction.init(args);
+    smallFileCompactAction.run();
+    Assert.assertTrue(smallFileCompactAction.isSuccessful());
+  }
+
+  @Test
+  public void testDefrag() throws Exception {
+    List<CompactFileState> liveFiles = new ArrayList<>();
+    liveFiles.add(getState("/test/small_files/file_1"));
+    liveFiles.add(getState("/test/small_files/file_2"));
+    dfsClient.delete("/test/small_files/file_0", false);
+
+    SmallFileDefragAction action = runDefrag(liveFiles);
+    Assert.assertTrue(action.isSuccessful());
+    Assert.assertFalse(dfsClient.exists(CONTAINER_FILE));
+    Assert.assertEquals(50, dfsClient.getFileInfo(NEW_CONTAINER_FILE).getLen());
+    CompactFileState state = getState("/test/small_files/file_2");
+    Assert.assertEquals(NEW_CONTAINER_FILE,
+        state.getFileContainerInfo().getContainerFilePath());
+    Assert.assertEquals(20, state.getFileContainerInfo().getOffset());
+  }
+
+  @Test
+  public void testRenamedFileKeepsContainer() throws Exception {
+    List<CompactFileState> liveFiles = new ArrayList<>();
+    liveFiles.add(getState("/test/small_files/file_1"));
+    liveFiles.add(getState("/test/small_files/file_2"));
+    dfsClient.delete("/test/small_files/file_0", false);
+    // Renamed after the defrag is scheduled
+    dfsClient.rename("/test/small_files/file_1", "/test/small_files/file_1_renamed", null);
+
+    SmallFileDefragAction action = runDefrag(liveFiles);
+    Assert.assertFalse(action.isSuccessful());
+    Assert.assertTrue(dfsClient.exists(CONTAINER_FILE));
+    Assert.assertEquals(CONTAINER_FILE, getState("/test/small_files/file_1_renamed")
+        .getFileContainerInfo().getContainerFilePath());
+    Assert.assertEquals(NEW_CONTAINER_FILE, getState("/test/small_files/file_2")
+        .getFileContainerInfo().getContainerFilePath());
+  }
+
+  private SmallFileDefragAction runDefrag(List<CompactFileState> liveFiles) {
+    SmallFileDefragAction action = new SmallFileDefragAction();
+    action.setDfsClient(dfsClient);
+    action.setContext(smartContext);
+    Map<String, String> args = new HashMap<>();
+    args.put(SmallFileDefragAction.FILE_PATH, new Gson().toJson(liveFiles));
+    args.put(SmallFileDefragAction.CONTAINER_FILE, CONTAINER_FILE);
+    args.put(SmallFileDefragAction.NEW_CONTAINER_FILE, NEW_CONTAINER_FILE);
+    action.init(args);
+    action.run();
+    return action;
+  }
+
+  private CompactFileState getState(String path) throws Exception {
+    byte[] value = dfsClient.getXAttrs(path).get(SmartConstants.SMART_FILE_STATE_XATTR_NAME);
+    return (CompactFileState) SerializationUtils.deserialize(value);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    dfs.getClient().delete("/test", true);
+  }
+}
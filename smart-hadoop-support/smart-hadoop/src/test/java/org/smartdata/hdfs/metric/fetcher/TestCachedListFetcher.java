@@ -20,15 +20,21 @@
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RemoteIterator;
 import org.apache.hadoop.hdfs.DFSClient;
 import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.DistributedFileSystem;
 import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.protocol.CacheDirectiveEntry;
+import org.apache.hadoop.hdfs.protocol.CacheDirectiveInfo;
 import org.apache.hadoop.hdfs.server.balancer.TestBalancer;
+import org.apache.hadoop.io.nativeio.NativeIO;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.smartdata.SmartContext;
 import org.smartdata.hdfs.MiniClusterFactory;
 import org.smartdata.hdfs.action.CacheFileAction;
@@ -40,9 +46,15 @@
 import org.smartdata.metastore.TestDaoUtil;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.spy;
 
 
 public class TestCachedListFetcher extends TestDaoUtil {
@@ -60,6 +72,8 @@ public class TestCachedListFetcher extends TestDaoUtil {
 
   static {
     TestBalancer.initTestSetup();
+    // Cache blocks without locking memory
+    NativeIO.POSIX.setCacheManipulator(new NativeIO.POSIX.NoMlockCacheManipulator());
   }
 
   @Before
@@ -74,7 +88,8 @@ public void init() throws Exception {
     dfsClient = dfs.getClient();
     smartContext = new SmartContext(conf);
     metaStore = new MetaStore(druidPool);
-    cachedListFetcher = new CachedListFetcher(600l, dfsClient, metaStore);
+    // Reconciled frequently to find the directives changed by actions directly
+    cachedListFetcher = new CachedListFetcher(600l, 600l, dfsClient, metaStore);
   }
 
   static void initConf(Configuration conf) {
@@ -83,6 +98,9 @@ static void initConf(Configuration conf) {
     conf.setLong(DFSConfigKeys.DFS_HEARTBEAT_INTERVAL_KEY, 1L);
     conf.setLong(DFSConfigKeys.DFS_NAMENODE_REPLICATION_INTERVAL_KEY, 1L);
     conf.setLong(DFSConfigKeys.DFS_BALANCER_MOVEDWINWIDTH_KEY, 2000L);
+    conf.setLong(DFSConfigKeys.DFS_DATANODE_MAX_LOCKED_MEMORY_KEY, 64 * 1024L);
+    conf.setLong(DFSConfigKeys.DFS_NAMENODE_PATH_BASED_CACHE_REFRESH_INTERVAL_MS, 500L);
+    conf.setLong(DFSConfigKeys.DFS_CACHEREPORT_INTERVAL_MSEC_KEY, 500L);
   }
 
   @After
@@ -160,4 +178,96 @@ public void testFetcher() throws Exception {
     cachedFileStatuses = cachedListFetcher.getCachedList();
     Assert.assertTrue(cachedFileStatuses.size() == fids.length - unCachedSize);
   }
+
+  @Test
+  public void testCachedBytes() throws Exception {
+    cachedListFetcher.stop();
+    cachedListFetcher = new CachedListFetcher(200L, 60 * 1000L, dfsClient, metaStore);
+    String path = "/fileTest/cache/bytes";
+    // Cached with the replication of the file
+    FSDataOutputStream out = dfs.create(new Path(path), (short) 1);
+    out.write(new byte[DEFAULT_BLOCK_SIZE * 2]);
+    out.close();
+    FileInfo fileInfo = createFileStatus(path);
+    metaStore.insertFiles(new FileInfo[] {fileInfo});
+    CacheFileAction cacheAction = new CacheFileAction();
+    cacheAction.setContext(smartContext);
+    cacheAction.setDfsClient(dfsClient);
+    Map<String, String> args = new HashMap();
+    args.put(CacheFileAction.FILE_PATH, path);
+    cacheAction.init(args);
+    cacheAction.run();
+    Assert.assertTrue(cacheAction.isSuccessful());
+
+    cachedListFetcher.start();
+    long bytesCached = 0;
+    for (int i = 0; i < 100 && bytesCached < DEFAULT_BLOCK_SIZE * 2; i++) {
+      Thread.sleep(200);
+      CachedFileStatus status = metaStore.getCachedFileStatus(fileInfo.getFileId());
+      bytesCached = status == null ? 0 : status.getBytesCached();
+    }
+    // Updated by the pool stats fetch, not by the initial reconcile only
+    Assert.assertEquals(DEFAULT_BLOCK_SIZE * 2, bytesCached);
+    Assert.assertEquals(DEFAULT_BLOCK_SIZE * 2, cachedListFetcher.getCacheUsed());
+  }
+
+  @Test
+  public void testReconcileWithCacheAction() throws Exception {
+    cachedListFetcher.stop();
+    final String path = "/fileTest/cache/racing";
+    FSDataOutputStream out = dfs.create(new Path(path));
+    out.writeChars("testReconcile");
+    out.close();
+    final FileInfo fileInfo = createFileStatus(path);
+    metaStore.insertFiles(new FileInfo[] {fileInfo});
+
+    // Cached by an action right after the directives are listed
+    DFSClient client = spy(dfsClient);
+    final AtomicBoolean cached = new AtomicBoolean(false);
+    doAnswer(new Answer<RemoteIterator<CacheDirectiveEntry>>() {
+      @Override
+      public RemoteIterator<CacheDirectiveEntry> answer(InvocationOnMock invocation)
+          throws Throwable {
+        RemoteIterator<CacheDirectiveEntry> iter =
+            (RemoteIterator<CacheDirectiveEntry>) invocation.callRealMethod();
+        final List<CacheDirectiveEntry> entries = new ArrayList<>();
+        while (iter.hasNext()) {
+          entries.add(iter.next());
+        }
+        if (cached.compareAndSet(false, true)) {
+          CacheFileAction cacheAction = new CacheFileAction();
+          cacheAction.setContext(smartContext);
+          cacheAction.setDfsClient(dfsClient);
+          Map<String, String> args = new HashMap<>();
+          args.put(CacheFileAction.FILE_PATH, path);
+          cacheAction.init(args);
+          cacheAction.run();
+          Assert.assertTrue(cacheAction.isSuccessful());
+          metaStore.insertCachedFiles(fileInfo.getFileId(), path, 0, 0, 0);
+        }
+        return new RemoteIterator<CacheDirectiveEntry>() {
+          private int index = 0;
+
+          @Override
+          public boolean hasNext() {
+            return index < entries.size();
+          }
+
+          @Override
+          public CacheDirectiveEntry next() {
+            return entries.get(index++);
+          }
+        };
+      }
+    }).when(client).listCacheDirectives(any(CacheDirectiveInfo.class));
+
+    cachedListFetcher = new CachedListFetcher(60 * 1000L, 60 * 1000L, client, metaStore);
+    cachedListFetcher.start();
+    while (!cached.get()) {
+      Thread.sleep(100);
+    }
+    Thread.sleep(1000);
+    Assert.assertEquals(Collections.singletonList(fileInfo.getFileId()),
+        metaStore.getCachedFids());
+  }
 }
@@ -0,0 +1,104 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.hdfs.metric.fetcher;
+
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.hdfs.DFSTestUtil;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.protocol.HdfsConstants;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.smartdata.conf.SmartConf;
+import org.smartdata.metastore.MetaStore;
+import org.smartdata.metastore.TestDaoUtil;
+import org.smartdata.model.FileInfo;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+public class TestFsImageLoader extends TestDaoUtil {
+  private MetaStore metaStore;
+
+  @Before
+  public void init() throws Exception {
+    initDao();
+    metaStore = new MetaStore(druidPool);
+  }
+
+  @After
+  public void close() throws Exception {
+    closeDao();
+  }
+
+  @Test
+  public void testLoadFsImage() throws Exception {
+    SmartConf conf = new SmartConf();
+    MiniDFSCluster cluster = new MiniDFSCluster.Builder(conf).numDataNodes(1).build();
+    try {
+      DistributedFileSystem dfs = cluster.getFileSystem();
+      dfs.mkdirs(new Path("/user/a"), new FsPermission("750"));
+      DFSTestUtil.createFile(dfs, new Path("/user/a/f1"), 1500, (short) 1, 0);
+      DFSTestUtil.createFile(dfs, new Path("/user/f2"), 10, (short) 1, 0);
+      dfs.mkdirs(new Path("/tmp"));
+      dfs.setStoragePolicy(new Path("/tmp"), "COLD");
+      // Removed before saving, not in the image
+      DFSTestUtil.createFile(dfs, new Path("/user/f3"), 10, (short) 1, 0);
+      dfs.delete(new Path("/user/f3"), false);
+
+      dfs.setSafeMode(HdfsConstants.SafeModeAction.SAFEMODE_ENTER);
+      dfs.saveNamespace();
+      dfs.setSafeMode(HdfsConstants.SafeModeAction.SAFEMODE_LEAVE);
+      File image = cluster.getNameNode().getFSImage().getStorage().getHighestFsImageName();
+
+      // Stale files are replaced
+      metaStore.insertFile(new FileInfo("/stale", 1, 0, false, (short) 1, 0, 0, 0,
+          (short) 0, "", "", (byte) 0));
+      FsImageLoader loader = new FsImageLoader(image, metaStore, conf);
+      String imageName = image.getName();
+      Assert.assertEquals(Long.parseLong(imageName.substring(imageName.lastIndexOf('_') + 1)),
+          loader.getTransactionId());
+      Assert.assertEquals(6, loader.load());
+
+      Map<String, FileInfo> files = new HashMap<>();
+      for (FileInfo info : metaStore.getFile()) {
+        files.put(info.getPath(), info);
+      }
+      Assert.assertEquals(6, files.size());
+      for (String path : new String[] {"/", "/user", "/user/a", "/user/a/f1",
+          "/user/f2", "/tmp"}) {
+        Assert.assertTrue(path, files.containsKey(path));
+        Assert.assertEquals(dfs.getClient().getFileInfo(path).getFileId(),
+            files.get(path).getFileId());
+      }
+      FileInfo f1 = files.get("/user/a/f1");
+      Assert.assertEquals(1500, f1.getLength());
+      Assert.assertFalse(f1.isdir());
+      Assert.assertEquals(dfs.getFileStatus(new Path("/user/a/f1")).getOwner(), f1.getOwner());
+      Assert.assertEquals((short) 0750, files.get("/user/a").getPermission());
+      Assert.assertEquals(dfs.getClient().getFileInfo("/tmp").getStoragePolicy(),
+          files.get("/tmp").getStoragePolicy());
+    } finally {
+      cluster.shutdown();
+    }
+  }
+}
@@ -28,7 +28,10 @@
 import org.junit.Test;
 import org.mockito.Matchers;
 import org.mockito.Mockito;
+import org.smartdata.conf.SmartConf;
+import org.smartdata.conf.SmartConfKeys;
 import org.smartdata.hdfs.HadoopUtil;
+import org.smartdata.metastore.DBType;
 import org.smartdata.metastore.MetaStore;
 
 import org.smartdata.metastore.TestDaoUtil;
@@ -41,6 +44,7 @@
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 public class TestInotifyEventApplier extends TestDaoUtil {
   private MetaStore metaStore = null;
@@ -229,6 +233,72 @@ public void testApplierCreateEvent() throws Exception {
     }
   }
 
+  @Test
+  public void testApplierCoalesceEvents() throws Exception {
+    DFSClient client = Mockito.mock(DFSClient.class);
+    InotifyEventApplier applier = new InotifyEventApplier(metaStore, client);
+    metaStore.insertFile(
+        HadoopUtil.convertFileStatus(getDummyFileStatus("/data/old", 9000), "/data/old"));
+    Mockito.when(client.getFileInfo("/data/new"))
+        .thenReturn(getDummyFileStatus("/data/new", 9001));
+
+    List<Event> events = new ArrayList<>();
+    events.add(new Event.CreateEvent.Builder().path("/data/new")
+        .iNodeType(Event.CreateEvent.INodeType.FILE).build());
+    events.add(new Event.CloseEvent("/data/new", 10, 1));
+    events.add(new Event.CloseEvent("/data/new", 20, 2));
+    events.add(new Event.CloseEvent("/data/old", 30, 3));
+    events.add(new Event.MetadataUpdateEvent.Builder().path("/data/old")
+        .metadataType(Event.MetadataUpdateEvent.MetadataType.OWNER)
+        .ownerName("user2").groupName("cg2").build());
+    events.add(new Event.CloseEvent("/data/old", 40, 4));
+    applier.apply(events);
+
+    Mockito.verify(client, Mockito.times(1)).getFileInfo("/data/new");
+    Assert.assertEquals(9001L, metaStore.getFile("/data/new").getFileId());
+    FileInfo old = metaStore.getFile("/data/old");
+    Assert.assertEquals(40, old.getLength());
+    Assert.assertEquals(4, old.getModificationTime());
+    Assert.assertEquals("user2", old.getOwner());
+    Assert.assertEquals(6, applier.getAppliedEvents());
+    Assert.assertEquals(4, applier.getCoalescedEvents());
+  }
+
+  @Test
+  public void testApplyOnSqlite() throws Exception {
+    DFSClient client = Mockito.mock(DFSClient.class);
+    SmartConf conf = new SmartConf();
+    conf.setInt(SmartConfKeys.SMART_INOTIFY_APPLY_THREADS_KEY, 4);
+    // SQLite does not support concurrent writers
+    Assert.assertEquals(DBType.SQLITE, metaStore.getDbType());
+    InotifyEventApplier applier = InotifyEventFetcher.createApplier(client, metaStore, conf);
+    Assert.assertEquals(1, applier.getNumThreads());
+    List<Event> events = new ArrayList<>();
+    for (int i = 0; i < 40; i++) {
+      String path = "/p/d" + (i % 8) + "/f" + i;
+      Mockito.when(client.getFileInfo(path)).thenReturn(getDummyFileStatus(path, 10000 + i));
+      events.add(new Event.CreateEvent.Builder().path(path)
+          .iNodeType(Event.CreateEvent.INodeType.FILE).build());
+    }
+    Mockito.when(client.getFileInfo("/p/d0")).thenReturn(getDummyDirStatus("/p/d0", 9999));
+    events.add(new Event.CreateEvent.Builder().path("/p/d0")
+        .iNodeType(Event.CreateEvent.INodeType.DIRECTORY).build());
+    // Applied after all the events before it
+    events.add(new Event.RenameEvent.Builder().srcPath("/p/d0").dstPath("/p/x").build());
+    events.add(new Event.CloseEvent("/p/x/f0", 100, 1));
+    try {
+      applier.apply(events);
+    } finally {
+      applier.close();
+    }
+
+    Assert.assertEquals(41, metaStore.getFile().size());
+    Assert.assertNull(metaStore.getFile("/p/d0/f8"));
+    Assert.assertEquals(10008L, metaStore.getFile("/p/x/f8").getFileId());
+    Assert.assertEquals(100, metaStore.getFile("/p/x/f0").getLength());
+    Assert.assertEquals(10039L, metaStore.getFile("/p/d7/f39").getFileId());
+  }
+
   @Test
   public void testApplierRenameEvent() throws Exception {
     DFSClient client = Mockito.mock(DFSClient.class);
@@ -246,6 +316,8 @@ public void testApplierRenameEvent() throws Exception {
         HadoopUtil.convertFileStatus(getDummyFileStatus("/dir/dir/f1", 8201), "/dir/dir/f1"),
     };
     metaStore.insertFiles(fileInfos);
+    // Resolved file ids are cached
+    Assert.assertEquals(2, metaStore.getFileIDs(Arrays.asList("/dir/file1", "/dir/dir/f1")).size());
     Mockito.when(client.getFileInfo("/dir1")).thenReturn(getDummyDirStatus("/dir1", 8000));
     Event.RenameEvent dirRenameEvent = new Event.RenameEvent.Builder()
         .srcPath("/dir")
@@ -260,6 +332,11 @@ public void testApplierRenameEvent() throws Exception {
     Assert.assertTrue(metaStore.getFile("/dir1/dir/f1") != null);
     Assert.assertTrue(metaStore.getFile("/dir2") != null);
     Assert.assertTrue(metaStore.getFile("/dir2/file1") != null);
+    Map<String, Long> pathToFids =
+        metaStore.getFileIDs(Arrays.asList("/dir/file1", "/dir1/file1", "/dir1/dir/f1"));
+    Assert.assertFalse(pathToFids.containsKey("/dir/file1"));
+    Assert.assertEquals(8001L, (long) pathToFids.get("/dir1/file1"));
+    Assert.assertEquals(8201L, (long) pathToFids.get("/dir1/dir/f1"));
 
     List<Event> events = new ArrayList<>();
     Event.RenameEvent renameEvent = new Event.RenameEvent.Builder()
@@ -299,6 +376,28 @@ public void testApplierRenameEvent() throws Exception {
     Assert.assertTrue(info4 == null && info5 != null);
   }
 
+  @Test
+  public void testCachedFilesRenamedOrDeleted() throws Exception {
+    DFSClient client = Mockito.mock(DFSClient.class);
+    InotifyEventApplier applier = new InotifyEventApplier(metaStore, client);
+    metaStore.insertFiles(new FileInfo[] {
+        HadoopUtil.convertFileStatus(getDummyDirStatus("/c", 9000), "/c"),
+        HadoopUtil.convertFileStatus(getDummyFileStatus("/c/f1", 9001), "/c/f1"),
+        HadoopUtil.convertFileStatus(getDummyFileStatus("/c/f2", 9002), "/c/f2"),
+        HadoopUtil.convertFileStatus(getDummyFileStatus("/cf", 9003), "/cf"),
+        HadoopUtil.convertFileStatus(getDummyFileStatus("/g", 9004), "/g")});
+    metaStore.insertCachedFiles(9001, "/c/f1", 0, 0, 0);
+    metaStore.insertCachedFiles(9002, "/c/f2", 0, 0, 0);
+    metaStore.insertCachedFiles(9003, "/cf", 0, 0, 0);
+    metaStore.insertCachedFiles(9004, "/g", 0, 0, 0);
+
+    Mockito.when(client.getFileInfo("/d")).thenReturn(getDummyDirStatus("/d", 9000));
+    applier.apply(new Event[] {
+        new Event.RenameEvent.Builder().srcPath("/c").dstPath("/d").build(),
+        new Event.UnlinkEvent.Builder().path("/g").build()});
+    Assert.assertEquals(Arrays.asList(9003L), metaStore.getCachedFids());
+  }
+
   private HdfsFileStatus getDummyFileStatus(String file, long fid) {
     return doGetDummyStatus(file, fid, false);
   }
@@ -22,26 +22,47 @@
 import org.apache.hadoop.fs.permission.FsPermission;
 import org.apache.hadoop.hdfs.DFSClient;
 import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.MiniDFSCluster;
 import org.apache.hadoop.hdfs.inotify.MissingEventsException;
+import org.apache.hadoop.hdfs.protocol.DirectoryListing;
+import org.junit.After;
 import org.junit.Assert;
+import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mockito;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 import org.smartdata.model.FileInfo;
 import org.smartdata.conf.SmartConf;
+import org.smartdata.conf.SmartConfKeys;
 import org.smartdata.metastore.MetaStore;
 import org.smartdata.metastore.MetaStoreException;
+import org.smartdata.metastore.TestDaoUtil;
 
 import static org.mockito.Mockito.*;
 
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class TestNamespaceFetcher extends TestDaoUtil {
+  @Before
+  public void init() throws Exception {
+    initDao();
+  }
+
+  @After
+  public void close() throws Exception {
+    closeDao();
+  }
 
-public class TestNamespaceFetcher {
   @Test
   public void testNamespaceFetcher() throws IOException, InterruptedException,
       MissingEventsException, MetaStoreException {
@@ -57,7 +78,8 @@ public void testNamespaceFetcher() throws IOException, InterruptedException,
       DFSClient client = dfs.getClient();
 
       MetaStore adapter = Mockito.mock(MetaStore.class);
-      final List<String> pathesInDB = new ArrayList<>();
+      final List<String> pathesInDB =
+          Collections.synchronizedList(new ArrayList<String>());
       doAnswer(new Answer<Void>() {
         @Override
         public Void answer(InvocationOnMock invocationOnMock) {
@@ -71,7 +93,8 @@ public Void answer(InvocationOnMock invocationOnMock) {
           }
           return null;
         }
-      }).when(adapter).insertFiles(any(FileInfo[].class));
+      }).when(adapter).commitNamespaceFetch(any(FileInfo[].class), anyList(),
+          anyMap(), anyList());
       NamespaceFetcher fetcher = new NamespaceFetcher(client, adapter, 100);
       fetcher.startFetch();
       List<String> expected = Arrays.asList("/", "/user", "/user/user1", "/user/user2", "/tmp");
@@ -84,4 +107,121 @@ public Void answer(InvocationOnMock invocationOnMock) {
       cluster.shutdown();
     }
   }
+
+  @Test
+  public void testResumeFromCheckpoint() throws Exception {
+    final Configuration conf = new SmartConf();
+    // List 2 entries per call to checkpoint in the middle of a directory
+    conf.setInt(DFSConfigKeys.DFS_LIST_LIMIT, 2);
+    final MiniDFSCluster cluster = new MiniDFSCluster.Builder(conf)
+        .numDataNodes(1).build();
+    try {
+      final DistributedFileSystem dfs = cluster.getFileSystem();
+      dfs.mkdir(new Path("/dir"), new FsPermission("777"));
+      for (int i = 0; i < 5; i++) {
+        dfs.create(new Path("/dir/f" + i)).close();
+      }
+      dfs.mkdir(new Path("/dir/sub"), new FsPermission("777"));
+      dfs.create(new Path("/dir/sub/f")).close();
+      DFSClient client = dfs.getClient();
+      MetaStore metaStore = new MetaStore(druidPool);
+
+      // Interrupted after "/" and the first page of "/dir" are persisted
+      metaStore.resetNamespaceCheckpoints("/");
+      FileInfo[] fetched = new FileInfo[] {
+          dummyFile("/", 1, true), dummyFile("/dir", 2, true),
+          dummyFile("/dir/f0", 3, false), dummyFile("/dir/f1", 4, false)};
+      Map<String, String> cursors = new HashMap<>();
+      cursors.put("/dir", "f1");
+      metaStore.commitNamespaceFetch(fetched, Arrays.asList("/dir"), cursors,
+          Arrays.asList("/"));
+
+      NamespaceFetcher fetcher = new NamespaceFetcher(client, metaStore, 100,
+          null, new SmartConf());
+      Assert.assertTrue(fetcher.hasCheckpoint());
+      fetcher.startFetch();
+      while (!fetcher.fetchFinished()) {
+        Thread.sleep(100);
+      }
+      fetcher.stop();
+
+      Set<String> paths = new HashSet<>();
+      for (FileInfo info : metaStore.getFile()) {
+        Assert.assertTrue(info.getPath() + " fetched twice", paths.add(info.getPath()));
+      }
+      Set<String> expected = new HashSet<>(Arrays.asList("/", "/dir", "/dir/f0",
+          "/dir/f1", "/dir/f2", "/dir/f3", "/dir/f4", "/dir/sub", "/dir/sub/f"));
+      Assert.assertEquals(expected, paths);
+      Assert.assertFalse(fetcher.hasCheckpoint());
+    } finally {
+      cluster.shutdown();
+    }
+  }
+
+  @Test
+  public void testListRetry() throws Exception {
+    final SmartConf conf = new SmartConf();
+    conf.setInt(SmartConfKeys.SMART_NAMESPACE_FETCHER_LIST_RETRIES_KEY, 2);
+    conf.setLong(SmartConfKeys.SMART_NAMESPACE_FETCHER_LIST_RETRY_INTERVAL_MS_KEY, 10L);
+    final MiniDFSCluster cluster = new MiniDFSCluster.Builder(conf)
+        .numDataNodes(1).build();
+    try {
+      final DistributedFileSystem dfs = cluster.getFileSystem();
+      dfs.mkdir(new Path("/user"), new FsPermission("777"));
+      dfs.create(new Path("/user/user1")).close();
+      dfs.mkdir(new Path("/tmp"), new FsPermission("777"));
+      dfs.create(new Path("/tmp/file")).close();
+      DFSClient client = spy(dfs.getClient());
+      MetaStore metaStore = new MetaStore(druidPool);
+
+      // Listed after failing twice
+      doAnswer(new Answer<DirectoryListing>() {
+        private int calls = 0;
+
+        @Override
+        public DirectoryListing answer(InvocationOnMock invocation) throws Throwable {
+          if (++calls <= 2) {
+            throw new IOException("Injected");
+          }
+          return (DirectoryListing) invocation.callRealMethod();
+        }
+      }).when(client).listPaths(eq("/user"), any(byte[].class));
+      NamespaceFetcher fetcher = new NamespaceFetcher(client, metaStore, 100, null, conf);
+      fetcher.startFetch(false);
+      while (!fetcher.fetchFinished()) {
+        Assert.assertFalse(fetcher.fetchFailed());
+        Thread.sleep(100);
+      }
+      fetcher.stop();
+      Set<String> paths = new HashSet<>();
+      for (FileInfo info : metaStore.getFile()) {
+        paths.add(info.getPath());
+      }
+      Assert.assertEquals(new HashSet<>(Arrays.asList("/", "/user", "/user/user1",
+          "/tmp", "/tmp/file")), paths);
+      Assert.assertFalse(fetcher.hasCheckpoint());
+
+      // Failed after the retries, and not taken as finished
+      doThrow(new IOException("Injected")).when(client)
+          .listPaths(eq("/tmp"), any(byte[].class));
+      fetcher = new NamespaceFetcher(client, metaStore, 100, null, conf);
+      fetcher.startFetch(false);
+      while (!fetcher.fetchFailed()) {
+        Thread.sleep(100);
+      }
+      Thread.sleep(500);
+      fetcher.stop();
+      Assert.assertFalse(fetcher.fetchFinished());
+      Assert.assertEquals(Collections.singleton("/tmp"),
+          metaStore.getNamespaceCheckpoints().keySet());
+      Assert.assertNotNull(metaStore.getFile("/user/user1"));
+    } finally {
+      cluster.shutdown();
+    }
+  }
+
+  private FileInfo dummyFile(String path, long fid, boolean isDir) {
+    return new FileInfo(path, fid, 0, isDir, (short) 1, 1024, 0, 0,
+        (short) 0755, "user", "group", (byte) 0);
+  }
 }
@@ -0,0 +1,62 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.hdfs.metric.fetcher;
+
+import org.apache.hadoop.hdfs.protocol.DatanodeID;
+import org.apache.hadoop.hdfs.protocol.DatanodeInfo;
+import org.junit.Assert;
+import org.junit.Test;
+import org.smartdata.hdfs.action.move.StorageGroup;
+
+public class TestTargetReservations {
+
+  private StorageGroup target(String uuid, String type) {
+    DatanodeInfo datanode = new DatanodeInfo(
+        new DatanodeID("127.0.0.1", "localhost", uuid, 50010, 50075, 50475, 50020));
+    return new StorageGroup(datanode, type);
+  }
+
+  @Test
+  public void testReserveAndRelease() throws Exception {
+    TargetReservations reservations = new TargetReservations();
+    StorageGroup ssd1 = target("dn-1", "SSD");
+    StorageGroup disk1 = target("dn-1", "DISK");
+    StorageGroup ssd2 = target("dn-2", "SSD");
+
+    reservations.reserve(1L, ssd1, 100L);
+    reservations.reserve(1L, ssd2, 50L);
+    reservations.reserve(2L, ssd1, 30L);
+    Assert.assertEquals(130L, reservations.getReservedBytes(ssd1));
+    Assert.assertEquals(2, reservations.getPendingMoves(ssd1));
+    Assert.assertEquals(0L, reservations.getReservedBytes(disk1));
+    // Another storage group object of the same storages
+    Assert.assertEquals(50L, reservations.getReservedBytes(target("dn-2", "SSD")));
+
+    reservations.release(1L);
+    Assert.assertEquals(30L, reservations.getReservedBytes(ssd1));
+    Assert.assertEquals(1, reservations.getPendingMoves(ssd1));
+    Assert.assertEquals(0L, reservations.getReservedBytes(ssd2));
+    // Released only once
+    reservations.release(1L);
+    Assert.assertEquals(30L, reservations.getReservedBytes(ssd1));
+
+    reservations.expire(System.currentTimeMillis() + 1);
+    Assert.assertEquals(0, reservations.size());
+    Assert.assertEquals(0L, reservations.getReservedBytes(ssd1));
+  }
+}
@@ -0,0 +1,232 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.metastore;
+
+import org.smartdata.model.CompactFileState;
+import org.smartdata.model.FileContainerInfo;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * In-memory index of the live ranges of container files, i.e., the ranges
+ * holding the data of small files not deleted yet. The bytes of a container
+ * file out of its live ranges are dead and can be reclaimed by rewriting the
+ * live ranges to a new container file.
+ *
+ * <p>The index mirrors the small_file and container_file tables. It is
+ * loaded once and then updated along with the tables, so the small files of
+ * a container file are found without scanning the table. Updates are ignored
+ * before it is loaded. A container file is kept with no live range until it
+ * is deleted, so it can still be reclaimed.
+ */
+public class ContainerFileIndex {
+  // Small files sorted by path, so the files under a directory are adjacent
+  private final TreeMap<String, SmallFile> byPath = new TreeMap<>();
+  // Container files sorted by path, so are the ones under a directory
+  private final TreeMap<String, Container> containers = new TreeMap<>();
+  private boolean loaded = false;
+
+  public synchronized boolean isLoaded() {
+    return loaded;
+  }
+
+  /**
+   * Replace the index with all the compact file states and container files
+   * of the meta store.
+   */
+  public synchronized void load(List<CompactFileState> compactFileStates,
+      Collection<String> containerFiles) {
+    byPath.clear();
+    containers.clear();
+    for (String containerFile : containerFiles) {
+      containers.put(containerFile, new Container());
+    }
+    for (CompactFileState compactFileState : compactFileStates) {
+      add(compactFileState.getPath(), compactFileState.getFileContainerInfo());
+    }
+    loaded = true;
+  }
+
+  public synchronized void put(CompactFileState compactFileState) {
+    if (loaded) {
+      add(compactFileState.getPath(), compactFileState.getFileContainerInfo());
+    }
+  }
+
+  /**
+   * Remove the path and all the paths under it, their ranges become dead.
+   * The container files among them are deleted.
+   */
+  public synchronized void remove(String path) {
+    if (!loaded) {
+      return;
+    }
+    for (SmallFile smallFile : takeSubtree(path)) {
+      removeRange(smallFile);
+    }
+    String normalized = normalize(path);
+    if (normalized.equals("/")) {
+      containers.clear();
+    } else {
+      containers.remove(normalized);
+      containers.subMap(normalized + "/", normalized + "0").clear();
+    }
+  }
+
+  /**
+   * Move the path and all the paths under it to the new path, the ranges
+   * of the files replaced become dead.
+   */
+  public synchronized void rename(String src, String dest) {
+    if (!loaded) {
+      return;
+    }
+    String srcPath = normalize(src);
+    String destPath = normalize(dest);
+    if (destPath.equals(srcPath) || destPath.startsWith(srcPath + "/")) {
+      return;
+    }
+    List<SmallFile> moved = takeSubtree(srcPath);
+    remove(destPath);
+    for (SmallFile smallFile : moved) {
+      smallFile.path = destPath + smallFile.path.substring(srcPath.length());
+      byPath.put(smallFile.path, smallFile);
+    }
+  }
+
+  public synchronized void clear() {
+    byPath.clear();
+    containers.clear();
+  }
+
+  /**
+   * Get the number of live bytes of the container file.
+   */
+  public synchronized long getLiveBytes(String containerFile) {
+    Container container = containers.get(containerFile);
+    return container == null ? 0L : container.liveBytes;
+  }
+
+  /**
+   * Get the states of the small files in the container file, ordered by
+   * their offsets.
+   */
+  public synchronized List<CompactFileState> getLiveFiles(String containerFile) {
+    Container container = containers.get(containerFile);
+    List<CompactFileState> ret = new ArrayList<>();
+    if (container != null) {
+      for (SmallFile smallFile : container.ranges.values()) {
+        ret.add(new CompactFileState(smallFile.path, new FileContainerInfo(
+            containerFile, smallFile.offset, smallFile.length)));
+      }
+    }
+    return ret;
+  }
+
+  /**
+   * Get the container files not deleted, including the ones with no live
+   * range.
+   */
+  public synchronized List<String> getContainerFiles() {
+    return new ArrayList<>(containers.keySet());
+  }
+
+  public synchronized int size() {
+    return byPath.size();
+  }
+
+  private static String normalize(String path) {
+    if (path.length() > 1 && path.endsWith("/")) {
+      return path.substring(0, path.length() - 1);
+    }
+    return path;
+  }
+
+  private void add(String path, FileContainerInfo info) {
+    SmallFile old = byPath.remove(path);
+    if (old != null) {
+      removeRange(old);
+    }
+    SmallFile smallFile = new SmallFile(path, info.getContainerFilePath(),
+        info.getOffset(), info.getLength());
+    Container container = containers.get(smallFile.container);
+    if (container == null) {
+      container = new Container();
+      containers.put(smallFile.container, container);
+    }
+    SmallFile replaced = container.ranges.put(smallFile.offset, smallFile);
+    if (replaced != null) {
+      container.liveBytes -= replaced.length;
+      byPath.remove(replaced.path);
+    }
+    container.liveBytes += smallFile.length;
+    byPath.put(path, smallFile);
+  }
+
+  private void removeRange(SmallFile smallFile) {
+    Container container = containers.get(smallFile.container);
+    if (container != null && container.ranges.get(smallFile.offset) == smallFile) {
+      container.ranges.remove(smallFile.offset);
+      container.liveBytes -= smallFile.length;
+    }
+  }
+
+  // Remove the path and the paths under it from byPath
+  private List<SmallFile> takeSubtree(String path) {
+    String normalized = normalize(path);
+    List<SmallFile> ret = new ArrayList<>();
+    SortedMap<String, SmallFile> subtree;
+    if (normalized.equals("/")) {
+      subtree = byPath;
+    } else {
+      SmallFile smallFile = byPath.remove(normalized);
+      if (smallFile != null) {
+        ret.add(smallFile);
+      }
+      // '0' is next to '/'
+      subtree = byPath.subMap(normalized + "/", normalized + "0");
+    }
+    ret.addAll(subtree.values());
+    subtree.clear();
+    return ret;
+  }
+
+  private static class SmallFile {
+    private String path;
+    private final String container;
+    private final long offset;
+    private final long length;
+
+    SmallFile(String path, String container, long offset, long length) {
+      this.path = path;
+      this.container = container;
+      this.offset = offset;
+      this.length = length;
+    }
+  }
+
+  private static class Container {
+    // Live ranges by offset
+    private final TreeMap<Long, SmallFile> ranges = new TreeMap<>();
+    private long liveBytes = 0L;
+  }
+}
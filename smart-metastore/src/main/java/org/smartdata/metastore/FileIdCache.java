@@ -0,0 +1,276 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.metastore;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache from file path to file id. Paths are kept in a trie of path
+ * components, so the common parent directories of millions of files are
+ * stored once and renaming a directory just moves its subtree. The least
+ * recently used entries are evicted when the capacity is exceeded.
+ *
+ * <p>Every rename or removal bumps the version of the cache. Entries loaded
+ * from the database are only put if the version did not change since the
+ * load started, so a concurrent namespace change never leaves a stale entry.
+ */
+public class FileIdCache {
+  public static final long NONE = -1L;
+
+  private final Node root = new Node(null, "");
+  // Sentinel of the LRU list of nodes holding a file id, eldest first
+  private final Node lru = new Node(null, null);
+  private int capacity;
+  private int size = 0;
+  private long version = 0;
+  private long hits = 0;
+  private long misses = 0;
+
+  public FileIdCache(int capacity) {
+    this.capacity = capacity;
+    lru.prev = lru;
+    lru.next = lru;
+  }
+
+  public synchronized void setCapacity(int capacity) {
+    this.capacity = capacity;
+    evict();
+  }
+
+  /**
+   * Get the file id of the path.
+   * @return {@link #NONE} if not cached
+   */
+  public synchronized long get(String path) {
+    Node node = find(path);
+    if (node == null || node.fid == NONE) {
+      misses++;
+      return NONE;
+    }
+    hits++;
+    unlink(node);
+    linkLast(node);
+    return node.fid;
+  }
+
+  public synchronized long getVersion() {
+    return version;
+  }
+
+  /**
+   * Put the file ids loaded from database when the cache version was the
+   * given one, ignored if the namespace changed since then.
+   */
+  public synchronized void putAll(Map<String, Long> pathToFids, long loadVersion) {
+    if (loadVersion != version) {
+      return;
+    }
+    for (Map.Entry<String, Long> entry : pathToFids.entrySet()) {
+      Node node = findOrCreate(entry.getKey());
+      if (node.fid == NONE) {
+        size++;
+      } else {
+        unlink(node);
+      }
+      node.fid = entry.getValue();
+      linkLast(node);
+    }
+    evict();
+  }
+
+  /**
+   * Remove the path and all the paths under it.
+   */
+  public synchronized void remove(String path) {
+    version++;
+    Node node = find(path);
+    if (node != null) {
+      removeSubtree(node);
+    }
+  }
+
+  /**
+   * Move the path and all the paths under it to the new path. File ids
+   * do not change on rename.
+   */
+  public synchronized void rename(String src, String dest) {
+    version++;
+    String destPath = normalize(dest);
+    if (destPath.startsWith(normalize(src) + "/")) {
+      return;
+    }
+    Node node = find(src);
+    Node existing = find(destPath);
+    if (existing != null) {
+      removeSubtree(existing);
+    }
+    if (node == null || node == root) {
+      return;
+    }
+    Node oldParent = node.parent;
+    oldParent.children.remove(node.name);
+    prune(oldParent);
+    int index = destPath.lastIndexOf('/');
+    Node newParent = findOrCreate(destPath.substring(0, index));
+    node.name = destPath.substring(index + 1);
+    node.parent = newParent;
+    newParent.child(node.name, node);
+  }
+
+  public synchronized void clear() {
+    version++;
+    root.children = null;
+    lru.prev = lru;
+    lru.next = lru;
+    size = 0;
+  }
+
+  public synchronized int size() {
+    return size;
+  }
+
+  public synchronized long getHits() {
+    return hits;
+  }
+
+  public synchronized long getMisses() {
+    return misses;
+  }
+
+  private static String normalize(String path) {
+    if (path.length() > 1 && path.endsWith("/")) {
+      return path.substring(0, path.length() - 1);
+    }
+    return path;
+  }
+
+  private Node find(String path) {
+    Node node = root;
+    String normalized = normalize(path);
+    int start = normalized.startsWith("/") ? 1 : 0;
+    while (node != null && start < normalized.length()) {
+      int end = normalized.indexOf('/', start);
+      if (end < 0) {
+        end = normalized.length();
+      }
+      node = node.children == null
+          ? null : node.children.get(normalized.substring(start, end));
+      start = end + 1;
+    }
+    return node;
+  }
+
+  private Node findOrCreate(String path) {
+    Node node = root;
+    String normalized = normalize(path);
+    int start = normalized.startsWith("/") ? 1 : 0;
+    while (start < normalized.length()) {
+      int end = normalized.indexOf('/', start);
+      if (end < 0) {
+        end = normalized.length();
+      }
+      String name = normalized.substring(start, end);
+      Node child = node.children == null ? null : node.children.get(name);
+      if (child == null) {
+        child = new Node(node, name);
+        node.child(name, child);
+      }
+      node = child;
+      start = end + 1;
+    }
+    return node;
+  }
+
+  private void removeSubtree(Node top) {
+    ArrayDeque<Node> stack = new ArrayDeque<>();
+    stack.push(top);
+    while (!stack.isEmpty()) {
+      Node node = stack.pop();
+      if (node.fid != NONE) {
+        unlink(node);
+        node.fid = NONE;
+        size--;
+      }
+      if (node.children != null) {
+        stack.addAll(node.children.values());
+      }
+    }
+    if (top == root) {
+      root.children = null;
+      return;
+    }
+    top.parent.children.remove(top.name);
+    prune(top.parent);
+  }
+
+  // Remove the ancestors holding neither a file id nor children
+  private void prune(Node node) {
+    while (node != root && node.fid == NONE
+        && (node.children == null || node.children.isEmpty())) {
+      node.parent.children.remove(node.name);
+      node = node.parent;
+    }
+  }
+
+  private void evict() {
+    while (size > capacity && lru.next != lru) {
+      Node eldest = lru.next;
+      unlink(eldest);
+      eldest.fid = NONE;
+      size--;
+      prune(eldest);
+    }
+  }
+
+  private void unlink(Node node) {
+    node.prev.next = node.next;
+    node.next.prev = node.prev;
+    node.prev = null;
+    node.next = null;
+  }
+
+  private void linkLast(Node node) {
+    node.prev = lru.prev;
+    node.next = lru;
+    lru.prev.next = node;
+    lru.prev = node;
+  }
+
+  private static class Node {
+    private String name;
+    private Node parent;
+    private Map<String, Node> children;
+    private long fid = NONE;
+    private Node prev;
+    private Node next;
+
+    Node(Node parent, String name) {
+      this.parent = parent;
+      this.name = name;
+    }
+
+    void child(String name, Node node) {
+      if (children == null) {
+        children = new HashMap<>(4);
+      }
+      children.put(name, node);
+    }
+  }
+}
@@ -19,10 +19,13 @@
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.smartdata.conf.SmartConfKeys;
 import org.smartdata.metaservice.BackupMetaService;
 import org.smartdata.metaservice.CmdletMetaService;
 import org.smartdata.metaservice.CopyMetaService;
+import org.smartdata.metastore.dao.AccessCountBucket;
 import org.smartdata.metastore.dao.AccessCountDao;
+import org.smartdata.metastore.dao.AccessCountSnapshotDao;
 import org.smartdata.metastore.dao.AccessCountTable;
 import org.smartdata.metastore.dao.ActionDao;
 import org.smartdata.metastore.dao.BackUpInfoDao;
@@ -32,12 +35,14 @@
 import org.smartdata.metastore.dao.CmdletDao;
 import org.smartdata.metastore.dao.DataNodeInfoDao;
 import org.smartdata.metastore.dao.DataNodeStorageInfoDao;
+import org.smartdata.metastore.dao.FidCountMap;
 import org.smartdata.metastore.dao.FileDiffDao;
 import org.smartdata.metastore.dao.FileInfoDao;
 import org.smartdata.metastore.dao.FileStateDao;
 import org.smartdata.metastore.dao.GeneralDao;
 import org.smartdata.metastore.dao.GlobalConfigDao;
 import org.smartdata.metastore.dao.MetaStoreHelper;
+import org.smartdata.metastore.dao.NamespaceCheckpointDao;
 import org.smartdata.metastore.dao.RuleDao;
 import org.smartdata.metastore.dao.SmallFileDao;
 import org.smartdata.metastore.dao.StorageDao;
@@ -74,16 +79,23 @@
 import org.smartdata.model.XAttribute;
 
 import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
 
 /**
@@ -109,6 +121,7 @@ public class MetaStore implements CopyMetaService, CmdletMetaService, BackupMeta
   private XattrDao xattrDao;
   private FileDiffDao fileDiffDao;
   private AccessCountDao accessCountDao;
+  private AccessCountSnapshotDao accessCountSnapshotDao;
   private MetaStoreHelper metaStoreHelper;
   private ClusterConfigDao clusterConfigDao;
   private GlobalConfigDao globalConfigDao;
@@ -120,6 +133,10 @@ public class MetaStore implements CopyMetaService, CmdletMetaService, BackupMeta
   private FileStateDao fileStateDao;
   private GeneralDao generalDao;
   private SmallFileDao smallFileDao;
+  private NamespaceCheckpointDao namespaceCheckpointDao;
+  private final FileIdCache fileIdCache =
+      new FileIdCache(SmartConfKeys.SMART_FILE_ID_CACHE_CAPACITY_DEFAULT);
+  private final ContainerFileIndex containerFileIndex = new ContainerFileIndex();
 
   public MetaStore(DBPool pool) throws MetaStoreException {
     this.pool = pool;
@@ -127,12 +144,13 @@ public MetaStore(DBPool pool) throws MetaStoreException {
     ruleDao = new RuleDao(pool.getDataSource());
     cmdletDao = new CmdletDao(pool.getDataSource());
     actionDao = new ActionDao(pool.getDataSource());
-    fileInfoDao = new FileInfoDao(pool.getDataSource());
+    fileInfoDao = new FileInfoDao(pool.getDataSource(), dbType);
     xattrDao = new XattrDao(pool.getDataSource());
     cacheFileDao = new CacheFileDao(pool.getDataSource());
     storageDao = new StorageDao(pool.getDataSource());
     storageHistoryDao = new StorageHistoryDao(pool.getDataSource());
     accessCountDao = new AccessCountDao(pool.getDataSource());
+    accessCountSnapshotDao = new AccessCountSnapshotDao(pool.getDataSource());
     fileDiffDao = new FileDiffDao(pool.getDataSource());
     metaStoreHelper = new MetaStoreHelper(pool.getDataSource());
     clusterConfigDao = new ClusterConfigDao(pool.getDataSource());
@@ -145,6 +163,7 @@ public MetaStore(DBPool pool) throws MetaStoreException {
     fileStateDao = new FileStateDao(pool.getDataSource());
     generalDao = new GeneralDao(pool.getDataSource());
     smallFileDao = new SmallFileDao(pool.getDataSource());
+    namespaceCheckpointDao = new NamespaceCheckpointDao(pool.getDataSource());
   }
 
   private void initDbInfo() throws MetaStoreException {
@@ -310,17 +329,81 @@ public List<FileInfo> getFilesByPaths(Collection<String> paths)
     }
   }
 
+  public List<FileInfo> getFilesByFids(Collection<Long> fids)
+    throws MetaStoreException {
+    if (fids.isEmpty()) {
+      return new ArrayList<>();
+    }
+    try {
+      return fileInfoDao.getFilesByFids(fids);
+    } catch (EmptyResultDataAccessException e) {
+      return new ArrayList<>();
+    } catch (Exception e) {
+      throw new MetaStoreException(e);
+    }
+  }
+
   public Map<String, Long> getFileIDs(Collection<String> paths)
     throws MetaStoreException {
+    Map<String, Long> pathToFids = new HashMap<>();
+    List<String> toLoad = new ArrayList<>();
+    for (String path : paths) {
+      long fid = fileIdCache.get(path);
+      if (fid == FileIdCache.NONE) {
+        toLoad.add(path);
+      } else {
+        pathToFids.put(path, fid);
+      }
+    }
+    if (toLoad.isEmpty()) {
+      return pathToFids;
+    }
     try {
-      return fileInfoDao.getPathFids(paths);
+      long version = fileIdCache.getVersion();
+      Map<String, Long> loaded = fileInfoDao.getPathFids(toLoad);
+      fileIdCache.putAll(loaded, version);
+      pathToFids.putAll(loaded);
+      return pathToFids;
     } catch (EmptyResultDataAccessException e) {
-      return new HashMap<>();
+      return pathToFids;
     } catch (Exception e) {
       throw new MetaStoreException(e);
     }
   }
 
+  /**
+   * Get the cache used to resolve file ids of paths. It has to be updated
+   * by whoever changes paths in the file table without using MetaStore.
+   */
+  public FileIdCache getFileIdCache() {
+    return fileIdCache;
+  }
+
+  /**
+   * Get the index of container files, which is updated by the meta store
+   * after loaded by {@link #loadContainerFileIndex()}.
+   */
+  public ContainerFileIndex getContainerFileIndex() {
+    return containerFileIndex;
+  }
+
+  /**
+   * Load the index of container files from the small_file table if not
+   * loaded yet.
+   */
+  public ContainerFileIndex loadContainerFileIndex() throws MetaStoreException {
+    synchronized (containerFileIndex) {
+      if (!containerFileIndex.isLoaded()) {
+        try {
+          containerFileIndex.load(smallFileDao.getAll(), smallFileDao.getAllContainerFiles());
+        } catch (Exception e) {
+          throw new MetaStoreException(e);
+        }
+      }
+    }
+    return containerFileIndex;
+  }
+
   public Map<Long, String> getFilePaths(Collection<Long> ids)
     throws MetaStoreException {
     try {
@@ -369,9 +452,156 @@ public List<FileAccessInfo> getHotFiles(
     }
   }
 
+  public List<FileAccessInfo> getHotFiles(FidCountMap accessCounts,
+      int topNum) throws MetaStoreException {
+    PriorityQueue<long[]> top = new PriorityQueue<>(Math.max(topNum, 1),
+        new Comparator<long[]>() {
+          @Override
+          public int compare(long[] a, long[] b) {
+            return Long.compare(a[1], b[1]);
+          }
+        });
+    FidCountMap.Cursor cursor = accessCounts.cursor();
+    while (cursor.next()) {
+      if (cursor.count() <= 0) {
+        continue;
+      }
+      if (top.size() < topNum) {
+        top.add(new long[] {cursor.fid(), cursor.count()});
+      } else if (!top.isEmpty() && top.peek()[1] < cursor.count()) {
+        top.poll();
+        top.add(new long[] {cursor.fid(), cursor.count()});
+      }
+    }
+    if (top.isEmpty()) {
+      return new ArrayList<>();
+    }
+    List<Long> fids = new ArrayList<>();
+    for (long[] entry : top) {
+      fids.add(entry[0]);
+    }
+    Map<Long, String> idToPath = getFilePaths(fids);
+    List<FileAccessInfo> result = new ArrayList<>();
+    for (long[] entry : top) {
+      if (idToPath.containsKey(entry[0])) {
+        result.add(new FileAccessInfo(entry[0], idToPath.get(entry[0]), (int) entry[1]));
+      }
+    }
+    return result;
+  }
+
   public void deleteAllFileInfo() throws MetaStoreException {
     try {
       fileInfoDao.deleteAll();
+      fileIdCache.clear();
+    } catch (Exception e) {
+      throw new MetaStoreException(e);
+    }
+  }
+
+  /**
+   * Replace the given files and update columns of other files in one
+   * transaction, with the states of the replaced files deleted.
+   * @param files files to replace or insert
+   * @param pathToColumns file path to the new column values
+   */
+  public void applyFileChanges(final List<FileInfo> files,
+      final Map<String, Map<String, Object>> pathToColumns) throws MetaStoreException {
+    if (files.isEmpty() && pathToColumns.isEmpty()) {
+      return;
+    }
+    final List<String> paths = new ArrayList<>(files.size());
+    for (FileInfo file : files) {
+      paths.add(file.getPath());
+    }
+    try {
+      newTransaction().execute(new TransactionCallbackWithoutResult() {
+        @Override
+        protected void doInTransactionWithoutResult(TransactionStatus status) {
+          if (!files.isEmpty()) {
+            fileInfoDao.batchDelete(paths);
+            fileStateDao.batchDelete(paths);
+            smallFileDao.batchDelete(paths);
+            fileInfoDao.insert(files.toArray(new FileInfo[files.size()]));
+          }
+          fileInfoDao.update(pathToColumns);
+        }
+      });
+    } catch (Exception e) {
+      throw new MetaStoreException(e);
+    }
+    // Removed after committed so that the old file ids are never cached again
+    for (String path : paths) {
+      fileIdCache.remove(path);
+      containerFileIndex.remove(path);
+    }
+  }
+
+  private TransactionTemplate newTransaction() {
+    return new TransactionTemplate(new DataSourceTransactionManager(pool.getDataSource()));
+  }
+
+  /**
+   * Get the listing cursors of the directories not fully fetched yet.
+   * @return directory path to cursor, empty if not listed yet
+   */
+  public Map<String, String> getNamespaceCheckpoints() throws MetaStoreException {
+    try {
+      return namespaceCheckpointDao.getAll();
+    } catch (Exception e) {
+      throw new MetaStoreException(e);
+    }
+  }
+
+  /**
+   * Delete all the files and checkpoints, and start fetching namespace
+   * from the given directory.
+   * @param root directory to fetch from, or null if the namespace is not
+   *             fetched by listing
+   */
+  public void resetNamespaceCheckpoints(String root) throws MetaStoreException {
+    try {
+      namespaceCheckpointDao.deleteAll();
+      deleteAllFileInfo();
+      if (root != null) {
+        namespaceCheckpointDao.insert(Arrays.asList(root));
+      }
+    } catch (MetaStoreException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new MetaStoreException(e);
+    }
+  }
+
+  /**
+   * Insert the files fetched together with the listing progress in one
+   * transaction, so a restarted fetch neither misses nor duplicates files.
+   * @param files files fetched
+   * @param newDirs directories found to be fetched
+   * @param cursors cursors of directories partially fetched
+   * @param finishedDirs directories fully fetched
+   */
+  public void commitNamespaceFetch(final FileInfo[] files, final List<String> newDirs,
+      final Map<String, String> cursors, final List<String> finishedDirs)
+      throws MetaStoreException {
+    try {
+      newTransaction().execute(new TransactionCallbackWithoutResult() {
+        @Override
+        protected void doInTransactionWithoutResult(TransactionStatus status) {
+          if (files.length > 0) {
+            fileInfoDao.insert(files);
+          }
+          if (!newDirs.isEmpty()) {
+            namespaceCheckpointDao.insert(newDirs);
+          }
+          if (!cursors.isEmpty()) {
+            namespaceCheckpointDao.update(cursors);
+          }
+          if (!finishedDirs.isEmpty()) {
+            namespaceCheckpointDao.delete(finishedDirs);
+          }
+        }
+      });
     } catch (Exception e) {
       throw new MetaStoreException(e);
     }
@@ -380,6 +610,7 @@ public void deleteAllFileInfo() throws MetaStoreException {
   public void deleteFileByPath(String path) throws MetaStoreException {
     try {
       fileInfoDao.deleteByPath(path);
+      fileIdCache.remove(path);
     } catch (Exception e) {
       throw new MetaStoreException(e);
     }
@@ -411,6 +642,43 @@ public void insertAccessCountTable(
     }
   }
 
+  public void insertAccessCounts(String tableName,
+      FidCountMap accessCounts) throws MetaStoreException {
+    try {
+      accessCountDao.insertAccessCounts(tableName, accessCounts);
+    } catch (Exception e) {
+      throw new MetaStoreException(e);
+    }
+  }
+
+  public void insertAccessCountBucket(
+    AccessCountBucket bucket) throws MetaStoreException {
+    try {
+      accessCountSnapshotDao.insert(bucket);
+    } catch (Exception e) {
+      throw new MetaStoreException(e);
+    }
+  }
+
+  public void deleteAccessCountBucket(long startTime,
+      long endTime) throws MetaStoreException {
+    try {
+      accessCountSnapshotDao.delete(startTime, endTime);
+    } catch (Exception e) {
+      throw new MetaStoreException(e);
+    }
+  }
+
+  public List<AccessCountBucket> getAccessCountBuckets() throws MetaStoreException {
+    try {
+      return accessCountSnapshotDao.getAll();
+    } catch (EmptyResultDataAccessException e) {
+      return new ArrayList<>();
+    } catch (Exception e) {
+      throw new MetaStoreException(e);
+    }
+  }
+
   public void insertUpdateStoragesTable(StorageCapacity[] storages)
     throws MetaStoreException {
     mapStorageCapacity = null;
@@ -591,6 +859,14 @@ public void deleteCachedFile(long fid) throws MetaStoreException {
     }
   }
 
+  public void updateCachedBytes(Map<Long, Long> fidToBytes) throws MetaStoreException {
+    try {
+      cacheFileDao.updateBytesCached(fidToBytes);
+    } catch (Exception e) {
+      throw new MetaStoreException(e);
+    }
+  }
+
   public List<CachedFileStatus> getCachedFileStatus() throws MetaStoreException {
     try {
       return cacheFileDao.getAll();
@@ -947,6 +1223,31 @@ public void insertCmdlets(CmdletInfo[] commands)
     }
   }
 
+  /**
+   * Insert or replace the cmdlets and the actions in one transaction.
+   */
+  public void upsertCmdletsAndActions(final CmdletInfo[] cmdlets,
+      final ActionInfo[] actions) throws MetaStoreException {
+    if (cmdlets.length == 0 && actions.length == 0) {
+      return;
+    }
+    try {
+      newTransaction().execute(new TransactionCallbackWithoutResult() {
+        @Override
+        protected void doInTransactionWithoutResult(TransactionStatus status) {
+          if (actions.length > 0) {
+            actionDao.replace(actions);
+          }
+          if (cmdlets.length > 0) {
+            cmdletDao.replace(cmdlets);
+          }
+        }
+      });
+    } catch (Exception e) {
+      throw new MetaStoreException(e);
+    }
+  }
+
   public void insertCmdlet(CmdletInfo command)
     throws MetaStoreException {
     try {
@@ -2162,6 +2463,9 @@ public void insertUpdateFileState(FileState fileState)
         case COMPACT:
           CompactFileState compactFileState = (CompactFileState) fileState;
           smallFileDao.insertUpdate(compactFileState);
+          smallFileDao.batchInsertContainerFiles(Arrays.asList(
+              compactFileState.getFileContainerInfo().getContainerFilePath()));
+          containerFileIndex.put(compactFileState);
           break;
         case COMPRESSION:
           break;
@@ -2179,6 +2483,14 @@ public void insertCompactFileStates(CompactFileState[] compactFileStates)
     try {
       fileStateDao.batchInsertUpdate(compactFileStates);
       smallFileDao.batchInsertUpdate(compactFileStates);
+      Set<String> containerFiles = new HashSet<>();
+      for (CompactFileState compactFileState : compactFileStates) {
+        containerFiles.add(compactFileState.getFileContainerInfo().getContainerFilePath());
+      }
+      smallFileDao.batchInsertContainerFiles(new ArrayList<>(containerFiles));
+      for (CompactFileState compactFileState : compactFileStates) {
+        containerFileIndex.put(compactFileState);
+      }
     } catch (Exception e) {
       throw new MetaStoreException(e);
     }
@@ -2229,6 +2541,7 @@ public void deleteFileState(String filePath) throws MetaStoreException {
       switch (fileState.getFileType()) {
         case COMPACT:
           smallFileDao.deleteByPath(filePath, false);
+          containerFileIndex.remove(filePath);
           break;
         case COMPRESSION:
           break;
@@ -2246,6 +2559,9 @@ public void deleteCompactFileStates(List<String> paths)
     try {
       fileStateDao.batchDelete(paths);
       smallFileDao.batchDelete(paths);
+      for (String path : paths) {
+        containerFileIndex.remove(path);
+      }
     } catch (Exception e) {
       throw new MetaStoreException(e);
     }
@@ -2253,6 +2569,13 @@ public void deleteCompactFileStates(List<String> paths)
 
   public List<String> getSmallFilesByContainerFile(String containerFilePath)
     throws MetaStoreException {
+    if (containerFileIndex.isLoaded()) {
+      List<String> smallFiles = new ArrayList<>();
+      for (CompactFileState state : containerFileIndex.getLiveFiles(containerFilePath)) {
+        smallFiles.add(state.getPath());
+      }
+      return smallFiles;
+    }
     try {
       return smallFileDao.getSmallFilesByContainerFile(containerFilePath);
     } catch (EmptyResultDataAccessException e1) {
@@ -2263,6 +2586,9 @@ public List<String> getSmallFilesByContainerFile(String containerFilePath)
   }
 
   public List<String> getAllContainerFiles() throws MetaStoreException {
+    if (containerFileIndex.isLoaded()) {
+      return containerFileIndex.getContainerFiles();
+    }
     try {
       return smallFileDao.getAllContainerFiles();
     } catch (EmptyResultDataAccessException e1) {
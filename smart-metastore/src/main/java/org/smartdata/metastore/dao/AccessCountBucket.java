@@ -0,0 +1,71 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.metastore.dao;
+
+import org.smartdata.metastore.utils.TimeGranularity;
+import org.smartdata.metastore.utils.TimeUtils;
+
+/**
+ * Access counts of files during [startTime, endTime), the in-memory
+ * counterpart of an {@link AccessCountTable}.
+ */
+public class AccessCountBucket {
+  private final long startTime;
+  private final long endTime;
+  private final TimeGranularity granularity;
+  private final FidCountMap counts;
+  private volatile boolean persisted;
+
+  public AccessCountBucket(long startTime, long endTime, FidCountMap counts) {
+    this.startTime = startTime;
+    this.endTime = endTime;
+    this.granularity = TimeUtils.getGranularity(endTime - startTime);
+    this.counts = counts;
+  }
+
+  public long getStartTime() {
+    return startTime;
+  }
+
+  public long getEndTime() {
+    return endTime;
+  }
+
+  public TimeGranularity getGranularity() {
+    return granularity;
+  }
+
+  public FidCountMap getCounts() {
+    return counts;
+  }
+
+  public boolean isPersisted() {
+    return persisted;
+  }
+
+  public void setPersisted(boolean persisted) {
+    this.persisted = persisted;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "AccessCountBucket starts from %s ends with %s, granularity is %s, %d files",
+        startTime, endTime, granularity, counts.size());
+  }
+}
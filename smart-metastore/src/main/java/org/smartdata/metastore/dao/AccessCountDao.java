@@ -17,6 +17,7 @@
  */
 package org.smartdata.metastore.dao;
 
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.core.simple.SimpleJdbcInsert;
@@ -24,6 +25,7 @@
 
 import javax.sql.DataSource;
 
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.HashMap;
@@ -78,6 +80,25 @@ public static String createAccessCountTableSQL(String tableName) {
         tableName, FILE_FIELD, ACCESSCOUNT_FIELD);
   }
 
+  public void insertAccessCounts(String tableName, FidCountMap counts) {
+    JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+    final long[][] entries = counts.toArrays();
+    String sql = String.format("INSERT INTO %s (%s, %s) VALUES (?,?)",
+        tableName, FILE_FIELD, ACCESSCOUNT_FIELD);
+    jdbcTemplate.batchUpdate(sql, new BatchPreparedStatementSetter() {
+      @Override
+      public void setValues(PreparedStatement ps, int i) throws SQLException {
+        ps.setLong(1, entries[0][i]);
+        ps.setLong(2, entries[1][i]);
+      }
+
+      @Override
+      public int getBatchSize() {
+        return entries[0].length;
+      }
+    });
+  }
+
   public List<AccessCountTable> getAllSortedTables() {
     JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
     String sql = "SELECT * FROM access_count_table ORDER BY start_time ASC";
@@ -0,0 +1,35 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.metastore.dao;
+
+/**
+ * Listener of the access counts aggregated in each window, no matter the
+ * counts are kept in memory or in tables.
+ */
+public interface AccessCountListener {
+
+  /**
+   * Called in the aggregating thread when a window is closed, so it should
+   * return quickly. The counts should not be modified.
+   *
+   * @param startTime start of the window, inclusive
+   * @param endTime end of the window, exclusive
+   * @param counts access counts of the files in the window
+   */
+  void onAccessCounts(long startTime, long endTime, FidCountMap counts);
+}
@@ -0,0 +1,103 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.metastore.dao;
+
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+
+import javax.sql.DataSource;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Persists the buckets of the in-memory access count store so that they
+ * can be recovered after a restart.
+ */
+public class AccessCountSnapshotDao {
+  private static final String TABLE_NAME = "access_count_snapshot";
+  private DataSource dataSource;
+
+  public void setDataSource(DataSource dataSource) {
+    this.dataSource = dataSource;
+  }
+
+  public AccessCountSnapshotDao(DataSource dataSource) {
+    this.dataSource = dataSource;
+  }
+
+  public void insert(final AccessCountBucket bucket) {
+    JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+    final long[][] entries = bucket.getCounts().toArrays();
+    String sql = "INSERT INTO " + TABLE_NAME
+        + " (start_time, end_time, fid, count) VALUES (?,?,?,?)";
+    jdbcTemplate.batchUpdate(sql, new BatchPreparedStatementSetter() {
+      @Override
+      public void setValues(PreparedStatement ps, int i) throws SQLException {
+        ps.setLong(1, bucket.getStartTime());
+        ps.setLong(2, bucket.getEndTime());
+        ps.setLong(3, entries[0][i]);
+        ps.setLong(4, entries[1][i]);
+      }
+
+      @Override
+      public int getBatchSize() {
+        return entries[0].length;
+      }
+    });
+  }
+
+  public void delete(long startTime, long endTime) {
+    JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+    String sql = "DELETE FROM " + TABLE_NAME + " WHERE start_time = ? AND end_time = ?";
+    jdbcTemplate.update(sql, startTime, endTime);
+  }
+
+  public void deleteAll() {
+    JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+    jdbcTemplate.execute("DELETE FROM " + TABLE_NAME);
+  }
+
+  public List<AccessCountBucket> getAll() {
+    JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+    final Map<String, AccessCountBucket> buckets = new LinkedHashMap<>();
+    String sql = "SELECT * FROM " + TABLE_NAME + " ORDER BY start_time ASC, end_time ASC";
+    jdbcTemplate.query(sql, new RowCallbackHandler() {
+      @Override
+      public void processRow(ResultSet rs) throws SQLException {
+        long start = rs.getLong("start_time");
+        long end = rs.getLong("end_time");
+        String key = start + "_" + end;
+        AccessCountBucket bucket = buckets.get(key);
+        if (bucket == null) {
+          bucket = new AccessCountBucket(start, end, new FidCountMap());
+          bucket.setPersisted(true);
+          buckets.put(key, bucket);
+        }
+        bucket.getCounts().add(rs.getLong("fid"), rs.getLong("count"));
+      }
+    });
+    return new ArrayList<>(buckets.values());
+  }
+}
@@ -18,8 +18,10 @@
 package org.smartdata.metastore.dao;
 
 import com.google.common.annotations.VisibleForTesting;
+import org.apache.hadoop.conf.Configuration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.smartdata.conf.SmartConfKeys;
 import org.smartdata.metastore.MetaStore;
 import org.smartdata.metastore.MetaStoreException;
 import org.smartdata.metastore.utils.TimeGranularity;
@@ -27,10 +29,12 @@
 import org.smartdata.metrics.FileAccessEvent;
 
 import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
@@ -39,12 +43,15 @@ public class AccessCountTableManager {
   private static final int NUM_HOUR_TABLES_TO_KEEP = 48;
   private static final int NUM_MINUTE_TABLES_TO_KEEP = 120;
   private static final int NUM_SECOND_TABLES_TO_KEEP = 30;
+  public static final String MEMORY_STORE = "memory";
 
   private MetaStore metaStore;
   private Map<TimeGranularity, AccessCountTableDeque> tableDeques;
   private AccessCountTableDeque secondTableDeque;
   private AccessEventAggregator accessEventAggregator;
+  private InMemoryAccessCountStore accessCountStore;
   private ExecutorService executorService;
+  private final List<AccessCountListener> listeners = new CopyOnWriteArrayList<>();
   public static final Logger LOG =
       LoggerFactory.getLogger(AccessCountTableManager.class);
 
@@ -53,11 +60,35 @@ public AccessCountTableManager(MetaStore adapter) {
   }
 
   public AccessCountTableManager(MetaStore adapter, ExecutorService service) {
+    this(adapter, service, new Configuration());
+  }
+
+  public AccessCountTableManager(MetaStore adapter, ExecutorService service,
+      Configuration conf) {
     this.metaStore = adapter;
     this.tableDeques = new HashMap<>();
     this.executorService = service;
     this.accessEventAggregator = new AccessEventAggregator(adapter, this);
-    this.initTables();
+    String store = conf.getTrimmed(SmartConfKeys.SMART_ACCESS_COUNT_STORE_KEY,
+        SmartConfKeys.SMART_ACCESS_COUNT_STORE_DEFAULT);
+    if (MEMORY_STORE.equalsIgnoreCase(store)) {
+      this.initAccessCountStore(conf);
+    } else {
+      this.initTables();
+    }
+  }
+
+  private void initAccessCountStore(Configuration conf) {
+    Map<TimeGranularity, Integer> maxBuckets = new EnumMap<>(TimeGranularity.class);
+    maxBuckets.put(TimeGranularity.SECOND, NUM_SECOND_TABLES_TO_KEEP);
+    maxBuckets.put(TimeGranularity.MINUTE, NUM_MINUTE_TABLES_TO_KEEP);
+    maxBuckets.put(TimeGranularity.HOUR, NUM_HOUR_TABLES_TO_KEEP);
+    maxBuckets.put(TimeGranularity.DAY, NUM_DAY_TABLES_TO_KEEP);
+    long flushInterval = conf.getLong(
+        SmartConfKeys.SMART_ACCESS_COUNT_STORE_FLUSH_INTERVAL_MS_KEY,
+        SmartConfKeys.SMART_ACCESS_COUNT_STORE_FLUSH_INTERVAL_MS_DEFAULT);
+    this.accessCountStore = new InMemoryAccessCountStore(metaStore, maxBuckets, flushInterval);
+    this.accessCountStore.recover();
   }
 
   private void initTables() {
@@ -111,10 +142,58 @@ public void addTable(AccessCountTable accessCountTable) {
     this.secondTableDeque.addAndNotifyListener(accessCountTable);
   }
 
+  public void addListener(AccessCountListener listener) {
+    listeners.add(listener);
+  }
+
+  public void removeListener(AccessCountListener listener) {
+    listeners.remove(listener);
+  }
+
+  void notifyListeners(long startTime, long endTime, FidCountMap counts) {
+    for (AccessCountListener listener : listeners) {
+      try {
+        listener.onAccessCounts(startTime, endTime, counts);
+      } catch (Throwable t) {
+        LOG.error("Access count listener " + listener + " error", t);
+      }
+    }
+  }
+
   public void onAccessEventsArrived(List<FileAccessEvent> accessEvents) {
     this.accessEventAggregator.addAccessEvents(accessEvents);
   }
 
+  /**
+   * Get the in-memory access count store.
+   *
+   * @return null if access counts are kept in per window tables
+   */
+  public InMemoryAccessCountStore getAccessCountStore() {
+    return accessCountStore;
+  }
+
+  public boolean isInMemory() {
+    return accessCountStore != null;
+  }
+
+  /**
+   * Get the access counts of files during the last given period from the
+   * in-memory store.
+   */
+  public FidCountMap getAccessCounts(long lengthInMillis) {
+    if (accessCountStore == null) {
+      throw new IllegalStateException("Access counts are not kept in memory");
+    }
+    return accessCountStore.getAccessCounts(lengthInMillis);
+  }
+
+  public void flush() {
+    if (accessCountStore != null) {
+      accessCountStore.flush();
+    }
+  }
+
   public List<AccessCountTable> getTables(long lengthInMillis) throws MetaStoreException {
     return AccessCountTableManager.getTables(this.tableDeques, this.metaStore, lengthInMillis);
   }
@@ -73,6 +73,10 @@ public void addAccessEvents(List<FileAccessEvent> eventList) {
   }
 
   private void createTable() {
+    if (accessCountTableManager.isInMemory()) {
+      addBucket();
+      return;
+    }
     AccessCountTable table = new AccessCountTable(currentWindow.start, currentWindow.end);
     String createTable = AccessCountDao.createAccessCountTableSQL(table.getTableName());
     try {
@@ -85,6 +89,7 @@ private void createTable() {
       LOG.error("Create table error: " + table, e);
       return;
     }
+    FidCountMap counts = new FidCountMap();
     if (this.eventBuffer.size() > 0 || lastAccessCount.size() > 0) {
       Map<String, Integer> accessCount = this.getAccessCountMap(eventBuffer);
       Set<String> now = new HashSet<>();
@@ -110,6 +115,7 @@ private void createTable() {
       for (String key : pathToIDs.keySet()) {
         values.add(String.format("(%d, %d)", pathToIDs.get(key),
             accessCount.get(key)));
+        counts.add(pathToIDs.get(key), accessCount.get(key));
       }
 
       if (LOG.isDebugEnabled()) {
@@ -146,6 +152,46 @@ private void createTable() {
       }
     }
     this.accessCountTableManager.addTable(table);
+    this.accessCountTableManager.notifyListeners(table.getStartTime(), table.getEndTime(), counts);
+  }
+
+  private void addBucket() {
+    FidCountMap counts = new FidCountMap();
+    if (this.eventBuffer.size() > 0 || lastAccessCount.size() > 0) {
+      Map<String, Integer> accessCount = this.getAccessCountMap(eventBuffer);
+      Set<String> now = new HashSet<>(accessCount.keySet());
+      accessCount = mergeMap(accessCount, lastAccessCount);
+
+      final Map<String, Long> pathToIDs;
+      try {
+        pathToIDs = adapter.getFileIDs(accessCount.keySet());
+      } catch (MetaStoreException e) {
+        LOG.error("Get file ids of accessed files error", e);
+        return;
+      }
+
+      // Keep counts of files not synced into metastore yet for the next window
+      now.removeAll(pathToIDs.keySet());
+      Map<String, Integer> tmpLast = new HashMap<>();
+      for (String key : now) {
+        tmpLast.put(key, accessCount.get(key));
+      }
+      lastAccessCount = tmpLast;
+
+      for (Entry<String, Long> entry : pathToIDs.entrySet()) {
+        counts.add(entry.getValue(), accessCount.get(entry.getKey()));
+      }
+      if (!pathToIDs.isEmpty()) {
+        try {
+          this.adapter.updateCachedFiles(pathToIDs, eventBuffer);
+        } catch (MetaStoreException e) {
+          LOG.error("Update cached files error", e);
+        }
+      }
+    }
+    this.accessCountTableManager.getAccessCountStore().addBucket(
+        new AccessCountBucket(currentWindow.start, currentWindow.end, counts));
+    this.accessCountTableManager.notifyListeners(currentWindow.start, currentWindow.end, counts);
   }
 
   private Map<String, Integer> mergeMap(Map<String, Integer> map1, Map<String, Integer> map2) {
@@ -165,9 +211,9 @@ private Map<String, Integer> getAccessCountMap(List<FileAccessEvent> events) {
     for (FileAccessEvent event : events) {
       String path = event.getPath();
       if (map.containsKey(path)) {
-        map.put(path, map.get(path) + 1);
+        map.put(path, map.get(path) + event.getCount());
       } else {
-        map.put(path, 1);
+        map.put(path, event.getCount());
       }
     }
     return map;
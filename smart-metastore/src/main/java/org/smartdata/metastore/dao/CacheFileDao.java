@@ -28,6 +28,7 @@
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
@@ -100,6 +101,22 @@ public int update(Long fid, Long lastAccessTime, Integer numAccessed) {
     return jdbcTemplate.update(sql, lastAccessTime, numAccessed, fid);
   }
 
+  /**
+   * Update the cached bytes of the files, files not in the table are ignored.
+   */
+  public void updateBytesCached(Map<Long, Long> fidToBytes) {
+    if (fidToBytes.isEmpty()) {
+      return;
+    }
+    JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+    String sql = "UPDATE cached_file SET bytes_cached = ? WHERE fid = ?";
+    List<Object[]> args = new ArrayList<>(fidToBytes.size());
+    for (Map.Entry<Long, Long> entry : fidToBytes.entrySet()) {
+      args.add(new Object[] {entry.getValue(), entry.getKey()});
+    }
+    jdbcTemplate.batchUpdate(sql, args);
+  }
+
   public void update(Map<String, Long> pathToIds,
                      List<FileAccessEvent> events) {
     Map<Long, CachedFileStatus> idToStatus = new HashMap<>();
@@ -118,7 +135,7 @@ public void update(Map<String, Long> pathToIds,
           if (!idToCount.containsKey(fid)) {
             idToCount.put(fid, 0);
           }
-          idToCount.put(fid, idToCount.get(fid) + 1);
+          idToCount.put(fid, idToCount.get(fid) + event.getCount());
           if (!idToLastTime.containsKey(fid)) {
             idToLastTime.put(fid, event.getTimestamp());
           }
@@ -151,6 +168,7 @@ private Map<String, Object> toMap(CachedFileStatus cachedFileStatus) {
     parameters.put("from_time", cachedFileStatus.getFromTime());
     parameters.put("last_access_time", cachedFileStatus.getLastAccessTime());
     parameters.put("accessed_num", cachedFileStatus.getNumAccessed());
+    parameters.put("bytes_cached", cachedFileStatus.getBytesCached());
     return parameters;
   }
 
@@ -165,6 +183,7 @@ public CachedFileStatus mapRow(ResultSet resultSet, int i) throws SQLException {
       cachedFileStatus.setFromTime(resultSet.getLong("from_time"));
       cachedFileStatus.setLastAccessTime(resultSet.getLong("last_access_time"));
       cachedFileStatus.setNumAccessed(resultSet.getInt("accessed_num"));
+      cachedFileStatus.setBytesCached(resultSet.getLong("bytes_cached"));
       return cachedFileStatus;
     }
   }
@@ -0,0 +1,175 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.metastore.dao;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash map from file id to access count, backed by
+ * primitive long arrays to avoid boxing millions of entries.
+ */
+public class FidCountMap {
+  private static final long EMPTY = Long.MIN_VALUE;
+  private static final int DEFAULT_CAPACITY = 16;
+
+  private long[] keys;
+  private long[] values;
+  private int size;
+  private int threshold;
+
+  public FidCountMap() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  public FidCountMap(int expectedSize) {
+    int capacity = DEFAULT_CAPACITY;
+    while (capacity * 3 / 4 < expectedSize) {
+      capacity <<= 1;
+    }
+    allocate(capacity);
+  }
+
+  private void allocate(int capacity) {
+    keys = new long[capacity];
+    values = new long[capacity];
+    Arrays.fill(keys, EMPTY);
+    threshold = capacity * 3 / 4;
+    size = 0;
+  }
+
+  private static int hash(long fid) {
+    long h = fid * 0x9E3779B97F4A7C15L;
+    return (int) (h ^ (h >>> 32));
+  }
+
+  private int indexOf(long fid) {
+    int mask = keys.length - 1;
+    int i = hash(fid) & mask;
+    while (keys[i] != EMPTY && keys[i] != fid) {
+      i = (i + 1) & mask;
+    }
+    return i;
+  }
+
+  public void add(long fid, long delta) {
+    int i = indexOf(fid);
+    if (keys[i] == EMPTY) {
+      keys[i] = fid;
+      values[i] = delta;
+      if (++size > threshold) {
+        rehash(keys.length << 1);
+      }
+    } else {
+      values[i] += delta;
+    }
+  }
+
+  /**
+   * Add every entry of the other map, scaling its counts by the given ratio.
+   */
+  public void addAll(FidCountMap other, double ratio) {
+    for (int i = 0; i < other.keys.length; i++) {
+      if (other.keys[i] != EMPTY) {
+        long count = ratio == 1.0 ? other.values[i] : Math.round(other.values[i] * ratio);
+        if (count != 0) {
+          add(other.keys[i], count);
+        }
+      }
+    }
+  }
+
+  public void addAll(FidCountMap other) {
+    addAll(other, 1.0);
+  }
+
+  public long get(long fid) {
+    int i = indexOf(fid);
+    return keys[i] == EMPTY ? 0 : values[i];
+  }
+
+  public boolean contains(long fid) {
+    return keys[indexOf(fid)] != EMPTY;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  public Cursor cursor() {
+    return new Cursor();
+  }
+
+  /**
+   * Copy the entries into two parallel arrays, fids first and counts second.
+   */
+  public long[][] toArrays() {
+    long[] fids = new long[size];
+    long[] counts = new long[size];
+    int j = 0;
+    for (int i = 0; i < keys.length; i++) {
+      if (keys[i] != EMPTY) {
+        fids[j] = keys[i];
+        counts[j] = values[i];
+        j++;
+      }
+    }
+    return new long[][] {fids, counts};
+  }
+
+  private void rehash(int capacity) {
+    long[] oldKeys = keys;
+    long[] oldValues = values;
+    allocate(capacity);
+    for (int i = 0; i < oldKeys.length; i++) {
+      if (oldKeys[i] != EMPTY) {
+        int j = indexOf(oldKeys[i]);
+        keys[j] = oldKeys[i];
+        values[j] = oldValues[i];
+        size++;
+      }
+    }
+  }
+
+  /**
+   * Iterates over the entries without allocating per entry objects.
+   */
+  public class Cursor {
+    private int index = -1;
+
+    public boolean next() {
+      while (++index < keys.length) {
+        if (keys[index] != EMPTY) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    public long fid() {
+      return keys[index];
+    }
+
+    public long count() {
+      return values[index];
+    }
+  }
+}
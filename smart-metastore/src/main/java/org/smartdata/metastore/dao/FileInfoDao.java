@@ -17,32 +17,57 @@
  */
 package org.smartdata.metastore.dao;
 
+import org.smartdata.metastore.DBType;
 import org.smartdata.model.FileInfo;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementSetter;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.jdbc.core.simple.SimpleJdbcInsert;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import javax.sql.DataSource;
 
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 
 public class FileInfoDao {
+  private static final String INSERT_SQL = "INSERT INTO file (path, fid, length, "
+      + "block_replication, block_size, modification_time, access_time, is_dir, "
+      + "sid, owner, owner_group, permission) VALUES ";
+  private static final String ROW_VALUES = "(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+  private static final int NUM_COLUMNS = 12;
+  // Rows in one multi-row INSERT statement
+  static final int ROWS_PER_INSERT = 500;
 
   private DataSource dataSource;
+  private DBType dbType;
 
   public void setDataSource(DataSource dataSource) {
     this.dataSource = dataSource;
   }
 
   public FileInfoDao(DataSource dataSource) {
+    this(dataSource, DBType.SQLITE);
+  }
+
+  public FileInfoDao(DataSource dataSource, DBType dbType) {
     this.dataSource = dataSource;
+    this.dbType = dbType;
   }
 
   public List<FileInfo> getAll() {
@@ -73,6 +98,16 @@ public List<FileInfo> getFilesByPaths(Collection<String> paths) {
         parameterSource, new FileInfoRowMapper());
   }
 
+  public List<FileInfo> getFilesByFids(Collection<Long> fids) {
+    NamedParameterJdbcTemplate namedParameterJdbcTemplate =
+        new NamedParameterJdbcTemplate(dataSource);
+    String sql = "SELECT * FROM file WHERE fid IN (:fids)";
+    MapSqlParameterSource parameterSource = new MapSqlParameterSource();
+    parameterSource.addValue("fids", fids);
+    return namedParameterJdbcTemplate.query(sql,
+        parameterSource, new FileInfoRowMapper());
+  }
+
   public FileInfo getById(long fid) {
     JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
     return jdbcTemplate.queryForObject("SELECT * FROM file WHERE fid = ?",
@@ -123,14 +158,94 @@ public void insert(FileInfo fileInfo) {
     simpleJdbcInsert.execute(toMap(fileInfo));
   }
 
-  public void insert(FileInfo[] fileInfos) {
-    SimpleJdbcInsert simpleJdbcInsert = new SimpleJdbcInsert(dataSource);
-    simpleJdbcInsert.setTableName("file");
-    Map<String, Object>[] maps = new Map[fileInfos.length];
-    for (int i = 0; i < fileInfos.length; i++) {
-      maps[i] = toMap(fileInfos[i]);
+  /**
+   * Insert files in bulk. MySQL inserts multiple rows with one statement,
+   * which costs one round trip per statement no matter whether batched
+   * statements are rewritten by the driver. SQLite binds rows to one
+   * prepared statement in a transaction to sync the database file once.
+   */
+  public void insert(final FileInfo[] fileInfos) {
+    if (fileInfos.length == 0) {
+      return;
+    }
+    if (dbType == DBType.MYSQL) {
+      insertMultiRows(fileInfos);
+      return;
+    }
+    new TransactionTemplate(new DataSourceTransactionManager(dataSource)).execute(
+        new TransactionCallbackWithoutResult() {
+          @Override
+          protected void doInTransactionWithoutResult(TransactionStatus status) {
+            insertBatch(fileInfos);
+          }
+        });
+  }
+
+  private void insertBatch(final FileInfo[] fileInfos) {
+    JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+    jdbcTemplate.batchUpdate(INSERT_SQL + ROW_VALUES, new BatchPreparedStatementSetter() {
+      @Override
+      public void setValues(PreparedStatement ps, int i) throws SQLException {
+        setRow(ps, 0, fileInfos[i]);
+      }
+
+      @Override
+      public int getBatchSize() {
+        return fileInfos.length;
+      }
+    });
+  }
+
+  private void insertMultiRows(FileInfo[] fileInfos) {
+    JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+    String fullSql = null;
+    for (int start = 0; start < fileInfos.length; start += ROWS_PER_INSERT) {
+      final FileInfo[] rows = Arrays.copyOfRange(fileInfos, start,
+          Math.min(start + ROWS_PER_INSERT, fileInfos.length));
+      String sql;
+      if (rows.length == ROWS_PER_INSERT && fullSql != null) {
+        sql = fullSql;
+      } else {
+        sql = multiRowInsertSql(rows.length);
+        if (rows.length == ROWS_PER_INSERT) {
+          fullSql = sql;
+        }
+      }
+      jdbcTemplate.update(sql, new PreparedStatementSetter() {
+        @Override
+        public void setValues(PreparedStatement ps) throws SQLException {
+          for (int i = 0; i < rows.length; i++) {
+            setRow(ps, i * NUM_COLUMNS, rows[i]);
+          }
+        }
+      });
+    }
+  }
+
+  private static String multiRowInsertSql(int numRows) {
+    StringBuilder sql = new StringBuilder(INSERT_SQL);
+    sql.append(ROW_VALUES);
+    for (int i = 1; i < numRows; i++) {
+      sql.append(", ").append(ROW_VALUES);
     }
-    simpleJdbcInsert.executeBatch(maps);
+    return sql.toString();
+  }
+
+  // The column order follows INSERT_SQL
+  private static void setRow(PreparedStatement ps, int offset, FileInfo fileInfo)
+      throws SQLException {
+    ps.setString(offset + 1, fileInfo.getPath());
+    ps.setLong(offset + 2, fileInfo.getFileId());
+    ps.setLong(offset + 3, fileInfo.getLength());
+    ps.setShort(offset + 4, fileInfo.getBlockReplication());
+    ps.setLong(offset + 5, fileInfo.getBlocksize());
+    ps.setLong(offset + 6, fileInfo.getModificationTime());
+    ps.setLong(offset + 7, fileInfo.getAccessTime());
+    ps.setBoolean(offset + 8, fileInfo.isdir());
+    ps.setByte(offset + 9, fileInfo.getStoragePolicy());
+    ps.setString(offset + 10, fileInfo.getOwner());
+    ps.setString(offset + 11, fileInfo.getGroup());
+    ps.setShort(offset + 12, fileInfo.getPermission());
   }
 
   public int update(String path, int storagePolicy) {
@@ -139,6 +254,40 @@ public int update(String path, int storagePolicy) {
     return jdbcTemplate.update(sql, storagePolicy, path);
   }
 
+  /**
+   * Update columns of files in batches, files updating the same set of
+   * columns share one prepared statement.
+   * @param pathToColumns file path to the new column values
+   */
+  public void update(Map<String, Map<String, Object>> pathToColumns) {
+    Map<String, List<Object[]>> sqlToArgs = new LinkedHashMap<>();
+    for (Map.Entry<String, Map<String, Object>> entry : pathToColumns.entrySet()) {
+      Map<String, Object> columns = new TreeMap<>(entry.getValue());
+      if (columns.isEmpty()) {
+        continue;
+      }
+      StringBuilder sql = new StringBuilder("UPDATE file SET ");
+      Object[] args = new Object[columns.size() + 1];
+      int i = 0;
+      for (Map.Entry<String, Object> column : columns.entrySet()) {
+        sql.append(i == 0 ? "" : ", ").append(column.getKey()).append(" = ?");
+        args[i++] = column.getValue();
+      }
+      args[i] = entry.getKey();
+      String key = sql.append(" WHERE path = ?").toString();
+      List<Object[]> batch = sqlToArgs.get(key);
+      if (batch == null) {
+        batch = new ArrayList<>();
+        sqlToArgs.put(key, batch);
+      }
+      batch.add(args);
+    }
+    JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+    for (Map.Entry<String, List<Object[]>> entry : sqlToArgs.entrySet()) {
+      jdbcTemplate.batchUpdate(entry.getKey(), entry.getValue());
+    }
+  }
+
   public void deleteById(long fid) {
     JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
     final String sql = "DELETE FROM file WHERE fid = ?";
@@ -151,6 +300,22 @@ public void deleteByPath(String path) {
     jdbcTemplate.update(sql, path);
   }
 
+  public int[] batchDelete(final List<String> paths) {
+    JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+    final String sql = "DELETE FROM file WHERE path = ?";
+    return jdbcTemplate.batchUpdate(sql, new BatchPreparedStatementSetter() {
+      @Override
+      public void setValues(PreparedStatement ps, int i) throws SQLException {
+        ps.setString(1, paths.get(i));
+      }
+
+      @Override
+      public int getBatchSize() {
+        return paths.size();
+      }
+    });
+  }
+
   public void deleteAll() {
     JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
     final String sql = "DELETE FROM file";
@@ -0,0 +1,259 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.metastore.dao;
+
+import com.google.common.annotations.VisibleForTesting;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.smartdata.metastore.MetaStore;
+import org.smartdata.metastore.MetaStoreException;
+import org.smartdata.metastore.utils.Constants;
+import org.smartdata.metastore.utils.TimeGranularity;
+import org.smartdata.metastore.utils.TimeUtils;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps access counts in memory instead of one database table per window.
+ * Buckets of each granularity are kept in a bounded deque and rolled up to
+ * the coarser granularity the same way as the access count tables. Buckets
+ * of minute or coarser granularity are periodically written to the
+ * metastore and reloaded on restart.
+ */
+public class InMemoryAccessCountStore {
+  public static final Logger LOG =
+      LoggerFactory.getLogger(InMemoryAccessCountStore.class);
+
+  private static final TimeGranularity[] GRANULARITIES = new TimeGranularity[] {
+      TimeGranularity.SECOND, TimeGranularity.MINUTE,
+      TimeGranularity.HOUR, TimeGranularity.DAY};
+
+  private final MetaStore metaStore;
+  private final Map<TimeGranularity, ArrayDeque<AccessCountBucket>> buckets;
+  private final Map<TimeGranularity, Integer> maxBuckets;
+  private final Map<TimeGranularity, Long> lastRolledUpEnd;
+  private final List<AccessCountBucket> evictedPersisted;
+  private final long flushInterval;
+  private long lastFlushTime = 0;
+  // Keeps the flushes in order, so a bucket is inserted before deleted
+  private final Object flushLock = new Object();
+
+  public InMemoryAccessCountStore(MetaStore metaStore, Map<TimeGranularity, Integer> maxBuckets,
+      long flushInterval) {
+    this.metaStore = metaStore;
+    this.maxBuckets = maxBuckets;
+    this.flushInterval = flushInterval;
+    this.buckets = new EnumMap<>(TimeGranularity.class);
+    this.lastRolledUpEnd = new EnumMap<>(TimeGranularity.class);
+    this.evictedPersisted = new ArrayList<>();
+    for (TimeGranularity granularity : GRANULARITIES) {
+      buckets.put(granularity, new ArrayDeque<AccessCountBucket>());
+      lastRolledUpEnd.put(granularity, Long.MIN_VALUE);
+    }
+  }
+
+  /**
+   * Reload buckets written by previous flushes.
+   */
+  public synchronized void recover() {
+    try {
+      List<AccessCountBucket> recovered = metaStore.getAccessCountBuckets();
+      for (AccessCountBucket bucket : recovered) {
+        ArrayDeque<AccessCountBucket> deque = buckets.get(bucket.getGranularity());
+        if (deque != null) {
+          deque.add(bucket);
+          lastRolledUpEnd.put(bucket.getGranularity(), bucket.getEndTime());
+          evict(bucket.getGranularity());
+        }
+      }
+      lastFlushTime = System.currentTimeMillis();
+      LOG.info("Recovered {} access count buckets.", recovered.size());
+    } catch (MetaStoreException e) {
+      LOG.error("Recover access count buckets error", e);
+    }
+  }
+
+  /**
+   * Add the access counts of a finished aggregation window, then roll up
+   * the finer buckets into coarser ones when a coarser window completes.
+   */
+  public void addBucket(AccessCountBucket bucket) {
+    if (LOG.isDebugEnabled()) {
+      LOG.debug(bucket.toString());
+    }
+    synchronized (this) {
+      ArrayDeque<AccessCountBucket> seconds = buckets.get(TimeGranularity.SECOND);
+      if (!seconds.isEmpty() && bucket.getEndTime() <= seconds.peekLast().getEndTime()) {
+        LOG.warn("Ignore out of order access count bucket {}", bucket);
+        return;
+      }
+      seconds.add(bucket);
+      for (int i = 1; i < GRANULARITIES.length; i++) {
+        rollUp(GRANULARITIES[i - 1], GRANULARITIES[i], bucket.getEndTime());
+      }
+      evict(TimeGranularity.SECOND);
+      if (bucket.getEndTime() - lastFlushTime < flushInterval) {
+        return;
+      }
+      lastFlushTime = bucket.getEndTime();
+    }
+    flush();
+  }
+
+  private void rollUp(TimeGranularity fine, TimeGranularity coarse, long endTime) {
+    long unit = lengthOf(coarse);
+    long end = endTime - (endTime % unit);
+    long start = end - unit;
+    if (end <= lastRolledUpEnd.get(coarse)) {
+      return;
+    }
+    FidCountMap counts = new FidCountMap();
+    boolean found = false;
+    for (AccessCountBucket bucket : buckets.get(fine)) {
+      if (bucket.getStartTime() >= start && bucket.getEndTime() <= end) {
+        counts.addAll(bucket.getCounts());
+        found = true;
+      }
+    }
+    if (!found) {
+      return;
+    }
+    lastRolledUpEnd.put(coarse, end);
+    buckets.get(coarse).add(new AccessCountBucket(start, end, counts));
+    evict(coarse);
+  }
+
+  private void evict(TimeGranularity granularity) {
+    ArrayDeque<AccessCountBucket> deque = buckets.get(granularity);
+    Integer max = maxBuckets.get(granularity);
+    while (max != null && deque.size() > max) {
+      AccessCountBucket evicted = deque.poll();
+      if (evicted.isPersisted()) {
+        evictedPersisted.add(evicted);
+      }
+    }
+  }
+
+  /**
+   * Write buckets not yet persisted and remove the evicted ones from the
+   * metastore. Second level buckets are not persisted as they are rolled up
+   * into minute buckets shortly. The buckets are taken under the lock and
+   * written out of it, so adding buckets and querying are not blocked by
+   * the metastore.
+   */
+  public void flush() {
+    synchronized (flushLock) {
+      List<AccessCountBucket> toDelete;
+      List<AccessCountBucket> toInsert = new ArrayList<>();
+      synchronized (this) {
+        toDelete = new ArrayList<>(evictedPersisted);
+        evictedPersisted.clear();
+        for (int i = 1; i < GRANULARITIES.length; i++) {
+          for (AccessCountBucket bucket : buckets.get(GRANULARITIES[i])) {
+            if (!bucket.isPersisted()) {
+              // Marked ahead, so it is deleted if evicted while inserted
+              bucket.setPersisted(true);
+              toInsert.add(bucket);
+            }
+          }
+        }
+      }
+
+      int deleted = 0;
+      int inserted = 0;
+      try {
+        for (; deleted < toDelete.size(); deleted++) {
+          AccessCountBucket bucket = toDelete.get(deleted);
+          metaStore.deleteAccessCountBucket(bucket.getStartTime(), bucket.getEndTime());
+        }
+        for (; inserted < toInsert.size(); inserted++) {
+          metaStore.insertAccessCountBucket(toInsert.get(inserted));
+        }
+      } catch (MetaStoreException e) {
+        LOG.error("Flush access count buckets error", e);
+        // Retried on next flush
+        synchronized (this) {
+          evictedPersisted.addAll(toDelete.subList(deleted, toDelete.size()));
+          for (AccessCountBucket bucket : toInsert.subList(inserted, toInsert.size())) {
+            bucket.setPersisted(false);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Get the access counts of files during the last given period, ending at
+   * the end of the latest bucket.
+   */
+  public synchronized FidCountMap getAccessCounts(long lengthInMillis) {
+    FidCountMap result = new FidCountMap();
+    ArrayDeque<AccessCountBucket> seconds = buckets.get(TimeGranularity.SECOND);
+    if (seconds.isEmpty()) {
+      return result;
+    }
+    long endTime = seconds.peekLast().getEndTime();
+    long startTime = endTime - lengthInMillis;
+    TimeGranularity granularity = TimeUtils.getGranularity(lengthInMillis);
+    while (true) {
+      ArrayDeque<AccessCountBucket> deque = buckets.get(granularity);
+      if (deque != null) {
+        for (AccessCountBucket bucket : deque) {
+          if (bucket.getEndTime() <= startTime) {
+            continue;
+          }
+          if (bucket.getStartTime() >= startTime) {
+            result.addAll(bucket.getCounts());
+          } else {
+            double ratio = ((double) bucket.getEndTime() - startTime)
+                / (bucket.getEndTime() - bucket.getStartTime());
+            result.addAll(bucket.getCounts(), ratio);
+          }
+          startTime = bucket.getEndTime();
+        }
+      }
+      if (startTime >= endTime || granularity == TimeGranularity.SECOND) {
+        break;
+      }
+      granularity = TimeUtils.getFineGarinedGranularity(granularity);
+    }
+    return result;
+  }
+
+  @VisibleForTesting
+  synchronized List<AccessCountBucket> getBuckets(TimeGranularity granularity) {
+    return new ArrayList<>(buckets.get(granularity));
+  }
+
+  private static long lengthOf(TimeGranularity granularity) {
+    switch (granularity) {
+      case MINUTE:
+        return Constants.ONE_MINUTE_IN_MILLIS;
+      case HOUR:
+        return Constants.ONE_HOUR_IN_MILLIS;
+      case DAY:
+        return Constants.ONE_DAY_IN_MILLIS;
+      default:
+        return Constants.ONE_SECOND_IN_MILLIS;
+    }
+  }
+}
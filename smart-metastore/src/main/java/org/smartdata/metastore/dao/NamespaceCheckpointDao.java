@@ -0,0 +1,108 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.metastore.dao;
+
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+
+import javax.sql.DataSource;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Listing cursors of the directories not fully fetched yet by namespace
+ * fetcher. An empty cursor means the directory is not listed yet.
+ */
+public class NamespaceCheckpointDao {
+  private static final String TABLE_NAME = "namespace_checkpoint";
+  private DataSource dataSource;
+
+  public void setDataSource(DataSource dataSource) {
+    this.dataSource = dataSource;
+  }
+
+  public NamespaceCheckpointDao(DataSource dataSource) {
+    this.dataSource = dataSource;
+  }
+
+  public Map<String, String> getAll() {
+    JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+    final Map<String, String> cursors = new HashMap<>();
+    jdbcTemplate.query("SELECT * FROM " + TABLE_NAME, new RowCallbackHandler() {
+      @Override
+      public void processRow(ResultSet rs) throws SQLException {
+        cursors.put(rs.getString("path"), rs.getString("start_after"));
+      }
+    });
+    return cursors;
+  }
+
+  public int[] insert(final List<String> paths) {
+    JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+    String sql = "INSERT INTO " + TABLE_NAME + " (path, start_after) VALUES (?, '')";
+    return jdbcTemplate.batchUpdate(sql, new BatchPreparedStatementSetter() {
+      @Override
+      public void setValues(PreparedStatement ps, int i) throws SQLException {
+        ps.setString(1, paths.get(i));
+      }
+
+      @Override
+      public int getBatchSize() {
+        return paths.size();
+      }
+    });
+  }
+
+  public void update(Map<String, String> pathToCursor) {
+    JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+    String sql = "UPDATE " + TABLE_NAME + " SET start_after = ? WHERE path = ?";
+    List<Object[]> args = new ArrayList<>(pathToCursor.size());
+    for (Map.Entry<String, String> entry : pathToCursor.entrySet()) {
+      args.add(new Object[] {entry.getValue(), entry.getKey()});
+    }
+    jdbcTemplate.batchUpdate(sql, args);
+  }
+
+  public int[] delete(final List<String> paths) {
+    JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+    String sql = "DELETE FROM " + TABLE_NAME + " WHERE path = ?";
+    return jdbcTemplate.batchUpdate(sql, new BatchPreparedStatementSetter() {
+      @Override
+      public void setValues(PreparedStatement ps, int i) throws SQLException {
+        ps.setString(1, paths.get(i));
+      }
+
+      @Override
+      public int getBatchSize() {
+        return paths.size();
+      }
+    });
+  }
+
+  public void deleteAll() {
+    JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+    jdbcTemplate.execute("DELETE FROM " + TABLE_NAME);
+  }
+}
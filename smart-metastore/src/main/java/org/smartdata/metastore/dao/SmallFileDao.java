@@ -72,6 +72,26 @@ public int getBatchSize() {
     });
   }
 
+  /**
+   * Record the container files, they are kept until deleted even if no
+   * small file is in them any more.
+   */
+  public int[] batchInsertContainerFiles(final List<String> containerFiles) {
+    JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+    String sql = "REPLACE INTO container_file (path) VALUES (?)";
+    return jdbcTemplate.batchUpdate(sql, new BatchPreparedStatementSetter() {
+      @Override
+      public void setValues(PreparedStatement ps, int i) throws SQLException {
+        ps.setString(1, containerFiles.get(i));
+      }
+
+      @Override
+      public int getBatchSize() {
+        return containerFiles.size();
+      }
+    });
+  }
+
   public void deleteByPath(String path, boolean recursive) {
     JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
     String sql = "DELETE FROM small_file WHERE path = ?";
@@ -110,12 +130,31 @@ public List<String> getSmallFilesByContainerFile(String containerFilePath) {
     return jdbcTemplate.queryForList(sql, String.class, containerFilePath);
   }
 
+  public List<CompactFileState> getAll() {
+    JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+    return jdbcTemplate.query("SELECT * FROM small_file", new CompactFileStateRowMapper());
+  }
+
   public List<String> getAllContainerFiles() {
     JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
-    String sql = "SELECT DISTINCT container_file_path FROM small_file";
+    String sql = "SELECT path FROM container_file"
+        + " UNION SELECT DISTINCT container_file_path FROM small_file";
     return jdbcTemplate.queryForList(sql, String.class);
   }
 
+  private class CompactFileStateRowMapper implements RowMapper<CompactFileState> {
+    @Override
+    public CompactFileState mapRow(ResultSet resultSet, int i)
+        throws SQLException {
+      return new CompactFileState(resultSet.getString("path"),
+          new FileContainerInfo(
+              resultSet.getString("container_file_path"),
+              resultSet.getLong("offset"),
+              resultSet.getLong("length"))
+      );
+    }
+  }
+
   private class FileStateRowMapper implements RowMapper<FileState> {
     @Override
     public FileState mapRow(ResultSet resultSet, int i)
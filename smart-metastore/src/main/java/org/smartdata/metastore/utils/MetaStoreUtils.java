@@ -65,6 +65,7 @@ public class MetaStoreUtils {
   private static boolean tidbInited = false;
   public static final String TABLESET[] = new String[]{
             "access_count_table",
+            "access_count_snapshot",
             "blank_access_count_info",
             "cached_file",
             "ec_policy",
@@ -85,7 +86,9 @@ public class MetaStoreUtils {
             "cluster_info",
             "backup_file",
             "file_state",
-            "small_file"
+            "small_file",
+            "container_file",
+            "namespace_checkpoint"
   };
 
   public static Connection createConnection(String url,
@@ -163,6 +166,14 @@ public static void initializeDataBase(
               + "  start_time bigint(20) NOT NULL,\n"
               + "  end_time bigint(20) NOT NULL\n"
               + ") ;",
+          "CREATE TABLE access_count_snapshot (\n"
+              + "  start_time bigint(20) NOT NULL,\n"
+              + "  end_time bigint(20) NOT NULL,\n"
+              + "  fid bigint(20) NOT NULL,\n"
+              + "  count bigint(20) NOT NULL\n"
+              + ") ;",
+          "CREATE INDEX access_count_snapshot_time_idx ON access_count_snapshot "
+              + "(start_time, end_time);",
           "CREATE TABLE blank_access_count_info (\n"
               + "  fid bigint(20) NOT NULL,\n"
               + "  count bigint(20) NOT NULL\n"
@@ -172,7 +183,8 @@ public static void initializeDataBase(
               + "  path varchar(1000) NOT NULL,\n"
               + "  from_time bigint(20) NOT NULL,\n"
               + "  last_access_time bigint(20) NOT NULL,\n"
-              + "  accessed_num int(11) NOT NULL\n"
+              + "  accessed_num int(11) NOT NULL,\n"
+              + "  bytes_cached bigint(20) NOT NULL DEFAULT 0\n"
               + ") ;",
           "CREATE INDEX cached_file_fid_idx ON cached_file (fid);",
           "CREATE INDEX cached_file_path_idx ON cached_file (path);",
@@ -339,7 +351,15 @@ public static void initializeDataBase(
               + "container_file_path varchar(4096) NOT NULL,\n"
               + "offset bigint(20) NOT NULL,\n"
               + "length bigint(20) NOT NULL\n"
-              + ");"
+              + ");",
+          "CREATE TABLE container_file (\n"
+              + "path varchar(1000) NOT NULL PRIMARY KEY\n"
+              + ");",
+          "CREATE TABLE namespace_checkpoint (\n"
+              + "  path varchar(1000) NOT NULL,\n"
+              + "  start_after varchar(1000) NOT NULL\n"
+              + ");",
+          "CREATE INDEX namespace_checkpoint_path_idx ON namespace_checkpoint (path);"
         };
     try {
       String url = conn.getMetaData().getURL();
@@ -0,0 +1,99 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.metastore;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.smartdata.model.CompactFileState;
+import org.smartdata.model.FileContainerInfo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+public class TestContainerFileIndex {
+
+  private CompactFileState state(String path, String container, long offset, long length) {
+    return new CompactFileState(path, new FileContainerInfo(container, offset, length));
+  }
+
+  @Test
+  public void testLiveRanges() {
+    ContainerFileIndex index = new ContainerFileIndex();
+    // Ignored until loaded
+    index.put(state("/a/x", "/c1", 0, 10));
+    Assert.assertEquals(0, index.size());
+
+    List<CompactFileState> states = new ArrayList<>();
+    states.add(state("/a/y", "/c1", 10, 20));
+    states.add(state("/a/x", "/c1", 0, 10));
+    states.add(state("/b/z", "/c2", 0, 5));
+    index.load(states, Arrays.asList("/c1", "/c2", "/d/c3"));
+    index.put(state("/a/b/w", "/c1", 30, 7));
+    Assert.assertEquals(4, index.size());
+    Assert.assertEquals(37, index.getLiveBytes("/c1"));
+    Assert.assertEquals(5, index.getLiveBytes("/c2"));
+
+    List<CompactFileState> liveFiles = index.getLiveFiles("/c1");
+    Assert.assertEquals(3, liveFiles.size());
+    Assert.assertEquals("/a/x", liveFiles.get(0).getPath());
+    Assert.assertEquals("/a/y", liveFiles.get(1).getPath());
+    Assert.assertEquals(30, liveFiles.get(2).getFileContainerInfo().getOffset());
+
+    // Removing a directory kills the ranges of all the files under it
+    index.remove("/a/b");
+    Assert.assertEquals(30, index.getLiveBytes("/c1"));
+    index.remove("/b");
+    Assert.assertEquals(0, index.getLiveBytes("/c2"));
+    Assert.assertTrue(index.getLiveFiles("/c2").isEmpty());
+
+    // Container files with no live range are kept until deleted
+    Assert.assertEquals(new HashSet<>(Arrays.asList("/c1", "/c2", "/d/c3")),
+        new HashSet<>(index.getContainerFiles()));
+    index.remove("/c2");
+    index.remove("/d");
+    Assert.assertEquals(Arrays.asList("/c1"), index.getContainerFiles());
+  }
+
+  @Test
+  public void testRename() {
+    ContainerFileIndex index = new ContainerFileIndex();
+    List<CompactFileState> states = new ArrayList<>();
+    states.add(state("/a/x", "/c1", 0, 10));
+    states.add(state("/a/y", "/c1", 10, 20));
+    states.add(state("/d/y", "/c2", 0, 5));
+    index.load(states, new ArrayList<String>());
+
+    // Rename to an existing path kills the range replaced
+    index.rename("/a/y", "/d/y");
+    Assert.assertEquals(2, index.size());
+    Assert.assertEquals(0, index.getLiveBytes("/c2"));
+    Assert.assertEquals(30, index.getLiveBytes("/c1"));
+
+    index.rename("/d", "/e");
+    List<CompactFileState> liveFiles = index.getLiveFiles("/c1");
+    Assert.assertEquals("/a/x", liveFiles.get(0).getPath());
+    Assert.assertEquals("/e/y", liveFiles.get(1).getPath());
+
+    // Moving a small file to another container replaces its old range
+    index.put(state("/e/y", "/c3", 0, 20));
+    Assert.assertEquals(10, index.getLiveBytes("/c1"));
+    Assert.assertEquals(20, index.getLiveBytes("/c3"));
+  }
+}
@@ -0,0 +1,80 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.metastore;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class TestFileIdCache {
+
+  private void put(FileIdCache cache, String path, long fid) {
+    Map<String, Long> map = new HashMap<>();
+    map.put(path, fid);
+    cache.putAll(map, cache.getVersion());
+  }
+
+  @Test
+  public void testRenameAndRemove() {
+    FileIdCache cache = new FileIdCache(100);
+    put(cache, "/a", 1);
+    put(cache, "/a/b", 2);
+    put(cache, "/a/b/c", 3);
+    put(cache, "/d/e", 4);
+    Assert.assertEquals(4, cache.size());
+    Assert.assertEquals(3, cache.get("/a/b/c"));
+    Assert.assertEquals(1, cache.get("/a/"));
+
+    cache.rename("/a/b", "/d/f");
+    Assert.assertEquals(FileIdCache.NONE, cache.get("/a/b/c"));
+    Assert.assertEquals(2, cache.get("/d/f"));
+    Assert.assertEquals(3, cache.get("/d/f/c"));
+    Assert.assertEquals(4, cache.size());
+
+    // Rename to an existing path replaces it
+    cache.rename("/a", "/d/e");
+    Assert.assertEquals(1, cache.get("/d/e"));
+    Assert.assertEquals(3, cache.size());
+
+    cache.remove("/d");
+    Assert.assertEquals(0, cache.size());
+    Assert.assertEquals(FileIdCache.NONE, cache.get("/d/f/c"));
+  }
+
+  @Test
+  public void testEvictionAndVersion() {
+    FileIdCache cache = new FileIdCache(2);
+    put(cache, "/a", 1);
+    put(cache, "/b", 2);
+    cache.get("/a");
+    put(cache, "/c", 3);
+    Assert.assertEquals(2, cache.size());
+    Assert.assertEquals(FileIdCache.NONE, cache.get("/b"));
+    Assert.assertEquals(1, cache.get("/a"));
+
+    // Loaded before a namespace change, not put into cache
+    long version = cache.getVersion();
+    cache.remove("/x");
+    Map<String, Long> loaded = new HashMap<>();
+    loaded.put("/x", 10L);
+    cache.putAll(loaded, version);
+    Assert.assertEquals(FileIdCache.NONE, cache.get("/x"));
+  }
+}
@@ -0,0 +1,49 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.metastore;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.smartdata.metastore.utils.FileInfoInsertBenchmark;
+
+/**
+ * Tests for the file insert benchmark tool.
+ */
+public class TestFileInfoInsertBenchmark extends TestDaoUtil {
+  private MetaStore metaStore;
+
+  @Before
+  public void init() throws Exception {
+    initDao();
+    metaStore = new MetaStore(druidPool);
+  }
+
+  @After
+  public void close() throws Exception {
+    closeDao();
+  }
+
+  @Test
+  public void testSqlite() throws Exception {
+    Assert.assertTrue(FileInfoInsertBenchmark.performBench(metaStore, 2000, 500) > 0);
+    Assert.assertTrue(FileInfoInsertBenchmark.performBench(metaStore, 1000, 300) > 0);
+    Assert.assertEquals(0, metaStore.getFile().size());
+  }
+}
@@ -29,8 +29,10 @@
 import org.smartdata.model.ClusterInfo;
 import org.smartdata.model.CmdletInfo;
 import org.smartdata.model.CmdletState;
+import org.smartdata.model.CompactFileState;
 import org.smartdata.model.DataNodeInfo;
 import org.smartdata.model.DataNodeStorageInfo;
+import org.smartdata.model.FileContainerInfo;
 import org.smartdata.model.FileInfo;
 import org.smartdata.model.GlobalConfig;
 import org.smartdata.model.RuleInfo;
@@ -540,6 +542,26 @@ public void testInsertListActions() throws Exception {
     Assert.assertTrue(actionInfos.get(0).equals(actionInfo));
   }
 
+  @Test
+  public void testUpsertCmdletsAndActions() throws Exception {
+    Map<String, String> args = new HashMap();
+    ActionInfo actionInfo =
+        new ActionInfo(1, 1, "cache", args, "", "", false, 123213213L, false, 0L, 0);
+    CmdletInfo cmdletInfo = new CmdletInfo(1, 1, Arrays.asList(1L),
+        CmdletState.PENDING, "cache", 123213213L, 123213213L);
+    metaStore.upsertCmdletsAndActions(new CmdletInfo[] {cmdletInfo},
+        new ActionInfo[] {actionInfo});
+
+    actionInfo.setFinished(true);
+    actionInfo.setSuccessful(true);
+    cmdletInfo.setState(CmdletState.DONE);
+    metaStore.upsertCmdletsAndActions(new CmdletInfo[] {cmdletInfo},
+        new ActionInfo[] {actionInfo});
+    Assert.assertEquals(1, metaStore.getActions(null, null).size());
+    Assert.assertTrue(metaStore.getActionById(1).isSuccessful());
+    Assert.assertEquals(CmdletState.DONE, metaStore.getCmdletById(1).getState());
+  }
+
   @Test
   public void testGetNewCreatedActions() throws Exception {
     Map<String, String> args = new HashMap();
@@ -822,4 +844,18 @@ public void testUpdateAndInsertSystemInfo() throws MetaStoreException {
     Assert.assertTrue(metaStore.containSystemInfo("test"));
     Assert.assertTrue(metaStore.getSystemInfoByProperty("test").equals(systemInfo));
   }
+
+  @Test
+  public void testContainerFilesKeptWithoutSmallFiles() throws MetaStoreException {
+    metaStore.insertCompactFileStates(new CompactFileState[] {
+        new CompactFileState("/a/x", new FileContainerInfo("/c1", 0, 10)),
+        new CompactFileState("/a/y", new FileContainerInfo("/c2", 0, 10))});
+    metaStore.deleteCompactFileStates(Arrays.asList("/a/x", "/a/y"));
+
+    // Still found after loaded again, so they can be reclaimed
+    MetaStore reopened = new MetaStore(druidPool);
+    Assert.assertEquals(Arrays.asList("/c1", "/c2"),
+        reopened.loadContainerFileIndex().getContainerFiles());
+    Assert.assertEquals(0, reopened.getContainerFileIndex().getLiveBytes("/c1"));
+  }
 }
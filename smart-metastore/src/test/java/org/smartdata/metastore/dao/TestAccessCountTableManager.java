@@ -24,6 +24,8 @@
 import org.dbunit.dataset.xml.XmlDataSet;
 import org.junit.Assert;
 import org.junit.Test;
+import org.smartdata.conf.SmartConf;
+import org.smartdata.conf.SmartConfKeys;
 import org.smartdata.metastore.DBTest;
 import org.smartdata.metastore.MetaStore;
 import org.smartdata.metastore.MetaStoreException;
@@ -38,6 +40,7 @@
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executors;
 
 import static org.mockito.Mockito.mock;
 
@@ -139,6 +142,42 @@ public void testAccessFileNotInNamespace() throws Exception {
     assertTableEquals(new AccessCountTable(20000L, 25000L).getTableName(), "expect3");
   }
 
+  @Test
+  public void testInMemoryAccessCount() throws Exception {
+    MetaStore metaStore = new MetaStore(druidPool);
+    prepareFiles(metaStore);
+    SmartConf conf = new SmartConf();
+    conf.set(SmartConfKeys.SMART_ACCESS_COUNT_STORE_KEY, AccessCountTableManager.MEMORY_STORE);
+    AccessCountTableManager manager = new AccessCountTableManager(
+        metaStore, Executors.newSingleThreadExecutor(), conf);
+    Assert.assertTrue(manager.isInMemory());
+    Assert.assertTrue(manager.getTables(Constants.ONE_MINUTE_IN_MILLIS).isEmpty());
+
+    List<FileAccessEvent> accessEvents = new ArrayList<>();
+    accessEvents.add(new FileAccessEvent("file1", 0));
+    accessEvents.add(new FileAccessEvent("file2", 1));
+    accessEvents.add(new FileAccessEvent("file2", 2));
+    accessEvents.add(new FileAccessEvent("file4", 3));
+    accessEvents.add(new FileAccessEvent("file3", 5000));
+    manager.onAccessEventsArrived(accessEvents);
+
+    FidCountMap counts = manager.getAccessCounts(5 * Constants.ONE_SECOND_IN_MILLIS);
+    Assert.assertEquals(1, counts.get(1));
+    Assert.assertEquals(2, counts.get(2));
+    Assert.assertFalse(counts.contains(4));
+    Assert.assertEquals(0, metaStore.getTablesNum(
+        new String[] {new AccessCountTable(0L, 5000L).getTableName()}));
+
+    // Access of file not synced yet is carried to the next window
+    insertNewFile(metaStore, "file4", 4L);
+    accessEvents.clear();
+    accessEvents.add(new FileAccessEvent("file3", 10000));
+    manager.onAccessEventsArrived(accessEvents);
+    counts = manager.getAccessCounts(5 * Constants.ONE_SECOND_IN_MILLIS);
+    Assert.assertEquals(1, counts.get(3));
+    Assert.assertEquals(1, counts.get(4));
+  }
+
   private AccessCountTableManager initTestEnvironment() throws Exception {
     MetaStore metaStore = new MetaStore(druidPool);
     createTables(databaseTester.getConnection().getConnection());
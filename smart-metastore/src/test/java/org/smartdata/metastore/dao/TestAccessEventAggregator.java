@@ -24,6 +24,7 @@
 import org.smartdata.metrics.FileAccessEvent;
 
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
@@ -44,6 +45,7 @@ public void testAccessEventAggregator() throws MetaStoreException {
     aggregator.addAccessEvents(Lists.newArrayList(new FileAccessEvent("", 6000)));
     verify(adapter, times(1)).execute(anyString());
     verify(manager, times(1)).addTable(any(AccessCountTable.class));
+    verify(manager, times(1)).notifyListeners(anyLong(), anyLong(), any(FidCountMap.class));
 
     aggregator.addAccessEvents(
         Lists.newArrayList(
@@ -53,5 +55,6 @@ public void testAccessEventAggregator() throws MetaStoreException {
 
     verify(adapter, times(3)).execute(anyString());
     verify(manager, times(3)).addTable(any(AccessCountTable.class));
+    verify(manager, times(3)).notifyListeners(anyLong(), anyLong(), any(FidCountMap.class));
   }
 }
@@ -132,4 +132,19 @@ public void testGetCachedFileStatus() throws Exception {
     Assert.assertTrue(cachedFileList.get(1).getFid() == 19);
     Assert.assertTrue(cachedFileList.get(2).getFid() == 23);
   }
+
+  @Test
+  public void testBytesCached() throws Exception {
+    cacheFileDao.insert(1L, "/a/b", 1000L, 1000L, 0);
+    cacheFileDao.insert(2L, "/a/b/c", 1000L, 1000L, 0);
+    cacheFileDao.insert(3L, "/a/bc", 1000L, 1000L, 0);
+    Map<Long, Long> fidToBytes = new HashMap<>();
+    fidToBytes.put(1L, 100L);
+    fidToBytes.put(3L, 300L);
+    fidToBytes.put(4L, 400L);
+    cacheFileDao.updateBytesCached(fidToBytes);
+    Assert.assertEquals(100L, cacheFileDao.getById(1L).getBytesCached());
+    Assert.assertEquals(0L, cacheFileDao.getById(2L).getBytesCached());
+    Assert.assertEquals(300L, cacheFileDao.getById(3L).getBytesCached());
+  }
 }
@@ -21,9 +21,11 @@
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
+import org.smartdata.metastore.DBType;
 import org.smartdata.metastore.TestDaoUtil;
 import org.smartdata.model.FileInfo;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -71,6 +73,9 @@ public void testInsetGetDeleteFiles() throws Exception {
     Assert.assertTrue(fileInfos.size() == 0);
     fileInfos = fileInfoDao.getFilesByPrefix("/testFile");
     Assert.assertTrue(fileInfos.size() == 2);
+    fileInfos = fileInfoDao.getFilesByFids(Arrays.asList(fileId + 1, fileId + 2));
+    Assert.assertTrue(fileInfos.size() == 1);
+    Assert.assertTrue(fileInfo1.equals(fileInfos.get(0)));
     fileInfoDao.deleteById(fileId);
     fileInfos = fileInfoDao.getAll();
     Assert.assertTrue(fileInfos.size() == 1);
@@ -105,4 +110,25 @@ public void testInsertUpdateFiles() throws Exception {
     fileInfo.setStoragePolicy((byte) 10);
     Assert.assertTrue(file.equals(fileInfo));
   }
+
+  @Test
+  public void testBulkInsert() throws Exception {
+    // Multi-row insert is valid SQL for SQLite as well
+    for (DBType dbType : new DBType[] {DBType.SQLITE, DBType.MYSQL}) {
+      FileInfoDao dao = new FileInfoDao(druidPool.getDataSource(), dbType);
+      int numFiles = FileInfoDao.ROWS_PER_INSERT + 10;
+      FileInfo[] files = new FileInfo[numFiles];
+      for (int i = 0; i < numFiles; i++) {
+        files[i] = new FileInfo("/dir/file" + i, i + 1, i * 10L, i % 2 == 0, (short) 3,
+            1024L, 100L + i, 200L + i, (short) 0644, "user" + i, "group", (byte) (i % 3));
+      }
+      dao.insert(files);
+      dao.insert(new FileInfo[0]);
+      Assert.assertEquals(numFiles, dao.getAll().size());
+      for (int i : new int[] {0, 1, FileInfoDao.ROWS_PER_INSERT, numFiles - 1}) {
+        Assert.assertEquals(files[i], dao.getByPath(files[i].getPath()));
+      }
+      dao.deleteAll();
+    }
+  }
 }
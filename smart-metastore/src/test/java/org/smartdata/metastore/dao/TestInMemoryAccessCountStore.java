@@ -0,0 +1,191 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.metastore.dao;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.smartdata.metastore.DBTest;
+import org.smartdata.metastore.MetaStore;
+import org.smartdata.metastore.utils.Constants;
+import org.smartdata.metastore.utils.TimeGranularity;
+
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class TestInMemoryAccessCountStore extends DBTest {
+
+  private Map<TimeGranularity, Integer> maxBuckets() {
+    Map<TimeGranularity, Integer> max = new EnumMap<>(TimeGranularity.class);
+    max.put(TimeGranularity.SECOND, 30);
+    max.put(TimeGranularity.MINUTE, 120);
+    max.put(TimeGranularity.HOUR, 48);
+    max.put(TimeGranularity.DAY, 30);
+    return max;
+  }
+
+  private AccessCountBucket bucket(long start, long end, long... fidAndCounts) {
+    FidCountMap counts = new FidCountMap();
+    for (int i = 0; i < fidAndCounts.length; i += 2) {
+      counts.add(fidAndCounts[i], fidAndCounts[i + 1]);
+    }
+    return new AccessCountBucket(start, end, counts);
+  }
+
+  @Test
+  public void testFidCountMap() {
+    FidCountMap map = new FidCountMap();
+    for (long fid = 0; fid < 10000; fid++) {
+      map.add(fid, fid);
+      map.add(fid, 1);
+    }
+    Assert.assertEquals(10000, map.size());
+    Assert.assertEquals(101, map.get(100));
+    Assert.assertEquals(0, map.get(20000));
+    Assert.assertFalse(map.contains(20000));
+
+    FidCountMap half = new FidCountMap();
+    half.addAll(map, 0.5);
+    Assert.assertEquals(51, half.get(100));
+
+    long[][] arrays = map.toArrays();
+    Assert.assertEquals(10000, arrays[0].length);
+    long sum = 0;
+    FidCountMap.Cursor cursor = map.cursor();
+    while (cursor.next()) {
+      sum += cursor.count();
+    }
+    Assert.assertEquals(10000L * 9999 / 2 + 10000, sum);
+  }
+
+  @Test
+  public void testRollUp() throws Exception {
+    MetaStore metaStore = new MetaStore(druidPool);
+    InMemoryAccessCountStore store =
+        new InMemoryAccessCountStore(metaStore, maxBuckets(), Long.MAX_VALUE);
+    long dayEnd = Constants.ONE_DAY_IN_MILLIS;
+    store.addBucket(bucket(dayEnd - 10 * 1000, dayEnd - 5 * 1000, 1, 2));
+    store.addBucket(bucket(dayEnd - 5 * 1000, dayEnd, 1, 3, 2, 4));
+
+    Assert.assertEquals(2, store.getBuckets(TimeGranularity.SECOND).size());
+    for (TimeGranularity granularity : new TimeGranularity[] {
+        TimeGranularity.MINUTE, TimeGranularity.HOUR, TimeGranularity.DAY}) {
+      List<AccessCountBucket> buckets = store.getBuckets(granularity);
+      Assert.assertEquals(1, buckets.size());
+      Assert.assertEquals(dayEnd, buckets.get(0).getEndTime());
+      Assert.assertEquals(5, buckets.get(0).getCounts().get(1));
+      Assert.assertEquals(4, buckets.get(0).getCounts().get(2));
+    }
+
+    FidCountMap lastFiveSeconds = store.getAccessCounts(5 * 1000);
+    Assert.assertEquals(3, lastFiveSeconds.get(1));
+    FidCountMap lastDay = store.getAccessCounts(Constants.ONE_DAY_IN_MILLIS);
+    Assert.assertEquals(5, lastDay.get(1));
+    Assert.assertEquals(4, lastDay.get(2));
+  }
+
+  @Test
+  public void testProportion() throws Exception {
+    MetaStore metaStore = new MetaStore(druidPool);
+    InMemoryAccessCountStore store =
+        new InMemoryAccessCountStore(metaStore, maxBuckets(), Long.MAX_VALUE);
+    long minute = Constants.ONE_MINUTE_IN_MILLIS;
+    store.addBucket(bucket(minute - 5 * 1000, minute, 1, 10));
+    store.addBucket(bucket(minute, minute + 5 * 1000, 2, 1));
+    store.addBucket(bucket(minute + 30 * 1000, minute + 35 * 1000, 2, 1));
+    // Half of the first minute bucket plus the second buckets after it
+    FidCountMap counts = store.getAccessCounts(65 * 1000);
+    Assert.assertEquals(5, counts.get(1));
+    Assert.assertEquals(2, counts.get(2));
+  }
+
+  @Test
+  public void testFlushAndRecover() throws Exception {
+    MetaStore metaStore = new MetaStore(druidPool);
+    InMemoryAccessCountStore store =
+        new InMemoryAccessCountStore(metaStore, maxBuckets(), Long.MAX_VALUE);
+    long minute = Constants.ONE_MINUTE_IN_MILLIS;
+    store.addBucket(bucket(minute - 5 * 1000, minute, 1, 10, 2, 20));
+    store.flush();
+
+    InMemoryAccessCountStore recovered =
+        new InMemoryAccessCountStore(metaStore, maxBuckets(), Long.MAX_VALUE);
+    recovered.recover();
+    Assert.assertEquals(0, recovered.getBuckets(TimeGranularity.SECOND).size());
+    List<AccessCountBucket> minutes = recovered.getBuckets(TimeGranularity.MINUTE);
+    Assert.assertEquals(1, minutes.size());
+    Assert.assertTrue(minutes.get(0).isPersisted());
+    Assert.assertEquals(20, minutes.get(0).getCounts().get(2));
+
+    // Evicted buckets are removed from the snapshot on next flush
+    Map<TimeGranularity, Integer> max = maxBuckets();
+    max.put(TimeGranularity.MINUTE, 1);
+    InMemoryAccessCountStore small = new InMemoryAccessCountStore(metaStore, max, Long.MAX_VALUE);
+    small.recover();
+    small.addBucket(bucket(2 * minute - 5 * 1000, 2 * minute, 3, 1));
+    small.flush();
+    List<AccessCountBucket> persisted = metaStore.getAccessCountBuckets();
+    for (AccessCountBucket bucket : persisted) {
+      Assert.assertNotEquals(minute, bucket.getEndTime());
+    }
+  }
+
+  @Test(timeout = 60000)
+  public void testNotBlockedByFlush() throws Exception {
+    MetaStore metaStore = mock(MetaStore.class);
+    final CountDownLatch inserting = new CountDownLatch(1);
+    final CountDownLatch inserted = new CountDownLatch(1);
+    doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) throws Throwable {
+        inserting.countDown();
+        inserted.await();
+        return null;
+      }
+    }).when(metaStore).insertAccessCountBucket(any(AccessCountBucket.class));
+    final InMemoryAccessCountStore store =
+        new InMemoryAccessCountStore(metaStore, maxBuckets(), Long.MAX_VALUE);
+    long minute = Constants.ONE_MINUTE_IN_MILLIS;
+    store.addBucket(bucket(minute - 5 * 1000, minute, 1, 10));
+    Thread flusher = new Thread() {
+      @Override
+      public void run() {
+        store.flush();
+      }
+    };
+    flusher.start();
+    inserting.await();
+
+    // The flush is blocked writing the minute bucket
+    store.addBucket(bucket(minute, minute + 5 * 1000, 1, 1));
+    Assert.assertEquals(1, store.getAccessCounts(5 * 1000).get(1));
+    inserted.countDown();
+    flusher.join();
+    verify(metaStore, times(1)).insertAccessCountBucket(any(AccessCountBucket.class));
+    Assert.assertTrue(store.getBuckets(TimeGranularity.MINUTE).get(0).isPersisted());
+  }
+}
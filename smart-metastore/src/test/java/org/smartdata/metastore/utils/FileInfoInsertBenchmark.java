@@ -0,0 +1,100 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.metastore.utils;
+
+import org.smartdata.metastore.DruidPool;
+import org.smartdata.metastore.MetaStore;
+import org.smartdata.metastore.MetaStoreException;
+import org.smartdata.model.FileInfo;
+
+import java.sql.Connection;
+import java.util.Properties;
+
+/**
+ * A benchmark tool to measure the throughput of inserting files into
+ * metastore. Usage:
+ * <pre>
+ *   FileInfoInsertBenchmark jdbcUrl user password numFiles batchSize
+ * </pre>
+ * All the tables of the database are recreated, never run it against a
+ * database in use.
+ */
+public class FileInfoInsertBenchmark {
+
+  /**
+   * Insert files in batches and report the throughput.
+   * @return number of rows inserted per second
+   */
+  public static double performBench(MetaStore metaStore, int numFiles, int batchSize)
+      throws MetaStoreException {
+    metaStore.deleteAllFileInfo();
+    long startTime = System.nanoTime();
+    FileInfo[] batch = new FileInfo[Math.min(batchSize, numFiles)];
+    int inBatch = 0;
+    for (int i = 0; i < numFiles; i++) {
+      batch[inBatch++] = new FileInfo("/benchmark/dir" + (i / 1000) + "/file" + i, i + 1,
+          i, false, (short) 3, 128 * 1024 * 1024L, startTime, startTime,
+          (short) 0644, "user", "group", (byte) 0);
+      if (inBatch == batch.length || i == numFiles - 1) {
+        FileInfo[] files = batch;
+        if (inBatch < batch.length) {
+          files = new FileInfo[inBatch];
+          System.arraycopy(batch, 0, files, 0, inBatch);
+        }
+        metaStore.insertFiles(files);
+        inBatch = 0;
+      }
+    }
+    long elapsedNanos = Math.max(1, System.nanoTime() - startTime);
+    double rowsPerSec = numFiles * 1e9 / elapsedNanos;
+    System.out.println(String.format(
+        "%s: inserted %d files in batches of %d, %dms used, %.1f rows/s",
+        metaStore.getDbType(), numFiles, batchSize, elapsedNanos / 1000000, rowsPerSec));
+    metaStore.deleteAllFileInfo();
+    return rowsPerSec;
+  }
+
+  private static void printUsage() {
+    System.out.println("Usage: FileInfoInsertBenchmark jdbcUrl user password "
+        + "numFiles batchSize");
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length != 5) {
+      printUsage();
+      System.exit(1);
+    }
+    Properties p = new Properties();
+    p.setProperty("url", args[0]);
+    p.setProperty("username", args[1]);
+    p.setProperty("password", args[2]);
+    DruidPool pool = new DruidPool(p);
+    try {
+      Connection conn = pool.getConnection();
+      try {
+        MetaStoreUtils.initializeDataBase(conn);
+      } finally {
+        pool.closeConnection(conn);
+      }
+      performBench(new MetaStore(pool), Integer.parseInt(args[3]),
+          Integer.parseInt(args[4]));
+    } finally {
+      pool.close();
+    }
+  }
+}
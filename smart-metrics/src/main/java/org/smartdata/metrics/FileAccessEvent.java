@@ -24,6 +24,7 @@ public class FileAccessEvent implements DataAccessEvent {
   private final String path;
   private final String user;
   private long timeStamp;
+  private int count = 1;
 
   public FileAccessEvent(String path) {
     this(path, -1);
@@ -43,6 +44,11 @@ public FileAccessEvent(String path, String user) {
     this(path, -1, user);
   }
 
+  public FileAccessEvent(String path, String user, int count) {
+    this(path, -1, user);
+    this.count = count;
+  }
+
   /**
    * Get the accessed file path.
    * @return file path
@@ -71,4 +77,13 @@ public long getTimestamp() {
   public void setTimeStamp(long timeStamp) {
     this.timeStamp = timeStamp;
   }
+
+  /**
+   * Get the number of accesses this event stands for, more than one if
+   * the client coalesced several accesses of the same file.
+   * @return access count
+   */
+  public int getCount() {
+    return this.count;
+  }
 }
@@ -21,6 +21,7 @@
 import org.smartdata.metrics.FileAccessEventSource;
 
 import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
 
 /**
  * A factory used to create FileAccessEventSource according to the configuration.
@@ -34,9 +35,15 @@ public static FileAccessEventSource createAccessEventSource(Configuration conf)
       throws IOException {
     String source = conf.get(ACCESS_EVENT_SOURCE, DEFAULT_ACCESS_EVENT_SOURCE);
     try {
-      Class clazz = Class.forName(source);
-      return (FileAccessEventSource) clazz.newInstance();
-    } catch (ClassNotFoundException | IllegalAccessException | InstantiationException e) {
+      Class<?> clazz = Class.forName(source);
+      try {
+        return (FileAccessEventSource) clazz.getConstructor(Configuration.class)
+            .newInstance(conf);
+      } catch (NoSuchMethodException e) {
+        return (FileAccessEventSource) clazz.newInstance();
+      }
+    } catch (ClassNotFoundException | IllegalAccessException | InstantiationException
+        | InvocationTargetException e) {
       e.printStackTrace();
       throw new IOException(e);
     }
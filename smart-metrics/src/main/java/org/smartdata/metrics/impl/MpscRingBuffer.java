@@ -0,0 +1,113 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.metrics.impl;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded lock-free queue for multiple producers and a single consumer.
+ * Each slot has a sequence number telling whether it is ready for the
+ * producer claiming it or for the consumer, so producers never wait for
+ * each other and the consumer never sees a half published element.
+ */
+public class MpscRingBuffer<T> {
+  private final int capacity;
+  private final int mask;
+  private final AtomicReferenceArray<T> slots;
+  private final AtomicLongArray sequences;
+  private final AtomicLong tail = new AtomicLong(0);
+  // Only updated by the consumer thread
+  private volatile long head = 0;
+
+  public MpscRingBuffer(int capacity) {
+    int size = 2;
+    while (size < capacity) {
+      size <<= 1;
+    }
+    this.capacity = size;
+    this.mask = size - 1;
+    this.slots = new AtomicReferenceArray<>(size);
+    this.sequences = new AtomicLongArray(size);
+    for (int i = 0; i < size; i++) {
+      sequences.set(i, i);
+    }
+  }
+
+  /**
+   * Add an element, can be called by any thread.
+   * @return false if the buffer is full
+   */
+  public boolean offer(T element) {
+    while (true) {
+      long pos = tail.get();
+      int index = (int) (pos & mask);
+      long diff = sequences.get(index) - pos;
+      if (diff == 0) {
+        if (tail.compareAndSet(pos, pos + 1)) {
+          slots.lazySet(index, element);
+          sequences.set(index, pos + 1);
+          return true;
+        }
+      } else if (diff < 0) {
+        return false;
+      }
+    }
+  }
+
+  /**
+   * Remove the next element, must only be called by the consumer thread.
+   * @return null if no element is published
+   */
+  public T poll() {
+    int index = (int) (head & mask);
+    if (sequences.get(index) != head + 1) {
+      return null;
+    }
+    T element = slots.get(index);
+    slots.lazySet(index, null);
+    sequences.set(index, head + capacity);
+    head++;
+    return element;
+  }
+
+  /**
+   * Move at most maxElements published elements into the given collection,
+   * must only be called by the consumer thread.
+   * @return the number of elements moved
+   */
+  public int drainTo(Collection<? super T> collection, int maxElements) {
+    int drained = 0;
+    T element;
+    while (drained < maxElements && (element = poll()) != null) {
+      collection.add(element);
+      drained++;
+    }
+    return drained;
+  }
+
+  public int size() {
+    return (int) Math.max(0, Math.min(capacity, tail.get() - head));
+  }
+
+  public int capacity() {
+    return capacity;
+  }
+}
@@ -21,25 +21,20 @@
 import org.smartdata.metrics.FileAccessEventCollector;
 
 import java.io.IOException;
-import java.util.Arrays;
 import java.util.List;
-import java.util.concurrent.LinkedBlockingQueue;
 
 /**
  * Collect access events from users RPC call to Smart RPC Server.
  */
 public class SmartServerAccessEventCollector implements FileAccessEventCollector {
-  private final LinkedBlockingQueue<FileAccessEvent> outerQueue;
+  private final SmartServerAccessEventSource source;
 
-  public SmartServerAccessEventCollector(LinkedBlockingQueue<FileAccessEvent> queue) {
-    this.outerQueue = queue;
+  public SmartServerAccessEventCollector(SmartServerAccessEventSource source) {
+    this.source = source;
   }
 
   @Override
   public List<FileAccessEvent> collect() throws IOException {
-    FileAccessEvent[] events = new FileAccessEvent[outerQueue.size()];
-    this.outerQueue.toArray(events);
-    this.outerQueue.clear();
-    return Arrays.asList(events);
+    return source.drain();
   }
 }
@@ -17,32 +17,59 @@
  */
 package org.smartdata.metrics.impl;
 
+import org.apache.hadoop.conf.Configuration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.smartdata.metrics.FileAccessEvent;
 import org.smartdata.metrics.FileAccessEventCollector;
 import org.smartdata.metrics.FileAccessEventSource;
 
-import java.util.Timer;
-import java.util.TimerTask;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * The default AccessEventSource for SmartServer.
+ *
+ * <p>Accesses of the same file by the same user in the same second are
+ * aggregated when inserted: only the first one takes a slot in a lock-free
+ * ring buffer, and the others add to its count. The collector drains the
+ * buffer, and a watermark event is appended to every batch collected.
  */
 public class SmartServerAccessEventSource implements FileAccessEventSource {
   static final Logger LOG = LoggerFactory.getLogger(SmartServerAccessEventSource.class);
 
-  private static final long DEFAULT_INTERVAL = 1000; //5 seconds
+  public static final String QUEUE_CAPACITY_KEY = "smart.access.event.queue.capacity";
+  public static final int QUEUE_CAPACITY_DEFAULT = 1 << 18;
+  // Aggregated events never cross the boundary of an access count window
+  private static final long AGGREGATION_UNIT = 1000L;
+
+  private final MpscRingBuffer<PendingAccess> queue;
+  // Accesses in the queue still taking more counts
+  private final ConcurrentHashMap<AccessKey, PendingAccess> pending;
   private final SmartServerAccessEventCollector collector;
-  private LinkedBlockingQueue<FileAccessEvent> eventQueue;
-  private Timer timer;
+  private final AtomicLong enqueuedEvents = new AtomicLong(0);
+  private final AtomicLong droppedEvents = new AtomicLong(0);
+  private final AtomicLong drainedEvents = new AtomicLong(0);
+  private long lastWatermark = 0;
+  private long lastLoggedDropped = 0;
 
   public SmartServerAccessEventSource() {
-    this.timer = new Timer();
-    this.eventQueue = new LinkedBlockingQueue<>();
-    this.collector = new SmartServerAccessEventCollector(eventQueue);
-    this.timer.schedule(new ProgressInsertTask(eventQueue), DEFAULT_INTERVAL, DEFAULT_INTERVAL);
+    this(QUEUE_CAPACITY_DEFAULT);
+  }
+
+  public SmartServerAccessEventSource(Configuration conf) {
+    this(conf.getInt(QUEUE_CAPACITY_KEY, QUEUE_CAPACITY_DEFAULT));
+  }
+
+  public SmartServerAccessEventSource(int capacity) {
+    this.queue = new MpscRingBuffer<>(capacity);
+    this.pending = new ConcurrentHashMap<>(Math.min(queue.capacity(), 1 << 16));
+    this.collector = new SmartServerAccessEventCollector(this);
   }
 
   @Override
@@ -52,34 +79,180 @@ public FileAccessEventCollector getCollector() {
 
   @Override
   public void insertEventFromSmartClient(FileAccessEvent event) {
-    try {
-      this.eventQueue.put(event);
-      LOG.trace("Access:" + event.getPath());
-    } catch (InterruptedException e) {
-      LOG.error("Event queue enqueue path={} error", event.getPath(), e);
+    long timestamp = event.getTimestamp() > 0
+        ? event.getTimestamp() : System.currentTimeMillis();
+    String user = event.getAccessedBy() == null ? "" : event.getAccessedBy();
+    AccessKey key = new AccessKey(event.getPath(), user,
+        timestamp - timestamp % AGGREGATION_UNIT);
+    int count = event.getCount();
+    while (true) {
+      PendingAccess access = pending.get(key);
+      if (access != null) {
+        if (access.add(count)) {
+          enqueuedEvents.addAndGet(count);
+          return;
+        }
+        // Taken by the collector, retry with a new one
+        pending.remove(key, access);
+        continue;
+      }
+      access = new PendingAccess(key, count);
+      if (pending.putIfAbsent(key, access) != null) {
+        continue;
+      }
+      if (queue.offer(access)) {
+        enqueuedEvents.addAndGet(count);
+        LOG.trace("Access:" + event.getPath());
+      } else {
+        // Counts added by others before it is removed are dropped as well
+        pending.remove(key, access);
+        long total = access.close();
+        enqueuedEvents.addAndGet(count - total);
+        droppedEvents.addAndGet(total);
+      }
+      return;
+    }
+  }
+
+  /**
+   * Drain all the events inserted so far, ordered by time, followed by a
+   * watermark event. Only called by the collector.
+   */
+  synchronized List<FileAccessEvent> drain() {
+    long now = System.currentTimeMillis();
+    TreeMap<Long, Map<AccessKey, long[]>> units = new TreeMap<>();
+    long maxTimestamp = lastWatermark;
+    long drained = 0;
+    int toDrain = queue.capacity();
+    PendingAccess access;
+    while (toDrain-- > 0 && (access = queue.poll()) != null) {
+      pending.remove(access.key, access);
+      long count = access.close();
+      drained += count;
+      // Events arriving after the watermark are counted in the current window
+      long timestamp = Math.max(access.key.unit, lastWatermark);
+      maxTimestamp = Math.max(maxTimestamp, timestamp);
+      long unit = timestamp - timestamp % AGGREGATION_UNIT;
+      Map<AccessKey, long[]> counts = units.get(unit);
+      if (counts == null) {
+        counts = new HashMap<>();
+        units.put(unit, counts);
+      }
+      long[] sum = counts.get(access.key);
+      if (sum == null) {
+        counts.put(access.key, new long[] {count});
+      } else {
+        sum[0] += count;
+      }
+    }
+    drainedEvents.addAndGet(drained);
+
+    List<FileAccessEvent> events = new ArrayList<>();
+    for (Map.Entry<Long, Map<AccessKey, long[]>> unit : units.entrySet()) {
+      long timestamp = Math.max(unit.getKey(), lastWatermark);
+      for (Map.Entry<AccessKey, long[]> count : unit.getValue().entrySet()) {
+        FileAccessEvent aggregated = new FileAccessEvent(count.getKey().path,
+            count.getKey().user, (int) Math.min(count.getValue()[0], Integer.MAX_VALUE));
+        aggregated.setTimeStamp(timestamp);
+        events.add(aggregated);
+      }
+    }
+    lastWatermark = Math.max(now, maxTimestamp);
+    events.add(new FileAccessEvent("", lastWatermark));
+
+    long dropped = droppedEvents.get();
+    if (dropped != lastLoggedDropped) {
+      LOG.warn("{} file access events dropped in total as the event queue is full.",
+          dropped);
+      lastLoggedDropped = dropped;
     }
+    return events;
+  }
+
+  /**
+   * Get the number of accesses put into the queue.
+   */
+  public long getEnqueuedEvents() {
+    return enqueuedEvents.get();
+  }
+
+  /**
+   * Get the number of accesses taken out of the queue by the collector.
+   */
+  public long getDrainedEvents() {
+    return drainedEvents.get();
+  }
+
+  /**
+   * Get the number of accesses dropped as the queue is full.
+   */
+  public long getDroppedEvents() {
+    return droppedEvents.get();
   }
 
   @Override
   public void close() {
-    this.timer.cancel();
   }
 
-  private static class ProgressInsertTask extends TimerTask {
-    private final LinkedBlockingQueue<FileAccessEvent> outerQueue;
+  private static final class AccessKey {
+    private final String path;
+    private final String user;
+    private final long unit;
 
-    public ProgressInsertTask(LinkedBlockingQueue<FileAccessEvent> outerQueue) {
-      this.outerQueue = outerQueue;
+    AccessKey(String path, String user, long unit) {
+      this.path = path;
+      this.user = user;
+      this.unit = unit;
     }
 
     @Override
-    public void run() {
-      try {
-        //Todo: do not use HDFSFileAccessEvent
-        this.outerQueue.put(new FileAccessEvent("", System.currentTimeMillis()));
-      } catch (InterruptedException e) {
-        LOG.error("Outer queue enqueue error", e);
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof AccessKey)) {
+        return false;
       }
+      AccessKey other = (AccessKey) o;
+      return unit == other.unit && path.equals(other.path) && user.equals(other.user);
+    }
+
+    @Override
+    public int hashCode() {
+      int result = path.hashCode();
+      result = 31 * result + user.hashCode();
+      return 31 * result + (int) (unit ^ (unit >>> 32));
+    }
+  }
+
+  /**
+   * Count of an access in the queue, closed once taken by the collector so
+   * that no count is added after it is read.
+   */
+  private static final class PendingAccess {
+    private static final long CLOSED = -1;
+    private final AccessKey key;
+    private final AtomicLong count;
+
+    PendingAccess(AccessKey key, long count) {
+      this.key = key;
+      this.count = new AtomicLong(count);
+    }
+
+    boolean add(long delta) {
+      while (true) {
+        long current = count.get();
+        if (current == CLOSED) {
+          return false;
+        }
+        if (count.compareAndSet(current, current + delta)) {
+          return true;
+        }
+      }
+    }
+
+    long close() {
+      return count.getAndSet(CLOSED);
     }
   }
 }
@@ -0,0 +1,151 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.metrics.impl;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.smartdata.metrics.FileAccessEvent;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class TestSmartServerAccessEventSource {
+
+  @Test
+  public void testRingBuffer() throws Exception {
+    final MpscRingBuffer<Integer> buffer = new MpscRingBuffer<>(1000);
+    Assert.assertEquals(1024, buffer.capacity());
+    final int producers = 4;
+    final int perProducer = 100000;
+    List<Thread> threads = new ArrayList<>();
+    for (int p = 0; p < producers; p++) {
+      Thread thread = new Thread() {
+        @Override
+        public void run() {
+          for (int i = 0; i < perProducer; i++) {
+            while (!buffer.offer(i)) {
+              Thread.yield();
+            }
+          }
+        }
+      };
+      threads.add(thread);
+      thread.start();
+    }
+
+    long sum = 0;
+    int received = 0;
+    List<Integer> drained = new ArrayList<>();
+    while (received < producers * perProducer) {
+      drained.clear();
+      received += buffer.drainTo(drained, 100);
+      for (Integer i : drained) {
+        sum += i;
+      }
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    Assert.assertNull(buffer.poll());
+    Assert.assertEquals((long) producers * perProducer * (perProducer - 1) / 2, sum);
+  }
+
+  @Test
+  public void testAggregateAndDrop() throws Exception {
+    SmartServerAccessEventSource source = new SmartServerAccessEventSource(4);
+    source.insertEventFromSmartClient(new FileAccessEvent("/a", 1000L, "u1"));
+    // Aggregated into the access taking a slot when inserted
+    source.insertEventFromSmartClient(new FileAccessEvent("/a", 1500L, "u1"));
+    source.insertEventFromSmartClient(new FileAccessEvent("/a", 1600L, "u2"));
+    source.insertEventFromSmartClient(new FileAccessEvent("/b", 1600L, "u1"));
+    source.insertEventFromSmartClient(new FileAccessEvent("/a", 2100L, "u1"));
+    source.insertEventFromSmartClient(new FileAccessEvent("/b", 1700L, "u1"));
+    // Queue is full
+    source.insertEventFromSmartClient(new FileAccessEvent("/c", 2200L, "u1"));
+    Assert.assertEquals(6, source.getEnqueuedEvents());
+    Assert.assertEquals(1, source.getDroppedEvents());
+
+    List<FileAccessEvent> events = source.getCollector().collect();
+    Assert.assertEquals(5, events.size());
+    Assert.assertEquals(6, source.getDrainedEvents());
+    long lastTimestamp = 0;
+    int countOfA = 0;
+    for (FileAccessEvent event : events) {
+      Assert.assertTrue(event.getTimestamp() >= lastTimestamp);
+      lastTimestamp = event.getTimestamp();
+      if (event.getPath().equals("/a")) {
+        countOfA += event.getCount();
+        if (event.getTimestamp() == 1000L) {
+          // The user is kept
+          Assert.assertEquals(event.getAccessedBy().equals("u1") ? 2 : 1, event.getCount());
+        }
+      }
+    }
+    Assert.assertEquals(4, countOfA);
+    // Watermark at the end
+    FileAccessEvent watermark = events.get(events.size() - 1);
+    Assert.assertTrue(watermark.getPath().isEmpty());
+
+    // Late events are moved after the watermark rather than lost
+    source.insertEventFromSmartClient(new FileAccessEvent("/c", 1000L, "u1"));
+    events = source.getCollector().collect();
+    Assert.assertEquals(2, events.size());
+    Assert.assertEquals("/c", events.get(0).getPath());
+    Assert.assertEquals("u1", events.get(0).getAccessedBy());
+    Assert.assertTrue(events.get(0).getTimestamp() >= watermark.getTimestamp());
+  }
+
+  @Test
+  public void testConcurrentInsertAndDrain() throws Exception {
+    final SmartServerAccessEventSource source = new SmartServerAccessEventSource(64);
+    final int producers = 4;
+    final int perProducer = 100000;
+    List<Thread> threads = new ArrayList<>();
+    for (int p = 0; p < producers; p++) {
+      Thread thread = new Thread() {
+        @Override
+        public void run() {
+          for (int i = 0; i < perProducer; i++) {
+            source.insertEventFromSmartClient(
+                new FileAccessEvent("/f" + (i % 16), 1000L + i / 1000, ""));
+          }
+        }
+      };
+      threads.add(thread);
+      thread.start();
+    }
+    long collected = 0;
+    boolean running = true;
+    while (running) {
+      running = false;
+      for (Thread thread : threads) {
+        running |= thread.isAlive();
+      }
+      for (FileAccessEvent event : source.getCollector().collect()) {
+        if (!event.getPath().isEmpty()) {
+          collected += event.getCount();
+        }
+      }
+    }
+    // No count is lost or counted twice
+    Assert.assertEquals((long) producers * perProducer,
+        source.getEnqueuedEvents() + source.getDroppedEvents());
+    Assert.assertEquals(source.getEnqueuedEvents(), collected);
+    Assert.assertEquals(collected, source.getDrainedEvents());
+  }
+}
@@ -84,6 +84,9 @@ public class FileObject extends SmartObject {
     PROPERTIES.put("inCache",
         new Property("inCache", ValueType.BOOLEAN,
             null, "cached_file", null, false));
+    PROPERTIES.put("cachedBytes",
+        new Property("cachedBytes", ValueType.LONG,
+            null, "cached_file", "bytes_cached", false));
     PROPERTIES.put("age",
         new Property("age", ValueType.TIMEINTVAL,
             null, "file", null, false,
@@ -21,6 +21,7 @@
 import org.antlr.v4.runtime.ParserRuleContext;
 import org.antlr.v4.runtime.misc.Interval;
 import org.smartdata.model.CmdletDescriptor;
+import org.smartdata.model.FileEventType;
 import org.smartdata.model.rule.TimeBasedScheduleInfo;
 import org.smartdata.model.rule.TranslateResult;
 import org.smartdata.rule.exceptions.RuleParserException;
@@ -50,6 +51,7 @@ public class SmartRuleVisitTranslator extends SmartRuleBaseVisitor<TreeNode> {
   private List<PropertyRealParas> realParases = new LinkedList<>();
 
   private TimeBasedScheduleInfo timeBasedScheduleInfo = null;
+  private FileEventType triggerEvent = null;
   private CmdletDescriptor cmdDescriptor = null;
   private TranslationContext transCtx = null;
   private int[] condPostion;
@@ -132,7 +134,14 @@ public TreeNode visitTriCycle(SmartRuleParser.TriCycleContext ctx) {
 
   @Override
   public TreeNode visitTriFileEvent(SmartRuleParser.TriFileEventContext ctx) {
-    return visitChildren(ctx);
+    triggerEvent = FileEventType.fromRuleName(ctx.fileEvent().getText());
+    // Rule is checked when triggered, the interval is not used
+    timeBasedScheduleInfo =
+        new TimeBasedScheduleInfo(getTimeNow(), TimeBasedScheduleInfo.FOR_EVER, 0);
+    if (ctx.duringexpr() != null) {
+      visit(ctx.duringexpr());
+    }
+    return null;
   }
 
   // duringexpr : FROM timepointexpr (TO timepointexpr)? ;
@@ -676,7 +685,7 @@ public TranslateResult generateSql() throws IOException {
     sqlStatements.add(ret);
     setDefaultTimeBasedScheduleInfo();
 
-    return new TranslateResult(
+    TranslateResult result = new TranslateResult(
         sqlStatements,
         tempTableNames,
         dynamicParameters,
@@ -685,6 +694,8 @@ public TranslateResult generateSql() throws IOException {
         cmdDescriptor,
         condPostion,
         pathCheckGlob);
+    result.setTriggerEvent(triggerEvent);
+    return result;
   }
 
   private class NodeTransResult {
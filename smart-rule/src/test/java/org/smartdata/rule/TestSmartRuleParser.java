@@ -69,6 +69,7 @@ public void testValidRule() throws Exception {
         + "and storage.free(\"SSD\") > 100 | cache");
     rules.add("file with length > 3 : "
         + "storage.free(\"SSD\") > 100 and not inCache | cache");
+    rules.add("file : inCache and cachedBytes < 1MB | uncache");
     rules.add("file : accessCount(10min) > 20 | cache");
     rules.add("file: every 5s from now to now + 10d | length > 3 | cache");
     rules.add("file: every 5s | length > 100mb | onessd");
@@ -17,7 +17,9 @@
  */
 package org.smartdata.rule;
 
+import org.junit.Assert;
 import org.junit.Test;
+import org.smartdata.model.FileEventType;
 import org.smartdata.model.rule.TranslateResult;
 import org.smartdata.rule.parser.SmartRuleStringParser;
 import org.smartdata.rule.parser.TranslationContext;
@@ -49,7 +51,18 @@ public void testRuleTranslate() throws Exception {
     }
   }
 
-  private void parseRule(String rule) throws Exception {
+  @Test
+  public void testFileEventTrigger() throws Exception {
+    TranslateResult tr = parseRule(
+        "file : on FileCreate | path matches \"/src/*\" | sleep -ms 0");
+    Assert.assertTrue(tr.isEventBased());
+    Assert.assertEquals(FileEventType.CREATE, tr.getTriggerEvent());
+
+    tr = parseRule("file : every 1min | path matches \"/src/*\" | sleep -ms 0");
+    Assert.assertFalse(tr.isEventBased());
+  }
+
+  private TranslateResult parseRule(String rule) throws Exception {
     TranslationContext tc = new TranslationContext(1, System.currentTimeMillis());
     SmartRuleStringParser parser = new SmartRuleStringParser(rule, tc);
     TranslateResult tr = parser.translate();
@@ -60,5 +73,6 @@ private void parseRule(String rule) throws Exception {
       System.out.println("\t" + index + ". " + sql);
       index++;
     }
+    return tr;
   }
 }
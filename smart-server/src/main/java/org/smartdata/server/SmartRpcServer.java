@@ -248,6 +248,13 @@ public void reportFileAccessEvent(FileAccessEvent event)
     ssm.getStatesManager().reportFileAccessEvent(event);
   }
 
+  @Override
+  public void reportFileAccessEvents(List<FileAccessEvent> events)
+      throws IOException {
+    checkIfActive();
+    ssm.getStatesManager().reportFileAccessEvents(events);
+  }
+
   @Override
   public long submitCmdlet(String cmd) throws IOException {
     checkIfActive();
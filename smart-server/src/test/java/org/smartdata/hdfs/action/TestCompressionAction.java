@@ -0,0 +1,162 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.hdfs.action;
+
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSInputStream;
+import org.junit.Assert;
+import org.junit.Test;
+import org.smartdata.SmartConstants;
+import org.smartdata.hdfs.client.SmartDFSClient;
+import org.smartdata.server.MiniSmartClusterHarness;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+public class TestCompressionAction extends MiniSmartClusterHarness {
+
+  private byte[] createFile(String path, int length) throws Exception {
+    byte[] data = new byte[length];
+    Random random = new Random(2018);
+    // Compressible data
+    for (int i = 0; i < length; i++) {
+      data[i] = (byte) (random.nextInt(8) + 'a');
+    }
+    FSDataOutputStream out = dfs.create(new Path(path), (short) 1);
+    out.write(data);
+    out.close();
+    return data;
+  }
+
+  private void runAction(HdfsAction action, Map<String, String> args) throws Exception {
+    action.setDfsClient(dfsClient);
+    action.setContext(smartContext);
+    action.init(args);
+    action.run();
+    Assert.assertTrue(action.getExpectedAfterRun());
+  }
+
+  @Test
+  public void testCompressAndDecompress() throws Exception {
+    waitTillSSMExitSafeMode();
+    String path = "/test/compression/file";
+    int bufSize = 1000;
+    byte[] data = createFile(path, 10500);
+
+    Map<String, String> args = new HashMap<>();
+    args.put(HdfsAction.FILE_PATH, path);
+    args.put(CompressionAction.BUF_SIZE, String.valueOf(bufSize));
+    runAction(new CompressionAction(), args);
+
+    String compressedFile = SmartConstants.SMART_COMPRESSED_FILE_DIR + path;
+    Assert.assertEquals(0, dfsClient.getFileInfo(path).getLen());
+    Assert.assertTrue(dfsClient.getFileInfo(compressedFile).getLen() < data.length);
+
+    SmartDFSClient smartDFSClient = new SmartDFSClient(smartContext.getConf());
+    Assert.assertEquals(data.length, smartDFSClient.getFileInfo(path).getLen());
+    DFSInputStream in = smartDFSClient.open(path);
+    try {
+      Assert.assertEquals(data.length, in.getFileLength());
+      // Sequential read
+      byte[] read = new byte[data.length];
+      int off = 0;
+      int n;
+      while ((n = in.read(read, off, Math.min(700, read.length - off))) > 0) {
+        off += n;
+      }
+      Assert.assertEquals(data.length, off);
+      Assert.assertArrayEquals(data, read);
+      Assert.assertEquals(-1, in.read());
+
+      // Positional read across chunks
+      byte[] buf = new byte[2500];
+      Assert.assertEquals(buf.length, in.read(3900, buf, 0, buf.length));
+      Assert.assertArrayEquals(Arrays.copyOfRange(data, 3900, 6400), buf);
+      Assert.assertEquals(100, in.read(10400, buf, 0, buf.length));
+      Assert.assertEquals(-1, in.read(data.length, buf, 0, buf.length));
+
+      // Seek
+      in.seek(8999);
+      Assert.assertEquals(8999, in.getPos());
+      Assert.assertEquals(data[8999] & 0xff, in.read());
+      Assert.assertEquals(data[9000] & 0xff, in.read());
+      Assert.assertEquals(data.length - 9001, in.available());
+    } finally {
+      in.close();
+    }
+
+    // Compressed again
+    CompressionAction again = new CompressionAction();
+    again.setDfsClient(dfsClient);
+    again.setContext(smartContext);
+    again.init(args);
+    again.run();
+    Assert.assertFalse(again.getExpectedAfterRun());
+
+    args = new HashMap<>();
+    args.put(HdfsAction.FILE_PATH, path);
+    runAction(new DecompressionAction(), args);
+
+    Assert.assertEquals(data.length, dfsClient.getFileInfo(path).getLen());
+    Assert.assertFalse(dfsClient.exists(compressedFile));
+    Assert.assertFalse(dfsClient.getXAttrs(path)
+        .containsKey(SmartConstants.SMART_FILE_STATE_XATTR_NAME));
+    in = dfsClient.open(path);
+    try {
+      byte[] read = new byte[data.length];
+      in.readFully(0, read);
+      Assert.assertArrayEquals(data, read);
+    } finally {
+      in.close();
+    }
+  }
+
+  @Test
+  public void testChunkIndexTooLarge() throws Exception {
+    waitTillSSMExitSafeMode();
+    String path = "/test/compression/large_index";
+    // More chunk offsets than the XAttr size limit holds
+    byte[] data = createFile(path, 3000);
+
+    Map<String, String> args = new HashMap<>();
+    args.put(HdfsAction.FILE_PATH, path);
+    args.put(CompressionAction.BUF_SIZE, "1");
+    CompressionAction action = new CompressionAction();
+    action.setDfsClient(dfsClient);
+    action.setContext(smartContext);
+    action.init(args);
+    action.run();
+    Assert.assertFalse(action.getExpectedAfterRun());
+
+    Assert.assertFalse(dfsClient.exists(SmartConstants.SMART_COMPRESSED_FILE_DIR + path));
+    Assert.assertFalse(dfsClient.getXAttrs(path)
+        .containsKey(SmartConstants.SMART_FILE_STATE_XATTR_NAME));
+    DFSInputStream in = dfsClient.open(path);
+    try {
+      Assert.assertEquals(data.length, in.getFileLength());
+      byte[] read = new byte[data.length];
+      in.readFully(0, read);
+      Assert.assertArrayEquals(data, read);
+    } finally {
+      in.close();
+    }
+  }
+}
@@ -18,18 +18,27 @@
 package org.smartdata.hdfs.client;
 
 import com.google.gson.Gson;
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.BlockLocation;
 import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.DFSInputStream;
 import org.apache.hadoop.hdfs.protocol.HdfsFileStatus;
+import org.apache.hadoop.security.AccessControlException;
+import org.apache.hadoop.security.UserGroupInformation;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
+import org.smartdata.hdfs.SmallFileReadBenchmark;
 import org.smartdata.hdfs.action.SmallFileCompactAction;
 import org.smartdata.server.MiniSmartClusterHarness;
 
+import java.security.PrivilegedExceptionAction;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -91,6 +100,160 @@ public void test() throws Exception {
     Assert.assertTrue(!dfsClient.exists("/test/small_files/file_1"));
   }
 
+  @Test
+  public void testSmallFileMetaCache() throws Exception {
+    waitTillSSMExitSafeMode();
+    SmartDFSClient smartDFSClient = new SmartDFSClient(smartContext.getConf());
+    SmallFileMetaCache cache = SmallFileMetaCache.get(smartContext.getConf(),
+        UserGroupInformation.getCurrentUser().getShortUserName(),
+        smartDFSClient.getCanonicalServiceName());
+    long misses = cache.getMisses();
+    long hits = cache.getHits();
+    byte[] expected = readFile(smartDFSClient, "/test/small_files/file_1");
+    Assert.assertEquals(9, expected.length);
+    readFile(smartDFSClient, "/test/small_files/file_0");
+    Assert.assertEquals(misses + 2, cache.getMisses());
+    Assert.assertTrue(cache.isContainer("/test/small_files/container_file_3"));
+
+    // Opened with the cached state and container blocks
+    Assert.assertArrayEquals(expected, readFile(smartDFSClient, "/test/small_files/file_1"));
+    Assert.assertEquals(hits + 1, cache.getHits());
+
+    smartDFSClient.delete("/test/small_files/file_1", false);
+    Assert.assertNull(cache.getFileState("/test/small_files/file_1"));
+    Assert.assertNotNull(cache.getFileState("/test/small_files/file_0"));
+    smartDFSClient.close();
+  }
+
+  @Test
+  public void testSmallFileMetaCachePermission() throws Exception {
+    waitTillSSMExitSafeMode();
+    final String path = "/test/small_files/file_1";
+    dfs.setOwner(new Path(path), "user1", "group1");
+    dfs.setPermission(new Path(path), new FsPermission((short) 0400));
+    UserGroupInformation user1 =
+        UserGroupInformation.createUserForTesting("user1", new String[] {"group1"});
+    final SmartDFSClient client = user1.doAs(
+        new PrivilegedExceptionAction<SmartDFSClient>() {
+          @Override
+          public SmartDFSClient run() throws Exception {
+            return new SmartDFSClient(smartContext.getConf());
+          }
+        });
+    final SmallFileMetaCache cache = SmallFileMetaCache.get(smartContext.getConf(),
+        "user1", client.getCanonicalServiceName());
+    Assert.assertNotSame(cache, SmallFileMetaCache.get(smartContext.getConf(),
+        UserGroupInformation.getCurrentUser().getShortUserName(),
+        client.getCanonicalServiceName()));
+    try {
+      user1.doAs(new PrivilegedExceptionAction<Void>() {
+        @Override
+        public Void run() throws Exception {
+          Assert.assertEquals(9, readFile(client, path).length);
+          Assert.assertNotNull(cache.getFileState(path));
+
+          // Not allowed any more though the state is cached
+          dfs.setPermission(new Path(path), new FsPermission((short) 0000));
+          try {
+            client.open(path);
+            Assert.fail("Should not open " + path + " without permission");
+          } catch (AccessControlException e) {
+            // Expected
+          }
+          return null;
+        }
+      });
+    } finally {
+      client.close();
+    }
+  }
+
+  @Test
+  public void testCompactedFileRead() throws Exception {
+    waitTillSSMExitSafeMode();
+    SmartDFSClient smartDFSClient = new SmartDFSClient(smartContext.getConf());
+    byte[] expected = readFile(smartDFSClient, "/test/small_files/file_0");
+    DFSInputStream in = smartDFSClient.open("/test/small_files/file_0");
+    try {
+      byte[] buf = new byte[20];
+      Assert.assertEquals(6, in.read(3, buf, 0, buf.length));
+      Assert.assertArrayEquals(Arrays.copyOfRange(expected, 3, 9), Arrays.copyOf(buf, 6));
+      Assert.assertEquals(-1, in.read(9, buf, 0, buf.length));
+      in.seek(7);
+      Assert.assertEquals(7, in.getPos());
+      Assert.assertEquals(2, in.read(buf, 0, buf.length));
+      Assert.assertEquals(-1, in.read(buf, 0, buf.length));
+      Assert.assertEquals(9, in.getFileLength());
+    } finally {
+      in.close();
+    }
+    smartDFSClient.close();
+
+    // file_2 is not compacted
+    Assert.assertEquals(9, SmallFileReadBenchmark.performBench(
+        dfsClient, "/test/small_files/file_2", "/test/small_files/file_0", 100, 4));
+  }
+
+  // Hedged reads of the container retry forever if they fail
+  @Test(timeout = 120000)
+  public void testCompactedFileHedgedRead() throws Exception {
+    waitTillSSMExitSafeMode();
+    // The last small file is in the second block of the container
+    List<String> smallFileList = new ArrayList<>();
+    byte[] expected = new byte[30];
+    for (int i = 0; i < 3; i++) {
+      String fileName = "/test/small_files/hedged_" + i;
+      new Random(i).nextBytes(expected);
+      FSDataOutputStream out = dfs.create(new Path(fileName), (short) 1);
+      out.write(expected);
+      out.close();
+      smallFileList.add(fileName);
+    }
+    SmallFileCompactAction smallFileCompactAction = new SmallFileCompactAction();
+    smallFileCompactAction.setDfsClient(dfsClient);
+    smallFileCompactAction.setContext(smartContext);
+    Map<String, String> args = new HashMap<>();
+    args.put(SmallFileCompactAction.FILE_PATH, new Gson().toJson(smallFileList));
+    args.put(SmallFileCompactAction.CONTAINER_FILE, "/test/small_files/container_hedged");
+    smallFileCompactAction.init(args);
+    smallFileCompactAction.run();
+    Assert.assertTrue(smallFileCompactAction.isSuccessful());
+
+    Configuration conf = new Configuration(smartContext.getConf());
+    conf.setInt(DFSConfigKeys.DFS_DFSCLIENT_HEDGED_READ_THREADPOOL_SIZE, 2);
+    SmartDFSClient smartDFSClient = new SmartDFSClient(conf);
+    DFSInputStream in = smartDFSClient.open("/test/small_files/hedged_2");
+    try {
+      Assert.assertEquals(30, in.getFileLength());
+      byte[] buf = new byte[40];
+      Assert.assertEquals(25, in.read(5, buf, 0, buf.length));
+      Assert.assertArrayEquals(Arrays.copyOfRange(expected, 5, 30), Arrays.copyOf(buf, 25));
+      Assert.assertEquals(0, in.getPos());
+    } finally {
+      in.close();
+    }
+    Assert.assertArrayEquals(expected, readFile(smartDFSClient, "/test/small_files/hedged_2"));
+    smartDFSClient.close();
+  }
+
+  private byte[] readFile(SmartDFSClient client, String path) throws Exception {
+    DFSInputStream in = client.open(path);
+    try {
+      byte[] buf = new byte[(int) in.getFileLength()];
+      int off = 0;
+      while (off < buf.length) {
+        int n = in.read(buf, off, buf.length - off);
+        if (n < 0) {
+          break;
+        }
+        off += n;
+      }
+      return Arrays.copyOf(buf, off);
+    } finally {
+      in.close();
+    }
+  }
+
   @After
   public void tearDown() throws Exception {
     dfs.getClient().delete("/test", true);
@@ -17,10 +17,15 @@
  */
 package org.smartdata.server;
 
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.CommonConfigurationKeysPublic;
 import org.junit.Assert;
 import org.junit.Test;
+import org.smartdata.client.FileAccessEventBuffer;
 import org.smartdata.client.SmartClient;
+import org.smartdata.conf.SmartConfKeys;
 import org.smartdata.metastore.MetaStore;
+import org.smartdata.metrics.FileAccessEvent;
 import org.smartdata.model.FileState;
 import org.smartdata.model.NormalFileState;
 
@@ -44,4 +49,36 @@ public void testGetFileState() throws Exception {
     fileState1 = client.getFileState(path);
     Assert.assertEquals(fileState, fileState1);
   }
+
+  @Test
+  public void testBatchedAccessEvents() throws Exception {
+    waitTillSSMExitSafeMode();
+
+    Configuration conf = new Configuration(smartContext.getConf());
+    // Do not leave an idle connection to this server cached for other tests
+    conf.setInt(CommonConfigurationKeysPublic.IPC_CLIENT_CONNECTION_MAXIDLETIME_KEY, 1000);
+    conf.setBoolean(SmartConfKeys.SMART_CLIENT_ACCESS_EVENT_BATCH_ENABLED_KEY, true);
+    conf.setInt(SmartConfKeys.SMART_CLIENT_ACCESS_EVENT_BATCH_SIZE_KEY, 2);
+    conf.setInt(SmartConfKeys.SMART_CLIENT_ACCESS_EVENT_BUFFER_CAPACITY_KEY, 4);
+    conf.setLong(SmartConfKeys.SMART_CLIENT_ACCESS_EVENT_BATCH_INTERVAL_MS_KEY, 100000L);
+    SmartClient client = new SmartClient(conf);
+    FileAccessEventBuffer buffer = client.getAccessEventBuffer();
+    Assert.assertNotNull(buffer);
+    for (int i = 0; i < 10; i++) {
+      client.reportFileAccessEvent(new FileAccessEvent("/file1", "user"));
+    }
+    Assert.assertEquals(1, buffer.size());
+
+    client.reportFileAccessEvent(new FileAccessEvent("/file2", "user"));
+    // Batch size reached, reported asynchronously
+    for (int i = 0; i < 100 && buffer.getReportedEvents() < 11; i++) {
+      Thread.sleep(100);
+    }
+    Assert.assertEquals(11, buffer.getReportedEvents());
+    Assert.assertEquals(0, buffer.getDroppedEvents());
+
+    client.reportFileAccessEvent(new FileAccessEvent("/file3", "user"));
+    client.close();
+    Assert.assertEquals(12, buffer.getReportedEvents());
+  }
 }
@@ -24,8 +24,10 @@
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
 import org.smartdata.action.ActionRegistry;
 import org.smartdata.conf.SmartConf;
+import org.smartdata.conf.SmartConfKeys;
 import org.smartdata.metastore.MetaStore;
 import org.smartdata.metastore.MetaStoreException;
 import org.smartdata.model.ActionInfo;
@@ -37,12 +39,15 @@
 import org.smartdata.protocol.message.StatusReport;
 import org.smartdata.server.MiniSmartClusterHarness;
 import org.smartdata.server.engine.cmdlet.CmdletDispatcher;
+import org.smartdata.server.engine.cmdlet.CmdletJournal;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.List;
 
 import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -50,6 +55,7 @@
 
 public class TestCmdletManager extends MiniSmartClusterHarness {
   @Rule public ExpectedException thrown = ExpectedException.none();
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
 
   private CmdletDescriptor generateCmdletDescriptor(String cmd) throws Exception {
     CmdletDescriptor cmdletDescriptor = new CmdletDescriptor(cmd);
@@ -177,8 +183,8 @@ public void testWithoutCluster() throws MetaStoreException, IOException, Interru
     cmdletManager.start();
     cmdletManager.submitCmdlet("echo");
     Thread.sleep(500);
-    verify(metaStore, times(1)).insertCmdlets(any(CmdletInfo[].class));
-    verify(metaStore, times(1)).insertActions(any(ActionInfo[].class));
+    verify(metaStore, times(1)).upsertCmdletsAndActions(
+        any(CmdletInfo[].class), any(ActionInfo[].class));
     Thread.sleep(500);
 
     long startTime = System.currentTimeMillis();
@@ -212,12 +218,43 @@ public void testWithoutCluster() throws MetaStoreException, IOException, Interru
         new CmdletStatusUpdate(cmdletId, System.currentTimeMillis(), CmdletState.DONE));
     Assert.assertEquals(info.getState(), CmdletState.DONE);
     Thread.sleep(500);
-    verify(metaStore, times(2)).insertCmdlets(any(CmdletInfo[].class));
-    verify(metaStore, times(2)).insertActions(any(ActionInfo[].class));
+    verify(metaStore, times(2)).upsertCmdletsAndActions(
+        any(CmdletInfo[].class), any(ActionInfo[].class));
 
     cmdletManager.stop();
   }
 
+  @Test
+  public void testSyncFailure() throws Exception {
+    MetaStore metaStore = mock(MetaStore.class);
+    when(metaStore.getMaxCmdletId()).thenReturn(10L);
+    when(metaStore.getMaxActionId()).thenReturn(101L);
+    doThrow(new MetaStoreException("Injected")).doNothing()
+        .when(metaStore).upsertCmdletsAndActions(
+            any(CmdletInfo[].class), any(ActionInfo[].class));
+    CmdletDispatcher dispatcher = mock(CmdletDispatcher.class);
+    SmartConf conf = new SmartConf();
+    File journalDir = folder.newFolder();
+    conf.set(SmartConfKeys.SMART_CMDLET_JOURNAL_DIR_KEY, journalDir.getAbsolutePath());
+    conf.setLong(SmartConfKeys.SMART_CMDLET_SYNC_INTERVAL_MS_KEY, 200L);
+    CmdletManager cmdletManager = new CmdletManager(new ServerContext(conf, metaStore));
+    cmdletManager.init();
+    cmdletManager.setDispatcher(dispatcher);
+
+    cmdletManager.start();
+    cmdletManager.submitCmdlet("echo");
+    Thread.sleep(1000);
+    // The failed batch is written again by the next pass
+    verify(metaStore, times(2)).upsertCmdletsAndActions(
+        any(CmdletInfo[].class), any(ActionInfo[].class));
+    cmdletManager.stop();
+
+    // The journal is only purged after the batch is written
+    CmdletJournal journal = new CmdletJournal(journalDir);
+    Assert.assertEquals(0, journal.recover().size());
+    journal.close();
+  }
+
   @Test(timeout = 40000)
   public void testReloadCmdletsInDB() throws Exception {
     waitTillSSMExitSafeMode();
@@ -0,0 +1,80 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.smartdata.server.engine.cmdlet;
+
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.Path;
+import org.junit.Assert;
+import org.junit.Test;
+import org.smartdata.metastore.MetaStore;
+import org.smartdata.model.CmdletState;
+import org.smartdata.model.FileInfo;
+import org.smartdata.server.MiniSmartClusterHarness;
+import org.smartdata.server.engine.CmdletManager;
+
+public class TestCacheScheduler extends MiniSmartClusterHarness {
+
+  private void waitCmdlet(long cmdId) throws Exception {
+    CmdletManager cmdletManager = ssm.getCmdletManager();
+    while (true) {
+      CmdletState state = cmdletManager.getCmdletInfo(cmdId).getState();
+      if (state == CmdletState.DONE) {
+        return;
+      }
+      Assert.assertFalse(CmdletState.isTerminalState(state));
+      Thread.sleep(500);
+    }
+  }
+
+  // The action may be reported finished after the cmdlet
+  private void waitCached(long fid, boolean cached) throws Exception {
+    MetaStore metaStore = ssm.getMetaStore();
+    while (metaStore.getCachedFids().contains(fid) != cached) {
+      Thread.sleep(200);
+    }
+  }
+
+  @Test(timeout = 120000)
+  public void testCachedListUpdated() throws Exception {
+    waitTillSSMExitSafeMode();
+    MetaStore metaStore = ssm.getMetaStore();
+    String path = "/test/cache/file";
+    FSDataOutputStream out = dfs.create(new Path(path));
+    out.writeChars("testCache");
+    out.close();
+    FileInfo fileInfo;
+    while ((fileInfo = metaStore.getFile(path)) == null) {
+      Thread.sleep(500);
+    }
+    long fid = fileInfo.getFileId();
+
+    CmdletManager cmdletManager = ssm.getCmdletManager();
+    waitCmdlet(cmdletManager.submitCmdlet("cache -file " + path));
+    waitCached(fid, true);
+    Assert.assertEquals(path, metaStore.getCachedFileStatus(fid).getPath());
+
+    waitCmdlet(cmdletManager.submitCmdlet("uncache -file " + path));
+    waitCached(fid, false);
+
+    // Removed from the list when the file is deleted
+    waitCmdlet(cmdletManager.submitCmdlet("cache -file " + path));
+    waitCached(fid, true);
+    dfs.delete(new Path(path), false);
+    waitCached(fid, false);
+  }
+}
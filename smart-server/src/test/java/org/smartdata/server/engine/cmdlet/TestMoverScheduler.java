@@ -22,10 +22,18 @@
 import org.apache.hadoop.hdfs.DistributedFileSystem;
 import org.junit.Assert;
 import org.junit.Test;
+import org.smartdata.hdfs.metric.fetcher.DatanodeStorageReportProcTask;
+import org.smartdata.hdfs.metric.fetcher.MovePlanMaker;
+import org.smartdata.hdfs.metric.fetcher.MovePlanMaker.PlanRequest;
+import org.smartdata.hdfs.scheduler.MovePlanStatistics;
 import org.smartdata.model.CmdletState;
+import org.smartdata.model.action.FileMovePlan;
 import org.smartdata.server.MiniSmartClusterHarness;
 import org.smartdata.server.engine.CmdletManager;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public class TestMoverScheduler extends MiniSmartClusterHarness {
 
   @Test(timeout = 40000)
@@ -54,4 +62,57 @@ public void testScheduler() throws Exception {
       }
     }
   }
+
+  @Test(timeout = 60000)
+  public void testBatchPlan() throws Exception {
+    waitTillSSMExitSafeMode();
+
+    DistributedFileSystem fs = cluster.getFileSystem();
+    List<PlanRequest> requests = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      String file = "/batch/file_" + i;
+      DFSTestUtil.createFile(fs, new Path(file), DEFAULT_BLOCK_SIZE, (short) 3, 100);
+      requests.add(new PlanRequest(file, "ALL_SSD", i));
+    }
+    requests.add(new PlanRequest("/batch/none", "ALL_SSD", 5));
+
+    DatanodeStorageReportProcTask task =
+        new DatanodeStorageReportProcTask(dfsClient, smartContext.getConf());
+    task.run();
+    MovePlanMaker planMaker = new MovePlanMaker(dfsClient, task.getStorages(),
+        task.getNetworkTopology(), new MovePlanStatistics(), 3);
+    try {
+      List<FileMovePlan> plans = planMaker.processNamespace(requests);
+      Assert.assertEquals(6, plans.size());
+      Assert.assertNull(plans.get(5));
+      for (int i = 0; i < 5; i++) {
+        FileMovePlan plan = plans.get(i);
+        Assert.assertEquals("/batch/file_" + i, plan.getFileName());
+        Assert.assertEquals(3, plan.getBlockIds().size());
+        Assert.assertEquals(3, planMaker.getReservations().getPendingMovesOfPlan(i));
+        planMaker.releasePlan(i);
+      }
+      Assert.assertEquals(0, planMaker.getReservations().size());
+    } finally {
+      planMaker.close();
+    }
+
+    // Planned ahead when submitted
+    CmdletManager cmdletManager = ssm.getCmdletManager();
+    List<Long> cmdIds = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      cmdIds.add(cmdletManager.submitCmdlet("allssd -file /batch/file_" + i));
+    }
+    for (long cmdId : cmdIds) {
+      while (true) {
+        Thread.sleep(500);
+        CmdletState state = cmdletManager.getCmdletInfo(cmdId).getState();
+        if (state == CmdletState.DONE) {
+          break;
+        } else if (state == CmdletState.FAILED) {
+          Assert.fail("Mover failed.");
+        }
+      }
+    }
+  }
 }
@@ -19,14 +19,19 @@
 
 import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IOUtils;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
+import org.smartdata.hdfs.client.SmartDFSClient;
+import org.smartdata.metastore.ContainerFileIndex;
 import org.smartdata.model.CmdletState;
 import org.smartdata.server.MiniSmartClusterHarness;
 import org.smartdata.server.engine.CmdletManager;
 
+import java.io.InputStream;
+import java.util.List;
 import java.util.Random;
 
 public class TestSmallFileScheduler extends MiniSmartClusterHarness {
@@ -89,6 +94,60 @@ public void testScheduler() throws Exception {
     }
   }
 
+  private CmdletState waitCmdlet(CmdletManager cmdletManager, long cmdId)
+      throws Exception {
+    while (true) {
+      Thread.sleep(1000);
+      CmdletState state = cmdletManager.getCmdletInfo(cmdId).getState();
+      if (CmdletState.isTerminalState(state)) {
+        return state;
+      }
+    }
+  }
+
+  @Test(timeout = 180000)
+  public void testDefrag() throws Exception {
+    waitTillSSMExitSafeMode();
+
+    Thread.sleep(2000);
+    String containerFile = "/test/small_files/container_file_2";
+    byte[] expected = new byte[(int) dfsClient.getFileInfo(
+        "/test/small_files/file_1").getLen()];
+    try (InputStream in = dfsClient.open("/test/small_files/file_1")) {
+      IOUtils.readFully(in, expected, 0, expected.length);
+    }
+    CmdletManager cmdletManager = ssm.getCmdletManager();
+    long cmdId = cmdletManager.submitCmdlet("compact -file "
+        + "['/test/small_files/file_0','/test/small_files/file_1'] "
+        + "-containerFile " + containerFile);
+    Assert.assertEquals(CmdletState.DONE, waitCmdlet(cmdletManager, cmdId));
+
+    // Wait till the small files are indexed, then kill the range of file_0
+    ContainerFileIndex index = ssm.getMetaStore().getContainerFileIndex();
+    while (index.getLiveBytes(containerFile) != sumFileLen) {
+      Thread.sleep(500);
+    }
+    dfs.delete(new Path("/test/small_files/file_0"), false);
+    while (index.getLiveBytes(containerFile) == sumFileLen) {
+      Thread.sleep(500);
+    }
+
+    cmdId = cmdletManager.submitCmdlet("defrag -containerFile " + containerFile);
+    Assert.assertEquals(CmdletState.DONE, waitCmdlet(cmdletManager, cmdId));
+    Assert.assertFalse(dfsClient.exists(containerFile));
+    List<String> containerFiles = index.getContainerFiles();
+    Assert.assertEquals(1, containerFiles.size());
+    Assert.assertEquals(expected.length,
+        dfsClient.getFileInfo(containerFiles.get(0)).getLen());
+
+    SmartDFSClient smartDFSClient = new SmartDFSClient(smartContext.getConf());
+    byte[] actual = new byte[expected.length];
+    try (InputStream in = smartDFSClient.open("/test/small_files/file_1")) {
+      IOUtils.readFully(in, actual, 0, actual.length);
+    }
+    Assert.assertArrayEquals(expected, actual);
+  }
+
   @After
   public void tearDown() throws Exception {
     dfs.getClient().delete("/test", true);
@@ -21,7 +21,6 @@
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.smartdata.conf.SmartConfKeys;
-import org.smartdata.metastore.dao.AccessCountTable;
 import org.smartdata.metastore.utils.Constants;
 import org.smartdata.server.SmartEngine;
 import org.smartdata.server.rest.message.JsonResponse;
@@ -32,7 +31,6 @@
 import javax.ws.rs.Produces;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
-import java.util.List;
 
 /**
  * Cluster APIs.
@@ -83,10 +81,9 @@ public Response cachedFiles() {
   @Path("/primary/hotfiles")
   public Response hotFiles() {
     try {
-      List<AccessCountTable> tables =
-          smartEngine.getStatesManager().getTablesInLast(Constants.ONE_HOUR_IN_MILLIS);
       return new JsonResponse<>(Response.Status.OK,
-          smartEngine.getStatesManager().getHotFiles(tables, 0)).build();
+          smartEngine.getStatesManager().getHotFilesInLast(
+              Constants.ONE_HOUR_IN_MILLIS, 0)).build();
     } catch (Exception e) {
       logger.error("Exception in ClusterRestApi while listing hot files", e);
       return new JsonResponse<>(Response.Status.INTERNAL_SERVER_ERROR,